@@ -0,0 +1,51 @@
+package benchmark;
+
+import repository.BinaryUserDataRepository;
+import repository.UserDataRepository;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Хранилище в бинарных файлах, отображённых в память. Те же замеры, что у CsvRepositoryBenchmark
+ * и DataBaseRepositoryBenchmark, поэтому три хранилища сравниваются одним запуском:
+ * gradle jmh -Pjmh.includes=RepositoryBenchmark
+ * Файлы создаются в build/jmh-work/data/binary.
+ */
+public class BinaryRepositoryBenchmark extends RepositoryBenchmark {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    @Override
+    protected UserDataRepository createRepository() {
+        return new BinaryUserDataRepository();
+    }
+
+    @Override
+    protected void seedHistory(LocalDateTime historyStart) {
+        // История пишется сразу в файл чата, как при переносе из CSV
+        List<String[]> records = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            LocalDateTime startAt = historyStart.plusMinutes(30L * i);
+            records.add(new String[]{"WORK", "25", startAt.format(FORMATTER), startAt.plusMinutes(25).format(FORMATTER), "true"});
+        }
+        ((BinaryUserDataRepository) repository).writeSessionRecords(chatId, records);
+    }
+
+    @Override
+    protected void cleanUp() throws Exception {
+        String chatIdText = String.valueOf(chatId);
+        for (String dir : new String[]{"data/binary", "data/achievements"}) {
+            File[] files = new File(dir).listFiles((parent, name) -> name.contains(chatIdText));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package benchmark;
+
+import achievement.AchievementEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import repository.CsvUserDataRepository;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Параллельная запись в CSV-хранилище: 8 потоков запускают и закрывают сессии в chats чатах
+ * (8 - почти все записи соперничают за одни и те же чаты, 1024 - почти не соперничают).
+ * Операция - запуск сессии и её закрытие: завершение по таймеру или остановка, как у планировщика и /stop.
+ * После каждой итерации история перечитывается с диска новым экземпляром хранилища и сверяется со счётчиками:
+ * ни одна сессия не должна потеряться или остаться открытой, агрегаты должны совпасть с историей.
+ * Режим fsync сравнивает цену надёжности: без сброса, сброс каждой записи и групповой сброс.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+public class CsvConcurrencyBenchmark {
+
+    @Param({"none", "always", "group"})
+    public String fsync;
+
+    @Param({"8", "1024"})
+    public int chats;
+
+    private CsvUserDataRepository repository;
+    private long firstChatId;
+    private final Map<Long, LongAdder> started = new ConcurrentHashMap<>();
+    private final Map<Long, LongAdder> completed = new ConcurrentHashMap<>();
+    private final LocalDateTime clock = LocalDateTime.now();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // Отдельный диапазон чатов на каждую итерацию
+        firstChatId = -System.nanoTime();
+        started.clear();
+        completed.clear();
+        repository = new CsvUserDataRepository(AchievementEngine.withDefaultRules(), fsync);
+    }
+
+    @Benchmark
+    public void startAndClose() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long chatId = firstChatId - random.nextInt(chats);
+        LocalDateTime startAt = clock.plusMinutes(random.nextInt(100_000));
+        repository.recordSession(chatId, "WORK", 25, startAt);
+        started.computeIfAbsent(chatId, id -> new LongAdder()).increment();
+        if (random.nextInt(4) == 0) {
+            repository.markSessionStopped(chatId, startAt.plusMinutes(5));
+        } else {
+            repository.completeSession(chatId, "WORK", startAt.plusMinutes(25));
+            completed.computeIfAbsent(chatId, id -> new LongAdder()).increment();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void verifyAndCleanUp() throws Exception {
+        CsvUserDataRepository.SyncStats syncStats = repository.syncStats();
+        repository.close();
+        if (syncStats.syncCount() > 0) {
+            System.out.printf("%n%d writes shared %d fsync calls%n", syncStats.requestCount(), syncStats.syncCount());
+        }
+
+        try (CsvUserDataRepository reopened = new CsvUserDataRepository()) {
+            for (Map.Entry<Long, LongAdder> entry : started.entrySet()) {
+                long chatId = entry.getKey();
+                long expectedSessions = entry.getValue().sum();
+                LongAdder completedAdder = completed.get(chatId);
+                long expectedCompleted = completedAdder == null ? 0 : completedAdder.sum();
+
+                List<String[]> records = reopened.readSessionRecords(chatId);
+                long open = records.stream().filter(record -> record[3].isEmpty()).count();
+                long completedRecords = records.stream().filter(record -> "true".equals(record[4])).count();
+                if (records.size() != expectedSessions || open != 0 || completedRecords != expectedCompleted) {
+                    throw new IllegalStateException("chatId=" + chatId + ": ожидалось " + expectedSessions
+                            + " сессий, из них завершено " + expectedCompleted + "; в истории " + records.size()
+                            + ", завершено " + completedRecords + ", открыто " + open);
+                }
+                // Остановленные сессии тоже входят в статистику, поэтому циклов столько же, сколько сессий
+                if (!reopened.getStatistics(chatId).contains("Рабочих циклов: " + expectedSessions + "\n")) {
+                    throw new IllegalStateException("chatId=" + chatId + ": агрегаты не совпадают с историей: "
+                            + reopened.getStatistics(chatId));
+                }
+            }
+        }
+        cleanUp();
+    }
+
+    private void cleanUp() throws Exception {
+        for (String dir : new String[]{"data/sessions", "data/stats", "data/achievements"}) {
+            File[] files = new File(dir).listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                for (long chatId : started.keySet()) {
+                    if (name.startsWith(chatId + ".") || name.contains("_" + chatId + ".")) {
+                        Files.deleteIfExists(file.toPath());
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package benchmark;
+
+import repository.CsvUserDataRepository;
+import repository.UserDataRepository;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Хранилище в CSV. Файлы создаются в build/jmh-work/data (рабочий каталог задачи jmh).
+ */
+public class CsvRepositoryBenchmark extends RepositoryBenchmark {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    @Override
+    protected UserDataRepository createRepository() {
+        return new CsvUserDataRepository();
+    }
+
+    @Override
+    protected void seedHistory(LocalDateTime historyStart) {
+        // История пишется сразу снимком, без журнала - так 100 тысяч сессий создаются за секунды
+        List<String[]> records = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            LocalDateTime startAt = historyStart.plusMinutes(30L * i);
+            records.add(new String[]{"WORK", "25", startAt.format(FORMATTER), startAt.plusMinutes(25).format(FORMATTER), "true"});
+        }
+        ((CsvUserDataRepository) repository).writeSessionRecords(chatId, records);
+    }
+
+    @Override
+    protected void cleanUp() throws Exception {
+        String chatIdText = String.valueOf(chatId);
+        for (String dir : new String[]{"data/sessions", "data/stats"}) {
+            File[] files = new File(dir).listFiles((parent, name) -> name.contains(chatIdText));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+}
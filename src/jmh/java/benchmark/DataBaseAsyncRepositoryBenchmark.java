@@ -0,0 +1,153 @@
+package benchmark;
+
+import config.Config;
+import config.ConfigReaderEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import repository.DataBaseUserDataRepository;
+import repository.ExecutorAsyncUserDataRepository;
+import repository.SessionEvent;
+import repository.SessionHandle;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 10 000 пользователей одновременно проходят шаг pomodoro: запись рабочей сессии, её завершение по хэндлу и /stats.
+ * Операция - шаг одного пользователя.
+ * - blocking: обычное хранилище в пуле из PLATFORM_THREADS потоков, как обработчики обновлений и таймеров:
+ *   поток ждёт каждого запроса к БД
+ * - async: неблокирующее хранилище, все шаги поставлены сразу; с БД одновременно работают storageConcurrency
+ *   вызовов (STORAGE_CONCURRENCY, по умолчанию - DB_POOL_SIZE)
+ * После прогона проверяется, что каждая записанная сессия завершена.
+ * Нужна база с применёнными миграциями (DB_URL, DB_USER, DB_PASSWORD).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DataBaseAsyncRepositoryBenchmark {
+    private static final int USERS = 10_000;
+    private static final int PLATFORM_THREADS = 64;
+
+    @Param({"blocking", "async"})
+    public String mode;
+
+    private Config config;
+    private DataBaseUserDataRepository repository;
+    private ExecutorAsyncUserDataRepository asyncRepository;
+    private ExecutorService platformThreads;
+    private long firstChatId;
+    private LocalDateTime clock;
+    private int rounds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = new ConfigReaderEnvironment().read();
+        repository = new DataBaseUserDataRepository(config);
+        if ("async".equals(mode)) {
+            asyncRepository = new ExecutorAsyncUserDataRepository(repository, config.storageConcurrency());
+        } else {
+            platformThreads = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+        // Отдельный диапазон отрицательных chat_id: firstChatId и USERS - 1 чатов под ним
+        firstChatId = -System.currentTimeMillis() * 100_000;
+        clock = LocalDateTime.now().minusYears(1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(USERS)
+    public void pomodoroStep() {
+        // Каждый круг - на минуту позже предыдущего, чтобы сессии чата не совпадали по времени
+        LocalDateTime startAt = clock.plusMinutes(++rounds);
+        CompletableFuture<?>[] steps = new CompletableFuture<?>[USERS];
+        for (int i = 0; i < USERS; i++) {
+            long chatId = firstChatId - i;
+            steps[i] = "async".equals(mode) ? asyncStep(chatId, startAt) : blockingStep(chatId, startAt);
+        }
+        CompletableFuture.allOf(steps).join();
+    }
+
+    // Все три вызова ставятся сразу: порядок операций чата обеспечивает само хранилище
+    private CompletableFuture<String> asyncStep(long chatId, LocalDateTime startAt) {
+        SessionHandle session = SessionHandle.pending(chatId, "WORK", startAt);
+        asyncRepository.applyBatch(List.of(SessionEvent.record(session, 25)));
+        asyncRepository.completeSession(session, startAt.plusMinutes(25));
+        return asyncRepository.getStatistics(chatId);
+    }
+
+    private CompletableFuture<String> blockingStep(long chatId, LocalDateTime startAt) {
+        return CompletableFuture.supplyAsync(() -> {
+            SessionHandle session = repository.recordSession(chatId, "WORK", 25, startAt);
+            repository.completeSession(session, startAt.plusMinutes(25));
+            return repository.getStatistics(chatId);
+        }, platformThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void verifyAndCleanUp() throws Exception {
+        if (asyncRepository != null) {
+            // Закрывает и хранилище под собой
+            asyncRepository.close();
+        } else {
+            platformThreads.shutdown();
+            repository.close();
+        }
+        try (Connection connection = DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword())) {
+            verifyCompleted(connection);
+            for (String table : new String[]{"user_sessions", "user_statistics", "user_daily_statistics",
+                    "user_achievements", "user_achievement_progress"}) {
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "DELETE FROM " + table + " WHERE chat_id BETWEEN ? AND ?")) {
+                    ps.setLong(1, firstChatId - USERS + 1);
+                    ps.setLong(2, firstChatId);
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private void verifyCompleted(Connection connection) throws Exception {
+        try (PreparedStatement ps = connection.prepareStatement("""
+                SELECT COUNT(*) AS recorded, COUNT(*) FILTER (WHERE completed) AS completed
+                FROM user_sessions
+                WHERE chat_id BETWEEN ? AND ?
+                """)) {
+            ps.setLong(1, firstChatId - USERS + 1);
+            ps.setLong(2, firstChatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                long recorded = resultSet.getLong("recorded");
+                long completed = resultSet.getLong("completed");
+                System.out.printf("%nmode=%s: кругов %d, записано сессий %d, завершено %d%n",
+                        mode, rounds, recorded, completed);
+                if (recorded != (long) rounds * USERS || completed != recorded) {
+                    throw new IllegalStateException("Ожидалось " + (long) rounds * USERS
+                            + " записанных и завершённых сессий, записано " + recorded + ", завершено " + completed);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package benchmark;
+
+import config.Config;
+import config.ConfigReaderEnvironment;
+import repository.DataBaseUserDataRepository;
+import repository.SessionEvent;
+import repository.UserDataRepository;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Хранилище в PostgreSQL. Нужна база с применёнными миграциями, подключение берётся из DB_URL, DB_USER, DB_PASSWORD.
+ * Данные создаются для отдельного отрицательного chat_id и удаляются после прогона.
+ */
+public class DataBaseRepositoryBenchmark extends RepositoryBenchmark {
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    private Config config;
+
+    @Override
+    protected UserDataRepository createRepository() {
+        config = new ConfigReaderEnvironment().read();
+        return new DataBaseUserDataRepository(config);
+    }
+
+    @Override
+    protected void seedHistory(LocalDateTime historyStart) {
+        List<SessionEvent> batch = new ArrayList<>(SEED_BATCH_SIZE * 2);
+        for (int i = 0; i < historySize; i++) {
+            LocalDateTime startAt = historyStart.plusMinutes(30L * i);
+            batch.add(SessionEvent.record(chatId, "WORK", 25, startAt));
+            batch.add(SessionEvent.complete(chatId, "WORK", startAt.plusMinutes(25)));
+            if (batch.size() >= SEED_BATCH_SIZE * 2) {
+                repository.applyBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            repository.applyBatch(batch);
+        }
+    }
+
+    @Override
+    protected void cleanUp() throws Exception {
+        try (Connection connection = DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword())) {
+            for (String table : new String[]{"user_sessions", "user_statistics", "user_daily_statistics",
+                    "user_achievements"}) {
+                try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + table + " WHERE chat_id = ?")) {
+                    ps.setLong(1, chatId);
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package benchmark;
+
+import config.Config;
+import config.ConfigReaderEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import repository.DataBaseUserDataRepository;
+import repository.SessionHandle;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Закрытие сессии в большой таблице user_sessions: поиск открытой сессии чата (chat) против точечного
+ * обновления по первичному ключу из хэндла (handle). Операция - запись рабочей сессии и её завершение.
+ * Таблица заполняется rows сессиями 10 000 чатов, у измеряемого чата заранее лежат stale брошенных открытых сессий.
+ * После прогона проверяется, что закрытие по хэндлу закрыло только свои строки: брошенные сессии должны остаться
+ * открытыми, а каждая записанная - закрыться ровно один раз. Поиск по чату брошенные сессии закрывает - сколько,
+ * печатается для сравнения.
+ * Нужна база с применёнными миграциями (DB_URL, DB_USER, DB_PASSWORD).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DataBaseSessionCloseBenchmark {
+    private static final int HISTORY_CHATS = 10_000;
+
+    @Param({"1000000", "5000000"})
+    public int rows;
+
+    @Param({"0", "100"})
+    public int stale;
+
+    @Param({"chat", "handle"})
+    public String close;
+
+    private Config config;
+    private DataBaseUserDataRepository repository;
+    private long chatId;
+    private LocalDateTime clock;
+    private long recorded;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        config = new ConfigReaderEnvironment().read();
+        repository = new DataBaseUserDataRepository(config);
+        // Отдельный диапазон отрицательных chat_id: измеряемый чат и под ним чаты истории
+        chatId = -System.currentTimeMillis() * 100_000;
+        clock = LocalDateTime.now().minusYears(1);
+
+        try (Connection connection = DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword())) {
+            // История по минуте на сессию, все закрыты
+            try (PreparedStatement ps = connection.prepareStatement("""
+                    INSERT INTO user_sessions (chat_id, type, duration, start_at, stop_at, completed)
+                    SELECT ? - 1 - g % ?, 'WORK', 25, ?::timestamp - g * INTERVAL '1 minute',
+                           ?::timestamp - g * INTERVAL '1 minute' + INTERVAL '25 minutes', true
+                    FROM generate_series(1, ?) g
+                    """)) {
+                ps.setLong(1, chatId);
+                ps.setInt(2, HISTORY_CHATS);
+                ps.setObject(3, clock);
+                ps.setObject(4, clock);
+                ps.setInt(5, rows);
+                ps.executeUpdate();
+            }
+            // Брошенные открытые сессии измеряемого чата - старше всего, что запишет бенчмарк
+            try (PreparedStatement ps = connection.prepareStatement("""
+                    INSERT INTO user_sessions (chat_id, type, duration, start_at)
+                    SELECT ?, 'WORK', 25, ?::timestamp - g * INTERVAL '1 hour'
+                    FROM generate_series(1, ?) g
+                    """)) {
+                ps.setLong(1, chatId);
+                ps.setObject(2, clock);
+                ps.setInt(3, stale);
+                ps.executeUpdate();
+            }
+            connection.prepareStatement("ANALYZE user_sessions").execute();
+        }
+    }
+
+    @Benchmark
+    public void recordAndComplete() {
+        // Каждая сессия - на минуту позже предыдущей, чтобы первичные ключи не совпадали
+        LocalDateTime startAt = clock.plusMinutes(++recorded);
+        SessionHandle session = repository.recordSession(chatId, "WORK", 25, startAt);
+        if ("handle".equals(close)) {
+            repository.completeSession(session, startAt.plusMinutes(25));
+        } else {
+            repository.completeSession(chatId, "WORK", startAt.plusMinutes(25));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void verifyAndCleanUp() throws Exception {
+        try (Connection connection = DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword())) {
+            verifyClosedRows(connection);
+            for (String table : new String[]{"user_sessions", "user_statistics", "user_daily_statistics",
+                    "user_achievements", "user_achievement_progress"}) {
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "DELETE FROM " + table + " WHERE chat_id BETWEEN ? AND ?")) {
+                    ps.setLong(1, chatId - HISTORY_CHATS);
+                    ps.setLong(2, chatId);
+                    ps.executeUpdate();
+                }
+            }
+        } finally {
+            repository.close();
+        }
+    }
+
+    private void verifyClosedRows(Connection connection) throws Exception {
+        try (PreparedStatement ps = connection.prepareStatement("""
+                SELECT COUNT(*) FILTER (WHERE start_at < ? AND stop_at IS NOT NULL) AS stale_closed,
+                       COUNT(*) FILTER (WHERE start_at > ? AND completed) AS recorded_completed,
+                       COUNT(*) FILTER (WHERE start_at > ?) AS recorded_total
+                FROM user_sessions
+                WHERE chat_id = ?
+                """)) {
+            ps.setObject(1, clock);
+            ps.setObject(2, clock);
+            ps.setObject(3, clock);
+            ps.setLong(4, chatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                long staleClosed = resultSet.getLong("stale_closed");
+                long recordedCompleted = resultSet.getLong("recorded_completed");
+                long recordedTotal = resultSet.getLong("recorded_total");
+                System.out.printf("%nclose=%s: закрыто брошенных сессий %d из %d, завершено записанных %d из %d%n",
+                        close, staleClosed, stale, recordedCompleted, recordedTotal);
+                if ("handle".equals(close) && (staleClosed != 0 || recordedCompleted != recordedTotal)) {
+                    throw new IllegalStateException("Закрытие по хэндлу задело чужие строки: закрыто брошенных "
+                            + staleClosed + ", завершено записанных " + recordedCompleted + " из " + recordedTotal);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package benchmark;
+
+import config.Config;
+import config.ConfigReaderEnvironment;
+import messaging.MessageDispatcher;
+import metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import repository.DataBaseUserDataRepository;
+import repository.ExecutorAsyncUserDataRepository;
+import repository.OpenSession;
+import service.PomodoroServiceImpl;
+import timer.HashedWheelTimerEngine;
+import timer.TimerEngine;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запуск бота после простоя: recoverSessions по openSessions незакрытым сессиям в PostgreSQL - потоковый запрос
+ * незакрытых сессий, запись закончившихся фаз пачками и планирование таймеров. Сессии те же, что
+ * в SessionRecoveryBenchmark, и создаются заново перед каждой итерацией.
+ * После итерации проверяется, что незакрытыми остались сессии идущих фаз - три четверти.
+ * Восстанавливаются все незакрытые сессии базы, поэтому нужна отдельная база с применёнными миграциями
+ * (DB_URL, DB_USER, DB_PASSWORD).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class DataBaseSessionRecoveryBenchmark {
+
+    @Param({"100000"})
+    public int openSessions;
+
+    private Config config;
+    private long firstChatId;
+    private TimerEngine timerEngine;
+    private MessageDispatcher messageDispatcher;
+    private ExecutorAsyncUserDataRepository repository;
+    private PomodoroServiceImpl service;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        config = new ConfigReaderEnvironment().read();
+        // Отдельный диапазон отрицательных chat_id: firstChatId и openSessions - 1 чатов под ним
+        firstChatId = -System.currentTimeMillis() * 1000;
+        seedOpenSessions(LocalDateTime.now());
+
+        MetricsRegistry metrics = new MetricsRegistry(false);
+        timerEngine = new HashedWheelTimerEngine(config.timerTickMillis(), 512, config.timerWorkerThreads());
+        messageDispatcher = new MessageDispatcher(Stubs.telegramClient(), 1_000_000_000, 1_000_000_000, metrics);
+        repository = new ExecutorAsyncUserDataRepository(new DataBaseUserDataRepository(config),
+                config.storageConcurrency());
+        service = new PomodoroServiceImpl(repository, messageDispatcher, timerEngine, config, metrics);
+    }
+
+    @Benchmark
+    public void recoverSessions() {
+        service.recoverSessions();
+    }
+
+    @TearDown(Level.Iteration)
+    public void verifyAndCleanUp() throws Exception {
+        messageDispatcher.close();
+        timerEngine.close();
+        // Закрывает и хранилище под собой
+        repository.close();
+        try (Connection connection = connect()) {
+            long open = countOpen(connection);
+            for (String table : new String[]{"user_sessions", "user_statistics", "user_daily_statistics",
+                    "user_achievements", "user_achievement_progress"}) {
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "DELETE FROM " + table + " WHERE chat_id BETWEEN ? AND ?")) {
+                    ps.setLong(1, firstChatId - openSessions + 1);
+                    ps.setLong(2, firstChatId);
+                    ps.executeUpdate();
+                }
+            }
+            long expected = SessionRecoveryBenchmark.expectedTimers(openSessions);
+            if (open != expected) {
+                throw new IllegalStateException("Незакрытых сессий " + open + ", ожидалось " + expected);
+            }
+        }
+    }
+
+    private void seedOpenSessions(LocalDateTime now) throws Exception {
+        try (Connection connection = connect();
+             PreparedStatement ps = connection.prepareStatement(
+                     "INSERT INTO user_sessions (chat_id, type, duration, start_at, completed) VALUES (?, ?, ?, ?, false)")) {
+            connection.setAutoCommit(false);
+            for (int i = 0; i < openSessions; i++) {
+                OpenSession session = SessionRecoveryBenchmark.openSession(config, i, firstChatId - i, now, 0);
+                ps.setLong(1, session.chatId());
+                ps.setString(2, session.sessionType());
+                ps.setInt(3, session.durationMinutes());
+                ps.setTimestamp(4, Timestamp.valueOf(session.startAt()));
+                ps.addBatch();
+                if (i % 1000 == 999) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private long countOpen(Connection connection) throws Exception {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT COUNT(*) FROM user_sessions WHERE chat_id BETWEEN ? AND ? AND stop_at IS NULL")) {
+            ps.setLong(1, firstChatId - openSessions + 1);
+            ps.setLong(2, firstChatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private Connection connect() throws Exception {
+        return DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword());
+    }
+}
@@ -0,0 +1,189 @@
+package benchmark;
+
+import config.Config;
+import config.ConfigReaderEnvironment;
+import metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import repository.DataBaseTimerQueue;
+import repository.DataBaseUserDataRepository;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Таймеры в БД на нескольких узлах: время, за которое nodes узлов (у каждого свой пул соединений)
+ * отрабатывают timers запущенных Pomodoro - по два срабатывания на чат, конец работы и конец отдыха.
+ * После каждой итерации проверяется, что каждая фаза каждого чата сработала ровно один раз -
+ * и по уведомлениям, и по завершённым сессиям в БД; иначе итерация падает.
+ * Нужна база с применёнными миграциями (DB_URL, DB_USER, DB_PASSWORD).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class DataBaseTimerQueueBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int nodes;
+
+    @Param({"2000"})
+    public int timers;
+
+    private Config config;
+    private final List<DataBaseUserDataRepository> repositories = new ArrayList<>();
+    private final List<DataBaseTimerQueue> queues = new ArrayList<>();
+    private final Map<Long, AtomicInteger> workFired = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicInteger> restFired = new ConcurrentHashMap<>();
+    private ExecutorService nodeThreads;
+    private long firstChatId;
+    private LocalDateTime workFireAt;
+    private LocalDateTime restFireAt;
+
+    @Setup(Level.Trial)
+    public void setUpNodes() {
+        config = new ConfigReaderEnvironment().read();
+        MetricsRegistry metrics = new MetricsRegistry(false);
+        DataBaseTimerQueue.Listener listener = new DataBaseTimerQueue.Listener() {
+            @Override
+            public void onWorkFinished(long chatId) {
+                workFired.computeIfAbsent(chatId, id -> new AtomicInteger()).incrementAndGet();
+            }
+
+            @Override
+            public void onRestFinished(long chatId) {
+                restFired.computeIfAbsent(chatId, id -> new AtomicInteger()).incrementAndGet();
+            }
+        };
+        for (int i = 0; i < nodes; i++) {
+            DataBaseUserDataRepository repository = new DataBaseUserDataRepository(config);
+            DataBaseTimerQueue queue = new DataBaseTimerQueue(repository, config, metrics);
+            queue.setListener(listener);
+            repositories.add(repository);
+            queues.add(queue);
+        }
+        nodeThreads = Executors.newFixedThreadPool(nodes);
+    }
+
+    @Setup(Level.Iteration)
+    public void startTimers() {
+        // Отдельный диапазон отрицательных chat_id на каждую итерацию
+        firstChatId = -System.currentTimeMillis() * 10_000;
+        workFired.clear();
+        restFired.clear();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < timers; i++) {
+            queues.get(0).startPomodoro(firstChatId - i, now);
+        }
+        // Сначала узлы отрабатывают таймеры на момент после конца работы, затем - после конца начатого при этом отдыха
+        workFireAt = now.plusMinutes(config.workDuration() + 1L);
+        restFireAt = workFireAt.plusMinutes(config.restDuration() + 1L);
+    }
+
+    @Benchmark
+    public int fireAll() throws Exception {
+        List<Future<Integer>> results = new ArrayList<>();
+        for (DataBaseTimerQueue queue : queues) {
+            results.add(nodeThreads.submit(() -> drain(queue, workFireAt) + drain(queue, restFireAt)));
+        }
+        int total = 0;
+        for (Future<Integer> result : results) {
+            total += result.get();
+        }
+        return total;
+    }
+
+    /**
+     * Узел забирает пачки, пока не останется наступивших таймеров, которые не заняты другими узлами.
+     */
+    private static int drain(DataBaseTimerQueue queue, LocalDateTime now) {
+        int total = 0;
+        int fired;
+        while ((fired = queue.fireDue(now)) > 0) {
+            total += fired;
+        }
+        return total;
+    }
+
+    @TearDown(Level.Iteration)
+    public void verifyAndCleanUp() throws Exception {
+        try (Connection connection = DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword())) {
+            verifyFiredOnce(connection);
+            for (String table : new String[]{"pomodoro_timers", "user_sessions", "user_statistics", "user_achievements",
+                    "user_achievement_progress"}) {
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "DELETE FROM " + table + " WHERE chat_id BETWEEN ? AND ?")) {
+                    ps.setLong(1, firstChatId - timers + 1);
+                    ps.setLong(2, firstChatId);
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownNodes() {
+        nodeThreads.shutdown();
+        queues.forEach(DataBaseTimerQueue::close);
+        repositories.forEach(DataBaseUserDataRepository::close);
+    }
+
+    private void verifyFiredOnce(Connection connection) throws Exception {
+        for (int i = 0; i < timers; i++) {
+            long chatId = firstChatId - i;
+            AtomicInteger work = workFired.get(chatId);
+            AtomicInteger rest = restFired.get(chatId);
+            if (work == null || work.get() != 1 || rest == null || rest.get() != 1) {
+                throw new IllegalStateException("Таймеры chatId=" + chatId + " сработали не по одному разу: работа "
+                        + work + ", отдых " + rest);
+            }
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement("""
+                SELECT COUNT(*) FILTER (WHERE completed) AS completed, COUNT(*) AS total,
+                       (SELECT COUNT(*) FROM pomodoro_timers WHERE chat_id BETWEEN ? AND ?) AS timers_left
+                FROM user_sessions
+                WHERE chat_id BETWEEN ? AND ?
+                """)) {
+            ps.setLong(1, firstChatId - timers + 1);
+            ps.setLong(2, firstChatId);
+            ps.setLong(3, firstChatId - timers + 1);
+            ps.setLong(4, firstChatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                long completed = resultSet.getLong("completed");
+                long total = resultSet.getLong("total");
+                long timersLeft = resultSet.getLong("timers_left");
+                if (completed != 2L * timers || total != 2L * timers || timersLeft != 0) {
+                    throw new IllegalStateException("Ожидалось " + 2L * timers + " завершённых сессий и ни одного таймера, "
+                            + "получено: завершено " + completed + " из " + total + ", таймеров " + timersLeft);
+                }
+            }
+        }
+    }
+}
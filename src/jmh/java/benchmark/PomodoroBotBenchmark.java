@@ -0,0 +1,65 @@
+package benchmark;
+
+import bot.PomodoroBot;
+import messaging.MessageDispatcher;
+import metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.chat.Chat;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор команды в PomodoroBot.consume и постановка ответа в очередь. Сервис и клиент Telegram - заглушки.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PomodoroBotBenchmark {
+
+    @Param({"/start_pomo", "/stop", "/stats", "/achievements", "/unknown"})
+    public String command;
+
+    private MessageDispatcher messageDispatcher;
+    private PomodoroBot bot;
+    private Update update;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MetricsRegistry metrics = new MetricsRegistry(false);
+        messageDispatcher = new MessageDispatcher(Stubs.telegramClient(), 1_000_000_000, 1_000_000_000, metrics);
+        bot = new PomodoroBot(messageDispatcher, Stubs.pomodoroService(), metrics);
+
+        Message message = new Message();
+        message.setChat(new Chat(1L, "private"));
+        message.setText(command);
+        update = new Update();
+        update.setMessage(message);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        messageDispatcher.close();
+    }
+
+    @Benchmark
+    public void consume() {
+        bot.consume(update);
+    }
+}
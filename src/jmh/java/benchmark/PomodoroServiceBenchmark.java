@@ -0,0 +1,73 @@
+package benchmark;
+
+import config.Config;
+import config.ConfigReaderEnvironment;
+import messaging.MessageDispatcher;
+import metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import repository.ExecutorAsyncUserDataRepository;
+import service.PomodoroServiceImpl;
+import timer.HashedWheelTimerEngine;
+import timer.TimerEngine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Запуск и остановка Pomodoro: планирование и отмена таймеров, учёт активных чатов, постановка сообщений в очередь.
+ * Хранилище и клиент Telegram - заглушки.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PomodoroServiceBenchmark {
+    // Чаты переиспользуются по кругу, чтобы очереди диспетчера не росли бесконечно
+    private static final long CHAT_COUNT = 10_000;
+
+    private final AtomicLong nextChat = new AtomicLong();
+    private TimerEngine timerEngine;
+    private MessageDispatcher messageDispatcher;
+    private ExecutorAsyncUserDataRepository repository;
+    private PomodoroServiceImpl service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Config config = new ConfigReaderEnvironment().read();
+        MetricsRegistry metrics = new MetricsRegistry(false);
+        timerEngine = new HashedWheelTimerEngine(config.timerTickMillis(), 512, config.timerWorkerThreads());
+        // Ограничения частоты сняты: измеряется сервис, а не ожидание корзины токенов
+        messageDispatcher = new MessageDispatcher(Stubs.telegramClient(), 1_000_000_000, 1_000_000_000, metrics);
+        repository = new ExecutorAsyncUserDataRepository(Stubs.userDataRepository(), config.storageConcurrency());
+        service = new PomodoroServiceImpl(repository, messageDispatcher, timerEngine, config, metrics);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        messageDispatcher.close();
+        timerEngine.close();
+        repository.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void startAndStop() {
+        long chatId = nextChat.getAndIncrement() % CHAT_COUNT;
+        service.startPomodoro(chatId);
+        service.stopPomodoro(chatId);
+    }
+}
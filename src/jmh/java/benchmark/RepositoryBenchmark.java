@@ -0,0 +1,98 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import repository.UserDataRepository;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общие бенчмарки хранилищ. Перед замером у чата создаётся история из historySize завершённых сессий
+ * (100000 сессий раз в 30 минут - около 5,7 лет).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class RepositoryBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int historySize;
+
+    protected UserDataRepository repository;
+    protected long chatId;
+    private LocalDateTime clock;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // Отдельный чат на каждый прогон, чтобы не зависеть от данных прошлых запусков
+        chatId = -System.currentTimeMillis();
+        repository = createRepository();
+        LocalDateTime historyStart = LocalDateTime.now().minusMinutes(30L * historySize);
+        seedHistory(historyStart);
+        clock = LocalDateTime.now();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        repository.close();
+        cleanUp();
+    }
+
+    // Запуск и завершение сессии - обе записи, из которых состоит каждая фаза
+    @Benchmark
+    public void recordAndCompleteSession() {
+        LocalDateTime startAt = clock;
+        clock = clock.plusMinutes(30);
+        repository.recordSession(chatId, "WORK", 25, startAt);
+        repository.completeSession(chatId, "WORK", startAt.plusMinutes(25));
+    }
+
+    @Benchmark
+    public String getStatistics() {
+        return repository.getStatistics(chatId);
+    }
+
+    // Статистика за период складывается из дневных корзин: время не должно расти вместе с historySize
+    @Benchmark
+    public String getWeekStatistics() {
+        LocalDate today = LocalDate.now();
+        return repository.getStatistics(chatId, today.minusDays(6), today);
+    }
+
+    @Benchmark
+    public String getYearStatistics() {
+        LocalDate today = LocalDate.now();
+        return repository.getStatistics(chatId, today.minusDays(UserDataRepository.MAX_STATISTICS_DAYS - 1), today);
+    }
+
+    @Benchmark
+    public void exportStatistics() {
+        repository.exportStatistics(chatId, OutputStream.nullOutputStream());
+    }
+
+    protected abstract UserDataRepository createRepository() throws Exception;
+
+    /**
+     * Создаёт historySize завершённых сессий начиная с historyStart, по одной каждые 30 минут.
+     */
+    protected abstract void seedHistory(LocalDateTime historyStart) throws Exception;
+
+    protected abstract void cleanUp() throws Exception;
+}
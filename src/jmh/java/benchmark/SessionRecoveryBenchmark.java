@@ -0,0 +1,114 @@
+package benchmark;
+
+import config.Config;
+import config.ConfigReaderEnvironment;
+import messaging.MessageDispatcher;
+import metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import repository.ExecutorAsyncUserDataRepository;
+import repository.OpenSession;
+import service.PomodoroServiceImpl;
+import timer.HashedWheelTimerEngine;
+import timer.TimerEngine;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Восстановление таймеров при запуске: recoverSessions по openSessions незакрытым сессиям (по одной на чат)
+ * из хранилища-заглушки, то есть сам сервис - разбор сессий, пачки событий, таймеры и уведомления.
+ * То же на настоящей БД - DataBaseSessionRecoveryBenchmark. Сессии поровну четырёх видов (см. openSession);
+ * после итерации проверяется, что запланировано три четверти таймеров - по идущим фазам.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SessionRecoveryBenchmark {
+
+    @Param({"100000"})
+    public int openSessions;
+
+    private Config config;
+    private TimerEngine timerEngine;
+    private MessageDispatcher messageDispatcher;
+    private ExecutorAsyncUserDataRepository repository;
+    private PomodoroServiceImpl service;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        config = new ConfigReaderEnvironment().read();
+        LocalDateTime now = LocalDateTime.now();
+        List<OpenSession> sessions = new ArrayList<>(openSessions);
+        for (int i = 0; i < openSessions; i++) {
+            sessions.add(openSession(config, i, i, now, i));
+        }
+        MetricsRegistry metrics = new MetricsRegistry(false);
+        timerEngine = new HashedWheelTimerEngine(config.timerTickMillis(), 512, config.timerWorkerThreads());
+        // Ограничения частоты сняты: уведомления только ставятся в очередь, их отправка не входит в замер
+        messageDispatcher = new MessageDispatcher(Stubs.telegramClient(), 1_000_000_000, 1_000_000_000, metrics);
+        repository = new ExecutorAsyncUserDataRepository(Stubs.userDataRepository(sessions),
+                config.storageConcurrency());
+        service = new PomodoroServiceImpl(repository, messageDispatcher, timerEngine, config, metrics);
+    }
+
+    @Benchmark
+    public void recoverSessions() {
+        service.recoverSessions();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        long scheduled = timerEngine.stats().scheduledCount();
+        messageDispatcher.close();
+        timerEngine.close();
+        repository.close();
+        if (scheduled != expectedTimers(openSessions)) {
+            throw new IllegalStateException("Запланировано " + scheduled + " таймеров, ожидалось "
+                    + expectedTimers(openSessions));
+        }
+    }
+
+    /**
+     * Незакрытая сессия вида number % 4:
+     * 0 - работа ещё идёт; 1 - отдых ещё идёт; 2 - работа закончилась 2 минуты назад, отдых после неё ещё идёт;
+     * 3 - работа закончилась два часа назад, отдых тоже.
+     */
+    static OpenSession openSession(Config config, int number, long chatId, LocalDateTime now, long sessionId) {
+        int work = config.workDuration();
+        int rest = config.restDuration();
+        return switch (number % 4) {
+            case 0 -> new OpenSession(chatId, "WORK", work, now.minusMinutes(1), sessionId);
+            case 1 -> new OpenSession(chatId, "REST", rest, now.minusMinutes(1), sessionId);
+            case 2 -> new OpenSession(chatId, "WORK", work, now.minusMinutes(work + 2), sessionId);
+            default -> new OpenSession(chatId, "WORK", work, now.minusHours(2), sessionId);
+        };
+    }
+
+    // Таймеры получают идущие фазы: виды 0, 1 и 2
+    static long expectedTimers(int openSessions) {
+        long expected = 0;
+        for (int i = 0; i < openSessions; i++) {
+            if (i % 4 != 3) {
+                expected++;
+            }
+        }
+        return expected;
+    }
+}
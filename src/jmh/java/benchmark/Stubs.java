@@ -0,0 +1,127 @@
+package benchmark;
+
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+import repository.OpenSession;
+import repository.SessionHandle;
+import repository.UserDataRepository;
+import service.PomodoroService;
+
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Заглушки зависимостей, чтобы бенчмарк измерял только свой компонент.
+ */
+final class Stubs {
+    private Stubs() {
+    }
+
+    /**
+     * Клиент Telegram, который сразу отвечает успехом на любой запрос.
+     */
+    static TelegramClient telegramClient() {
+        CompletableFuture<Object> done = CompletableFuture.completedFuture(null);
+        return (TelegramClient) Proxy.newProxyInstance(TelegramClient.class.getClassLoader(),
+                new Class<?>[]{TelegramClient.class},
+                (proxy, method, args) -> CompletableFuture.class.isAssignableFrom(method.getReturnType()) ? done : null);
+    }
+
+    static UserDataRepository userDataRepository() {
+        return userDataRepository(List.of());
+    }
+
+    /**
+     * Хранилище-заглушка, которое при обходе незакрытых сессий отдаёт openSessions.
+     */
+    static UserDataRepository userDataRepository(List<OpenSession> openSessions) {
+        return new UserDataRepository() {
+            @Override
+            public SessionHandle recordSession(long chatId, String sessionType, int durationMinutes,
+                                               LocalDateTime startAt) {
+                return new SessionHandle(chatId, sessionType, startAt, 0);
+            }
+
+            @Override
+            public void completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
+            }
+
+            @Override
+            public void completeSession(SessionHandle session, LocalDateTime stopAt) {
+            }
+
+            @Override
+            public void markSessionStopped(long chatId, LocalDateTime stopAt) {
+            }
+
+            @Override
+            public void markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+            }
+
+            @Override
+            public String getStatistics(long chatId) {
+                return "Статистика";
+            }
+
+            @Override
+            public String getStatistics(long chatId, LocalDate from, LocalDate to) {
+                return "Статистика за период";
+            }
+
+            @Override
+            public String getAchievements(long chatId) {
+                return "Достижения";
+            }
+
+            @Override
+            public void exportStatistics(long chatId, OutputStream out) {
+            }
+
+            @Override
+            public void forEachOpenSession(Consumer<OpenSession> consumer) {
+                openSessions.forEach(consumer);
+            }
+        };
+    }
+
+    static PomodoroService pomodoroService() {
+        UserDataRepository repository = userDataRepository();
+        return new PomodoroService() {
+            @Override
+            public void startPomodoro(long chatId) {
+            }
+
+            @Override
+            public void stopPomodoro(long chatId) {
+            }
+
+            @Override
+            public CompletableFuture<String> getStatistics(long chatId) {
+                return CompletableFuture.completedFuture(repository.getStatistics(chatId));
+            }
+
+            @Override
+            public CompletableFuture<String> getStatistics(long chatId, String period) {
+                return CompletableFuture.completedFuture(repository.getStatistics(chatId));
+            }
+
+            @Override
+            public CompletableFuture<String> getAchievements(long chatId) {
+                return CompletableFuture.completedFuture(repository.getAchievements(chatId));
+            }
+
+            @Override
+            public void exportStatistics(long chatId) {
+            }
+
+            @Override
+            public String getLeaderboard(long chatId) {
+                return "";
+            }
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import timer.HashedWheelTimerEngine;
+import timer.ScheduledExecutorTimerEngine;
+import timer.TimerEngine;
+import timer.TimerHandle;
+import timer.TimerStats;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * timers таймеров на колесе (TIMER_ENGINE=wheel) и на ScheduledExecutorService (TIMER_ENGINE=executor),
+ * у обоих WORKER_THREADS потоков для задач, колесо - с тиком tickMillis, как в Main.
+ * - scheduleAndFire: таймеры равномерно распределены по spreadMillis, время - пока не сработает последний;
+ *   сверх spreadMillis - планирование и задержка срабатывания. Задержки из stats() печатаются после итерации
+ * - scheduleAndCancel: таймеры на 25 минут вперёд ставятся и отменяются, как фазы при /stop
+ * Движок создаётся заново на каждую итерацию; итерация падает, если сработали не все таймеры.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class TimerEngineBenchmark {
+    private static final int WORKER_THREADS = 8;
+    private static final long CANCELLED_DELAY_MINUTES = 25;
+
+    @Param({"wheel", "executor"})
+    public String engine;
+
+    @Param({"1000000"})
+    public int timers;
+
+    @Param({"1000"})
+    public long spreadMillis;
+
+    @Param({"100"})
+    public long tickMillis;
+
+    private TimerEngine timerEngine;
+    private CountDownLatch remaining;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        timerEngine = "wheel".equals(engine)
+                ? new HashedWheelTimerEngine(tickMillis, 512, WORKER_THREADS)
+                : new ScheduledExecutorTimerEngine(WORKER_THREADS);
+        remaining = new CountDownLatch(timers);
+    }
+
+    @Benchmark
+    public void scheduleAndFire() throws InterruptedException {
+        Runnable task = remaining::countDown;
+        for (int i = 0; i < timers; i++) {
+            timerEngine.schedule(task, spreadMillis * i / timers, TimeUnit.MILLISECONDS);
+        }
+        if (!remaining.await(spreadMillis + TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Не сработало " + remaining.getCount() + " таймеров из " + timers);
+        }
+    }
+
+    @Benchmark
+    public void scheduleAndCancel() {
+        TimerHandle[] handles = new TimerHandle[timers];
+        for (int i = 0; i < timers; i++) {
+            handles[i] = timerEngine.schedule(remaining::countDown, CANCELLED_DELAY_MINUTES, TimeUnit.MINUTES);
+        }
+        for (TimerHandle handle : handles) {
+            if (!handle.cancel()) {
+                throw new IllegalStateException("Таймер не отменён");
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        TimerStats stats = timerEngine.stats();
+        timerEngine.close();
+        if (stats.firedCount() > 0) {
+            System.out.printf("%nengine=%s: сработало %d, задержка средняя %.1f мс, максимальная %.1f мс%n",
+                    engine, stats.firedCount(), stats.averageLagMillis(), stats.maxLagMillis());
+        }
+    }
+}
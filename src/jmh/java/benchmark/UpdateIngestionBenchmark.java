@@ -0,0 +1,111 @@
+package benchmark;
+
+import bot.PomodoroBot;
+import bot.WebhookServer;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import messaging.MessageDispatcher;
+import metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Приём обновлений: вебхук против long polling (обновлений в секунду).
+ * Оба пути передают обновления одному и тому же PomodoroBot; сервис и клиент Telegram - заглушки.
+ * - webhook: POST записанного обновления на локальный WebhookServer, по запросу на обновление, с нескольких соединений
+ * - longPolling: разбор ответа getUpdates на пачку обновлений и передача её обработчику, как делает поток long polling.
+ *   Сетевое ожидание самого long polling сюда не входит - это нижняя оценка его задержки
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UpdateIngestionBenchmark {
+    private static final String SECRET = "benchmark-secret";
+    // Столько обновлений Telegram отдаёт за один запрос getUpdates
+    private static final int POLLING_BATCH = 100;
+    private static final String UPDATE_JSON = """
+            {"update_id":%d,"message":{"message_id":%d,"date":1700000000,\
+            "chat":{"id":%d,"type":"private"},"text":"/unknown"}}""";
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private MessageDispatcher messageDispatcher;
+    private LongPollingUpdateConsumer consumer;
+    private WebhookServer webhookServer;
+    private HttpClient httpClient;
+    private HttpRequest webhookRequest;
+    private String pollingResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MetricsRegistry metrics = new MetricsRegistry(false);
+        messageDispatcher = new MessageDispatcher(Stubs.telegramClient(), 1_000_000_000, 1_000_000_000, metrics);
+        PomodoroBot bot = new PomodoroBot(messageDispatcher, Stubs.pomodoroService(), metrics);
+        // Обрабатываем в вызывающем потоке, чтобы не измерять очередь общего исполнителя библиотеки
+        consumer = updates -> updates.forEach(bot::consume);
+
+        webhookServer = new WebhookServer(consumer, 0, "/webhook", SECRET, 10_000, metrics);
+        // Сервер вебхука говорит только по HTTP/1.1; без этого клиент пытается перейти на HTTP/2 в каждом запросе
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        webhookRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + webhookServer.port() + "/webhook"))
+                .header(WebhookServer.SECRET_HEADER, SECRET)
+                .POST(HttpRequest.BodyPublishers.ofString(UPDATE_JSON.formatted(1, 1, 1)))
+                .build();
+
+        StringBuilder response = new StringBuilder("[");
+        for (int i = 0; i < POLLING_BATCH; i++) {
+            if (i > 0) {
+                response.append(',');
+            }
+            response.append(UPDATE_JSON.formatted(i, i, i % 10));
+        }
+        pollingResponse = response.append(']').toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        webhookServer.close();
+        messageDispatcher.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int webhook() throws IOException, InterruptedException {
+        // Статус возвращается, чтобы ответ не был отброшен; 503 означает, что обработчик не успевает за приёмом
+        return httpClient.send(webhookRequest, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POLLING_BATCH)
+    public void longPolling() throws IOException {
+        List<Update> updates = objectMapper.readValue(pollingResponse, new TypeReference<List<Update>>() {
+        });
+        consumer.consume(updates);
+    }
+}
@@ -0,0 +1,153 @@
+package benchmark;
+
+import bot.UpdateIntake;
+import messaging.MessageDispatcher;
+import metrics.LatencyTracker;
+import metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.chat.Chat;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Приём обновлений под синтетическим потоком (обновлений в секунду) и проверка его решений после прогона.
+ * - distinct: /stop от 10 000 чатов, лимиты не мешают - всё принято и обработано (/stop не отбрасывается)
+ * - duplicates: одна и та же пачка раз за разом - принята только первая, остальное отсеяно как повторы
+ * - singleChat: /stats из одного чата - принято не больше запаса корзины и её пополнения за время прогона
+ * - degraded: /stats от разных чатов при медленном хранилище - всё отклонено
+ * - overload: /stats от разных чатов, обработчик тратит 1 мс на пачку - очередь заполняется, лишнее чтение
+ *   отбрасывается с ответом «перегружен», принятое обработано
+ * Обработчик только считает обновления, клиент Telegram - заглушка.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UpdateIntakeBenchmark {
+    private static final int BATCH = 100;
+    private static final int CHATS = 10_000;
+    private static final int QUEUE_CAPACITY = 1000;
+    // Лимит /stats на чат в сценарии singleChat; запас корзины READ - 3 команды
+    private static final double READ_RATE = 1;
+    private static final double UNLIMITED = 1e9;
+
+    @Param({"distinct", "duplicates", "singleChat", "degraded", "overload"})
+    public String flood;
+
+    private MessageDispatcher messageDispatcher;
+    private UpdateIntake intake;
+    private final LongAdder processed = new LongAdder();
+    private Update[] updates;
+    private int cursor;
+    private int nextUpdateId;
+    private long sent;
+    private long startedAt;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MetricsRegistry metrics = new MetricsRegistry(false);
+        messageDispatcher = new MessageDispatcher(Stubs.telegramClient(), 1_000_000_000, 1_000_000_000, metrics);
+
+        LatencyTracker storageLatency = new LatencyTracker(TimeUnit.HOURS.toMillis(1));
+        if ("degraded".equals(flood)) {
+            for (int i = 0; i < 20; i++) {
+                storageLatency.observeNanos(TimeUnit.SECONDS.toNanos(5));
+            }
+        }
+        double readRate = "singleChat".equals(flood) ? READ_RATE : UNLIMITED;
+        boolean slow = "overload".equals(flood);
+        intake = new UpdateIntake(batch -> {
+            if (slow) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            processed.add(batch.size());
+        }, messageDispatcher, QUEUE_CAPACITY, new double[]{UNLIMITED, readRate, UNLIMITED}, storageLatency, 1000,
+                metrics);
+
+        String text = "distinct".equals(flood) ? "/stop" : "/stats";
+        int chats = "singleChat".equals(flood) ? 1 : CHATS;
+        updates = new Update[CHATS];
+        for (int i = 0; i < updates.length; i++) {
+            Message message = new Message();
+            message.setChat(new Chat((long) (i % chats) + 1, "private"));
+            message.setText(text);
+            updates[i] = new Update();
+            updates[i].setMessage(message);
+        }
+        startedAt = System.nanoTime();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void consume() {
+        List<Update> batch = Arrays.asList(updates).subList(cursor, cursor + BATCH);
+        // Повторы - та же пачка с теми же id; в остальных сценариях id новые, как у Telegram
+        if (!"duplicates".equals(flood) || nextUpdateId == 0) {
+            for (Update update : batch) {
+                update.setUpdateId(++nextUpdateId);
+            }
+        }
+        if (!"duplicates".equals(flood)) {
+            cursor = (cursor + BATCH) % updates.length;
+        }
+        intake.consume(batch);
+        sent += BATCH;
+    }
+
+    @TearDown(Level.Trial)
+    public void verify() {
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        intake.close();
+        messageDispatcher.close();
+
+        UpdateIntake.IntakeStats stats = intake.stats();
+        System.out.printf("%n%s: sent %d, %s, processed %d%n", flood, sent, stats, processed.sum());
+        long decided = stats.acceptedCount() + stats.duplicateCount() + stats.throttledCount() + stats.degradedCount()
+                + stats.queueFullCount();
+        check(decided == sent, "каждое обновление должно получить ровно одно решение");
+        check(processed.sum() == stats.acceptedCount(), "все принятые обновления должны быть обработаны");
+        switch (flood) {
+            case "distinct" -> check(stats.duplicateCount() == 0 && stats.throttledCount() == 0
+                    && stats.degradedCount() == 0, "без повторов и превышений лимита всё должно быть принято");
+            case "duplicates" -> check(stats.acceptedCount() == BATCH && stats.duplicateCount() == sent - BATCH,
+                    "принята должна быть только первая пачка");
+            case "singleChat" -> check(stats.acceptedCount() <= 3 + (long) Math.ceil(seconds * READ_RATE) + 1,
+                    "из одного чата принято больше, чем позволяет лимит");
+            case "degraded" -> check(stats.degradedCount() == sent,
+                    "при медленном хранилище чтение должно отклоняться");
+            case "overload" -> check(stats.queueFullCount() > 0,
+                    "медленный обработчик должен заполнить очередь");
+            default -> throw new IllegalStateException("Неизвестный сценарий " + flood);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -1,10 +1,46 @@
+import achievement.AchievementBackfill;
+import achievement.AchievementEngine;
+import bot.ParallelUpdateConsumer;
 import bot.PomodoroBot;
+import bot.UpdateIntake;
+import bot.WebhookServer;
 import config.Config;
 import config.ConfigReaderEnvironment;
+import leaderboard.Leaderboard;
+import messaging.MessageDispatcher;
+import metrics.LatencyTracker;
+import metrics.MetricsRegistry;
+import metrics.MetricsServer;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
 import org.telegram.telegrambots.longpolling.TelegramBotsLongPollingApplication;
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+import repository.BinaryUserDataRepository;
+import repository.CachingUserDataRepository;
+import repository.CsvToDataBaseMigrator;
+import repository.CsvUserDataRepository;
+import repository.DataBaseTimerQueue;
 import repository.DataBaseUserDataRepository;
+import repository.ExecutorAsyncUserDataRepository;
+import repository.MetricsUserDataRepository;
+import repository.QueryPlanChecker;
+import repository.SchemaMigrator;
+import repository.SessionPartitionManager;
+import repository.SessionStoreConverter;
+import repository.UserDataRepository;
+import repository.WriteBehindUserDataRepository;
 import service.PomodoroServiceImpl;
+import timer.HashedWheelTimerEngine;
+import timer.ScheduledExecutorTimerEngine;
+import timer.TimerEngine;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
     public static void main(String[] args) {
@@ -12,21 +48,313 @@ public class Main {
         Config config = new ConfigReaderEnvironment().read();
         String botToken = config.botApiToken();
 
+        // Применение миграций схемы без запуска бота
+        if (args.length > 0 && "migrate".equals(args[0])) {
+            new SchemaMigrator(config).migrate();
+            return;
+        }
+
+        // Проверка, что запросы хранилища читают таблицы по индексам; нарушения дают ненулевой код выхода
+        if (args.length > 0 && "check-query-plans".equals(args[0])) {
+            migrateSchema(config);
+            List<String> violations;
+            try (var repository = new DataBaseUserDataRepository(config)) {
+                violations = new QueryPlanChecker(repository).check();
+            }
+            violations.forEach(violation -> System.out.println("Query plan regression: " + violation));
+            if (!violations.isEmpty()) {
+                System.exit(1);
+            }
+            System.out.println("All repository queries use indexes");
+            return;
+        }
+
+        // Разовая архивация старых секций истории сессий (срок хранения - SESSION_RETENTION_MONTHS)
+        if (args.length > 0 && "archive-sessions".equals(args[0])) {
+            migrateSchema(config);
+            try (var repository = new DataBaseUserDataRepository(config);
+                 var partitionManager = new SessionPartitionManager(repository, config)) {
+                partitionManager.maintain(LocalDate.now());
+            }
+            return;
+        }
+
+        // Разовый пересчёт агрегатов статистики по уже накопленной истории
+        if (args.length > 0 && "backfill-stats".equals(args[0])) {
+            migrateSchema(config);
+            try (var repository = new DataBaseUserDataRepository(config)) {
+                repository.backfillStatistics();
+            }
+            return;
+        }
+
+        // Пересчёт прогресса и достижений по уже накопленной истории
+        if (args.length > 0 && "backfill-achievements".equals(args[0])) {
+            var engine = AchievementEngine.withDefaultRules();
+            switch (config.storageType()) {
+                case Config.STORAGE_CSV -> {
+                    try (var repository = new CsvUserDataRepository(engine)) {
+                        AchievementBackfill.run(repository, Runtime.getRuntime().availableProcessors());
+                    }
+                }
+                case Config.STORAGE_BINARY -> {
+                    try (var repository = new BinaryUserDataRepository(engine)) {
+                        AchievementBackfill.run(repository, Runtime.getRuntime().availableProcessors());
+                    }
+                }
+                default -> {
+                    migrateSchema(config);
+                    try (var repository = new DataBaseUserDataRepository(config, engine)) {
+                        AchievementBackfill.run(repository, config.dbPoolSize());
+                    }
+                }
+            }
+            return;
+        }
+
+        // Перенос истории между CSV и бинарным хранилищем
+        if (args.length > 0 && ("csv-to-binary".equals(args[0]) || "binary-to-csv".equals(args[0]))) {
+            try (var csvRepository = new CsvUserDataRepository();
+                 var binaryRepository = new BinaryUserDataRepository()) {
+                var converter = new SessionStoreConverter(csvRepository, binaryRepository);
+                if ("csv-to-binary".equals(args[0])) {
+                    converter.csvToBinary();
+                } else {
+                    converter.binaryToCsv();
+                }
+            }
+            return;
+        }
+
+        // Перенос истории из CSV-хранилища в БД; при расхождениях - ненулевой код выхода
+        if (args.length > 0 && "csv-to-db".equals(args[0])) {
+            if (config.dbMigrate()) {
+                new SchemaMigrator(config).migrate();
+            }
+            boolean migrated;
+            try (var csvRepository = new CsvUserDataRepository();
+                 var repository = new DataBaseUserDataRepository(config)) {
+                migrated = new CsvToDataBaseMigrator(csvRepository, repository, config.migrationBatchRows(),
+                        Runtime.getRuntime().availableProcessors()).migrate();
+            }
+            if (!migrated) {
+                System.exit(1);
+            }
+            return;
+        }
+
         // Инициализируем зависимости
         var telegramClient = new OkHttpTelegramClient(botToken);
 
+        // Метрики пишутся всегда через реестр; выключенный реестр ничего не считает, а сервер не запускается
+        var metrics = new MetricsRegistry(config.metricsEnabled());
+        if (config.metricsEnabled()) {
+            var metricsServer = new MetricsServer(metrics, config.metricsPort());
+            Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::close));
+        }
+
         // Необходимо добавить в решении для работы с JDBC
-        // Просто меняем исходую строку и вместо CsvUserDataRepository используем JdbcRepository с config-ом
-        var userDataRepository = new DataBaseUserDataRepository(config);
+        // Хранилище выбирается в конфигурации, по умолчанию используется JdbcRepository с config-ом
+        // Достижения проверяются хранилищем при завершении сессии, уведомления отправляет сервис
+        var achievementEngine = AchievementEngine.withDefaultRules();
+        migrateSchema(config);
+        UserDataRepository storage = switch (config.storageType()) {
+            case Config.STORAGE_CSV -> new CsvUserDataRepository(achievementEngine, config.csvFsync(),
+                    ZoneId.of(config.statsTimezone()));
+            case Config.STORAGE_BINARY -> new BinaryUserDataRepository(achievementEngine, ZoneId.of(config.statsTimezone()));
+            default -> new DataBaseUserDataRepository(config, achievementEngine);
+        };
+        UserDataRepository userDataRepository = storage;
+        if (userDataRepository instanceof CsvUserDataRepository csvRepository) {
+            registerCsvMetrics(metrics, csvRepository);
+        }
+        DataBaseTimerQueue timerQueue = null;
+        if (userDataRepository instanceof DataBaseUserDataRepository dataBaseRepository) {
+            registerPoolMetrics(metrics, dataBaseRepository);
+            // Секции истории на следующий месяц и архивация старых - при запуске и раз в сутки
+            var partitionManager = new SessionPartitionManager(dataBaseRepository, config);
+            partitionManager.startSchedule();
+            Runtime.getRuntime().addShutdownHook(new Thread(partitionManager::close));
+            if (Config.TIMER_ENGINE_DB.equals(config.timerEngine())) {
+                timerQueue = new DataBaseTimerQueue(dataBaseRepository, config, metrics);
+            }
+        }
+        // Задержка хранилища для приёма обновлений; без новых вызовов её оценка затухает за ~10 с
+        var storageLatency = new LatencyTracker(10_000);
+        if (config.metricsEnabled() || config.intakeDegradedLatencyMillis() > 0) {
+            // Оборачиваем само хранилище, а не очередь отложенной записи, чтобы измерять время работы с данными
+            userDataRepository = new MetricsUserDataRepository(userDataRepository, metrics, storageLatency);
+        }
+        if (config.writeBehindEnabled()) {
+            userDataRepository = new WriteBehindUserDataRepository(userDataRepository, config);
+        }
+        if (config.cacheEnabled()) {
+            // Кэш - внешний слой: запись сбрасывает его сразу, даже если сама она ещё в очереди отложенной записи
+            var cachingRepository = new CachingUserDataRepository(userDataRepository,
+                    config.cacheMaxSize(), TimeUnit.SECONDS.toMillis(config.cacheTtlSeconds()));
+            registerCacheMetrics(metrics, cachingRepository);
+            userDataRepository = cachingRepository;
+        }
+        // Сервис обращается к хранилищу без ожидания: вызовы выполняются в отдельных потоках,
+        // одновременно - не больше storageConcurrency (по умолчанию - по числу соединений пула), в очереди - не больше
+        // storageQueueCapacity
+        var asyncRepository = new ExecutorAsyncUserDataRepository(userDataRepository, config.storageConcurrency(),
+                config.storageQueueCapacity());
+        metrics.gauge("pomodoro_storage_in_flight", "Storage calls in progress", asyncRepository::inFlight);
+        metrics.gauge("pomodoro_storage_waiting", "Storage calls queued for a free thread", asyncRepository::waiting);
+        // Дописываем начатые и отложенные события и закрываем пул соединений при остановке приложения
+        Runtime.getRuntime().addShutdownHook(new Thread(asyncRepository::close));
+
+        // Колесо на 512 корзин при тике 100 мс делает оборот за ~51 с, более длинные таймеры ждут нужного оборота.
+        // При таймерах в БД движок в памяти не нужен
+        TimerEngine timerEngine = switch (config.timerEngine()) {
+            case Config.TIMER_ENGINE_DB -> null;
+            case Config.TIMER_ENGINE_EXECUTOR -> new ScheduledExecutorTimerEngine(config.timerWorkerThreads());
+            default -> new HashedWheelTimerEngine(config.timerTickMillis(), 512, config.timerWorkerThreads());
+        };
+        if (timerEngine != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(timerEngine::close));
+            registerTimerMetrics(metrics, timerEngine);
+        }
+
+        // Все исходящие сообщения идут через диспетчер с ограничением частоты; при остановке он дослает очередь
+        var messageDispatcher = new MessageDispatcher(telegramClient, config.telegramGlobalRate(), config.telegramChatRate(),
+                metrics);
+        Runtime.getRuntime().addShutdownHook(new Thread(messageDispatcher::close));
+
+        // Рейтинг собирается из итогов самого хранилища до восстановления таймеров:
+        // сессии, завершённые при восстановлении, сервис добавит в него сам
+        Leaderboard leaderboard = null;
+        if (storage instanceof Leaderboard.Source leaderboardSource) {
+            leaderboard = new Leaderboard(config.leaderboardSize());
+            leaderboard.rebuild(leaderboardSource, LocalDateTime.now());
+            if (timerQueue != null && config.leaderboardRefreshSeconds() > 0) {
+                // Сессии завершают все узлы, а в рейтинг узла сразу попадают только его завершения
+                leaderboard.startRefresh(leaderboardSource, config.leaderboardRefreshSeconds());
+                Runtime.getRuntime().addShutdownHook(new Thread(leaderboard::close));
+            }
+        }
+
+        var pomodoroService = new PomodoroServiceImpl(asyncRepository, messageDispatcher, timerEngine, timerQueue,
+                leaderboard, config, metrics);
+        achievementEngine.addListener(pomodoroService);
+        if (timerQueue != null) {
+            // Узлы с общей БД забирают наступившие таймеры по очереди; опрос начинается, когда есть кому уведомлять
+            timerQueue.setListener(pomodoroService);
+            timerQueue.startPolling();
+            Runtime.getRuntime().addShutdownHook(new Thread(timerQueue::close));
+        }
+        // Восстанавливаем таймеры, запущенные до перезапуска
+        pomodoroService.recoverSessions();
 
-        var pomodoroService = new PomodoroServiceImpl(userDataRepository, telegramClient, config);
+        // Обновления разных чатов обрабатываются параллельно, одного чата - по порядку
+        var bot = new PomodoroBot(messageDispatcher, pomodoroService, metrics);
+        LongPollingUpdateConsumer updateConsumer = bot;
+        if (config.updateWorkerThreads() > 1) {
+            var parallelConsumer = new ParallelUpdateConsumer(bot, config.updateWorkerThreads(), config.updateMaxInFlight());
+            Runtime.getRuntime().addShutdownHook(new Thread(parallelConsumer::close));
+            metrics.gauge("pomodoro_updates_in_flight", "Accepted updates that are not processed yet", parallelConsumer::inFlight);
+            updateConsumer = parallelConsumer;
+        }
+        // Перед обработкой - отсев повторов, лимиты команд на чат и отказ в тяжёлых командах при медленном хранилище
+        var updateIntake = new UpdateIntake(updateConsumer, messageDispatcher, config.intakeQueueCapacity(),
+                new double[]{config.intakeControlRate(), config.intakeReadRate(), config.intakeExportRate()},
+                storageLatency, config.intakeDegradedLatencyMillis(), metrics);
+        Runtime.getRuntime().addShutdownHook(new Thread(updateIntake::close));
+        updateConsumer = updateIntake;
+
+        // Вебхук: Telegram сам присылает обновления на встроенный HTTP-сервер
+        if (Config.UPDATE_SOURCE_WEBHOOK.equals(config.updateSource())) {
+            var webhookServer = new WebhookServer(updateConsumer, config.webhookPort(), config.webhookPath(),
+                    config.webhookSecret(), config.webhookQueueCapacity(), metrics);
+            Runtime.getRuntime().addShutdownHook(new Thread(webhookServer::close));
+            if (config.webhookUrl() != null && !config.webhookUrl().isEmpty()) {
+                registerWebhook(telegramClient, config);
+            }
+            System.out.println("Bot is running (webhook)!");
+            try {
+                Thread.currentThread().join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
 
         try (var botsApplication = new TelegramBotsLongPollingApplication()) {
-            botsApplication.registerBot(botToken, new PomodoroBot(telegramClient, pomodoroService));
+            botsApplication.registerBot(botToken, updateConsumer);
             System.out.println("Bot is running!");
             Thread.currentThread().join();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Регистрирует адрес вебхука в Telegram вместе с секретом, который будет приходить в заголовке запросов.
+     */
+    private static void registerWebhook(TelegramClient telegramClient, Config config) {
+        try {
+            telegramClient.execute(SetWebhook.builder()
+                    .url(config.webhookUrl())
+                    .secretToken(config.webhookSecret())
+                    .build());
+            System.out.println("Webhook registered: " + config.webhookUrl());
+        } catch (TelegramApiException e) {
+            throw new RuntimeException("Не удалось зарегистрировать вебхук", e);
+        }
+    }
+
+    /**
+     * Применяет недостающие миграции схемы, если хранилище - БД и это не отключено (DB_MIGRATE=false).
+     */
+    private static void migrateSchema(Config config) {
+        if (Config.STORAGE_DB.equals(config.storageType()) && config.dbMigrate()) {
+            new SchemaMigrator(config).migrate();
+        }
+    }
+
+    private static void registerTimerMetrics(MetricsRegistry metrics, TimerEngine timerEngine) {
+        metrics.counter("pomodoro_timer_scheduled_total", "Timers scheduled", () -> timerEngine.stats().scheduledCount());
+        metrics.counter("pomodoro_timer_fired_total", "Timers fired", () -> timerEngine.stats().firedCount());
+        metrics.counter("pomodoro_timer_cancelled_total", "Timers cancelled", () -> timerEngine.stats().cancelledCount());
+        metrics.gauge("pomodoro_timer_pending", "Timers waiting to fire", () -> timerEngine.stats().pendingCount());
+        metrics.gauge("pomodoro_timer_max_lag_milliseconds", "Maximum timer firing lag", () -> timerEngine.stats().maxLagMillis());
+        metrics.gauge("pomodoro_timer_last_tick_lag_milliseconds", "Lag of the last timer wheel tick",
+                () -> timerEngine.stats().lastTickLagMillis());
+    }
+
+    private static void registerCacheMetrics(MetricsRegistry metrics, CachingUserDataRepository repository) {
+        metrics.counter("pomodoro_cache_requests_total", "Cache lookups by result",
+                () -> repository.stats().hitCount(), "result", "hit");
+        metrics.counter("pomodoro_cache_requests_total", "Cache lookups by result",
+                () -> repository.stats().missCount(), "result", "miss");
+        metrics.counter("pomodoro_cache_coalesced_loads_total", "Misses that waited for a load already in progress",
+                () -> repository.stats().coalescedLoadCount());
+        metrics.counter("pomodoro_cache_evictions_total", "Entries evicted by size",
+                () -> repository.stats().evictionCount());
+        metrics.gauge("pomodoro_cache_size", "Cached entries", () -> repository.stats().size());
+        metrics.gauge("pomodoro_cache_hit_ratio", "Share of lookups served from cache", () -> repository.stats().hitRatio());
+    }
+
+    private static void registerCsvMetrics(MetricsRegistry metrics, CsvUserDataRepository repository) {
+        metrics.counter("pomodoro_csv_fsync_requests_total", "Journal writes that waited for a group fsync",
+                () -> repository.syncStats().requestCount());
+        metrics.counter("pomodoro_csv_fsyncs_total", "Group fsync calls on CSV journals",
+                () -> repository.syncStats().syncCount());
+    }
+
+    private static void registerPoolMetrics(MetricsRegistry metrics, DataBaseUserDataRepository repository) {
+        metrics.gauge("pomodoro_db_pool_connections", "Open database connections",
+                () -> repository.getPoolStats().openConnections(), "state", "open");
+        metrics.gauge("pomodoro_db_pool_connections", "Open database connections",
+                () -> repository.getPoolStats().inUseConnections(), "state", "in_use");
+        metrics.gauge("pomodoro_db_pool_connections", "Open database connections",
+                () -> repository.getPoolStats().idleConnections(), "state", "idle");
+        metrics.gauge("pomodoro_db_pool_waiting_threads", "Threads waiting for a connection",
+                () -> repository.getPoolStats().waitingThreads());
+        metrics.counter("pomodoro_db_pool_timeouts_total", "Connection acquisitions that timed out",
+                () -> repository.getPoolStats().timeoutCount());
+        metrics.gauge("pomodoro_db_pool_max_wait_microseconds", "Longest wait for a connection",
+                () -> repository.getPoolStats().maxWaitMicros());
+    }
 }
@@ -0,0 +1,63 @@
+package achievement;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пересчёт достижений по всей истории: чаты независимы, поэтому обрабатываются параллельно.
+ */
+public final class AchievementBackfill {
+    private AchievementBackfill() {
+    }
+
+    /**
+     * Хранилище, умеющее пересчитать достижения одного чата.
+     */
+    public interface Target {
+        List<Long> listChatIds();
+
+        /**
+         * Пересчитывает прогресс и достижения чата по истории.
+         * Возвращает false, если пошаговый прогон разошёлся с подсчётом с нуля.
+         */
+        boolean backfillAchievements(long chatId);
+    }
+
+    public static void run(Target target, int parallelism) {
+        long startedAt = System.currentTimeMillis();
+        List<Long> chatIds = target.listChatIds();
+        AtomicInteger mismatches = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> futures = chatIds.stream()
+                    .<Future<?>>map(chatId -> executor.submit(() -> {
+                        try {
+                            if (!target.backfillAchievements(chatId)) {
+                                mismatches.incrementAndGet();
+                                System.out.println("Прогресс достижений chatId=" + chatId + " расходится с подсчётом с нуля");
+                            }
+                        } catch (RuntimeException e) {
+                            failures.incrementAndGet();
+                            System.out.println("Не удалось пересчитать достижения chatId=" + chatId + ": " + e.getMessage());
+                        }
+                    }))
+                    .toList();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to backfill achievements", e);
+        } finally {
+            executor.shutdown();
+        }
+
+        System.out.println("Achievements backfilled for " + chatIds.size() + " chats in "
+                + (System.currentTimeMillis() - startedAt) + " ms, mismatches: " + mismatches.get()
+                + ", failures: " + failures.get());
+    }
+}
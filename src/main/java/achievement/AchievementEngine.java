@@ -0,0 +1,142 @@
+package achievement;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Движок достижений.
+ * На каждую завершённую сессию обновляет прогресс чата и проверяет правила - O(1), без чтения истории.
+ * Хранилище сохраняет прогресс и новые достижения вместе с завершением сессии и затем вызывает {@link #publish}.
+ *
+ * Для первого подсчёта и пересчёта есть прогон всей истории ({@link #replay}) и независимый
+ * подсчёт с нуля ({@link #evaluateHistory}), которым проверяется пошаговый результат.
+ */
+public class AchievementEngine {
+    private static final String WORK = "WORK";
+
+    private final List<AchievementRule> rules;
+    private final List<AchievementListener> listeners = new CopyOnWriteArrayList<>();
+
+    public AchievementEngine(List<AchievementRule> rules) {
+        if (rules.size() > Long.SIZE) {
+            throw new IllegalArgumentException("Не больше " + Long.SIZE + " правил достижений");
+        }
+        this.rules = List.copyOf(rules);
+    }
+
+    public static AchievementEngine withDefaultRules() {
+        return new AchievementEngine(AchievementRules.defaults());
+    }
+
+    public void addListener(AchievementListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Влияет ли завершение сессии такого типа на прогресс.
+     */
+    public boolean affects(String sessionType) {
+        return WORK.equalsIgnoreCase(sessionType);
+    }
+
+    /**
+     * Учитывает завершённую сессию и возвращает достижения, полученные благодаря ей.
+     */
+    public List<Award> onSessionCompleted(AchievementProgress progress, String sessionType, int durationMinutes,
+                                          LocalDateTime stopAt) {
+        if (!affects(sessionType)) {
+            return List.of();
+        }
+        progress.addWork(durationMinutes, stopAt.toLocalDate());
+
+        List<Award> awards = null;
+        for (int i = 0; i < rules.size(); i++) {
+            AchievementRule rule = rules.get(i);
+            if (!progress.isAwarded(i) && rule.isSatisfied(progress)) {
+                progress.markAwarded(i);
+                if (awards == null) {
+                    awards = new ArrayList<>();
+                }
+                awards.add(new Award(rule.name(), rule.description(), stopAt));
+            }
+        }
+        return awards == null ? List.of() : awards;
+    }
+
+    /**
+     * Пошаговый прогон истории, как если бы сессии завершались по одной.
+     * Даёт прогресс и все достижения с моментами их получения.
+     */
+    public Replay replay(List<CompletedSession> sessions) {
+        List<CompletedSession> ordered = new ArrayList<>(sessions);
+        ordered.sort(Comparator.comparing(CompletedSession::stopAt));
+
+        AchievementProgress progress = new AchievementProgress();
+        List<Award> awards = new ArrayList<>();
+        for (CompletedSession session : ordered) {
+            awards.addAll(onSessionCompleted(progress, session.sessionType(), session.durationMinutes(), session.stopAt()));
+        }
+        return new Replay(progress, awards);
+    }
+
+    /**
+     * Подсчёт прогресса с нуля по всей истории, независимо от пошагового обновления.
+     */
+    public AchievementProgress evaluateHistory(List<CompletedSession> sessions) {
+        long workCycles = 0;
+        long workMinutes = 0;
+        TreeSet<LocalDate> workDays = new TreeSet<>();
+        for (CompletedSession session : sessions) {
+            if (WORK.equalsIgnoreCase(session.sessionType())) {
+                workCycles++;
+                workMinutes += session.durationMinutes();
+                workDays.add(session.stopAt().toLocalDate());
+            }
+        }
+
+        int longestStreak = 0;
+        int streak = 0;
+        LocalDate previous = null;
+        for (LocalDate day : workDays) {
+            streak = previous != null && day.equals(previous.plusDays(1)) ? streak + 1 : 1;
+            longestStreak = Math.max(longestStreak, streak);
+            previous = day;
+        }
+
+        AchievementProgress progress = new AchievementProgress(workCycles, workMinutes, streak, longestStreak,
+                workDays.isEmpty() ? null : workDays.last(), 0);
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).isSatisfied(progress)) {
+                progress.markAwarded(i);
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * Передаёт сохранённые достижения слушателям (например, для уведомления пользователя).
+     */
+    public void publish(long chatId, List<Award> awards) {
+        if (awards.isEmpty()) {
+            return;
+        }
+        for (AchievementListener listener : listeners) {
+            try {
+                listener.onAwarded(chatId, awards);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Результат прогона истории.
+     */
+    public record Replay(AchievementProgress progress, List<Award> awards) {
+    }
+}
@@ -0,0 +1,10 @@
+package achievement;
+
+import java.util.List;
+
+/**
+ * Получает новые достижения после того, как они сохранены.
+ */
+public interface AchievementListener {
+    void onAwarded(long chatId, List<Award> awards);
+}
@@ -0,0 +1,106 @@
+package achievement;
+
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Прогресс чата: счётчики, серия дней с рабочими циклами и маска уже полученных достижений.
+ * Обновляется на каждую завершённую сессию за O(1), историю для этого читать не нужно.
+ */
+public class AchievementProgress {
+    private long workCycles;
+    private long workMinutes;
+    // Серия - дни подряд, в каждый из которых завершён хотя бы один рабочий цикл
+    private int currentStreak;
+    private int longestStreak;
+    private LocalDate lastWorkDay;
+    // Бит i - получено достижение с индексом i в списке правил
+    private long awardedMask;
+
+    public AchievementProgress() {
+    }
+
+    public AchievementProgress(long workCycles, long workMinutes, int currentStreak, int longestStreak,
+                               LocalDate lastWorkDay, long awardedMask) {
+        this.workCycles = workCycles;
+        this.workMinutes = workMinutes;
+        this.currentStreak = currentStreak;
+        this.longestStreak = longestStreak;
+        this.lastWorkDay = lastWorkDay;
+        this.awardedMask = awardedMask;
+    }
+
+    /**
+     * Учитывает завершённый рабочий цикл. Циклы, пришедшие не по порядку дней, серию не меняют.
+     */
+    void addWork(int durationMinutes, LocalDate day) {
+        workCycles++;
+        workMinutes += durationMinutes;
+
+        if (lastWorkDay == null || day.isAfter(lastWorkDay)) {
+            currentStreak = lastWorkDay != null && day.equals(lastWorkDay.plusDays(1)) ? currentStreak + 1 : 1;
+            lastWorkDay = day;
+            longestStreak = Math.max(longestStreak, currentStreak);
+        }
+    }
+
+    boolean isAwarded(int ruleIndex) {
+        return (awardedMask & (1L << ruleIndex)) != 0;
+    }
+
+    void markAwarded(int ruleIndex) {
+        awardedMask |= 1L << ruleIndex;
+    }
+
+    public long workCycles() {
+        return workCycles;
+    }
+
+    public long workMinutes() {
+        return workMinutes;
+    }
+
+    public int currentStreak() {
+        return currentStreak;
+    }
+
+    public int longestStreak() {
+        return longestStreak;
+    }
+
+    public LocalDate lastWorkDay() {
+        return lastWorkDay;
+    }
+
+    public long awardedMask() {
+        return awardedMask;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AchievementProgress that)) {
+            return false;
+        }
+        return workCycles == that.workCycles
+                && workMinutes == that.workMinutes
+                && currentStreak == that.currentStreak
+                && longestStreak == that.longestStreak
+                && awardedMask == that.awardedMask
+                && Objects.equals(lastWorkDay, that.lastWorkDay);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(workCycles, workMinutes, currentStreak, longestStreak, lastWorkDay, awardedMask);
+    }
+
+    @Override
+    public String toString() {
+        return "AchievementProgress[workCycles=" + workCycles + ", workMinutes=" + workMinutes
+                + ", currentStreak=" + currentStreak + ", longestStreak=" + longestStreak
+                + ", lastWorkDay=" + lastWorkDay + ", awardedMask=" + awardedMask + "]";
+    }
+}
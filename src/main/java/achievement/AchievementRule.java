@@ -0,0 +1,13 @@
+package achievement;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Правило достижения: значение счётчика прогресса достигло порога.
+ */
+public record AchievementRule(String name, String description, ToLongFunction<AchievementProgress> metric, long threshold) {
+
+    public boolean isSatisfied(AchievementProgress progress) {
+        return metric.applyAsLong(progress) >= threshold;
+    }
+}
@@ -0,0 +1,32 @@
+package achievement;
+
+import java.util.List;
+
+/**
+ * Набор правил по умолчанию.
+ * Полученные достижения хранятся битовой маской по позиции правила в списке,
+ * поэтому новые правила добавляются только в конец, а существующие не удаляются и не переставляются.
+ */
+public final class AchievementRules {
+    private AchievementRules() {
+    }
+
+    public static List<AchievementRule> defaults() {
+        return List.of(
+                new AchievementRule("Первый помидор", "Завершён первый рабочий цикл",
+                        AchievementProgress::workCycles, 1),
+                new AchievementRule("Десять помидоров", "Завершено 10 рабочих циклов",
+                        AchievementProgress::workCycles, 10),
+                new AchievementRule("Сотня помидоров", "Завершено 100 рабочих циклов",
+                        AchievementProgress::workCycles, 100),
+                new AchievementRule("Пять дней подряд", "Рабочие циклы 5 дней подряд",
+                        AchievementProgress::longestStreak, 5),
+                new AchievementRule("Месяц без пропусков", "Рабочие циклы 30 дней подряд",
+                        AchievementProgress::longestStreak, 30),
+                new AchievementRule("10 часов фокуса", "10 часов в рабочих циклах",
+                        AchievementProgress::workMinutes, 10 * 60),
+                new AchievementRule("100 часов фокуса", "100 часов в рабочих циклах",
+                        AchievementProgress::workMinutes, 100 * 60)
+        );
+    }
+}
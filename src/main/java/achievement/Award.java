@@ -0,0 +1,9 @@
+package achievement;
+
+import java.time.LocalDateTime;
+
+/**
+ * Полученное достижение.
+ */
+public record Award(String name, String description, LocalDateTime achievedAt) {
+}
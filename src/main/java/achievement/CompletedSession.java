@@ -0,0 +1,9 @@
+package achievement;
+
+import java.time.LocalDateTime;
+
+/**
+ * Завершённая сессия из истории - вход для пересчёта достижений с нуля.
+ */
+public record CompletedSession(String sessionType, int durationMinutes, LocalDateTime stopAt) {
+}
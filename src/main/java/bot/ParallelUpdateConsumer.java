@@ -0,0 +1,144 @@
+package bot;
+
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
+import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Многопоточная обработка обновлений.
+ * У каждого чата своя очередь: обновления одного чата обрабатываются строго по порядку,
+ * разные чаты - параллельно на общем пуле потоков. Медленная команда задерживает только свой чат.
+ *
+ * Число обновлений в работе ограничено: когда лимит исчерпан, передающий поток ждёт, пока не освободится место.
+ * В приложении это поток {@link UpdateIntake}: пока он ждёт, новые обновления копятся в его очереди.
+ */
+public class ParallelUpdateConsumer implements LongPollingUpdateConsumer, AutoCloseable {
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final LongPollingSingleThreadUpdateConsumer delegate;
+    private final ExecutorService workers;
+    private final Semaphore inFlightPermits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Очереди чатов, у которых есть необработанные обновления
+    private final Map<Long, ChatLane> lanes = new ConcurrentHashMap<>();
+
+    public ParallelUpdateConsumer(LongPollingSingleThreadUpdateConsumer delegate, int threads, int maxInFlight) {
+        this.delegate = delegate;
+        this.inFlightPermits = new Semaphore(maxInFlight);
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "update-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void consume(List<Update> updates) {
+        for (Update update : updates) {
+            try {
+                inFlightPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            inFlight.incrementAndGet();
+            submit(chatIdOf(update), update);
+        }
+    }
+
+    /**
+     * Количество принятых, но ещё не обработанных обновлений.
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(long chatId, Update update) {
+        while (true) {
+            ChatLane lane = lanes.computeIfAbsent(chatId, ChatLane::new);
+            synchronized (lane) {
+                // Очередь могла опустеть и быть удалена из карты - берём новую
+                if (lane.removed) {
+                    continue;
+                }
+                lane.updates.add(update);
+                if (!lane.running) {
+                    lane.running = true;
+                    workers.execute(() -> drain(lane));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Обрабатывает обновления чата по одному, пока очередь не опустеет.
+     */
+    private void drain(ChatLane lane) {
+        while (true) {
+            Update update;
+            synchronized (lane) {
+                update = lane.updates.poll();
+                if (update == null) {
+                    lane.running = false;
+                    lane.removed = true;
+                    lanes.remove(lane.chatId, lane);
+                    return;
+                }
+            }
+            try {
+                delegate.consume(update);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                inFlight.decrementAndGet();
+                inFlightPermits.release();
+            }
+        }
+    }
+
+    /**
+     * Обновления без сообщения (редкие служебные) обрабатываются в общей очереди.
+     */
+    private long chatIdOf(Update update) {
+        if (update.hasMessage()) {
+            return update.getMessage().getChatId();
+        }
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return 0L;
+    }
+
+    private static class ChatLane {
+        private final long chatId;
+        private final Queue<Update> updates = new ArrayDeque<>();
+        private boolean running;
+        private boolean removed;
+
+        ChatLane(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+}
@@ -1,63 +1,155 @@
 package bot;
 
+import messaging.MessageDispatcher;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
-import org.telegram.telegrambots.meta.generics.TelegramClient;
 import service.PomodoroService;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 public class PomodoroBot implements LongPollingSingleThreadUpdateConsumer {
 
-    private final TelegramClient telegramClient;
+    private final MessageDispatcher messageDispatcher;
     private final PomodoroService pomodoroService;
 
-    public PomodoroBot(TelegramClient telegramClient, PomodoroService pomodoroService) {
-        this.telegramClient = telegramClient;
+    // Время обработки каждой команды
+    private final Histogram startPomoDuration;
+    private final Histogram stopDuration;
+    private final Histogram statsDuration;
+    private final Histogram achievementsDuration;
+    private final Histogram exportStatsDuration;
+    private final Histogram topDuration;
+    private final Histogram unknownCommandDuration;
+    private final Counter commandErrors;
+    private final Counter nonTextUpdates;
+    // Последний ещё не отправленный ответ каждого чата: следующие ответы чата отправляются после него.
+    // Доступ - под блокировкой самой карты
+    private final Map<Long, CompletableFuture<Void>> lastReplies = new HashMap<>();
+
+    public PomodoroBot(MessageDispatcher messageDispatcher, PomodoroService pomodoroService, MetricsRegistry metrics) {
+        this.messageDispatcher = messageDispatcher;
         this.pomodoroService = pomodoroService;
+
+        String name = "pomodoro_command_seconds";
+        String help = "Duration of bot command handling";
+        this.startPomoDuration = metrics.histogram(name, help, "command", "start_pomo");
+        this.stopDuration = metrics.histogram(name, help, "command", "stop");
+        this.statsDuration = metrics.histogram(name, help, "command", "stats");
+        this.achievementsDuration = metrics.histogram(name, help, "command", "achievements");
+        this.exportStatsDuration = metrics.histogram(name, help, "command", "export_stats");
+        this.topDuration = metrics.histogram(name, help, "command", "top");
+        this.unknownCommandDuration = metrics.histogram(name, help, "command", "unknown");
+        this.commandErrors = metrics.counter("pomodoro_command_errors_total", "Bot commands that failed with an exception");
+        this.nonTextUpdates = metrics.counter("pomodoro_non_text_updates_total", "Updates without a text message");
     }
 
     @Override
     public void consume(Update update) {
         if (!update.hasMessage() || !update.getMessage().hasText()) {
+            nonTextUpdates.increment();
             System.out.println("Update не содержит текста: " + update.getUpdateId());
             return;
         }
 
         String messageText = update.getMessage().getText().trim();
         long chatId = update.getMessage().getChatId();
+        long start = System.nanoTime();
+        Histogram duration = unknownCommandDuration;
 
-        // Разбираем команды
-        if (messageText.startsWith("/start_pomo")) {
-            pomodoroService.startPomodoro(chatId);
-            sendTextMessage(chatId, "Pomodoro запущен!");
-        } else if (messageText.startsWith("/stop")) {
-            pomodoroService.stopPomodoro(chatId);
-            sendTextMessage(chatId, "Pomodoro остановлен!");
-        } else if (messageText.startsWith("/stats")) {
-            String stats = pomodoroService.getStatistics(chatId);
-            sendTextMessage(chatId, stats);
-        } else if (messageText.startsWith("/achievements")) {
-            String achievements = pomodoroService.getAchievements(chatId);
-            sendTextMessage(chatId, achievements);
-        } else if (messageText.startsWith("/export_stats")) {
-            // В реальной реализации здесь следует отправить CSV-файл через SendDocument
-            pomodoroService.exportStatistics(chatId);
-            sendTextMessage(chatId, "Статистика экспортирована (файл отправлен).");
-        } else {
-            sendTextMessage(chatId, "Неизвестная команда.\nДоступные команды: /start_pomo, /stop, /stats, /achievements, /export_stats.");
+        try {
+            // Разбираем команды
+            if (messageText.startsWith("/start_pomo")) {
+                duration = startPomoDuration;
+                pomodoroService.startPomodoro(chatId);
+                sendTextMessage(chatId, "Pomodoro запущен!");
+            } else if (messageText.startsWith("/stop")) {
+                duration = stopDuration;
+                pomodoroService.stopPomodoro(chatId);
+                sendTextMessage(chatId, "Pomodoro остановлен!");
+            } else if (messageText.startsWith("/stats")) {
+                duration = statsDuration;
+                // Период - после команды: /stats week, /stats 2025-01-01 2025-01-31
+                reply(chatId, pomodoroService.getStatistics(chatId, commandArgument(messageText)), duration, start);
+                duration = null;
+            } else if (messageText.startsWith("/achievements")) {
+                duration = achievementsDuration;
+                reply(chatId, pomodoroService.getAchievements(chatId), duration, start);
+                duration = null;
+            } else if (messageText.startsWith("/export_stats")) {
+                duration = exportStatsDuration;
+                // CSV-файл отправляется сервисом через SendDocument
+                pomodoroService.exportStatistics(chatId);
+            } else if (messageText.startsWith("/top")) {
+                duration = topDuration;
+                String leaderboard = pomodoroService.getLeaderboard(chatId);
+                sendTextMessage(chatId, leaderboard);
+            } else {
+                sendTextMessage(chatId, "Неизвестная команда.\nДоступные команды: /start_pomo, /stop, /stats, /achievements, /export_stats, /top.");
+            }
+        } catch (RuntimeException e) {
+            commandErrors.increment();
+            throw e;
+        } finally {
+            // Время команд с ответом из хранилища считается, когда ответ готов
+            if (duration != null) {
+                duration.observeSince(start);
+            }
         }
     }
 
+    /**
+     * Отправляет ответ, когда хранилище его вернёт; поток обработки обновлений его не ждёт.
+     */
+    private void reply(long chatId, CompletableFuture<String> answer, Histogram duration, long start) {
+        sendInOrder(chatId, answer.handle((text, error) -> {
+            duration.observeSince(start);
+            if (error != null) {
+                commandErrors.increment();
+                error.printStackTrace();
+                return "Не удалось выполнить команду, попробуйте позже.";
+            }
+            return text;
+        }));
+    }
+
+    /**
+     * Текст после команды; упоминание бота (/stats@bot week) пропускается.
+     */
+    private static String commandArgument(String messageText) {
+        int space = messageText.indexOf(' ');
+        return space < 0 ? "" : messageText.substring(space + 1).trim();
+    }
+
     private void sendTextMessage(long chatId, String text) {
-        SendMessage message = SendMessage.builder()
-                .chatId(chatId)
-                .text(text)
-                .build();
-        try {
-            telegramClient.execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+        sendInOrder(chatId, CompletableFuture.completedFuture(text));
+    }
+
+    /**
+     * Отправляет ответы чата в порядке команд: готовый ответ ждёт ещё не готовые ответы на предыдущие команды
+     * (/top после /stats не обгонит статистику). Если ждать нечего, ответ уходит сразу.
+     */
+    private void sendInOrder(long chatId, CompletableFuture<String> text) {
+        synchronized (lastReplies) {
+            CompletableFuture<Void> previous = lastReplies.get(chatId);
+            if (previous == null && text.isDone()) {
+                messageDispatcher.send(chatId, text.join());
+                return;
+            }
+            CompletableFuture<String> ready = previous == null
+                    ? text
+                    : previous.exceptionally(error -> null).thenCompose(ignored -> text);
+            CompletableFuture<Void> sent = ready.thenAccept(message -> messageDispatcher.send(chatId, message));
+            lastReplies.put(chatId, sent);
+            sent.whenComplete((ignored, error) -> {
+                synchronized (lastReplies) {
+                    lastReplies.remove(chatId, sent);
+                }
+            });
         }
     }
 }
\ No newline at end of file
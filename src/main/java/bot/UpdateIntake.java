@@ -0,0 +1,335 @@
+package bot;
+
+import messaging.MessageDispatcher;
+import messaging.TokenBucket;
+import metrics.LatencyTracker;
+import metrics.MetricsRegistry;
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Приём обновлений перед обработкой: лишняя нагрузка отсекается до того, как дойдёт до команд и хранилища.
+ * - Повторно доставленное обновление (тот же updateId) отбрасывается: помнятся последние DEDUP_WINDOW id
+ * - У каждого чата свои корзины токенов на класс команд, у дорогих команд лимит строже. На первое превышение
+ *   чат получает ответ «слишком часто», дальше, пока не появится токен, обновления отбрасываются молча
+ * - Пока средняя задержка хранилища выше порога, чтение и выгрузка сразу получают ответ «перегружен»
+ * - Принятые обновления ждут в ограниченной очереди. Когда свободной осталась только десятая часть очереди,
+ *   обновления, не меняющие состояние (чтение, выгрузка, /top, прочий текст), отбрасываются - ещё до проверки
+ *   повторов, чтобы повторная доставка того же обновления могла пройти, - и чат получает ответ «перегружен».
+ *   /start_pomo и /stop не отбрасываются никогда: для них оставлен этот запас, а если занят и он,
+ *   передающий поток ждёт места в очереди
+ * Из очереди обновления пачками забирает отдельный поток и передаёт следующему обработчику.
+ * Передающий поток один (long polling или поток вебхука), поэтому место, проверенное перед приёмом, не займут.
+ */
+public class UpdateIntake implements LongPollingUpdateConsumer, AutoCloseable {
+    private static final int MAX_BATCH = 100;
+    // Сколько последних updateId помнится (степень двойки). Telegram нумерует обновления подряд,
+    // поэтому повтор любого из последних DEDUP_WINDOW обновлений узнаётся точно
+    private static final int DEDUP_WINDOW = 4096;
+    // Как часто из карты убираются чаты, корзины которых снова полны
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Класс команды: свой лимит на чат (из конфигурации) и свой запас команд подряд.
+     */
+    public enum CommandClass {
+        // /start_pomo, /stop и всё, что не требует чтения истории (/top отвечает из рейтинга в памяти)
+        CONTROL(10),
+        // /stats, /achievements
+        READ(3),
+        // /export_stats
+        EXPORT(1);
+
+        private final int burst;
+
+        CommandClass(int burst) {
+            this.burst = burst;
+        }
+
+        /**
+         * Класс команды по тексту сообщения.
+         */
+        public static CommandClass of(String messageText) {
+            if (messageText.startsWith("/export_stats")) {
+                return EXPORT;
+            }
+            if (messageText.startsWith("/stats") || messageText.startsWith("/achievements")) {
+                return READ;
+            }
+            return CONTROL;
+        }
+    }
+
+    static final String OVERLOADED_REPLY = "Сервис сейчас перегружен, повторите команду позже.";
+
+    private final LongPollingUpdateConsumer delegate;
+    private final MessageDispatcher messageDispatcher;
+    private final BlockingQueue<Update> queue;
+    // Места в очереди, которые занимают только команды, меняющие состояние
+    private final int reservedCapacity;
+    // Лимит на чат (команд в секунду) по классам команд
+    private final double[] rates;
+    private final LatencyTracker storageLatency;
+    private final long degradedLatencyMillis;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    // Состояние ниже - под блокировкой this
+    private final long[] seenUpdateIds = new long[DEDUP_WINDOW];
+    private final Map<Long, ChatLimits> chats = new HashMap<>();
+    private long lastSweepNanos = System.nanoTime();
+
+    // Счётчики
+    private final LongAdder acceptedCount = new LongAdder();
+    private final LongAdder duplicateCount = new LongAdder();
+    private final LongAdder queueFullCount = new LongAdder();
+    private final LongAdder[] throttledCount = new LongAdder[CommandClass.values().length];
+    private final LongAdder[] degradedCount = new LongAdder[CommandClass.values().length];
+
+    /**
+     * @param delegate              обработчик принятых обновлений
+     * @param rates                 лимиты на чат (команд в секунду) для CONTROL, READ и EXPORT
+     * @param storageLatency        текущая задержка хранилища
+     * @param degradedLatencyMillis порог задержки, выше которого READ и EXPORT отклоняются (0 - не отклонять)
+     */
+    public UpdateIntake(LongPollingUpdateConsumer delegate, MessageDispatcher messageDispatcher, int queueCapacity,
+                        double[] rates, LatencyTracker storageLatency, long degradedLatencyMillis,
+                        MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.messageDispatcher = messageDispatcher;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.reservedCapacity = queueCapacity / 10;
+        this.rates = rates.clone();
+        this.storageLatency = storageLatency;
+        this.degradedLatencyMillis = degradedLatencyMillis;
+        Arrays.fill(seenUpdateIds, -1);
+
+        String name = "pomodoro_intake_updates_total";
+        String help = "Incoming updates by intake decision";
+        metrics.counter(name, help, acceptedCount::sum, "result", "accepted");
+        metrics.counter(name, help, duplicateCount::sum, "result", "duplicate");
+        metrics.counter(name, help, queueFullCount::sum, "result", "queue_full");
+        for (CommandClass commandClass : CommandClass.values()) {
+            int i = commandClass.ordinal();
+            throttledCount[i] = new LongAdder();
+            degradedCount[i] = new LongAdder();
+            String label = commandClass.name().toLowerCase();
+            metrics.counter(name, help, throttledCount[i]::sum, "result", "throttled", "class", label);
+            if (commandClass != CommandClass.CONTROL) {
+                metrics.counter(name, help, degradedCount[i]::sum, "result", "degraded", "class", label);
+            }
+        }
+        metrics.gauge("pomodoro_intake_queue_size", "Accepted updates waiting for processing", queue::size);
+        metrics.gauge("pomodoro_intake_tracked_chats", "Chats with command limits in memory", this::trackedChats);
+
+        this.worker = new Thread(this::dispatchLoop, "update-intake");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void consume(List<Update> updates) {
+        for (Update update : updates) {
+            boolean changesState = changesState(update);
+            if (!changesState && queue.remainingCapacity() <= reservedCapacity) {
+                shed(update);
+                continue;
+            }
+            if (!admit(update)) {
+                continue;
+            }
+            if (changesState) {
+                try {
+                    queue.put(update);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } else if (!queue.offer(update)) {
+                shed(update);
+                continue;
+            }
+            acceptedCount.increment();
+        }
+    }
+
+    public IntakeStats stats() {
+        long throttled = 0;
+        long degraded = 0;
+        for (int i = 0; i < throttledCount.length; i++) {
+            throttled += throttledCount[i].sum();
+            degraded += degradedCount[i].sum();
+        }
+        return new IntakeStats(acceptedCount.sum(), duplicateCount.sum(), throttled, degraded, queueFullCount.sum(),
+                queue.size(), trackedChats());
+    }
+
+    /**
+     * Дорабатывает то, что уже в очереди (но не дольше CLOSE_TIMEOUT_SECONDS), и останавливает поток обработки.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Решает, принять ли обновление: повтор, превышение лимита чата и чтение при медленном хранилище - нет.
+     */
+    private synchronized boolean admit(Update update) {
+        if (isDuplicate(update.getUpdateId())) {
+            duplicateCount.increment();
+            return false;
+        }
+        // Обновления без текста обрабатываются дёшево, лимиты на них не тратятся
+        if (!update.hasMessage() || !update.getMessage().hasText()) {
+            return true;
+        }
+        long chatId = update.getMessage().getChatId();
+        CommandClass commandClass = CommandClass.of(update.getMessage().getText().trim());
+        int i = commandClass.ordinal();
+
+        long now = System.nanoTime();
+        if (now - lastSweepNanos > SWEEP_INTERVAL_NANOS) {
+            chats.values().removeIf(ChatLimits::isIdle);
+            lastSweepNanos = now;
+        }
+        ChatLimits limits = chats.computeIfAbsent(chatId, id -> new ChatLimits(rates));
+        TokenBucket bucket = limits.buckets[i];
+        if (!bucket.tryAcquire()) {
+            throttledCount[i].increment();
+            if (!limits.notified[i]) {
+                limits.notified[i] = true;
+                long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(bucket.nanosUntilAvailable() + 999_999_999));
+                messageDispatcher.send(chatId, "Слишком частые запросы, повторите через " + seconds + " с.");
+            }
+            return false;
+        }
+        limits.notified[i] = false;
+
+        if (commandClass != CommandClass.CONTROL && degradedLatencyMillis > 0
+                && storageLatency.averageMillis() > degradedLatencyMillis) {
+            degradedCount[i].increment();
+            messageDispatcher.send(chatId, OVERLOADED_REPLY);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Команды, меняющие состояние чата: их потеря оставила бы таймер запущенным или не запустила бы его.
+     */
+    private static boolean changesState(Update update) {
+        if (!update.hasMessage() || !update.getMessage().hasText()) {
+            return false;
+        }
+        String text = update.getMessage().getText().trim();
+        return text.startsWith("/start_pomo") || text.startsWith("/stop");
+    }
+
+    /**
+     * Отбрасывает обновление при переполненной очереди; на команду чат получает ответ, остальное - молча.
+     */
+    private void shed(Update update) {
+        queueFullCount.increment();
+        if (update.hasMessage() && update.getMessage().hasText() && update.getMessage().getText().startsWith("/")) {
+            messageDispatcher.send(update.getMessage().getChatId(), OVERLOADED_REPLY);
+        }
+    }
+
+    private boolean isDuplicate(Integer updateId) {
+        if (updateId == null) {
+            return false;
+        }
+        int slot = updateId & (DEDUP_WINDOW - 1);
+        if (seenUpdateIds[slot] == updateId) {
+            return true;
+        }
+        seenUpdateIds[slot] = updateId;
+        return false;
+    }
+
+    private synchronized int trackedChats() {
+        return chats.size();
+    }
+
+    /**
+     * Передаёт обновления обработчику. После остановки дорабатывает то, что уже в очереди.
+     */
+    private void dispatchLoop() {
+        List<Update> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                Update first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                delegate.consume(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Корзины чата по классам команд и отметка, что о превышении лимита чат уже предупреждён.
+     */
+    private static final class ChatLimits {
+        final TokenBucket[] buckets = new TokenBucket[CommandClass.values().length];
+        final boolean[] notified = new boolean[CommandClass.values().length];
+
+        ChatLimits(double[] rates) {
+            for (CommandClass commandClass : CommandClass.values()) {
+                buckets[commandClass.ordinal()] = new TokenBucket(commandClass.burst, rates[commandClass.ordinal()]);
+            }
+        }
+
+        /**
+         * Все корзины полны: запись можно убрать, новая будет такой же.
+         */
+        boolean isIdle() {
+            for (TokenBucket bucket : buckets) {
+                if (bucket.nanosUntilFull() > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Снимок счётчиков приёма.
+     */
+    public record IntakeStats(
+            long acceptedCount,
+            long duplicateCount,
+            long throttledCount,
+            long degradedCount,
+            long queueFullCount,
+            int queueSize,
+            int trackedChats
+    ) {
+    }
+}
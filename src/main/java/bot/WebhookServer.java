@@ -0,0 +1,214 @@
+package bot;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Приём обновлений через вебхук Telegram - замена long polling.
+ * - Встроенный HTTP-сервер принимает POST с JSON-обновлением на заданном пути
+ * - Заголовок X-Telegram-Bot-Api-Secret-Token сверяется с секретом, указанным при регистрации вебхука
+ * - Обновление кладётся в ограниченную очередь, и запрос сразу подтверждается ответом 200.
+ *   Если очередь заполнена, отвечаем 503 - Telegram повторит доставку позже
+ * - Отдельный поток забирает обновления пачками и передаёт их тому же обработчику, что и long polling
+ *
+ * Для локальной проверки достаточно отправить записанное обновление:
+ * curl -H "X-Telegram-Bot-Api-Secret-Token: $WEBHOOK_SECRET" -d @update.json http://localhost:8080/telegram/webhook
+ */
+public class WebhookServer implements AutoCloseable {
+    public static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    // Сколько обновлений передаётся обработчику за раз (столько же Telegram отдаёт за один запрос long polling)
+    private static final int MAX_BATCH = 100;
+    private static final int HTTP_THREADS = 4;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+    // Сколько байт тела отказанного запроса дочитываем, чтобы сохранить соединение; больше - соединение закрывается
+    private static final long MAX_DRAIN_BYTES = 8 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService httpExecutor;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final BlockingQueue<Update> queue;
+    private final LongPollingUpdateConsumer consumer;
+    private final byte[] secret;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    // Счётчики
+    private final Counter accepted;
+    private final Counter unauthorized;
+    private final Counter malformed;
+    private final Counter rejectedQueueFull;
+
+    public WebhookServer(LongPollingUpdateConsumer consumer, int port, String path, String secret, int queueCapacity,
+                         MetricsRegistry metrics) {
+        this.consumer = consumer;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        String name = "pomodoro_webhook_requests_total";
+        String help = "Webhook requests by result";
+        this.accepted = metrics.counter(name, help, "result", "accepted");
+        this.unauthorized = metrics.counter(name, help, "result", "unauthorized");
+        this.malformed = metrics.counter(name, help, "result", "malformed");
+        this.rejectedQueueFull = metrics.counter(name, help, "result", "queue_full");
+        metrics.gauge("pomodoro_webhook_queue_size", "Updates received by webhook and waiting for processing", queue::size);
+
+        this.dispatcher = new Thread(this::dispatchLoop, "webhook-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+
+        this.httpExecutor = Executors.newFixedThreadPool(HTTP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "webhook-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            throw new RuntimeException("Не удалось запустить сервер вебхука на порту " + port, e);
+        }
+        server.setExecutor(httpExecutor);
+        server.createContext(path, this::handle);
+        server.start();
+        System.out.println("Webhook is listening on port " + port() + ", path " + path);
+    }
+
+    /**
+     * Порт, на котором слушает сервер (полезно, если при запуске указан 0).
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public int queueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Перестаёт принимать запросы и дожидается обработки уже принятых обновлений.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        httpExecutor.shutdown();
+        running = false;
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                reject(exchange, 405);
+                return;
+            }
+            String token = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+            if (token == null || !MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8))) {
+                unauthorized.increment();
+                reject(exchange, 401);
+                return;
+            }
+
+            Update update;
+            try (InputStream body = exchange.getRequestBody()) {
+                update = objectMapper.readValue(body, Update.class);
+            } catch (IOException e) {
+                // Повтор такого запроса не поможет, поэтому отвечаем 400, а не 5xx
+                malformed.increment();
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            if (!queue.offer(update)) {
+                rejectedQueueFull.increment();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            accepted.increment();
+            exchange.sendResponseHeaders(200, -1);
+        }
+    }
+
+    /**
+     * Отвечает отказом. Небольшое тело (не больше MAX_DRAIN_BYTES по Content-Length) дочитывается, и соединение
+     * остаётся открытым для следующего запроса. Большое или неизвестной длины не читается: ответ уходит
+     * с Connection: close, и соединение закрывается - клиент без секрета не займёт поток сервера передачей тела.
+     */
+    private static void reject(HttpExchange exchange, int status) throws IOException {
+        if (!drainSmallBody(exchange)) {
+            exchange.getResponseHeaders().set("Connection", "close");
+        }
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private static boolean drainSmallBody(HttpExchange exchange) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength == null) {
+            // Без Content-Length тело есть только у передачи по частям, её длина заранее неизвестна
+            return exchange.getRequestHeaders().getFirst("Transfer-Encoding") == null;
+        }
+        try {
+            if (Long.parseLong(contentLength.trim()) > MAX_DRAIN_BYTES) {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        try (InputStream body = exchange.getRequestBody()) {
+            body.transferTo(OutputStream.nullOutputStream());
+            return true;
+        } catch (IOException e) {
+            // Соединение оборвано - отвечать уже некому
+            return false;
+        }
+    }
+
+    /**
+     * Передаёт обновления обработчику. После остановки дорабатывает то, что уже в очереди.
+     */
+    private void dispatchLoop() {
+        List<Update> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                Update first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                consumer.consume(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+}
@@ -1,28 +1,257 @@
 package config;
 
+import java.time.DateTimeException;
+import java.time.ZoneId;
+
 public record Config(
     String botApiToken,
     int workDuration,
     int restDuration,
+    // Хранилище данных: db, csv или binary
+    String storageType,
     // Необходимо добавить в решении для работы с JDBC
     String dbUrl,
     String dbUser,
-    String dbPassword
+    String dbPassword,
+    // Настройки пула соединений с БД
+    int dbPoolSize,
+    long dbPoolTimeoutMillis,
+    int dbConnectionMaxLifetimeMinutes,
+    // Отложенная запись событий сеансов
+    boolean writeBehindEnabled,
+    int writeBehindBatchSize,
+    long writeBehindFlushIntervalMillis,
+    int writeBehindQueueCapacity,
+    // Сжимать ли файл экспорта статистики (gzip)
+    boolean exportGzip,
+    // Движок таймеров: wheel, executor или db (таймеры в БД, общие для нескольких узлов; тик - период опроса)
+    String timerEngine,
+    long timerTickMillis,
+    int timerWorkerThreads,
+    // Ограничения частоты отправки сообщений в Telegram (сообщений в секунду)
+    double telegramGlobalRate,
+    double telegramChatRate,
+    // Обработка обновлений: число потоков (1 - однопоточный режим) и предел обновлений в работе
+    int updateWorkerThreads,
+    int updateMaxInFlight,
+    // Метрики в формате Prometheus на локальном порту
+    boolean metricsEnabled,
+    int metricsPort,
+    // Кэш статистики и достижений: размер в строках и время жизни записи (0 - без ограничения)
+    boolean cacheEnabled,
+    int cacheMaxSize,
+    long cacheTtlSeconds,
+    // Источник обновлений: polling или webhook; для вебхука - порт и путь встроенного сервера,
+    // секрет из заголовка запроса, размер очереди и публичный адрес для регистрации вебхука (необязателен)
+    String updateSource,
+    int webhookPort,
+    String webhookPath,
+    String webhookSecret,
+    int webhookQueueCapacity,
+    String webhookUrl,
+    // Сколько наступивших таймеров узел забирает из БД за раз
+    int timerQueueBatchSize,
+    // Применять ли миграции схемы при запуске; версия, до которой схема создана вручную (0 - нет такой);
+    // сколько месяцев хранить историю сессий в БД (0 - хранить всю)
+    boolean dbMigrate,
+    int dbMigrationBaseline,
+    int sessionRetentionMonths,
+    // Сброс журнала CSV-хранилища на диск: none, always или group (групповой fsync)
+    String csvFsync,
+    // Рейтинг /top: сколько мест показывать и как часто (в секундах) пересобирать его из БД при таймерах в БД,
+    // когда сессии завершают несколько узлов (0 - не пересобирать)
+    int leaderboardSize,
+    long leaderboardRefreshSeconds,
+    // Часовой пояс, в котором сессии раскладываются по дням для /stats day|week|month (идентификатор ZoneId)
+    String statsTimezone,
+    // Перенос истории из CSV в БД (команда csv-to-db): сколько сессий записывать одной транзакцией COPY
+    int migrationBatchRows,
+    // Приём обновлений перед обработкой: размер очереди; лимиты на чат (команд в секунду) для команд управления
+    // (/start_pomo, /stop и прочих), чтения (/stats, /achievements, /top) и выгрузки (/export_stats);
+    // задержка хранилища в мс, после которой чтение и выгрузка отклоняются (0 - не отклонять)
+    int intakeQueueCapacity,
+    double intakeControlRate,
+    double intakeReadRate,
+    double intakeExportRate,
+    long intakeDegradedLatencyMillis,
+    // Сколько обращений к хранилищу выполняется одновременно и сколько может ждать в очереди (когда она
+    // заполнена, неблокирующие вызовы сервиса ждут места в ней)
+    int storageConcurrency,
+    int storageQueueCapacity
 ) {
     public Config {
         if (botApiToken == null || botApiToken.isEmpty()) {
             throw new RuntimeException("Токен не задан!");
         }
 
+        if (!STORAGE_DB.equals(storageType) && !STORAGE_CSV.equals(storageType) && !STORAGE_BINARY.equals(storageType)) {
+            throw new RuntimeException("Неизвестный тип хранилища: " + storageType);
+        }
+
         // Необходимо добавить в решении для работы с JDBC
-        if (dbUrl == null || dbUrl.isEmpty()) {
-            throw new RuntimeException("URL базы данных не задан!");
+        // Настройки БД обязательны только для хранилища в БД
+        if (STORAGE_DB.equals(storageType)) {
+            if (dbUrl == null || dbUrl.isEmpty()) {
+                throw new RuntimeException("URL базы данных не задан!");
+            }
+            if (dbUser == null || dbUser.isEmpty()) {
+                throw new RuntimeException("Пользователь базы данных не задан!");
+            }
+            if (dbPassword == null || dbPassword.isEmpty()) {
+                throw new RuntimeException("Пароль базы данных не задан!");
+            }
+        }
+
+        if (dbMigrationBaseline < 0) {
+            throw new RuntimeException("Версия схемы не может быть отрицательной!");
+        }
+        if (sessionRetentionMonths < 0) {
+            throw new RuntimeException("Срок хранения истории не может быть отрицательным!");
+        }
+
+        if (dbPoolSize <= 0) {
+            throw new RuntimeException("Размер пула соединений должен быть больше нуля!");
+        }
+        if (dbPoolTimeoutMillis <= 0) {
+            throw new RuntimeException("Таймаут ожидания соединения должен быть больше нуля!");
+        }
+        if (dbConnectionMaxLifetimeMinutes <= 0) {
+            throw new RuntimeException("Время жизни соединения должно быть больше нуля!");
+        }
+
+        if (!TIMER_ENGINE_WHEEL.equals(timerEngine) && !TIMER_ENGINE_EXECUTOR.equals(timerEngine)
+                && !TIMER_ENGINE_DB.equals(timerEngine)) {
+            throw new RuntimeException("Неизвестный движок таймеров: " + timerEngine);
         }
-        if (dbUser == null || dbUser.isEmpty()) {
-            throw new RuntimeException("Пользователь базы данных не задан!");
+        // Таймеры в БД пишут историю сессий в своей транзакции, в обход очереди отложенной записи и кэша;
+        // кэш одного узла к тому же не видит записей других узлов
+        if (TIMER_ENGINE_DB.equals(timerEngine)) {
+            if (!STORAGE_DB.equals(storageType)) {
+                throw new RuntimeException("Таймеры в БД работают только с хранилищем db");
+            }
+            if (writeBehindEnabled || cacheEnabled) {
+                throw new RuntimeException("Таймеры в БД несовместимы с отложенной записью и кэшем");
+            }
+            if (timerQueueBatchSize <= 0) {
+                throw new RuntimeException("Размер пачки таймеров должен быть больше нуля!");
+            }
         }
-        if (dbPassword == null || dbPassword.isEmpty()) {
-            throw new RuntimeException("Пароль базы данных не задан!");
+        if (timerTickMillis <= 0) {
+            throw new RuntimeException("Длительность тика таймера должна быть больше нуля!");
+        }
+        if (timerWorkerThreads <= 0) {
+            throw new RuntimeException("Количество потоков таймеров должно быть больше нуля!");
+        }
+
+        if (telegramGlobalRate <= 0 || telegramChatRate <= 0) {
+            throw new RuntimeException("Частота отправки сообщений должна быть больше нуля!");
+        }
+
+        if (updateWorkerThreads <= 0) {
+            throw new RuntimeException("Количество потоков обработки обновлений должно быть больше нуля!");
+        }
+        if (updateMaxInFlight <= 0) {
+            throw new RuntimeException("Предел обновлений в работе должен быть больше нуля!");
+        }
+
+        if (metricsEnabled && (metricsPort <= 0 || metricsPort > 65535)) {
+            throw new RuntimeException("Некорректный порт метрик: " + metricsPort);
+        }
+
+        if (cacheEnabled) {
+            if (cacheMaxSize <= 0) {
+                throw new RuntimeException("Размер кэша должен быть больше нуля!");
+            }
+            if (cacheTtlSeconds < 0) {
+                throw new RuntimeException("Время жизни записи кэша не может быть отрицательным!");
+            }
+        }
+
+        if (!UPDATE_SOURCE_POLLING.equals(updateSource) && !UPDATE_SOURCE_WEBHOOK.equals(updateSource)) {
+            throw new RuntimeException("Неизвестный источник обновлений: " + updateSource);
+        }
+        if (UPDATE_SOURCE_WEBHOOK.equals(updateSource)) {
+            if (webhookPort <= 0 || webhookPort > 65535) {
+                throw new RuntimeException("Некорректный порт вебхука: " + webhookPort);
+            }
+            if (webhookPath == null || !webhookPath.startsWith("/")) {
+                throw new RuntimeException("Путь вебхука должен начинаться с /: " + webhookPath);
+            }
+            if (webhookSecret == null || webhookSecret.isEmpty()) {
+                throw new RuntimeException("Секрет вебхука не задан!");
+            }
+            if (webhookQueueCapacity <= 0) {
+                throw new RuntimeException("Размер очереди вебхука должен быть больше нуля!");
+            }
+        }
+
+        if (!CSV_FSYNC_NONE.equals(csvFsync) && !CSV_FSYNC_ALWAYS.equals(csvFsync) && !CSV_FSYNC_GROUP.equals(csvFsync)) {
+            throw new RuntimeException("Неизвестный режим сброса CSV на диск: " + csvFsync);
+        }
+
+        if (leaderboardSize <= 0) {
+            throw new RuntimeException("Размер рейтинга должен быть больше нуля!");
+        }
+        if (leaderboardRefreshSeconds < 0) {
+            throw new RuntimeException("Период пересборки рейтинга не может быть отрицательным!");
+        }
+
+        try {
+            ZoneId.of(statsTimezone);
+        } catch (DateTimeException | NullPointerException e) {
+            throw new RuntimeException("Неизвестный часовой пояс статистики: " + statsTimezone);
+        }
+
+        if (migrationBatchRows <= 0) {
+            throw new RuntimeException("Размер пачки переноса истории должен быть больше нуля!");
+        }
+
+        if (intakeQueueCapacity <= 0) {
+            throw new RuntimeException("Размер очереди приёма обновлений должен быть больше нуля!");
+        }
+        if (intakeControlRate <= 0 || intakeReadRate <= 0 || intakeExportRate <= 0) {
+            throw new RuntimeException("Лимиты команд на чат должны быть больше нуля!");
+        }
+        if (intakeDegradedLatencyMillis < 0) {
+            throw new RuntimeException("Порог задержки хранилища не может быть отрицательным!");
+        }
+
+        if (storageConcurrency <= 0) {
+            throw new RuntimeException("Число одновременных обращений к хранилищу должно быть больше нуля!");
+        }
+        if (storageQueueCapacity <= 0) {
+            throw new RuntimeException("Размер очереди обращений к хранилищу должен быть больше нуля!");
+        }
+
+        if (writeBehindEnabled) {
+            if (writeBehindBatchSize <= 0) {
+                throw new RuntimeException("Размер пачки отложенной записи должен быть больше нуля!");
+            }
+            if (writeBehindFlushIntervalMillis <= 0) {
+                throw new RuntimeException("Интервал отложенной записи должен быть больше нуля!");
+            }
+            if (writeBehindQueueCapacity <= 0) {
+                throw new RuntimeException("Размер очереди отложенной записи должен быть больше нуля!");
+            }
         }
     }
+
+    // Типы хранилища
+    public static final String STORAGE_DB = "db";
+    public static final String STORAGE_CSV = "csv";
+    public static final String STORAGE_BINARY = "binary";
+
+    // Движки таймеров
+    public static final String TIMER_ENGINE_WHEEL = "wheel";
+    public static final String TIMER_ENGINE_EXECUTOR = "executor";
+    public static final String TIMER_ENGINE_DB = "db";
+
+    // Источники обновлений
+    public static final String UPDATE_SOURCE_POLLING = "polling";
+    public static final String UPDATE_SOURCE_WEBHOOK = "webhook";
+
+    // Режимы сброса журнала CSV на диск
+    public static final String CSV_FSYNC_NONE = "none";
+    public static final String CSV_FSYNC_ALWAYS = "always";
+    public static final String CSV_FSYNC_GROUP = "group";
 }
@@ -1,5 +1,7 @@
 package config;
 
+import java.time.ZoneId;
+
 public class ConfigReaderEnvironment {
     public Config read() {
         String token = System.getenv("BOT_API_TOKEN");
@@ -9,12 +11,141 @@ public class ConfigReaderEnvironment {
         int workDuration = (workDurationStr != null) ? Integer.parseInt(workDurationStr) : 25;
         int restDuration = (restDurationStr != null) ? Integer.parseInt(restDurationStr) : 5;
 
+        // Хранилище данных (по умолчанию - БД)
+        String storageTypeStr = System.getenv("STORAGE_TYPE");
+        String storageType = (storageTypeStr != null) ? storageTypeStr : Config.STORAGE_DB;
+
         // Необходимо добавить в решении для работы с JDBC
         // Читаем конфигурацию базы данных из переменных окружения
         String dbUrl = System.getenv("DB_URL");
         String dbUser = System.getenv("DB_USER");
         String dbPassword = System.getenv("DB_PASSWORD");
 
-        return new Config(token, workDuration, restDuration, dbUrl, dbUser, dbPassword);
+        // Настройки пула соединений (если не заданы, используются значения по умолчанию)
+        String dbPoolSizeStr = System.getenv("DB_POOL_SIZE");
+        String dbPoolTimeoutStr = System.getenv("DB_POOL_TIMEOUT_MS");
+        String dbMaxLifetimeStr = System.getenv("DB_CONNECTION_MAX_LIFETIME_MINUTES");
+        int dbPoolSize = (dbPoolSizeStr != null) ? Integer.parseInt(dbPoolSizeStr) : 10;
+        long dbPoolTimeoutMillis = (dbPoolTimeoutStr != null) ? Long.parseLong(dbPoolTimeoutStr) : 5000;
+        int dbMaxLifetimeMinutes = (dbMaxLifetimeStr != null) ? Integer.parseInt(dbMaxLifetimeStr) : 30;
+
+        // Отложенная запись событий сеансов (по умолчанию выключена)
+        String writeBehindEnabledStr = System.getenv("WRITE_BEHIND_ENABLED");
+        String writeBehindBatchSizeStr = System.getenv("WRITE_BEHIND_BATCH_SIZE");
+        String writeBehindFlushIntervalStr = System.getenv("WRITE_BEHIND_FLUSH_INTERVAL_MS");
+        String writeBehindQueueCapacityStr = System.getenv("WRITE_BEHIND_QUEUE_CAPACITY");
+        boolean writeBehindEnabled = Boolean.parseBoolean(writeBehindEnabledStr);
+        int writeBehindBatchSize = (writeBehindBatchSizeStr != null) ? Integer.parseInt(writeBehindBatchSizeStr) : 500;
+        long writeBehindFlushIntervalMillis = (writeBehindFlushIntervalStr != null) ? Long.parseLong(writeBehindFlushIntervalStr) : 200;
+        int writeBehindQueueCapacity = (writeBehindQueueCapacityStr != null) ? Integer.parseInt(writeBehindQueueCapacityStr) : 10_000;
+
+        // Сжатие файла экспорта статистики (по умолчанию выключено)
+        boolean exportGzip = Boolean.parseBoolean(System.getenv("EXPORT_GZIP"));
+
+        // Движок таймеров (по умолчанию - колесо таймеров)
+        String timerEngineStr = System.getenv("TIMER_ENGINE");
+        String timerTickStr = System.getenv("TIMER_TICK_MS");
+        String timerWorkerThreadsStr = System.getenv("TIMER_WORKER_THREADS");
+        String timerEngine = (timerEngineStr != null) ? timerEngineStr : Config.TIMER_ENGINE_WHEEL;
+        long timerTickMillis = (timerTickStr != null) ? Long.parseLong(timerTickStr) : 100;
+        int timerWorkerThreads = (timerWorkerThreadsStr != null) ? Integer.parseInt(timerWorkerThreadsStr) : 8;
+
+        // Ограничения частоты отправки сообщений (по умолчанию - лимиты Telegram: 30 в секунду на бота, 1 в секунду на чат)
+        String telegramGlobalRateStr = System.getenv("TELEGRAM_GLOBAL_RATE");
+        String telegramChatRateStr = System.getenv("TELEGRAM_CHAT_RATE");
+        double telegramGlobalRate = (telegramGlobalRateStr != null) ? Double.parseDouble(telegramGlobalRateStr) : 30;
+        double telegramChatRate = (telegramChatRateStr != null) ? Double.parseDouble(telegramChatRateStr) : 1;
+
+        // Параллельная обработка обновлений (по умолчанию - 8 потоков, не больше 1000 обновлений в работе)
+        String updateWorkerThreadsStr = System.getenv("UPDATE_WORKER_THREADS");
+        String updateMaxInFlightStr = System.getenv("UPDATE_MAX_IN_FLIGHT");
+        int updateWorkerThreads = (updateWorkerThreadsStr != null) ? Integer.parseInt(updateWorkerThreadsStr) : 8;
+        int updateMaxInFlight = (updateMaxInFlightStr != null) ? Integer.parseInt(updateMaxInFlightStr) : 1000;
+
+        // Метрики (по умолчанию выключены, порт 9091)
+        boolean metricsEnabled = Boolean.parseBoolean(System.getenv("METRICS_ENABLED"));
+        String metricsPortStr = System.getenv("METRICS_PORT");
+        int metricsPort = (metricsPortStr != null) ? Integer.parseInt(metricsPortStr) : 9091;
+
+        // Кэш статистики и достижений (по умолчанию выключен; 10 000 строк, без ограничения времени жизни)
+        boolean cacheEnabled = Boolean.parseBoolean(System.getenv("CACHE_ENABLED"));
+        String cacheMaxSizeStr = System.getenv("CACHE_MAX_SIZE");
+        String cacheTtlStr = System.getenv("CACHE_TTL_SECONDS");
+        int cacheMaxSize = (cacheMaxSizeStr != null) ? Integer.parseInt(cacheMaxSizeStr) : 10_000;
+        long cacheTtlSeconds = (cacheTtlStr != null) ? Long.parseLong(cacheTtlStr) : 0;
+
+        // Источник обновлений (по умолчанию - long polling) и настройки вебхука
+        String updateSourceStr = System.getenv("UPDATE_SOURCE");
+        String updateSource = (updateSourceStr != null) ? updateSourceStr : Config.UPDATE_SOURCE_POLLING;
+        String webhookPortStr = System.getenv("WEBHOOK_PORT");
+        String webhookPathStr = System.getenv("WEBHOOK_PATH");
+        String webhookQueueCapacityStr = System.getenv("WEBHOOK_QUEUE_CAPACITY");
+        int webhookPort = (webhookPortStr != null) ? Integer.parseInt(webhookPortStr) : 8080;
+        String webhookPath = (webhookPathStr != null) ? webhookPathStr : "/telegram/webhook";
+        String webhookSecret = System.getenv("WEBHOOK_SECRET");
+        int webhookQueueCapacity = (webhookQueueCapacityStr != null) ? Integer.parseInt(webhookQueueCapacityStr) : 10_000;
+        String webhookUrl = System.getenv("WEBHOOK_URL");
+
+        // Размер пачки таймеров, забираемых из БД за раз (для TIMER_ENGINE=db)
+        String timerQueueBatchSizeStr = System.getenv("TIMER_QUEUE_BATCH_SIZE");
+        int timerQueueBatchSize = (timerQueueBatchSizeStr != null) ? Integer.parseInt(timerQueueBatchSizeStr) : 100;
+
+        // Миграции схемы (по умолчанию применяются при запуске) и срок хранения истории (по умолчанию - без ограничения)
+        String dbMigrateStr = System.getenv("DB_MIGRATE");
+        String dbMigrationBaselineStr = System.getenv("DB_MIGRATION_BASELINE");
+        String sessionRetentionMonthsStr = System.getenv("SESSION_RETENTION_MONTHS");
+        boolean dbMigrate = (dbMigrateStr != null) ? Boolean.parseBoolean(dbMigrateStr) : true;
+        int dbMigrationBaseline = (dbMigrationBaselineStr != null) ? Integer.parseInt(dbMigrationBaselineStr) : 0;
+        int sessionRetentionMonths = (sessionRetentionMonthsStr != null) ? Integer.parseInt(sessionRetentionMonthsStr) : 0;
+
+        // Сброс журнала CSV на диск (по умолчанию - без fsync)
+        String csvFsyncStr = System.getenv("CSV_FSYNC");
+        String csvFsync = (csvFsyncStr != null) ? csvFsyncStr : Config.CSV_FSYNC_NONE;
+
+        // Рейтинг /top: 10 мест, пересборка из БД раз в 5 минут (только при таймерах в БД)
+        String leaderboardSizeStr = System.getenv("LEADERBOARD_SIZE");
+        String leaderboardRefreshSecondsStr = System.getenv("LEADERBOARD_REFRESH_SECONDS");
+        int leaderboardSize = (leaderboardSizeStr != null) ? Integer.parseInt(leaderboardSizeStr) : 10;
+        long leaderboardRefreshSeconds = (leaderboardRefreshSecondsStr != null) ? Long.parseLong(leaderboardRefreshSecondsStr) : 300;
+
+        // Часовой пояс дневной статистики (по умолчанию - пояс сервера)
+        String statsTimezoneStr = System.getenv("STATS_TIMEZONE");
+        String statsTimezone = (statsTimezoneStr != null) ? statsTimezoneStr : ZoneId.systemDefault().getId();
+
+        // Перенос истории из CSV в БД: по 50 000 сессий на транзакцию
+        String migrationBatchRowsStr = System.getenv("MIGRATION_BATCH_ROWS");
+        int migrationBatchRows = (migrationBatchRowsStr != null) ? Integer.parseInt(migrationBatchRowsStr) : 50_000;
+
+        // Приём обновлений: очередь на 1000 обновлений; на чат - команда управления в секунду, чтение раз в 5 с,
+        // выгрузка раз в минуту; при средней задержке хранилища больше 1 с чтение и выгрузка отклоняются
+        String intakeQueueCapacityStr = System.getenv("INTAKE_QUEUE_CAPACITY");
+        String intakeControlRateStr = System.getenv("INTAKE_CONTROL_RATE");
+        String intakeReadRateStr = System.getenv("INTAKE_READ_RATE");
+        String intakeExportRateStr = System.getenv("INTAKE_EXPORT_RATE");
+        String intakeDegradedLatencyMillisStr = System.getenv("INTAKE_DEGRADED_LATENCY_MILLIS");
+        int intakeQueueCapacity = (intakeQueueCapacityStr != null) ? Integer.parseInt(intakeQueueCapacityStr) : 1000;
+        double intakeControlRate = (intakeControlRateStr != null) ? Double.parseDouble(intakeControlRateStr) : 1.0;
+        double intakeReadRate = (intakeReadRateStr != null) ? Double.parseDouble(intakeReadRateStr) : 0.2;
+        double intakeExportRate = (intakeExportRateStr != null) ? Double.parseDouble(intakeExportRateStr) : 1.0 / 60;
+        long intakeDegradedLatencyMillis = (intakeDegradedLatencyMillisStr != null)
+                ? Long.parseLong(intakeDegradedLatencyMillisStr) : 0;
+
+        // Одновременных обращений к хранилищу - по умолчанию столько, сколько соединений в пуле
+        String storageConcurrencyStr = System.getenv("STORAGE_CONCURRENCY");
+        int storageConcurrency = (storageConcurrencyStr != null) ? Integer.parseInt(storageConcurrencyStr) : dbPoolSize;
+        String storageQueueCapacityStr = System.getenv("STORAGE_QUEUE_CAPACITY");
+        int storageQueueCapacity = (storageQueueCapacityStr != null) ? Integer.parseInt(storageQueueCapacityStr) : 10000;
+
+        return new Config(token, workDuration, restDuration, storageType, dbUrl, dbUser, dbPassword,
+                dbPoolSize, dbPoolTimeoutMillis, dbMaxLifetimeMinutes,
+                writeBehindEnabled, writeBehindBatchSize, writeBehindFlushIntervalMillis, writeBehindQueueCapacity,
+                exportGzip, timerEngine, timerTickMillis, timerWorkerThreads,
+                telegramGlobalRate, telegramChatRate, updateWorkerThreads, updateMaxInFlight,
+                metricsEnabled, metricsPort, cacheEnabled, cacheMaxSize, cacheTtlSeconds,
+                updateSource, webhookPort, webhookPath, webhookSecret, webhookQueueCapacity, webhookUrl,
+                timerQueueBatchSize, dbMigrate, dbMigrationBaseline, sessionRetentionMonths,
+                csvFsync, leaderboardSize, leaderboardRefreshSeconds, statsTimezone,
+                migrationBatchRows, intakeQueueCapacity, intakeControlRate, intakeReadRate, intakeExportRate,
+                intakeDegradedLatencyMillis, storageConcurrency, storageQueueCapacity);
     }
 }
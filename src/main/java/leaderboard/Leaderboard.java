@@ -0,0 +1,171 @@
+package leaderboard;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общий рейтинг по минутам фокуса (завершённые рабочие сессии) за текущую неделю и за всё время.
+ * Рейтинг живёт в памяти: при запуске собирается из итогов хранилища, затем обновляется
+ * при каждом завершении рабочей сессии. Поэтому /top отвечает без запросов к хранилищу.
+ * Неделя начинается в понедельник; с наступлением новой недели недельный рейтинг начинается заново.
+ */
+public class Leaderboard implements AutoCloseable {
+
+    public enum Window {
+        WEEK,
+        ALL_TIME
+    }
+
+    /**
+     * Место чата в рейтинге.
+     */
+    public record Place(int rank, long chatId, long minutes) {
+    }
+
+    /**
+     * Минуты фокуса чата: за всё время и с начала недели.
+     */
+    public record FocusTotals(long chatId, long allTimeMinutes, long weekMinutes) {
+    }
+
+    /**
+     * Хранилище, из итогов которого собирается рейтинг.
+     */
+    public interface Source {
+        /**
+         * Минуты фокуса всех чатов; недельные - по сессиям, завершённым не раньше weekStart.
+         */
+        List<FocusTotals> loadFocusTotals(LocalDateTime weekStart);
+    }
+
+    private final int size;
+    private RankingWindow allTime;
+    private RankingWindow week;
+    private LocalDate weekStart;
+
+    // Периодическая пересборка (null - не запускалась)
+    private ScheduledExecutorService scheduler;
+
+    public Leaderboard(int size) {
+        this.size = size;
+        this.allTime = new RankingWindow(size);
+        this.week = new RankingWindow(size);
+        this.weekStart = weekStart(LocalDateTime.now());
+    }
+
+    /**
+     * Завершённая рабочая сессия: минуты идут в рейтинг за всё время и, если сессия завершена на этой неделе, в недельный.
+     */
+    public synchronized void record(long chatId, long minutes, LocalDateTime completedAt) {
+        allTime.add(chatId, minutes);
+        LocalDate completedWeek = weekStart(completedAt);
+        if (completedWeek.isAfter(weekStart)) {
+            startWeek(completedWeek);
+        }
+        if (completedWeek.equals(weekStart)) {
+            week.add(chatId, minutes);
+        }
+    }
+
+    /**
+     * Лучшие чаты окна по убыванию минут.
+     */
+    public synchronized List<Place> top(Window window, LocalDateTime now) {
+        return window(window, now).top();
+    }
+
+    /**
+     * Место чата в окне или null, если минут в этом окне у него нет.
+     */
+    public synchronized Place place(Window window, long chatId, LocalDateTime now) {
+        return window(window, now).place(chatId);
+    }
+
+    /**
+     * Число чатов в рейтинге окна.
+     */
+    public synchronized int participants(Window window, LocalDateTime now) {
+        return window(window, now).size();
+    }
+
+    /**
+     * Собирает рейтинг заново из итогов хранилища. Чтение идёт без блокировки, рейтинг подменяется целиком.
+     */
+    public void rebuild(Source source, LocalDateTime now) {
+        long startedAt = System.currentTimeMillis();
+        LocalDate rebuiltWeek = weekStart(now);
+        List<FocusTotals> totals = source.loadFocusTotals(rebuiltWeek.atStartOfDay());
+
+        RankingWindow rebuiltAllTime = new RankingWindow(size);
+        RankingWindow rebuiltWeekWindow = new RankingWindow(size);
+        for (FocusTotals chatTotals : totals) {
+            rebuiltAllTime.add(chatTotals.chatId(), chatTotals.allTimeMinutes());
+            rebuiltWeekWindow.add(chatTotals.chatId(), chatTotals.weekMinutes());
+        }
+
+        synchronized (this) {
+            allTime = rebuiltAllTime;
+            week = rebuiltWeekWindow;
+            weekStart = rebuiltWeek;
+        }
+        System.out.println("Leaderboard rebuilt: " + totals.size() + " chats in "
+                + (System.currentTimeMillis() - startedAt) + " ms");
+    }
+
+    /**
+     * Пересборка раз в periodSeconds секунд. Нужна, когда сессии завершают несколько узлов:
+     * рейтинг каждого узла видит только свои завершения, остальные он получает из хранилища.
+     * Завершение, пришедшее во время пересборки, может не попасть в рейтинг до следующей.
+     */
+    public synchronized void startRefresh(Source source, long periodSeconds) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "leaderboard-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebuild(source, LocalDateTime.now());
+            } catch (RuntimeException e) {
+                // Ошибка уже залогирована хранилищем; до следующей попытки работает прежний рейтинг
+                e.printStackTrace();
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private RankingWindow window(Window window, LocalDateTime now) {
+        if (window == Window.ALL_TIME) {
+            return allTime;
+        }
+        LocalDate currentWeek = weekStart(now);
+        if (currentWeek.isAfter(weekStart)) {
+            startWeek(currentWeek);
+        }
+        return week;
+    }
+
+    private void startWeek(LocalDate start) {
+        week = new RankingWindow(size);
+        weekStart = start;
+    }
+
+    static LocalDate weekStart(LocalDateTime at) {
+        return at.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+}
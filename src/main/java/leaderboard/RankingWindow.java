@@ -0,0 +1,103 @@
+package leaderboard;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Рейтинг чатов по минутам фокуса за одно окно времени.
+ * - Минуты каждого чата хранятся в хэш-таблице
+ * - Лучшие capacity чатов - в упорядоченном множестве (больше минут - выше, при равенстве - меньший chatId).
+ *   Минуты чата только растут, поэтому чат вне топа может войти в него только сам, своим приростом:
+ *   достаточно сравнить его с последним в топе, и топ остаётся точным без пересчёта по всем чатам
+ * - Число чатов с каждым значением минут - в дереве: место чата = 1 + число чатов, у которых минут больше
+ *   (одинаковое время - одинаковое место)
+ * Класс не потокобезопасен, доступ синхронизирует {@link Leaderboard}.
+ */
+final class RankingWindow {
+    private static final Comparator<Entry> ORDER = Comparator.comparingLong(Entry::minutes).reversed()
+            .thenComparingLong(Entry::chatId);
+
+    private final int capacity;
+    private final Map<Long, Long> minutesByChat = new HashMap<>();
+    private final TreeMap<Long, Integer> chatsByMinutes = new TreeMap<>();
+    private final TreeSet<Entry> top = new TreeSet<>(ORDER);
+
+    RankingWindow(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Добавляет минуты фокуса чату.
+     */
+    void add(long chatId, long minutes) {
+        if (minutes <= 0) {
+            return;
+        }
+        Long previous = minutesByChat.get(chatId);
+        long current = previous == null ? minutes : previous + minutes;
+        minutesByChat.put(chatId, current);
+
+        if (previous != null) {
+            chatsByMinutes.compute(previous, (value, count) -> count == 1 ? null : count - 1);
+            top.remove(new Entry(chatId, previous));
+        }
+        chatsByMinutes.merge(current, 1, Integer::sum);
+
+        Entry entry = new Entry(chatId, current);
+        if (top.size() < capacity) {
+            top.add(entry);
+        } else if (ORDER.compare(entry, top.last()) < 0) {
+            top.add(entry);
+            top.pollLast();
+        }
+    }
+
+    /**
+     * Лучшие чаты по убыванию минут с их местами.
+     */
+    List<Leaderboard.Place> top() {
+        List<Leaderboard.Place> places = new ArrayList<>(top.size());
+        int rank = 0;
+        long previousMinutes = -1;
+        for (Entry entry : top) {
+            // Топ - точное начало общего порядка, поэтому место - позиция первого чата с тем же временем
+            if (entry.minutes() != previousMinutes) {
+                rank = places.size() + 1;
+                previousMinutes = entry.minutes();
+            }
+            places.add(new Leaderboard.Place(rank, entry.chatId(), entry.minutes()));
+        }
+        return places;
+    }
+
+    /**
+     * Место чата или null, если минут в этом окне у него нет.
+     * Обходит только значения больше минут чата, поэтому быстро для лидеров и не дольше числа различных значений.
+     */
+    Leaderboard.Place place(long chatId) {
+        Long minutes = minutesByChat.get(chatId);
+        if (minutes == null) {
+            return null;
+        }
+        int ahead = 0;
+        for (int count : chatsByMinutes.tailMap(minutes, false).values()) {
+            ahead += count;
+        }
+        return new Leaderboard.Place(ahead + 1, chatId, minutes);
+    }
+
+    /**
+     * Число чатов в рейтинге.
+     */
+    int size() {
+        return minutesByChat.size();
+    }
+
+    private record Entry(long chatId, long minutes) {
+    }
+}
@@ -0,0 +1,381 @@
+package messaging;
+
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Единая точка отправки сообщений в Telegram.
+ * Вызывающий поток только ставит сообщение в очередь чата, отправкой занимается отдельный поток:
+ * - сообщения уходят через executeAsync, поток не ждёт ответа Telegram
+ * - соблюдаются общий лимит бота и лимит на чат (корзины токенов)
+ * - на ответ 429 сообщение повторяется через retry_after, на сбои сети и 5xx - с экспоненциальной задержкой
+ * - подряд идущие текстовые сообщения одного чата, ещё не отправленные, склеиваются в одно
+ * Сообщения одного чата отправляются строго по очереди: следующее - только после ответа на предыдущее.
+ */
+public class MessageDispatcher implements AutoCloseable {
+    // Ограничение Telegram на длину текста сообщения
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+    private static final String MERGE_SEPARATOR = "\n\n";
+    // Сколько сообщений чат может получить подряд, прежде чем включится лимит на чат
+    private static final int CHAT_BURST = 3;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+    private final TelegramClient telegramClient;
+    private final TokenBucket globalBucket;
+    private final double chatRatePerSecond;
+
+    private final Map<Long, ChatQueue> chats = new ConcurrentHashMap<>();
+    // Чаты, готовые к отправке, с моментом, когда им можно отправлять
+    private final DelayQueue<Ticket> tickets = new DelayQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Thread dispatchThread;
+    private volatile boolean closed;
+    // До этого момента Telegram просил не отправлять ничего (ответ 429)
+    private volatile long pausedUntilNanos;
+
+    // Счётчики
+    private final LongAdder sentCount = new LongAdder();
+    private final LongAdder mergedCount = new LongAdder();
+    private final LongAdder retriedCount = new LongAdder();
+    private final LongAdder rateLimitedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    // Время запросов к Telegram, от отправки до ответа
+    private final Histogram sendMessageDuration;
+    private final Histogram sendDocumentDuration;
+
+    public MessageDispatcher(TelegramClient telegramClient, double globalRatePerSecond, double chatRatePerSecond,
+                             MetricsRegistry metrics) {
+        this.telegramClient = telegramClient;
+        this.globalBucket = new TokenBucket(globalRatePerSecond, globalRatePerSecond);
+        this.chatRatePerSecond = chatRatePerSecond;
+
+        this.sendMessageDuration = metrics.histogram("pomodoro_telegram_request_seconds",
+                "Duration of Telegram API calls", "method", "sendMessage");
+        this.sendDocumentDuration = metrics.histogram("pomodoro_telegram_request_seconds",
+                "Duration of Telegram API calls", "method", "sendDocument");
+        String requestsName = "pomodoro_telegram_requests_total";
+        String requestsHelp = "Telegram API calls by outcome";
+        metrics.counter(requestsName, requestsHelp, sentCount::sum, "result", "ok");
+        metrics.counter(requestsName, requestsHelp, retriedCount::sum, "result", "retried");
+        metrics.counter(requestsName, requestsHelp, rateLimitedCount::sum, "result", "rate_limited");
+        metrics.counter(requestsName, requestsHelp, droppedCount::sum, "result", "dropped");
+        metrics.counter("pomodoro_telegram_merged_messages_total", "Queued messages merged into the previous one",
+                mergedCount::sum);
+        metrics.gauge("pomodoro_telegram_queued_chats", "Chats with queued or recently sent messages", chats::size);
+        metrics.gauge("pomodoro_telegram_in_flight", "Telegram API calls awaiting a response", inFlight::get);
+
+        this.dispatchThread = new Thread(this::run, "message-dispatcher");
+        dispatchThread.setDaemon(true);
+        dispatchThread.start();
+    }
+
+    /**
+     * Ставит текстовое сообщение в очередь чата.
+     */
+    public void send(long chatId, String text) {
+        enqueue(chatId, new Outgoing(text, null, null));
+    }
+
+    /**
+     * Ставит документ в очередь чата. onComplete вызывается после отправки или окончательной ошибки.
+     */
+    public void sendDocument(long chatId, SendDocument document, Runnable onComplete) {
+        enqueue(chatId, new Outgoing(null, document, onComplete));
+    }
+
+    public DispatcherStats stats() {
+        return new DispatcherStats(
+                sentCount.sum(),
+                mergedCount.sum(),
+                retriedCount.sum(),
+                rateLimitedCount.sum(),
+                droppedCount.sum(),
+                chats.size(),
+                inFlight.get());
+    }
+
+    /**
+     * Отправляет то, что уже в очереди (но не дольше CLOSE_TIMEOUT_MILLIS), и останавливает поток отправки.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            dispatchThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatchThread.interrupt();
+    }
+
+    // ───────── Очередь ─────────
+
+    private void enqueue(long chatId, Outgoing outgoing) {
+        while (true) {
+            ChatQueue chat = chats.computeIfAbsent(chatId, ChatQueue::new);
+            synchronized (chat) {
+                // Чат мог быть удалён из карты как простаивающий - берём новый
+                if (chat.removed) {
+                    continue;
+                }
+                chat.messages.addLast(outgoing);
+                if (!chat.scheduled && !chat.inFlight) {
+                    schedule(chat, 0);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Вызывается под блокировкой чата.
+     */
+    private void schedule(ChatQueue chat, long delayNanos) {
+        chat.scheduled = true;
+        tickets.add(new Ticket(chat, System.nanoTime() + delayNanos));
+    }
+
+    /**
+     * Убирает простаивающий чат из карты. Вызывается под блокировкой чата.
+     * Пока корзина чата не восстановилась, чат остаётся в карте, иначе новая корзина позволила бы обойти лимит -
+     * проверка повторяется, когда корзина заполнится.
+     */
+    private void removeIfIdle(ChatQueue chat) {
+        if (!chat.messages.isEmpty() || chat.inFlight || chat.scheduled) {
+            return;
+        }
+        long untilFullNanos = chat.bucket.nanosUntilFull();
+        if (untilFullNanos > 0) {
+            schedule(chat, untilFullNanos);
+            return;
+        }
+        chat.removed = true;
+        chats.remove(chat.chatId, chat);
+    }
+
+    // ───────── Поток отправки ─────────
+
+    private void run() {
+        while (!closed || !tickets.isEmpty() || inFlight.get() > 0) {
+            Ticket ticket;
+            try {
+                ticket = tickets.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (ticket != null) {
+                dispatch(ticket.chat);
+            }
+        }
+    }
+
+    private void dispatch(ChatQueue chat) {
+        Outgoing outgoing;
+        synchronized (chat) {
+            chat.scheduled = false;
+            if (chat.messages.isEmpty() || chat.inFlight) {
+                removeIfIdle(chat);
+                return;
+            }
+
+            long waitNanos = Math.max(pausedUntilNanos - System.nanoTime(),
+                    Math.max(chat.bucket.nanosUntilAvailable(), globalBucket.nanosUntilAvailable()));
+            if (waitNanos > 0 || !globalBucket.tryAcquire()) {
+                schedule(chat, Math.max(waitNanos, 1));
+                return;
+            }
+            chat.bucket.tryAcquire();
+
+            outgoing = takeMerged(chat.messages);
+            chat.inFlight = true;
+        }
+
+        inFlight.incrementAndGet();
+        outgoing.sentAtNanos = System.nanoTime();
+        CompletableFuture<?> future;
+        try {
+            future = outgoing.document != null
+                    ? telegramClient.executeAsync(outgoing.document)
+                    : telegramClient.executeAsync(SendMessage.builder().chatId(chat.chatId).text(outgoing.text).build());
+        } catch (TelegramApiException | RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, error) -> onComplete(chat, outgoing, error));
+    }
+
+    /**
+     * Забирает первое сообщение очереди, приклеивая к тексту следующие за ним тексты, пока влезают в одно сообщение.
+     */
+    private Outgoing takeMerged(Deque<Outgoing> messages) {
+        Outgoing first = messages.pollFirst();
+        if (first.text == null) {
+            return first;
+        }
+
+        StringBuilder text = new StringBuilder(first.text);
+        int attempts = first.attempts;
+        Outgoing next;
+        while ((next = messages.peekFirst()) != null
+                && next.text != null
+                && text.length() + MERGE_SEPARATOR.length() + next.text.length() <= MAX_MESSAGE_LENGTH) {
+            messages.pollFirst();
+            text.append(MERGE_SEPARATOR).append(next.text);
+            attempts = Math.max(attempts, next.attempts);
+            mergedCount.increment();
+        }
+
+        if (text.length() == first.text.length()) {
+            return first;
+        }
+        Outgoing merged = new Outgoing(text.toString(), null, null);
+        merged.attempts = attempts;
+        return merged;
+    }
+
+    private void onComplete(ChatQueue chat, Outgoing outgoing, Throwable error) {
+        inFlight.decrementAndGet();
+        (outgoing.document != null ? sendDocumentDuration : sendMessageDuration).observeSince(outgoing.sentAtNanos);
+        boolean retry = false;
+        long delayNanos = 0;
+
+        if (error == null) {
+            sentCount.increment();
+            outgoing.complete();
+        } else {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            Integer retryAfter = cause instanceof TelegramApiRequestException requestException
+                    && requestException.getParameters() != null
+                    ? requestException.getParameters().getRetryAfter() : null;
+
+            if (retryAfter != null) {
+                // Telegram сам сказал, сколько ждать - ждём и не считаем это попыткой
+                rateLimitedCount.increment();
+                delayNanos = TimeUnit.SECONDS.toNanos(retryAfter);
+                pausedUntilNanos = Math.max(pausedUntilNanos, System.nanoTime() + delayNanos);
+                retry = true;
+            } else if (isRetriable(cause) && ++outgoing.attempts < MAX_ATTEMPTS) {
+                retriedCount.increment();
+                delayNanos = TimeUnit.MILLISECONDS.toNanos(BASE_BACKOFF_MILLIS << (outgoing.attempts - 1));
+                retry = true;
+            } else {
+                droppedCount.increment();
+                System.out.println("Dropping message to chatId=" + chat.chatId + ": " + cause.getMessage());
+                outgoing.complete();
+            }
+        }
+
+        synchronized (chat) {
+            chat.inFlight = false;
+            if (retry) {
+                chat.messages.addFirst(outgoing);
+            }
+            if (!chat.messages.isEmpty()) {
+                schedule(chat, delayNanos);
+            } else {
+                removeIfIdle(chat);
+            }
+        }
+    }
+
+    /**
+     * Ошибки запроса (4xx, кроме 429) повторять бесполезно, сетевые сбои и 5xx - стоит.
+     */
+    private boolean isRetriable(Throwable cause) {
+        if (cause instanceof TelegramApiRequestException requestException) {
+            Integer errorCode = requestException.getErrorCode();
+            return errorCode == null || errorCode >= 500;
+        }
+        return true;
+    }
+
+    // ───────── Структуры данных ─────────
+
+    private class ChatQueue {
+        private final long chatId;
+        private final Deque<Outgoing> messages = new ArrayDeque<>();
+        private final TokenBucket bucket = new TokenBucket(CHAT_BURST, chatRatePerSecond);
+        // Чат стоит в очереди на отправку
+        private boolean scheduled;
+        // Отправлено сообщение, ответ ещё не получен
+        private boolean inFlight;
+        private boolean removed;
+
+        ChatQueue(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    private static class Outgoing {
+        private final String text;
+        private final SendDocument document;
+        private final Runnable onComplete;
+        private int attempts;
+        private long sentAtNanos;
+
+        Outgoing(String text, SendDocument document, Runnable onComplete) {
+            this.text = text;
+            this.document = document;
+            this.onComplete = onComplete;
+        }
+
+        void complete() {
+            if (onComplete != null) {
+                onComplete.run();
+            }
+        }
+    }
+
+    private static class Ticket implements Delayed {
+        private final ChatQueue chat;
+        private final long readyAtNanos;
+
+        Ticket(ChatQueue chat, long readyAtNanos) {
+            this.chat = chat;
+            this.readyAtNanos = readyAtNanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(readyAtNanos, ((Ticket) other).readyAtNanos);
+        }
+    }
+
+    /**
+     * Снимок счётчиков отправки.
+     */
+    public record DispatcherStats(
+            long sentCount,
+            long mergedCount,
+            long retriedCount,
+            long rateLimitedCount,
+            long droppedCount,
+            int queuedChats,
+            int inFlight
+    ) {
+    }
+}
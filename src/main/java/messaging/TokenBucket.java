@@ -0,0 +1,54 @@
+package messaging;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Корзина токенов: не больше capacity операций подряд, дальше - ratePerSecond операций в секунду.
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double capacity, double ratePerSecond) {
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Забирает токен, если он есть.
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Сколько наносекунд осталось до появления токена (0 - токен уже есть).
+     */
+    public synchronized long nanosUntilAvailable() {
+        refill();
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Сколько наносекунд осталось до полного заполнения корзины (0 - корзина полна, ей давно не пользовались).
+     */
+    public synchronized long nanosUntilFull() {
+        refill();
+        return tokens >= capacity ? 0 : (long) Math.ceil((capacity - tokens) / tokensPerNano);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,68 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей с фиксированными границами корзин (в секундах, как принято в Prometheus).
+ * Запись - поиск корзины по небольшому массиву и два LongAdder, без выделения памяти.
+ */
+public class Histogram {
+    // Границы корзин: от 1 мс до 30 с
+    static final double[] BUCKET_BOUNDS_SECONDS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_SECONDS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = (long) (BUCKET_BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final boolean enabled;
+    // Последняя корзина - всё, что больше самой большой границы (+Inf)
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram(boolean enabled) {
+        this.enabled = enabled;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observeNanos(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        long value = Math.max(nanos, 0);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_NANOS.length && value > BUCKET_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        sumNanos.add(value);
+    }
+
+    /**
+     * Записывает время, прошедшее с startNanos (значение System.nanoTime()).
+     */
+    public void observeSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    long bucketCount(int bucket) {
+        return buckets[bucket].sum();
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    double sumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
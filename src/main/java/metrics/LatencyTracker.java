@@ -0,0 +1,45 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Текущая оценка задержки: экспоненциальное среднее последних измерений.
+ * Без новых измерений оценка затухает к нулю (постоянная времени decayMillis): иначе после одного медленного
+ * всплеска она оставалась бы высокой, пока не придёт следующий запрос, а его могут и не пропускать из-за неё же.
+ * Всегда считает, независимо от того, включены ли метрики.
+ */
+public class LatencyTracker {
+    // Вес нового измерения
+    private static final double ALPHA = 0.2;
+
+    private final double decayNanos;
+    private double averageNanos;
+    private long lastNanos = System.nanoTime();
+
+    public LatencyTracker(long decayMillis) {
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decayMillis);
+    }
+
+    public synchronized void observeNanos(long nanos) {
+        decay();
+        averageNanos += ALPHA * (Math.max(nanos, 0) - averageNanos);
+    }
+
+    /**
+     * Записывает время, прошедшее с startNanos (значение System.nanoTime()).
+     */
+    public void observeSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    public synchronized double averageMillis() {
+        decay();
+        return averageNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private void decay() {
+        long now = System.nanoTime();
+        averageNanos *= Math.exp(-(now - lastNanos) / decayNanos);
+        lastNanos = now;
+    }
+}
@@ -0,0 +1,142 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Реестр метрик и вывод их в текстовом формате Prometheus.
+ * Метрики создаются один раз при старте, вызывающий код хранит ссылки на них -
+ * на горячем пути нет ни поиска по имени, ни выделения памяти.
+ * У выключенного реестра метрики ничего не записывают.
+ *
+ * Метки передаются парами: "method", "getStatistics", "result", "ok".
+ */
+public class MetricsRegistry {
+    private final boolean enabled;
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public MetricsRegistry(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public synchronized Counter counter(String name, String help, String... labels) {
+        Counter counter = new Counter(enabled);
+        family(name, help, "counter").children.add(new Child(formatLabels(labels), counter));
+        return counter;
+    }
+
+    /**
+     * Счётчик, который ведётся в другом месте: значение снимается функцией в момент выдачи метрик.
+     */
+    public synchronized void counter(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, "counter").children.add(new Child(formatLabels(labels), supplier));
+    }
+
+    public synchronized Histogram histogram(String name, String help, String... labels) {
+        Histogram histogram = new Histogram(enabled);
+        family(name, help, "histogram").children.add(new Child(formatLabels(labels), histogram));
+        return histogram;
+    }
+
+    /**
+     * Значение снимается функцией в момент выдачи метрик.
+     */
+    public synchronized void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, "gauge").children.add(new Child(formatLabels(labels), supplier));
+    }
+
+    public synchronized void writePrometheus(Writer out) throws IOException {
+        for (Family family : families.values()) {
+            out.write("# HELP " + family.name + " " + family.help + "\n");
+            out.write("# TYPE " + family.name + " " + family.type + "\n");
+            for (Child child : family.children) {
+                if (child.metric instanceof Counter counter) {
+                    writeSample(out, family.name, child.labels, counter.value());
+                } else if (child.metric instanceof DoubleSupplier gauge) {
+                    writeSample(out, family.name, child.labels, gauge.getAsDouble());
+                } else if (child.metric instanceof Histogram histogram) {
+                    writeHistogram(out, family.name, child.labels, histogram);
+                }
+            }
+        }
+    }
+
+    // ───────── Формат Prometheus ─────────
+
+    private void writeHistogram(Writer out, String name, String labels, Histogram histogram) throws IOException {
+        // Корзины в формате Prometheus накопительные
+        long cumulative = 0;
+        for (int i = 0; i < Histogram.BUCKET_BOUNDS_SECONDS.length; i++) {
+            cumulative += histogram.bucketCount(i);
+            writeSample(out, name + "_bucket", withLabel(labels, "le", Double.toString(Histogram.BUCKET_BOUNDS_SECONDS[i])), cumulative);
+        }
+        cumulative += histogram.bucketCount(Histogram.BUCKET_BOUNDS_SECONDS.length);
+        writeSample(out, name + "_bucket", withLabel(labels, "le", "+Inf"), cumulative);
+        writeSample(out, name + "_sum", labels, histogram.sumSeconds());
+        writeSample(out, name + "_count", labels, histogram.count());
+    }
+
+    private void writeSample(Writer out, String name, String labels, double value) throws IOException {
+        out.write(name);
+        if (!labels.isEmpty()) {
+            out.write("{" + labels + "}");
+        }
+        out.write(" ");
+        out.write(value == Math.rint(value) && !Double.isInfinite(value) ? Long.toString((long) value) : Double.toString(value));
+        out.write("\n");
+    }
+
+    private String withLabel(String labels, String key, String value) {
+        String label = key + "=\"" + value + "\"";
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private String formatLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Метки задаются парами имя-значение");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append('"');
+        }
+        return result.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Метрика " + name + " уже зарегистрирована с типом " + family.type);
+        }
+        return family;
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final List<Child> children = new ArrayList<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private record Child(String labels, Object metric) {
+    }
+}
@@ -0,0 +1,230 @@
+package repository;
+
+import achievement.AchievementEngine;
+import achievement.AchievementProgress;
+import achievement.Award;
+import achievement.CompletedSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Достижения для файловых хранилищ (CSV и бинарного).
+ * - data/achievements/progress_&lt;chatId&gt;.csv - прогресс чата, подменяется атомарно
+ * - data/achievements/achievements_&lt;chatId&gt;.txt - полученные достижения, по строке на каждое
+ * Методы вызываются под блокировкой файлов чата.
+ */
+final class AchievementFiles {
+    private static final String ACHIEVEMENTS_DIR = "data/achievements/";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final String PROGRESS_HEADER =
+            "work_cycles,work_minutes,current_streak,longest_streak,last_work_day,awarded_mask";
+
+    // Колонки истории сессий в CSV-формате
+    private static final int IDX_TYPE = 0;
+    private static final int IDX_DURATION = 1;
+    private static final int IDX_STOP_AT = 3;
+    private static final int IDX_COMPLETED = 4;
+
+    private final AchievementEngine engine;
+
+    AchievementFiles(AchievementEngine engine) {
+        this.engine = engine;
+        new File(ACHIEVEMENTS_DIR).mkdirs();
+    }
+
+    /**
+     * Прогресс чата перед завершением сессии.
+     * Если прогресса ещё нет, он считается по истории, а полученные по ней достижения записываются без уведомления.
+     * Возвращает null, если сессия такого типа на прогресс не влияет.
+     *
+     * @param history история сессий в CSV-формате, без завершаемой сессии
+     */
+    AchievementProgress load(long chatId, String sessionType, Supplier<List<String[]>> history) {
+        if (!engine.affects(sessionType)) {
+            return null;
+        }
+        AchievementProgress progress = readProgress(chatId);
+        if (progress == null) {
+            AchievementEngine.Replay replay = engine.replay(completedSessions(history.get()));
+            appendAwards(chatId, replay.awards());
+            progress = replay.progress();
+        }
+        return progress;
+    }
+
+    /**
+     * Учитывает завершённую сессию, сохраняет прогресс и новые достижения.
+     * Возвращает новые достижения - их публикует вызывающий код, уже без блокировки чата.
+     */
+    List<Award> complete(long chatId, AchievementProgress progress, String sessionType, int durationMinutes,
+                         LocalDateTime stopAt) {
+        if (progress == null) {
+            return List.of();
+        }
+        List<Award> awards = engine.onSessionCompleted(progress, sessionType, durationMinutes, stopAt);
+        writeProgress(chatId, progress);
+        appendAwards(chatId, awards);
+        return awards;
+    }
+
+    /**
+     * Пересчёт прогресса и достижений чата по всей истории: файл достижений переписывается целиком.
+     * Возвращает, совпал ли пошаговый результат с подсчётом с нуля.
+     */
+    boolean backfill(long chatId, List<String[]> history) {
+        List<CompletedSession> sessions = completedSessions(history);
+        AchievementEngine.Replay replay = engine.replay(sessions);
+        writeProgress(chatId, replay.progress());
+
+        List<String> lines = new ArrayList<>();
+        for (Award award : replay.awards()) {
+            lines.add(format(award));
+        }
+        replaceFile(awardsFile(chatId), lines);
+        return replay.progress().equals(engine.evaluateHistory(sessions));
+    }
+
+    /**
+     * Завершённые сессии из истории в CSV-формате (type, duration, start_at, stop_at, completed).
+     */
+    private static List<CompletedSession> completedSessions(List<String[]> records) {
+        List<CompletedSession> sessions = new ArrayList<>();
+        for (String[] record : records) {
+            if (record.length > IDX_COMPLETED
+                    && "true".equalsIgnoreCase(record[IDX_COMPLETED])
+                    && !record[IDX_STOP_AT].isEmpty()) {
+                sessions.add(new CompletedSession(record[IDX_TYPE], Integer.parseInt(record[IDX_DURATION]),
+                        LocalDateTime.parse(record[IDX_STOP_AT], FORMATTER)));
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Сохранённый прогресс чата или null, если его ещё нет.
+     */
+    static AchievementProgress readProgress(long chatId) {
+        Path path = Paths.get(progressFile(chatId));
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            if (lines.size() < 2) {
+                return null;
+            }
+            String[] values = lines.get(1).split(",", -1);
+            return new AchievementProgress(
+                    Long.parseLong(values[0]),
+                    Long.parseLong(values[1]),
+                    Integer.parseInt(values[2]),
+                    Integer.parseInt(values[3]),
+                    values[4].isEmpty() ? null : LocalDate.parse(values[4]),
+                    Long.parseLong(values[5]));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read achievement progress for chatId=" + chatId, e);
+        }
+    }
+
+    /**
+     * Полученные достижения чата в порядке получения (пустой список, если файла нет).
+     */
+    static List<Award> readAwards(long chatId) {
+        Path path = Paths.get(awardsFile(chatId));
+        if (!Files.exists(path)) {
+            return List.of();
+        }
+        try {
+            List<Award> awards = new ArrayList<>();
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                Award award = parse(line);
+                if (award != null) {
+                    awards.add(award);
+                }
+            }
+            return awards;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read achievements for chatId=" + chatId, e);
+        }
+    }
+
+    private void writeProgress(long chatId, AchievementProgress progress) {
+        replaceFile(progressFile(chatId), List.of(PROGRESS_HEADER, String.join(",",
+                String.valueOf(progress.workCycles()),
+                String.valueOf(progress.workMinutes()),
+                String.valueOf(progress.currentStreak()),
+                String.valueOf(progress.longestStreak()),
+                progress.lastWorkDay() == null ? "" : progress.lastWorkDay().toString(),
+                String.valueOf(progress.awardedMask()))));
+    }
+
+    private void appendAwards(long chatId, List<Award> awards) {
+        if (awards.isEmpty()) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        for (Award award : awards) {
+            lines.add(format(award));
+        }
+        try {
+            Files.write(Paths.get(awardsFile(chatId)), lines, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to save achievements for chatId=" + chatId, e);
+        }
+    }
+
+    /**
+     * Файл пишется во временный и атомарно подменяется.
+     */
+    private void replaceFile(String fileName, List<String> lines) {
+        Path path = Paths.get(fileName);
+        Path tmpPath = Paths.get(fileName + ".tmp");
+        try {
+            Files.write(tmpPath, lines, StandardCharsets.UTF_8);
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write " + fileName, e);
+        }
+    }
+
+    private static String format(Award award) {
+        return "🏆 " + award.name() + " - " + award.description() + " (" + award.achievedAt().format(FORMATTER) + ")";
+    }
+
+    /**
+     * Обратное к format: «🏆 название - описание (yyyy-MM-dd HH:mm)». Строки другого вида пропускаются (null).
+     */
+    private static Award parse(String line) {
+        int nameStart = line.indexOf(' ') + 1;
+        int separator = line.indexOf(" - ", nameStart);
+        int dateStart = line.lastIndexOf(" (");
+        if (nameStart == 0 || separator < 0 || dateStart < separator || !line.endsWith(")")) {
+            return null;
+        }
+        try {
+            return new Award(line.substring(nameStart, separator), line.substring(separator + 3, dateStart),
+                    LocalDateTime.parse(line.substring(dateStart + 2, line.length() - 1), FORMATTER));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String progressFile(long chatId) {
+        return ACHIEVEMENTS_DIR + "progress_" + chatId + ".csv";
+    }
+
+    private static String awardsFile(long chatId) {
+        return ACHIEVEMENTS_DIR + "achievements_" + chatId + ".txt";
+    }
+}
@@ -0,0 +1,55 @@
+package repository;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Неблокирующий вариант {@link UserDataRepository}: методы сразу возвращают CompletableFuture,
+ * а работа с хранилищем идёт в другом потоке. Ошибка хранилища завершает future исключением.
+ * Операции одного чата выполняются в порядке вызова: запись, начатая раньше, закончится раньше,
+ * чтение чата видит все его записи, вызванные до него.
+ */
+public interface AsyncUserDataRepository extends AutoCloseable {
+    // Создание записи о новом сеансе; future получает хэндл, по которому сеанс закрывается
+    CompletableFuture<SessionHandle> recordSession(long chatId, String sessionType, int durationMinutes,
+                                                   LocalDateTime startAt);
+
+    // Закрытие последнего открытого сеанса этого типа
+    CompletableFuture<Void> completeSession(long chatId, String sessionType, LocalDateTime stopAt);
+
+    // Завершение именно этого сеанса. Хэндл может быть ещё без id, если его запись вызвана раньше
+    CompletableFuture<Void> completeSession(SessionHandle session, LocalDateTime stopAt);
+
+    // Ручная остановка открытых сеансов чата
+    CompletableFuture<Void> markSessionStopped(long chatId, LocalDateTime stopAt);
+
+    // Ручная остановка именно этого сеанса
+    CompletableFuture<Void> markSessionStopped(SessionHandle session, LocalDateTime stopAt);
+
+    // Статистика в виде строки
+    CompletableFuture<String> getStatistics(long chatId);
+
+    // Статистика за дни from..to включительно, не длиннее UserDataRepository.MAX_STATISTICS_DAYS
+    CompletableFuture<String> getStatistics(long chatId, LocalDate from, LocalDate to);
+
+    // Список достижений
+    CompletableFuture<String> getAchievements(long chatId);
+
+    // Экспорт статистики в CSV; поток не закрывается и до завершения future не должен использоваться
+    CompletableFuture<Void> exportStatistics(long chatId, OutputStream out);
+
+    // Обход всех незакрытых сессий; consumer вызывается в потоке хранилища
+    CompletableFuture<Void> forEachOpenSession(Consumer<OpenSession> consumer);
+
+    // Применение пачки событий сеансов по порядку. Хэндлы событий RECORD получают id записанных сеансов
+    CompletableFuture<Void> applyBatch(List<SessionEvent> events);
+
+    // Дожидается начатых операций и освобождает ресурсы хранилища
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,632 @@
+package repository;
+
+import achievement.AchievementBackfill;
+import achievement.AchievementEngine;
+import achievement.AchievementProgress;
+import achievement.Award;
+import leaderboard.Leaderboard;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Хранение истории сессий в бинарных файлах фиксированной ширины, отображённых в память.
+ * Вариант для установок без Postgres: в отличие от CSV не разбирает текст и не создаёт объекты при чтении.
+ *
+ * Файл data/binary/&lt;chatId&gt;.bin:
+ * - заголовок (16 байт): сигнатура, версия, количество записей, резерв
+ * - записи по 12 байт: тип (byte), completed (byte), длительность (short), начало и конец (int, минуты от эпохи)
+ * Закрытие сессии - запись конца и признака completed на месте, по известному смещению.
+ * Id сессии в её хэндле - номер записи: закрытие по хэндлу не ищет открытые сессии, а проверяет одну запись.
+ * Достижения хранятся так же, как в {@link CsvUserDataRepository} (см. {@link AchievementFiles}).
+ *
+ * Отображёнными держатся не больше maxMappedFiles файлов: при открытии нового файла давно не используемые
+ * отображения сбрасываются на диск и освобождаются. Файл, с которым сейчас работает другой поток, не вытесняется.
+ * Чтение чата без файла истории файлов не создаёт.
+ */
+public class BinaryUserDataRepository implements UserDataRepository, AchievementBackfill.Target,
+        Leaderboard.Source {
+
+    // Каталоги для хранения данных
+    private static final String BINARY_DIR = "data/binary/";
+    private static final String ACHIEVEMENTS_DIR = "data/achievements/";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // Заголовок файла
+    private static final int MAGIC = 0x504F4D4F; // "POMO"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_COUNT = 8;
+
+    // Запись сессии
+    private static final int RECORD_SIZE = 12;
+    private static final int OFFSET_TYPE = 0;
+    private static final int OFFSET_COMPLETED = 1;
+    private static final int OFFSET_DURATION = 2;
+    private static final int OFFSET_START_AT = 4;
+    private static final int OFFSET_STOP_AT = 8;
+
+    // Коды типов сессий и признак открытой сессии
+    private static final byte TYPE_UNKNOWN = 0;
+    private static final byte TYPE_WORK = 1;
+    private static final byte TYPE_REST = 2;
+    private static final int NO_STOP = -1;
+
+    // Начальная ёмкость файла в записях, дальше удваивается
+    static final int INITIAL_CAPACITY = 256;
+    // Отображённых файлов по умолчанию
+    static final int DEFAULT_MAX_MAPPED_FILES = 1024;
+
+    // Освобождение отображения сразу, а не когда до буфера доберётся сборщик мусора (null - недоступно)
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.out.println("Explicit unmapping is unavailable, mapped files are released by GC: " + e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private static final String[] CSV_HEADER = {"type", "duration", "start_at", "stop_at", "completed"};
+
+    // Отображённые файлы чатов в порядке использования; доступ под блокировкой самой карты
+    private final LinkedHashMap<Long, ChatFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxMappedFiles;
+
+    private final AchievementEngine achievementEngine;
+    private final AchievementFiles achievementFiles;
+    // Дневные корзины статистики: data/binary/<chatId>.days.bin
+    private final DailyStatisticsFiles dailyStatisticsFiles;
+
+    public BinaryUserDataRepository() {
+        this(AchievementEngine.withDefaultRules());
+    }
+
+    public BinaryUserDataRepository(AchievementEngine achievementEngine) {
+        this(achievementEngine, ZoneId.systemDefault());
+    }
+
+    /**
+     * @param statsZone часовой пояс, в котором сессии раскладываются по дням статистики
+     */
+    public BinaryUserDataRepository(AchievementEngine achievementEngine, ZoneId statsZone) {
+        this(achievementEngine, statsZone, DEFAULT_MAX_MAPPED_FILES);
+    }
+
+    BinaryUserDataRepository(AchievementEngine achievementEngine, ZoneId statsZone, int maxMappedFiles) {
+        new File(BINARY_DIR).mkdirs();
+        new File(ACHIEVEMENTS_DIR).mkdirs();
+        this.achievementEngine = achievementEngine;
+        this.maxMappedFiles = maxMappedFiles;
+        this.achievementFiles = new AchievementFiles(achievementEngine);
+        this.dailyStatisticsFiles = new DailyStatisticsFiles(chatId -> Paths.get(BINARY_DIR + chatId + ".days.bin"), statsZone);
+    }
+
+    @Override
+    public SessionHandle recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
+        return withFile(chatId, true, file -> {
+            int index = file.append(encodeType(sessionType), (short) durationMinutes, toEpochMinutes(startAt));
+            return new SessionHandle(chatId, sessionType, startAt, index);
+        });
+    }
+
+    @Override
+    public void completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
+        List<Award> awards = withFile(chatId, false, file -> {
+            int index = file.findLastOpen(encodeType(sessionType));
+            return index < 0 ? null : complete(chatId, file, index, sessionType, stopAt);
+        });
+        if (awards == null) {
+            System.err.println("Не найдена активная сессия " + sessionType + " для chatId=" + chatId);
+            return;
+        }
+        achievementEngine.publish(chatId, awards);
+    }
+
+    @Override
+    public void completeSession(SessionHandle session, LocalDateTime stopAt) {
+        long chatId = session.chatId();
+        List<Award> awards = withFile(chatId, false, file -> {
+            int index = openIndex(file, session);
+            return index < 0 ? null : complete(chatId, file, index, session.sessionType(), stopAt);
+        });
+        if (awards == null) {
+            System.err.println("Сессия уже закрыта или не найдена: " + session);
+            return;
+        }
+        achievementEngine.publish(chatId, awards);
+    }
+
+    @Override
+    public void markSessionStopped(long chatId, LocalDateTime stopAt) {
+        Boolean stopped = withFile(chatId, false, file -> {
+            int index = file.findLastOpen(TYPE_UNKNOWN);
+            if (index < 0) {
+                return null;
+            }
+            stop(chatId, file, index, stopAt);
+            return true;
+        });
+        if (stopped == null) {
+            System.err.println("Не найдена активная сессия для остановки chatId=" + chatId);
+        }
+    }
+
+    @Override
+    public void markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+        Boolean stopped = withFile(session.chatId(), false, file -> {
+            int index = openIndex(file, session);
+            if (index < 0) {
+                return null;
+            }
+            stop(session.chatId(), file, index, stopAt);
+            return true;
+        });
+        if (stopped == null) {
+            System.err.println("Сессия уже закрыта или не найдена: " + session);
+        }
+    }
+
+    /**
+     * Завершение записи index. Вызывается под блокировкой файла, возвращает новые достижения.
+     */
+    private List<Award> complete(long chatId, ChatFile file, int index, String sessionType, LocalDateTime stopAt) {
+        AchievementProgress progress = achievementFiles.load(chatId, sessionType, () -> readRecords(file));
+        file.close(index, toEpochMinutes(stopAt), true);
+        int duration = file.buffer.getShort(HEADER_SIZE + index * RECORD_SIZE + OFFSET_DURATION);
+        dailyStatisticsFiles.add(chatId, sessionType, duration, stopAt, () -> readRecords(file));
+        return achievementFiles.complete(chatId, progress, sessionType, duration, stopAt);
+    }
+
+    /**
+     * Остановка записи index. Вызывается под блокировкой файла.
+     */
+    private void stop(long chatId, ChatFile file, int index, LocalDateTime stopAt) {
+        file.close(index, toEpochMinutes(stopAt), false);
+        // Как и в общей статистике, остановленные сессии тоже учитываются
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+        dailyStatisticsFiles.add(chatId, decodeType(file.buffer.get(offset + OFFSET_TYPE)),
+                file.buffer.getShort(offset + OFFSET_DURATION), stopAt, () -> readRecords(file));
+    }
+
+    /**
+     * Номер записи сессии хэндла, если она всё ещё открыта, иначе -1.
+     * Запись сверяется с хэндлом по типу и началу: после замены истории чата номер мог достаться другой сессии.
+     */
+    private int openIndex(ChatFile file, SessionHandle session) {
+        long index = session.id();
+        if (index < 0 || index >= file.count()) {
+            return -1;
+        }
+        int offset = HEADER_SIZE + (int) index * RECORD_SIZE;
+        boolean same = file.buffer.get(offset + OFFSET_TYPE) == encodeType(session.sessionType())
+                && file.buffer.getInt(offset + OFFSET_START_AT) == toEpochMinutes(session.startAt());
+        return same && file.buffer.getInt(offset + OFFSET_STOP_AT) == NO_STOP ? (int) index : -1;
+    }
+
+    /**
+     * Статистика считается проходом по отображённому файлу без создания объектов.
+     * Как и в CSV-хранилище, учитываются все закрытые сессии.
+     */
+    @Override
+    public String getStatistics(long chatId) {
+        // Рабочее время, отдых, рабочих циклов, циклов отдыха
+        long[] totals = withFile(chatId, false, file -> {
+            long[] sums = new long[4];
+            MappedByteBuffer buffer = file.buffer;
+            int count = file.count();
+            for (int i = 0, offset = HEADER_SIZE; i < count; i++, offset += RECORD_SIZE) {
+                if (buffer.getInt(offset + OFFSET_STOP_AT) == NO_STOP) {
+                    continue;
+                }
+                byte type = buffer.get(offset + OFFSET_TYPE);
+                short duration = buffer.getShort(offset + OFFSET_DURATION);
+                if (type == TYPE_WORK) {
+                    sums[0] += duration;
+                    sums[2]++;
+                } else if (type == TYPE_REST) {
+                    sums[1] += duration;
+                    sums[3]++;
+                }
+            }
+            return sums;
+        });
+        if (totals == null) {
+            totals = new long[4];
+        }
+
+        return "Статистика:\n" +
+                "• Рабочее время: " + totals[0] + " мин\n" +
+                "• Отдых: " + totals[1] + " мин\n" +
+                "• Рабочих циклов: " + totals[2] + "\n" +
+                "• Циклов отдыха: " + totals[3];
+    }
+
+    /**
+     * Статистика за период - сумма дневных корзин, без прохода по истории.
+     */
+    @Override
+    public String getStatistics(long chatId, LocalDate from, LocalDate to) {
+        PeriodStatistics statistics = withFile(chatId, false,
+                file -> dailyStatisticsFiles.read(chatId, from, to, () -> readRecords(file)));
+        if (statistics == null) {
+            PeriodStatistics.checkRange(from, to);
+            statistics = new PeriodStatistics(0, 0, 0, 0);
+        }
+        return statistics.format(from, to);
+    }
+
+    @Override
+    public String getAchievements(long chatId) {
+        String fileName = ACHIEVEMENTS_DIR + "achievements_" + chatId + ".txt";
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(fileName));
+            return String.join("\n", lines);
+        } catch (IOException e) {
+            return "Достижений пока нет.";
+        }
+    }
+
+    @Override
+    public void exportStatistics(long chatId, OutputStream out) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try {
+            writer.write("type,duration,start_at,stop_at,completed\n");
+            for (String[] record : readSessionRecords(chatId)) {
+                writer.write(String.join(",", record));
+                writer.write("\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void forEachOpenSession(Consumer<OpenSession> consumer) {
+        for (long chatId : listChatIds()) {
+            withFile(chatId, false, file -> {
+                MappedByteBuffer buffer = file.buffer;
+                int count = file.count();
+                for (int i = 0, offset = HEADER_SIZE; i < count; i++, offset += RECORD_SIZE) {
+                    if (buffer.getInt(offset + OFFSET_STOP_AT) == NO_STOP) {
+                        consumer.accept(new OpenSession(chatId,
+                                decodeType(buffer.get(offset + OFFSET_TYPE)),
+                                buffer.getShort(offset + OFFSET_DURATION),
+                                fromEpochMinutes(buffer.getInt(offset + OFFSET_START_AT)), i));
+                    }
+                }
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        List<ChatFile> files;
+        synchronized (openFiles) {
+            files = new ArrayList<>(openFiles.values());
+            openFiles.clear();
+        }
+        for (ChatFile file : files) {
+            synchronized (file) {
+                file.release();
+            }
+        }
+    }
+
+    /**
+     * Пересчёт прогресса и достижений чата по всей истории.
+     */
+    @Override
+    public boolean backfillAchievements(long chatId) {
+        Boolean valid = withFile(chatId, false, file -> achievementFiles.backfill(chatId, readRecords(file)));
+        return valid != null ? valid : achievementFiles.backfill(chatId, List.of());
+    }
+
+    /**
+     * Итоги для рейтинга: история каждого чата читается целиком, поэтому вызывается только при сборке рейтинга.
+     */
+    @Override
+    public List<Leaderboard.FocusTotals> loadFocusTotals(LocalDateTime weekStart) {
+        return LeaderboardTotals.load(listChatIds(), this::readSessionRecords, weekStart);
+    }
+
+    // ───────── Преобразование в формат CSV и обратно ─────────
+
+    /**
+     * Чаты, для которых есть файлы истории.
+     */
+    @Override
+    public List<Long> listChatIds() {
+        List<Long> chatIds = new ArrayList<>();
+        File[] files = new File(BINARY_DIR).listFiles((dir, name) -> name.matches("-?\\d+\\.bin"));
+        if (files != null) {
+            for (File file : files) {
+                chatIds.add(Long.parseLong(file.getName().replace(".bin", "")));
+            }
+        }
+        return chatIds;
+    }
+
+    /**
+     * История сессий чата в виде строк CSV-формата (type, duration, start_at, stop_at, completed).
+     */
+    public List<String[]> readSessionRecords(long chatId) {
+        List<String[]> records = withFile(chatId, false, this::readRecords);
+        return records != null ? records : new ArrayList<>();
+    }
+
+    /**
+     * Вызывается под блокировкой файла.
+     */
+    private List<String[]> readRecords(ChatFile file) {
+        List<String[]> records = new ArrayList<>();
+        MappedByteBuffer buffer = file.buffer;
+        int count = file.count();
+        for (int i = 0, offset = HEADER_SIZE; i < count; i++, offset += RECORD_SIZE) {
+            int stopAt = buffer.getInt(offset + OFFSET_STOP_AT);
+            records.add(new String[]{
+                    decodeType(buffer.get(offset + OFFSET_TYPE)),
+                    String.valueOf(buffer.getShort(offset + OFFSET_DURATION)),
+                    fromEpochMinutes(buffer.getInt(offset + OFFSET_START_AT)).format(FORMATTER),
+                    stopAt == NO_STOP ? "" : fromEpochMinutes(stopAt).format(FORMATTER),
+                    String.valueOf(buffer.get(offset + OFFSET_COMPLETED) == 1)
+            });
+        }
+        return records;
+    }
+
+    /**
+     * Заменяет историю сессий чата строками CSV-формата (заголовок пропускается).
+     */
+    public void writeSessionRecords(long chatId, List<String[]> records) {
+        withFile(chatId, true, file -> {
+            file.truncate();
+            dailyStatisticsFiles.delete(chatId);
+            for (String[] record : records) {
+                if (Arrays.equals(record, CSV_HEADER)) {
+                    continue;
+                }
+                int index = file.append(encodeType(record[0]), Short.parseShort(record[1]),
+                        toEpochMinutes(LocalDateTime.parse(record[2], FORMATTER)));
+                if (!record[3].isEmpty()) {
+                    file.close(index, toEpochMinutes(LocalDateTime.parse(record[3], FORMATTER)),
+                            Boolean.parseBoolean(record[4]));
+                }
+            }
+            file.buffer.force();
+            return null;
+        });
+    }
+
+    /**
+     * Число отображённых сейчас файлов.
+     */
+    int mappedFiles() {
+        synchronized (openFiles) {
+            return openFiles.size();
+        }
+    }
+
+    // ───────── Вспомогательные методы ─────────
+
+    /**
+     * Выполняет action под блокировкой файла чата.
+     * Если файла истории нет и create == false, файл не создаётся, а возвращается null.
+     */
+    private <T> T withFile(long chatId, boolean create, Function<ChatFile, T> action) {
+        ChatFile file = acquire(chatId, create);
+        if (file == null) {
+            return null;
+        }
+        try {
+            synchronized (file) {
+                return action.apply(file);
+            }
+        } finally {
+            file.users.decrementAndGet();
+        }
+    }
+
+    /**
+     * Отображённый файл чата, помеченный как используемый. Лишние отображения вытесняются начиная с давно
+     * не использованных; используемые пропускаются - пока их больше предела, карта временно больше его.
+     * Счётчик увеличивается только под блокировкой карты, поэтому вытесненный файл уже никто не получит.
+     */
+    private ChatFile acquire(long chatId, boolean create) {
+        synchronized (openFiles) {
+            ChatFile file = openFiles.get(chatId);
+            if (file == null) {
+                Path path = Paths.get(BINARY_DIR + chatId + ".bin");
+                if (!create && !Files.exists(path)) {
+                    return null;
+                }
+                try {
+                    file = new ChatFile(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to open session file for chatId=" + chatId, e);
+                }
+                openFiles.put(chatId, file);
+                evictIdle();
+            }
+            file.users.incrementAndGet();
+            return file;
+        }
+    }
+
+    /**
+     * Вызывается под блокировкой карты.
+     */
+    private void evictIdle() {
+        Iterator<ChatFile> files = openFiles.values().iterator();
+        int excess = openFiles.size() - maxMappedFiles;
+        while (excess > 0 && files.hasNext()) {
+            ChatFile file = files.next();
+            if (file.users.get() == 0) {
+                files.remove();
+                synchronized (file) {
+                    file.release();
+                }
+                excess--;
+            }
+        }
+    }
+
+    private static byte encodeType(String sessionType) {
+        if ("WORK".equalsIgnoreCase(sessionType)) {
+            return TYPE_WORK;
+        } else if ("REST".equalsIgnoreCase(sessionType)) {
+            return TYPE_REST;
+        }
+        return TYPE_UNKNOWN;
+    }
+
+    private static String decodeType(byte type) {
+        return switch (type) {
+            case TYPE_WORK -> "WORK";
+            case TYPE_REST -> "REST";
+            default -> "UNKNOWN";
+        };
+    }
+
+    private static int toEpochMinutes(LocalDateTime dateTime) {
+        return (int) (dateTime.toEpochSecond(ZoneOffset.UTC) / 60);
+    }
+
+    private static LocalDateTime fromEpochMinutes(int epochMinutes) {
+        return LocalDateTime.ofEpochSecond(epochMinutes * 60L, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Отображённый в память файл истории одного чата.
+     * Методы вызываются под блокировкой самого объекта.
+     */
+    private static class ChatFile {
+        private final Path path;
+        // Потоков, получивших файл и ещё не закончивших с ним работу
+        private final AtomicInteger users = new AtomicInteger();
+        private MappedByteBuffer buffer;
+
+        ChatFile(Path path) throws IOException {
+            this.path = path;
+            boolean exists = Files.exists(path);
+            long size = exists ? Files.size(path) : HEADER_SIZE + (long) INITIAL_CAPACITY * RECORD_SIZE;
+            map(size);
+            if (!exists || buffer.getInt(OFFSET_MAGIC) != MAGIC) {
+                buffer.putInt(OFFSET_MAGIC, MAGIC);
+                buffer.putInt(OFFSET_VERSION, VERSION);
+                buffer.putInt(OFFSET_COUNT, 0);
+            }
+        }
+
+        int count() {
+            return buffer.getInt(OFFSET_COUNT);
+        }
+
+        int append(byte type, short duration, int startAt) {
+            int index = count();
+            int offset = HEADER_SIZE + index * RECORD_SIZE;
+            if (offset + RECORD_SIZE > buffer.capacity()) {
+                grow();
+            }
+            buffer.put(offset + OFFSET_TYPE, type);
+            buffer.put(offset + OFFSET_COMPLETED, (byte) 0);
+            buffer.putShort(offset + OFFSET_DURATION, duration);
+            buffer.putInt(offset + OFFSET_START_AT, startAt);
+            buffer.putInt(offset + OFFSET_STOP_AT, NO_STOP);
+            // Счётчик пишется последним: запись становится видимой только целиком
+            buffer.putInt(OFFSET_COUNT, index + 1);
+            return index;
+        }
+
+        /**
+         * Последняя открытая сессия заданного типа (или любого типа для TYPE_UNKNOWN). -1, если нет.
+         */
+        int findLastOpen(byte type) {
+            for (int i = count() - 1; i >= 0; i--) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                if (buffer.getInt(offset + OFFSET_STOP_AT) == NO_STOP
+                        && (type == TYPE_UNKNOWN || buffer.get(offset + OFFSET_TYPE) == type)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void close(int index, int stopAt, boolean completed) {
+            int offset = HEADER_SIZE + index * RECORD_SIZE;
+            buffer.put(offset + OFFSET_COMPLETED, (byte) (completed ? 1 : 0));
+            buffer.putInt(offset + OFFSET_STOP_AT, stopAt);
+        }
+
+        void truncate() {
+            buffer.putInt(OFFSET_COUNT, 0);
+        }
+
+        /**
+         * Сбрасывает файл на диск и освобождает отображение. Дальше файл не используется.
+         */
+        void release() {
+            buffer.force();
+            unmap(buffer);
+            buffer = null;
+        }
+
+        private void grow() {
+            MappedByteBuffer old = buffer;
+            try {
+                map(HEADER_SIZE + (long) (buffer.capacity() - HEADER_SIZE) * 2);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to grow session file " + path, e);
+            }
+            // Новое отображение видит те же страницы файла, старое больше не нужно
+            unmap(old);
+        }
+
+        private void map(long size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        private static void unmap(MappedByteBuffer buffer) {
+            if (INVOKE_CLEANER == null) {
+                return;
+            }
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Failed to unmap session file: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package repository;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Обычное (блокирующее) хранилище поверх неблокирующего: каждый вызов ждёт своего future.
+ * Для кода, которому нужен результат сразу, - пакетные утилиты, бенчмарки, восстановление при запуске.
+ * Ошибка хранилища пробрасывается тем же исключением, что бросило бы синхронное хранилище.
+ */
+public class BlockingUserDataRepository implements UserDataRepository {
+    private final AsyncUserDataRepository delegate;
+
+    public BlockingUserDataRepository(AsyncUserDataRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public SessionHandle recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
+        return await(delegate.recordSession(chatId, sessionType, durationMinutes, startAt));
+    }
+
+    @Override
+    public void completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
+        await(delegate.completeSession(chatId, sessionType, stopAt));
+    }
+
+    @Override
+    public void completeSession(SessionHandle session, LocalDateTime stopAt) {
+        await(delegate.completeSession(session, stopAt));
+    }
+
+    @Override
+    public void markSessionStopped(long chatId, LocalDateTime stopAt) {
+        await(delegate.markSessionStopped(chatId, stopAt));
+    }
+
+    @Override
+    public void markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+        await(delegate.markSessionStopped(session, stopAt));
+    }
+
+    @Override
+    public String getStatistics(long chatId) {
+        return await(delegate.getStatistics(chatId));
+    }
+
+    @Override
+    public String getStatistics(long chatId, LocalDate from, LocalDate to) {
+        return await(delegate.getStatistics(chatId, from, to));
+    }
+
+    @Override
+    public String getAchievements(long chatId) {
+        return await(delegate.getAchievements(chatId));
+    }
+
+    @Override
+    public void exportStatistics(long chatId, OutputStream out) {
+        await(delegate.exportStatistics(chatId, out));
+    }
+
+    @Override
+    public void forEachOpenSession(Consumer<OpenSession> consumer) {
+        await(delegate.forEachOpenSession(consumer));
+    }
+
+    @Override
+    public void applyBatch(List<SessionEvent> events) {
+        await(delegate.applyBatch(events));
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package repository;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Кэш готовых строк статистики и достижений поверх хранилища.
+ * - Размер ограничен, вытесняются давно не читавшиеся записи (LRU), можно задать время жизни записи
+ * - Запись сеанса чата сбрасывает его кэш: у каждого чата есть версия, она увеличивается после записи,
+ *   и значение, прочитанное при старой версии, не возвращается и не попадает в кэш
+ * - Одновременные промахи по одному чату ждут одной загрузки из хранилища
+ *
+ * Версии хранятся в массиве по хэшу chatId, чтобы не расти вместе с числом чатов:
+ * совпадение хэшей даёт лишний промах, но не устаревшее значение.
+ */
+public class CachingUserDataRepository implements UserDataRepository {
+    private static final int VERSION_STRIPES = 4096;
+
+    private final UserDataRepository delegate;
+    private final long ttlNanos;
+
+    // Доступ под блокировкой самой карты; порядок доступа даёт LRU
+    private final LinkedHashMap<CacheKey, CachedValue> cache;
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    // Загрузки, которые сейчас идут; ключ включает версию, чтобы не присоединиться к загрузке до записи
+    private final Map<LoadKey, CompletableFuture<String>> loads = new ConcurrentHashMap<>();
+
+    // Счётчики
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalescedLoads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxSize  максимальное число строк в кэше (по две на чат)
+     * @param ttlMillis время жизни записи, 0 - без ограничения
+     */
+    public CachingUserDataRepository(UserDataRepository delegate, int maxSize, long ttlMillis) {
+        this.delegate = delegate;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedValue> eldest) {
+                if (size() > maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // ───────── Чтение через кэш ─────────
+
+    @Override
+    public String getStatistics(long chatId) {
+        return get(chatId, Kind.STATISTICS);
+    }
+
+    /**
+     * Статистика за период не кэшируется: периодов у чата много, а дневные корзины и так читаются быстро.
+     */
+    @Override
+    public String getStatistics(long chatId, LocalDate from, LocalDate to) {
+        return delegate.getStatistics(chatId, from, to);
+    }
+
+    @Override
+    public String getAchievements(long chatId) {
+        return get(chatId, Kind.ACHIEVEMENTS);
+    }
+
+    private String get(long chatId, Kind kind) {
+        CacheKey key = new CacheKey(chatId, kind);
+        long version = versions.get(stripe(chatId));
+
+        synchronized (cache) {
+            CachedValue cached = cache.get(key);
+            if (cached != null) {
+                if (cached.version() == version && (ttlNanos == 0 || System.nanoTime() - cached.loadedAtNanos() < ttlNanos)) {
+                    hits.increment();
+                    return cached.value();
+                }
+                cache.remove(key);
+            }
+        }
+        misses.increment();
+
+        LoadKey loadKey = new LoadKey(chatId, kind, version);
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> existing = loads.putIfAbsent(loadKey, load);
+        if (existing != null) {
+            coalescedLoads.increment();
+            return await(existing);
+        }
+
+        try {
+            String value = kind == Kind.STATISTICS ? delegate.getStatistics(chatId) : delegate.getAchievements(chatId);
+            store(key, version, value);
+            load.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(loadKey, load);
+        }
+    }
+
+    /**
+     * Значение кладётся в кэш, только если с начала загрузки чат не менялся.
+     */
+    private void store(CacheKey key, long version, String value) {
+        synchronized (cache) {
+            if (versions.get(stripe(key.chatId())) == version) {
+                cache.put(key, new CachedValue(value, version, System.nanoTime()));
+            }
+        }
+    }
+
+    private String await(CompletableFuture<String> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // ───────── Запись со сбросом кэша ─────────
+
+    @Override
+    public SessionHandle recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
+        try {
+            return delegate.recordSession(chatId, sessionType, durationMinutes, startAt);
+        } finally {
+            invalidate(chatId);
+        }
+    }
+
+    @Override
+    public void completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
+        try {
+            delegate.completeSession(chatId, sessionType, stopAt);
+        } finally {
+            invalidate(chatId);
+        }
+    }
+
+    @Override
+    public void completeSession(SessionHandle session, LocalDateTime stopAt) {
+        try {
+            delegate.completeSession(session, stopAt);
+        } finally {
+            invalidate(session.chatId());
+        }
+    }
+
+    @Override
+    public void markSessionStopped(long chatId, LocalDateTime stopAt) {
+        try {
+            delegate.markSessionStopped(chatId, stopAt);
+        } finally {
+            invalidate(chatId);
+        }
+    }
+
+    @Override
+    public void markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+        try {
+            delegate.markSessionStopped(session, stopAt);
+        } finally {
+            invalidate(session.chatId());
+        }
+    }
+
+    @Override
+    public void applyBatch(List<SessionEvent> events) {
+        try {
+            delegate.applyBatch(events);
+        } finally {
+            events.stream().mapToLong(SessionEvent::chatId).distinct().forEach(this::invalidate);
+        }
+    }
+
+    /**
+     * Вызывается после записи: новая версия отсекает и то, что уже в кэше, и загрузки, начатые до записи.
+     */
+    private void invalidate(long chatId) {
+        versions.incrementAndGet(stripe(chatId));
+        invalidations.increment();
+        synchronized (cache) {
+            cache.remove(new CacheKey(chatId, Kind.STATISTICS));
+            cache.remove(new CacheKey(chatId, Kind.ACHIEVEMENTS));
+        }
+    }
+
+    // ───────── Без кэша ─────────
+
+    @Override
+    public void exportStatistics(long chatId, OutputStream out) {
+        delegate.exportStatistics(chatId, out);
+    }
+
+    @Override
+    public void forEachOpenSession(Consumer<OpenSession> consumer) {
+        delegate.forEachOpenSession(consumer);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    public CacheStats stats() {
+        int size;
+        synchronized (cache) {
+            size = cache.size();
+        }
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + missCount;
+        return new CacheStats(size, hitCount, missCount, coalescedLoads.sum(), evictions.sum(), invalidations.sum(),
+                total == 0 ? 0 : (double) hitCount / total);
+    }
+
+    private int stripe(long chatId) {
+        return (Long.hashCode(chatId) & 0x7fffffff) % VERSION_STRIPES;
+    }
+
+    private enum Kind {
+        STATISTICS,
+        ACHIEVEMENTS
+    }
+
+    private record CacheKey(long chatId, Kind kind) {
+    }
+
+    private record LoadKey(long chatId, Kind kind, long version) {
+    }
+
+    private record CachedValue(String value, long version, long loadedAtNanos) {
+    }
+
+    /**
+     * Снимок счётчиков кэша.
+     */
+    public record CacheStats(
+            int size,
+            long hitCount,
+            long missCount,
+            long coalescedLoadCount,
+            long evictionCount,
+            long invalidationCount,
+            double hitRatio
+    ) {
+    }
+}
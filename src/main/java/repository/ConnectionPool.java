@@ -0,0 +1,221 @@
+package repository;
+
+import config.Config;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченный пул соединений с БД.
+ * - Не больше dbPoolSize физических соединений одновременно
+ * - Соединения старше dbConnectionMaxLifetimeMinutes закрываются и пересоздаются
+ * - Соединение, простоявшее без дела дольше VALIDATION_IDLE_MILLIS, проверяется перед выдачей
+ * - Ведутся счётчики ожидания и использования (см. {@link #stats()})
+ */
+public class ConnectionPool implements AutoCloseable {
+    // Соединения, использованные недавно, не проверяем - это лишний запрос к серверу
+    private static final long VALIDATION_IDLE_MILLIS = 30_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String dbUrl;
+    private final Properties connectionProperties;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long maxLifetimeMillis;
+
+    // Свободные соединения. Выдаём с головы (LIFO), чтобы использовались "прогретые" соединения
+    private final BlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    // Разрешения на выдачу соединения - ограничивают общий размер пула
+    private final Semaphore permits;
+    private volatile boolean closed;
+
+    // Счётчики пула
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger inUseConnections = new AtomicInteger();
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder invalidCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(Config config) {
+        this.dbUrl = config.dbUrl();
+        this.maxSize = config.dbPoolSize();
+        this.acquireTimeoutMillis = config.dbPoolTimeoutMillis();
+        this.maxLifetimeMillis = TimeUnit.MINUTES.toMillis(config.dbConnectionMaxLifetimeMinutes());
+        this.permits = new Semaphore(maxSize, true);
+
+        this.connectionProperties = new Properties();
+        connectionProperties.setProperty("user", config.dbUser());
+        connectionProperties.setProperty("password", config.dbPassword());
+        // Запросы переиспользуются в рамках соединения, поэтому сразу готовим их на стороне сервера
+        connectionProperties.setProperty("prepareThreshold", "1");
+    }
+
+    /**
+     * Выдаёт соединение из пула. Соединение возвращается в пул при вызове {@link PooledConnection#close()}.
+     * Если за dbPoolTimeoutMillis свободное соединение не появилось, выбрасывается SQLException.
+     */
+    public PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Пул соединений закрыт");
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLException("Не удалось получить соединение из пула за " + acquireTimeoutMillis + " мс");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание соединения прервано", e);
+        }
+
+        try {
+            PooledConnection connection = takeIdleConnection();
+            if (connection == null) {
+                connection = openConnection();
+            }
+            connection.lease();
+            inUseConnections.incrementAndGet();
+            acquireCount.increment();
+            recordWait(System.nanoTime() - startNanos);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Возврат соединения в пул. Вызывается из {@link PooledConnection#close()}.
+     */
+    void release(PooledConnection connection) {
+        inUseConnections.decrementAndGet();
+        try {
+            if (closed || connection.isClosed() || isExpired(connection)) {
+                closePhysically(connection);
+            } else {
+                connection.resetState();
+                idleConnections.offerFirst(connection);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error returning connection to pool: " + e.getMessage());
+            closePhysically(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public PoolStats stats() {
+        long acquires = acquireCount.sum();
+        return new PoolStats(
+                maxSize,
+                openConnections.get(),
+                inUseConnections.get(),
+                idleConnections.size(),
+                permits.getQueueLength(),
+                acquires,
+                timeoutCount.sum(),
+                createdCount.sum(),
+                expiredCount.sum(),
+                invalidCount.sum(),
+                acquires == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum() / acquires),
+                TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get())
+        );
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            closePhysically(connection);
+        }
+    }
+
+    // ───────── Вспомогательные методы ─────────
+
+    private PooledConnection takeIdleConnection() {
+        PooledConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            if (isExpired(connection)) {
+                expiredCount.increment();
+                closePhysically(connection);
+            } else if (!isAlive(connection)) {
+                invalidCount.increment();
+                closePhysically(connection);
+            } else {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(dbUrl, connectionProperties);
+        openConnections.incrementAndGet();
+        createdCount.increment();
+        return new PooledConnection(this, connection);
+    }
+
+    private boolean isExpired(PooledConnection connection) {
+        return System.currentTimeMillis() - connection.createdAt() >= maxLifetimeMillis;
+    }
+
+    private boolean isAlive(PooledConnection connection) {
+        if (System.currentTimeMillis() - connection.lastUsedAt() < VALIDATION_IDLE_MILLIS) {
+            return true;
+        }
+        try {
+            return connection.unwrap().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void closePhysically(PooledConnection connection) {
+        openConnections.decrementAndGet();
+        try {
+            connection.closePhysically();
+        } catch (SQLException e) {
+            System.out.println("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Снимок счётчиков пула. Время ожидания - в микросекундах.
+     */
+    public record PoolStats(
+            int maxSize,
+            int openConnections,
+            int inUseConnections,
+            int idleConnections,
+            int waitingThreads,
+            long acquireCount,
+            long timeoutCount,
+            long createdCount,
+            long expiredCount,
+            long invalidCount,
+            long averageWaitMicros,
+            long maxWaitMicros
+    ) {
+    }
+}
@@ -0,0 +1,492 @@
+package repository;
+
+import achievement.AchievementProgress;
+import achievement.Award;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Перенос истории из CSV-хранилища в БД (команда csv-to-db) без построчного recordSession/completeSession.
+ * - Файлы чатов разбираются параллельно в ForkJoinPool окнами по PARSE_WINDOW чатов: пока одно окно пишется в БД,
+ *   следующее уже разбирается. В памяти - не больше окна и пачки
+ * - Сессии пишутся в user_sessions через COPY пачками примерно по batchRows строк, транзакция на пачку;
+ *   чат всегда целиком в одной пачке. В той же транзакции - достижения и прогресс из data/achievements
+ * - После фиксации пачки её чаты дописываются в контрольную точку (chatId,число сессий), файл сбрасывается на диск.
+ *   Повторный запуск пропускает перенесённые чаты. Если процесс упал между фиксацией и записью контрольной точки,
+ *   такие чаты узнаются по уже записанным сессиям и второй раз не переносятся. Чат без единой целой сессии так
+ *   не узнать - если контрольная точка не записалась, он переносится заново: у него только достижения,
+ *   а их повторная вставка ничего не меняет
+ * - В конце число сессий каждого перенесённого чата в БД сверяется с CSV, агрегаты статистики пересчитываются
+ */
+public class CsvToDataBaseMigrator {
+    private static final Path CHECKPOINT_FILE = Paths.get("data/migration/csv-to-db.checkpoint");
+    // Чатов в окне параллельного разбора
+    private static final int PARSE_WINDOW = 256;
+    // Чатов в одном запросе сверки
+    private static final int VERIFY_CHUNK = 1000;
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // Колонки истории сессий в CSV-формате
+    private static final int IDX_TYPE = 0;
+    private static final int IDX_DURATION = 1;
+    private static final int IDX_START_AT = 2;
+    private static final int IDX_STOP_AT = 3;
+    private static final int IDX_COMPLETED = 4;
+
+    private static final String COPY_SESSIONS =
+            "COPY user_sessions (chat_id, type, duration, start_at, stop_at, completed) FROM STDIN";
+
+    private static final String COUNT_SESSIONS = """
+            SELECT chat_id, COUNT(*) AS sessions
+            FROM user_sessions
+            WHERE chat_id = ANY(?)
+            GROUP BY chat_id
+            """;
+
+    // Прогресс переносится как есть; если строка уже есть, прогресс в БД новее
+    private static final String IMPORT_PROGRESS = """
+            INSERT INTO user_achievement_progress (chat_id, work_cycles, work_minutes, current_streak, longest_streak,
+                                                   last_work_day, awarded_mask)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (chat_id) DO NOTHING
+            """;
+
+    private final CsvUserDataRepository csvRepository;
+    private final DataBaseUserDataRepository repository;
+    private final int batchRows;
+    private final int parallelism;
+
+    // Месяцы, секции которых уже есть: строки сразу попадают в свою секцию, а не в секцию по умолчанию
+    private final Set<YearMonth> partitions = new HashSet<>();
+    private long migratedChats;
+    private long migratedSessions;
+    private long skippedRows;
+    private long emptyChats;
+    private int conflicts;
+    private int failures;
+
+    public CsvToDataBaseMigrator(CsvUserDataRepository csvRepository, DataBaseUserDataRepository repository,
+                                 int batchRows, int parallelism) {
+        this.csvRepository = csvRepository;
+        this.repository = repository;
+        this.batchRows = batchRows;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Сессии одного чата, подготовленные для COPY (текстовый формат, UTF-8), и его достижения.
+     */
+    private record ParsedChat(long chatId, byte[] copyRows, int sessions, int skippedRows, Set<YearMonth> months,
+                              List<Award> awards, AchievementProgress progress) {
+    }
+
+    /**
+     * Переносит все чаты, которых ещё нет в контрольной точке.
+     * Возвращает false, если какие-то чаты перенести не удалось или число сессий в БД не сошлось с CSV.
+     */
+    public boolean migrate() {
+        long startedAt = System.nanoTime();
+        Map<Long, Integer> migrated = readCheckpoint();
+        List<Long> pending = csvRepository.listChatIds().stream()
+                .filter(chatId -> !migrated.containsKey(chatId))
+                .toList();
+        if (!migrated.isEmpty()) {
+            System.out.println("Resuming CSV migration: " + migrated.size() + " chats already migrated, "
+                    + pending.size() + " left");
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (FileChannel checkpoint = openCheckpoint()) {
+            Future<List<ParsedChat>> next = pending.isEmpty() ? null : parseWindow(pool, pending, 0);
+            List<ParsedChat> batch = new ArrayList<>();
+            int rows = 0;
+            for (int from = 0; from < pending.size(); from += PARSE_WINDOW) {
+                List<ParsedChat> window = next.get();
+                next = from + PARSE_WINDOW < pending.size() ? parseWindow(pool, pending, from + PARSE_WINDOW) : null;
+                for (ParsedChat chat : window) {
+                    batch.add(chat);
+                    rows += chat.sessions();
+                    if (rows >= batchRows) {
+                        writeBatch(batch, checkpoint, migrated, startedAt);
+                        batch = new ArrayList<>();
+                        rows = 0;
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch, checkpoint, migrated, startedAt);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to migrate CSV history to the database", e);
+        } finally {
+            pool.shutdown();
+        }
+
+        int mismatches = verify(migrated);
+        if (migratedChats > 0) {
+            repository.backfillStatistics();
+        }
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        System.out.printf("CSV migration finished: %d chats (%d without sessions), %d sessions in %.1f s (%.0f rows/s); "
+                        + "malformed rows skipped: %d, conflicts: %d, failures: %d, count mismatches: %d%n",
+                migratedChats, emptyChats, migratedSessions, seconds, migratedSessions / Math.max(seconds, 0.001),
+                skippedRows, conflicts, failures, mismatches);
+        return conflicts == 0 && failures == 0 && mismatches == 0;
+    }
+
+    // ───────── Разбор CSV ─────────
+
+    private Future<List<ParsedChat>> parseWindow(ForkJoinPool pool, List<Long> chatIds, int from) {
+        List<Long> window = chatIds.subList(from, Math.min(from + PARSE_WINDOW, chatIds.size()));
+        // Параллельный поток, запущенный из задачи пула, работает в этом же пуле
+        return pool.submit(() -> window.parallelStream()
+                .map(this::parseOrNull)
+                .filter(Objects::nonNull)
+                .toList());
+    }
+
+    private ParsedChat parseOrNull(long chatId) {
+        try {
+            return parse(chatId);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                failures++;
+            }
+            System.out.println("Failed to read CSV history for chatId=" + chatId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private ParsedChat parse(long chatId) {
+        List<String[]> records = csvRepository.readSessionRecords(chatId);
+        StringBuilder rows = new StringBuilder(records.size() * 64);
+        Set<YearMonth> months = new HashSet<>();
+        int sessions = 0;
+        int skipped = 0;
+        for (String[] record : records) {
+            YearMonth month = appendCopyRow(rows, chatId, record);
+            if (month == null) {
+                skipped++;
+            } else {
+                months.add(month);
+                sessions++;
+            }
+        }
+        return new ParsedChat(chatId, rows.toString().getBytes(StandardCharsets.UTF_8), sessions, skipped, months,
+                AchievementFiles.readAwards(chatId), AchievementFiles.readProgress(chatId));
+    }
+
+    /**
+     * Дописывает сессию строкой COPY (значения через табуляцию, \N - NULL).
+     * Возвращает месяц начала сессии или null, если строка CSV повреждена и пропущена.
+     */
+    private static YearMonth appendCopyRow(StringBuilder rows, long chatId, String[] record) {
+        if (record.length <= IDX_COMPLETED || record[IDX_TYPE].isEmpty()) {
+            return null;
+        }
+        LocalDateTime startAt;
+        try {
+            Integer.parseInt(record[IDX_DURATION]);
+            startAt = LocalDateTime.parse(record[IDX_START_AT], FORMATTER);
+            if (!record[IDX_STOP_AT].isEmpty()) {
+                LocalDateTime.parse(record[IDX_STOP_AT], FORMATTER);
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return null;
+        }
+        rows.append(chatId).append('\t');
+        appendEscaped(rows, record[IDX_TYPE]);
+        rows.append('\t').append(record[IDX_DURATION])
+                .append('\t').append(record[IDX_START_AT])
+                .append('\t').append(record[IDX_STOP_AT].isEmpty() ? "\\N" : record[IDX_STOP_AT])
+                .append('\t').append("true".equalsIgnoreCase(record[IDX_COMPLETED]) ? 't' : 'f')
+                .append('\n');
+        return YearMonth.from(startAt);
+    }
+
+    private static void appendEscaped(StringBuilder rows, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> rows.append("\\\\");
+                case '\t' -> rows.append("\\t");
+                case '\n' -> rows.append("\\n");
+                case '\r' -> rows.append("\\r");
+                default -> rows.append(c);
+            }
+        }
+    }
+
+    // ───────── Запись в БД ─────────
+
+    private void writeBatch(List<ParsedChat> batch, FileChannel checkpoint, Map<Long, Integer> migrated,
+                            long startedAt) throws SQLException, IOException {
+        ensurePartitions(batch);
+        List<ParsedChat> done = new ArrayList<>();
+        try (PooledConnection connection = repository.acquireConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                List<ParsedChat> withSessions = batch.stream().filter(chat -> chat.sessions() > 0).toList();
+                Map<Long, Long> existing = countSessions(connection, withSessions);
+                List<ParsedChat> imported = new ArrayList<>();
+                for (ParsedChat chat : batch) {
+                    Long sessions = existing.get(chat.chatId());
+                    if (chat.sessions() == 0) {
+                        // Сессий нет - узнать по ним перенос нельзя и сверять не с чем; достижения и прогресс
+                        // вставляются с ON CONFLICT DO NOTHING, в контрольную точку чат попадает с пачкой (с 0)
+                        imported.add(chat);
+                    } else if (sessions == null) {
+                        imported.add(chat);
+                    } else if (sessions == chat.sessions()) {
+                        // Пачка была зафиксирована, а контрольная точка не успела записаться
+                        done.add(chat);
+                    } else {
+                        conflicts++;
+                        System.out.println("chatId=" + chat.chatId() + " already has " + sessions
+                                + " sessions in the database, CSV has " + chat.sessions() + " - skipped");
+                    }
+                }
+                copySessions(connection, imported);
+                importAchievements(connection, imported);
+                connection.commit();
+                done.addAll(imported);
+                for (ParsedChat chat : imported) {
+                    migratedChats++;
+                    migratedSessions += chat.sessions();
+                    skippedRows += chat.skippedRows();
+                    if (chat.sessions() == 0) {
+                        emptyChats++;
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        writeCheckpoint(checkpoint, done, migrated);
+
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        System.out.printf("Migrated %d chats, %d sessions (%.0f rows/s)%n",
+                migratedChats, migratedSessions, migratedSessions / Math.max(seconds, 0.001));
+    }
+
+    /**
+     * Секции месяцев пачки создаются заранее, отдельно от транзакции пачки.
+     */
+    private void ensurePartitions(List<ParsedChat> batch) throws SQLException {
+        Set<YearMonth> months = new HashSet<>();
+        for (ParsedChat chat : batch) {
+            months.addAll(chat.months());
+        }
+        months.removeAll(partitions);
+        if (months.isEmpty()) {
+            return;
+        }
+        try (PooledConnection connection = repository.acquireConnection()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(SessionPartitionManager.CREATE_PARTITION);
+            for (YearMonth month : months) {
+                preparedStatement.setObject(1, month.atDay(1));
+                preparedStatement.execute();
+                partitions.add(month);
+            }
+        }
+    }
+
+    private Map<Long, Long> countSessions(PooledConnection connection, List<ParsedChat> chats) throws SQLException {
+        Long[] chatIds = new Long[chats.size()];
+        for (int i = 0; i < chatIds.length; i++) {
+            chatIds[i] = chats.get(i).chatId();
+        }
+        return countSessions(connection, chatIds);
+    }
+
+    private static Map<Long, Long> countSessions(PooledConnection connection, Long[] chatIds) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(COUNT_SESSIONS);
+        preparedStatement.setArray(1, connection.unwrap().createArrayOf("bigint", chatIds));
+        Map<Long, Long> sessions = new HashMap<>();
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                sessions.put(resultSet.getLong("chat_id"), resultSet.getLong("sessions"));
+            }
+        }
+        return sessions;
+    }
+
+    private static void copySessions(PooledConnection connection, List<ParsedChat> chats) throws SQLException {
+        long expected = 0;
+        for (ParsedChat chat : chats) {
+            expected += chat.sessions();
+        }
+        if (expected == 0) {
+            return;
+        }
+        CopyIn copyIn = connection.unwrap().unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SESSIONS);
+        try {
+            for (ParsedChat chat : chats) {
+                copyIn.writeToCopy(chat.copyRows(), 0, chat.copyRows().length);
+            }
+            long copied = copyIn.endCopy();
+            if (copied != expected) {
+                throw new IllegalStateException("COPY wrote " + copied + " sessions instead of " + expected);
+            }
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void importAchievements(PooledConnection connection, List<ParsedChat> chats) throws SQLException {
+        PreparedStatement awardStatement = connection.prepareStatement(DataBaseUserDataRepository.INSERT_ACHIEVEMENT);
+        PreparedStatement progressStatement = connection.prepareStatement(IMPORT_PROGRESS);
+        int awards = 0;
+        int progresses = 0;
+        for (ParsedChat chat : chats) {
+            for (Award award : chat.awards()) {
+                awardStatement.setLong(1, chat.chatId());
+                awardStatement.setString(2, award.name());
+                awardStatement.setString(3, award.description());
+                awardStatement.setObject(4, award.achievedAt());
+                awardStatement.addBatch();
+                awards++;
+            }
+            AchievementProgress progress = chat.progress();
+            if (progress != null) {
+                progressStatement.setLong(1, chat.chatId());
+                progressStatement.setLong(2, progress.workCycles());
+                progressStatement.setLong(3, progress.workMinutes());
+                progressStatement.setInt(4, progress.currentStreak());
+                progressStatement.setInt(5, progress.longestStreak());
+                progressStatement.setObject(6, progress.lastWorkDay());
+                progressStatement.setLong(7, progress.awardedMask());
+                progressStatement.addBatch();
+                progresses++;
+            }
+        }
+        if (awards > 0) {
+            awardStatement.executeBatch();
+        }
+        if (progresses > 0) {
+            progressStatement.executeBatch();
+        }
+    }
+
+    // ───────── Сверка ─────────
+
+    /**
+     * Сверяет число сессий перенесённых чатов в БД с числом сессий в CSV. Возвращает число расхождений.
+     */
+    private int verify(Map<Long, Integer> migrated) {
+        List<Long> chatIds = new ArrayList<>(migrated.keySet());
+        int mismatches = 0;
+        try (PooledConnection connection = repository.acquireConnection()) {
+            for (int from = 0; from < chatIds.size(); from += VERIFY_CHUNK) {
+                Long[] chunk = chatIds.subList(from, Math.min(from + VERIFY_CHUNK, chatIds.size())).toArray(new Long[0]);
+                Map<Long, Long> sessions = countSessions(connection, chunk);
+                for (Long chatId : chunk) {
+                    long actual = sessions.getOrDefault(chatId, 0L);
+                    if (actual != migrated.get(chatId)) {
+                        mismatches++;
+                        System.out.println("Session count mismatch for chatId=" + chatId + ": CSV " + migrated.get(chatId)
+                                + ", database " + actual);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Error verifying migrated sessions: " + e.getMessage());
+            throw new RuntimeException("Failed to verify migrated sessions", e);
+        }
+        System.out.println("Verified session counts of " + chatIds.size() + " chats, mismatches: " + mismatches);
+        return mismatches;
+    }
+
+    // ───────── Контрольная точка ─────────
+
+    /**
+     * Перенесённые чаты и число их сессий по контрольной точке.
+     */
+    private static Map<Long, Integer> readCheckpoint() {
+        Map<Long, Integer> migrated = new LinkedHashMap<>();
+        if (!Files.exists(CHECKPOINT_FILE)) {
+            return migrated;
+        }
+        try {
+            String content = Files.readString(CHECKPOINT_FILE, StandardCharsets.UTF_8);
+            // Строка без перевода строки могла оборваться при падении процесса: её пачка будет узнана
+            // по уже записанным сессиям
+            for (String line : content.substring(0, content.lastIndexOf('\n') + 1).split("\n")) {
+                String[] values = line.split(",");
+                if (values.length == 2) {
+                    migrated.put(Long.parseLong(values[0]), Integer.parseInt(values[1]));
+                }
+            }
+            return migrated;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + CHECKPOINT_FILE, e);
+        }
+    }
+
+    private static FileChannel openCheckpoint() throws IOException {
+        Files.createDirectories(CHECKPOINT_FILE.getParent());
+        FileChannel channel = FileChannel.open(CHECKPOINT_FILE, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        // Оборванная последняя строка отрезается: дописанная до конца, она выглядела бы целой при следующем
+        // запуске. Её чаты при этом запуске узнаются по записанным сессиям и попадут в контрольную точку заново
+        long end = channel.size();
+        ByteBuffer last = ByteBuffer.allocate(1);
+        while (end > 0) {
+            last.clear();
+            channel.read(last, end - 1);
+            if (last.get(0) == '\n') {
+                break;
+            }
+            end--;
+        }
+        channel.truncate(end);
+        channel.position(end);
+        return channel;
+    }
+
+    private static void writeCheckpoint(FileChannel checkpoint, List<ParsedChat> chats, Map<Long, Integer> migrated)
+            throws IOException {
+        if (chats.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (ParsedChat chat : chats) {
+            lines.append(chat.chatId()).append(',').append(chat.sessions()).append('\n');
+            migrated.put(chat.chatId(), chat.sessions());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            checkpoint.write(buffer);
+        }
+        checkpoint.force(false);
+    }
+}
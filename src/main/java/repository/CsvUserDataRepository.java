@@ -1,16 +1,51 @@
 package repository;
 
+import achievement.AchievementBackfill;
+import achievement.AchievementEngine;
+import achievement.AchievementProgress;
+import achievement.Award;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvException;
+import config.Config;
+import leaderboard.Leaderboard;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-public class CsvUserDataRepository implements UserDataRepository {
+/**
+ * Хранение данных в CSV-файлах.
+ *
+ * История сессий чата состоит из двух файлов:
+ * - data/sessions/&lt;chatId&gt;.csv - снимок истории (по строке на сессию)
+ * - data/sessions/&lt;chatId&gt;.journal.csv - журнал событий после снимка (START, COMPLETE, STOP)
+ * События только дописываются в конец журнала, существующие строки не перезаписываются.
+ * Когда журнал разрастается, фоновое уплотнение применяет его к снимку и атомарно подменяет файл снимка.
+ * Id сессии в её хэндле - номер строки в истории чата (без заголовка). События COMPLETE и STOP по хэндлу
+ * хранят этот номер и закрывают именно эту строку; события без номера закрывают последнюю открытую сессию.
+ *
+ * Файлы чата меняются под блокировкой его полосы: чаты распределены по LOCK_STRIPES блокировкам по хэшу,
+ * так что разные чаты почти никогда не ждут друг друга, а один чат всегда защищён одной и той же блокировкой.
+ * Сброс журнала на диск задаётся режимом CSV_FSYNC:
+ * - none - без fsync, как раньше (данные последних записей могут пропасть при сбое ОС)
+ * - always - fsync после каждого события, под блокировкой чата
+ * - group - событие дописывается под блокировкой, а fsync ждётся уже без неё, вместе с записями других чатов
+ *   (см. {@link GroupCommitSync})
+ */
+public class CsvUserDataRepository implements UserDataRepository, AchievementBackfill.Target,
+        Leaderboard.Source {
 
     // Каталоги для хранения данных
     private static final String SESSIONS_DIR = "data/sessions/";
@@ -27,130 +62,259 @@ public class CsvUserDataRepository implements UserDataRepository {
 
     // Заголовок CSV-файла
     private static final String[] CSV_HEADER = {"type", "duration", "start_at", "stop_at", "completed"};
+    // Заголовок файла с агрегатами статистики
+    private static final String[] TOTALS_HEADER = {"work_minutes", "rest_minutes", "work_cycles", "rest_cycles"};
+
+    // Индексы колонок журнала событий
+    private static final int IDX_EVENT = 0;
+    private static final int IDX_EVENT_TYPE = 1;
+    private static final int IDX_EVENT_DURATION = 2;
+    private static final int IDX_EVENT_AT = 3;
+    // Номер закрываемой строки (есть только у событий, записанных по хэндлу)
+    private static final int IDX_EVENT_ROW = 4;
+
+    // События журнала
+    private static final String EVENT_START = "START";
+    private static final String EVENT_COMPLETE = "COMPLETE";
+    private static final String EVENT_STOP = "STOP";
+
+    // После скольких событий в журнале запускается уплотнение
+    private static final int COMPACTION_THRESHOLD = 1000;
+
+    // Число полос блокировок (степень двойки)
+    private static final int LOCK_STRIPES = 256;
+
+    // Индекс открытых сессий по чатам. Индекс чата читается и меняется только под блокировкой его полосы
+    private final Map<Long, ChatIndex> indexes = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "csv-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AchievementEngine achievementEngine;
+    private final AchievementFiles achievementFiles;
+    // Дневные корзины статистики: data/stats/days_<chatId>.bin
+    private final DailyStatisticsFiles dailyStatisticsFiles;
+    private final String fsyncMode;
+    // Групповой сброс журналов, только в режиме group
+    private final GroupCommitSync groupCommitSync;
 
     public CsvUserDataRepository() {
+        this(AchievementEngine.withDefaultRules());
+    }
+
+    public CsvUserDataRepository(AchievementEngine achievementEngine) {
+        this(achievementEngine, Config.CSV_FSYNC_NONE);
+    }
+
+    public CsvUserDataRepository(AchievementEngine achievementEngine, String fsyncMode) {
+        this(achievementEngine, fsyncMode, ZoneId.systemDefault());
+    }
+
+    /**
+     * @param statsZone часовой пояс, в котором сессии раскладываются по дням статистики
+     */
+    public CsvUserDataRepository(AchievementEngine achievementEngine, String fsyncMode, ZoneId statsZone) {
         new File(SESSIONS_DIR).mkdirs();
         new File(STATS_DIR).mkdirs();
         new File(ACHIEVEMENTS_DIR).mkdirs();
+        this.achievementEngine = achievementEngine;
+        this.achievementFiles = new AchievementFiles(achievementEngine);
+        this.dailyStatisticsFiles = new DailyStatisticsFiles(
+                chatId -> Paths.get(STATS_DIR + "days_" + chatId + ".bin"), statsZone);
+        this.fsyncMode = fsyncMode;
+        this.groupCommitSync = Config.CSV_FSYNC_GROUP.equals(fsyncMode) ? new GroupCommitSync("csv-fsync") : null;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
     }
 
     /**
-     * При запуске сессии создаётся запись с начальными данными.
+     * При запуске сессии в журнал дописывается событие START.
      * Пример:
-     * "WORK","25","2025-02-09 15:21","","false"
+     * "START","WORK","25","2025-02-09 15:21"
      */
     @Override
-    public void recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
-        String fileName = SESSIONS_DIR + chatId + ".csv";
-        String[] record = new String[5];
-        record[IDX_TYPE] = sessionType;
-        record[IDX_DURATION] = String.valueOf(durationMinutes);
-        record[IDX_START_AT] = startAt.format(FORMATTER);
-        record[IDX_STOP_AT] = "";
-        record[IDX_COMPLETED] = "false";
-        appendRecord(fileName, record);
+    public SessionHandle recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
+        int row;
+        synchronized (lock(chatId)) {
+            ChatIndex index = index(chatId);
+            String[] record = new String[5];
+            record[IDX_TYPE] = sessionType;
+            record[IDX_DURATION] = String.valueOf(durationMinutes);
+            record[IDX_START_AT] = startAt.format(FORMATTER);
+            record[IDX_STOP_AT] = "";
+            record[IDX_COMPLETED] = "false";
+
+            appendEvent(chatId, index,
+                    new String[]{EVENT_START, sessionType, record[IDX_DURATION], record[IDX_START_AT]});
+            row = index.sessionCount++;
+            index.openSessions.add(new OpenRecord(row, record));
+        }
+        awaitDurable(chatId);
+        return new SessionHandle(chatId, sessionType, startAt, row);
     }
 
     /**
-     * При автоматическом завершении сессии (по таймеру) обновляем запись:
-     * - Записываем время окончания в stop_at
-     * - Устанавливаем completed = "true"
+     * При автоматическом завершении сессии (по таймеру) в журнал дописывается событие COMPLETE.
+     * При чтении оно закрывает последнюю открытую сессию этого типа:
+     * - Записывает время окончания в stop_at
+     * - Устанавливает completed = "true"
      *
-     * Пример:
-     * "WORK","25","2025-02-09 15:21","2025-02-09 15:46","true"
+     * Пример события:
+     * "COMPLETE","WORK","","2025-02-09 15:46"
+     *
+     * Прогресс достижений обновляется под той же блокировкой, уведомления отправляются после неё.
      */
     @Override
     public void completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
-        String fileName = SESSIONS_DIR + chatId + ".csv";
-        List<String[]> records = readAllRecords(fileName);
-        boolean updated = false;
-
-        for (int i = records.size() - 1; i >= 0; i--) {
-            String[] record = records.get(i);
-            if (!isHeaderRecord(record)
-                    && record[IDX_TYPE].equalsIgnoreCase(sessionType)
-                    && record[IDX_STOP_AT].isEmpty()) {
-                record[IDX_STOP_AT] = stopAt.format(FORMATTER);
-                record[IDX_COMPLETED] = "true";
-                updated = true;
-                break;
+        List<Award> awards;
+        synchronized (lock(chatId)) {
+            ChatIndex index = index(chatId);
+            OpenRecord open = findLastOpen(index, sessionType);
+            if (open == null) {
+                System.err.println("Не найдена активная сессия " + sessionType + " для chatId=" + chatId);
+                return;
             }
+            AchievementProgress progress = achievementFiles.load(chatId, sessionType, () -> readSessions(chatId));
+
+            appendEvent(chatId, index, new String[]{EVENT_COMPLETE, sessionType, "", stopAt.format(FORMATTER)});
+            awards = complete(chatId, index, open, progress, stopAt);
         }
+        awaitDurable(chatId);
+        achievementEngine.publish(chatId, awards);
+    }
 
-        if (updated) {
-            writeAllRecords(fileName, records);
-        } else {
-            System.err.println("Не найдена активная сессия " + sessionType + " для chatId=" + chatId);
+    /**
+     * Завершение сессии хэндла: событие COMPLETE хранит номер её строки и при чтении закрывает только её.
+     */
+    @Override
+    public void completeSession(SessionHandle session, LocalDateTime stopAt) {
+        long chatId = session.chatId();
+        List<Award> awards;
+        synchronized (lock(chatId)) {
+            ChatIndex index = index(chatId);
+            OpenRecord open = findOpen(index, session);
+            if (open == null) {
+                System.err.println("Сессия уже закрыта или не найдена: " + session);
+                return;
+            }
+            String sessionType = open.record()[IDX_TYPE];
+            AchievementProgress progress = achievementFiles.load(chatId, sessionType, () -> readSessions(chatId));
+
+            appendEvent(chatId, index, new String[]{EVENT_COMPLETE, sessionType, "",
+                    stopAt.format(FORMATTER), String.valueOf(open.row())});
+            awards = complete(chatId, index, open, progress, stopAt);
         }
+        awaitDurable(chatId);
+        achievementEngine.publish(chatId, awards);
+    }
+
+    /**
+     * Закрывает сессию в индексе и учитывает её в статистике и достижениях.
+     * Вызывается под блокировкой полосы чата, после записи события в журнал.
+     */
+    private List<Award> complete(long chatId, ChatIndex index, OpenRecord open, AchievementProgress progress,
+                                 LocalDateTime stopAt) {
+        String[] record = open.record();
+        index.openSessions.remove(open);
+        record[IDX_STOP_AT] = stopAt.format(FORMATTER);
+        record[IDX_COMPLETED] = "true";
+        addToTotals(chatId, record);
+        addToDailyStatistics(chatId, record, stopAt);
+        return achievementFiles.complete(chatId, progress, record[IDX_TYPE],
+                Integer.parseInt(record[IDX_DURATION]), stopAt);
     }
 
     /**
-     * При принудительной остановке сессии (команда /stop) обновляем запись:
-     * - Записываем время остановки в stop_at
-     * - Оставляем completed = "false"
+     * При принудительной остановке сессии (команда /stop) в журнал дописывается событие STOP.
+     * При чтении оно закрывает последнюю открытую сессию любого типа:
+     * - Записывает время остановки в stop_at
+     * - Оставляет completed = "false"
      *
-     * Пример:
-     * "WORK","25","2025-02-09 15:21","2025-02-09 15:21","false"
+     * Пример события:
+     * "STOP","","","2025-02-09 15:21"
      */
     @Override
     public void markSessionStopped(long chatId, LocalDateTime stopAt) {
-        String fileName = SESSIONS_DIR + chatId + ".csv";
-        List<String[]> records = readAllRecords(fileName);
-        boolean updated = false;
-
-        for (int i = records.size() - 1; i >= 0; i--) {
-            String[] record = records.get(i);
-            if (!isHeaderRecord(record) && record[IDX_STOP_AT].isEmpty()) {
-                record[IDX_STOP_AT] = stopAt.format(FORMATTER);
-                // completed остаётся "false"
-                updated = true;
-                break;
+        synchronized (lock(chatId)) {
+            ChatIndex index = index(chatId);
+            OpenRecord open = findLastOpen(index, null);
+            if (open == null) {
+                System.err.println("Не найдена активная сессия для остановки chatId=" + chatId);
+                return;
             }
+
+            appendEvent(chatId, index, new String[]{EVENT_STOP, "", "", stopAt.format(FORMATTER)});
+            stop(chatId, index, open, stopAt);
         }
+        awaitDurable(chatId);
+    }
 
-        if (updated) {
-            writeAllRecords(fileName, records);
-        } else {
-            System.err.println("Не найдена активная сессия для остановки chatId=" + chatId);
+    /**
+     * Остановка сессии хэндла: событие STOP хранит номер её строки.
+     */
+    @Override
+    public void markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+        long chatId = session.chatId();
+        synchronized (lock(chatId)) {
+            ChatIndex index = index(chatId);
+            OpenRecord open = findOpen(index, session);
+            if (open == null) {
+                System.err.println("Сессия уже закрыта или не найдена: " + session);
+                return;
+            }
+
+            appendEvent(chatId, index, new String[]{EVENT_STOP, "", "", stopAt.format(FORMATTER),
+                    String.valueOf(open.row())});
+            stop(chatId, index, open, stopAt);
         }
+        awaitDurable(chatId);
+    }
+
+    private void stop(long chatId, ChatIndex index, OpenRecord open, LocalDateTime stopAt) {
+        String[] record = open.record();
+        index.openSessions.remove(open);
+        record[IDX_STOP_AT] = stopAt.format(FORMATTER);
+        // Остановленные сессии тоже входят в статистику (считаются все сессии с заданным stop_at)
+        addToTotals(chatId, record);
+        addToDailyStatistics(chatId, record, stopAt);
     }
 
     /**
      * Формирование статистики по завершённым сессиям.
+     * Статистика читается из файла с агрегатами, который обновляется при закрытии каждой сессии.
+     * Если агрегатов ещё нет (данные записаны до их появления), они один раз считаются по всей истории.
      */
     @Override
     public String getStatistics(long chatId) {
-        String fileName = SESSIONS_DIR + chatId + ".csv";
-        int workMinutes = 0, restMinutes = 0, workCycles = 0, restCycles = 0;
-        List<String[]> records = readAllRecords(fileName);
-
-        for (String[] record : records) {
-            if (isHeaderRecord(record)) {
-                continue;
-            }
-
-            String type = record[IDX_TYPE];
-            String durationStr = record[IDX_DURATION];
-            String stopAt = record[IDX_STOP_AT];
-
-            // Считаем только завершённые сессии (где задано время окончания)
-            if (!stopAt.isEmpty() && durationStr != null && !durationStr.isEmpty()) {
-                int duration = Integer.parseInt(durationStr);
-                if ("WORK".equalsIgnoreCase(type)) {
-                    workMinutes += duration;
-                    workCycles++;
-                } else if ("REST".equalsIgnoreCase(type)) {
-                    restMinutes += duration;
-                    restCycles++;
-                }
+        Totals totals = readTotals(chatId);
+        if (totals == null) {
+            synchronized (lock(chatId)) {
+                index(chatId);
+                totals = computeTotals(readSessions(chatId));
+                writeTotals(chatId, totals);
             }
         }
 
         return "Статистика:\n" +
-                "• Рабочее время: " + workMinutes + " мин\n" +
-                "• Отдых: " + restMinutes + " мин\n" +
-                "• Рабочих циклов: " + workCycles + "\n" +
-                "• Циклов отдыха: " + restCycles;
+                "• Рабочее время: " + totals.workMinutes() + " мин\n" +
+                "• Отдых: " + totals.restMinutes() + " мин\n" +
+                "• Рабочих циклов: " + totals.workCycles() + "\n" +
+                "• Циклов отдыха: " + totals.restCycles();
+    }
+
+    /**
+     * Статистика за период - сумма дневных корзин, их файл читается под блокировкой чата.
+     */
+    @Override
+    public String getStatistics(long chatId, LocalDate from, LocalDate to) {
+        synchronized (lock(chatId)) {
+            index(chatId);
+            return dailyStatisticsFiles.read(chatId, from, to, () -> readSessions(chatId)).format(from, to);
+        }
     }
 
     @Override
@@ -164,61 +328,589 @@ public class CsvUserDataRepository implements UserDataRepository {
         }
     }
 
+    /**
+     * Выгрузка истории сессий (снимок с применённым журналом) без чтения снимка в память целиком.
+     * Снимок читается построчно дважды: сначала запоминаются его открытые сессии - только их могут закрыть
+     * события журнала, - затем строки пишутся в поток, открытые - уже с применёнными событиями.
+     * Файлы читаются под блокировкой чата: уплотнение подменяет снимок под ней же.
+     */
     @Override
-    public byte[] exportStatistics(long chatId) {
-        String fileName = STATS_DIR + "stats_" + chatId + ".csv";
+    public void exportStatistics(long chatId, OutputStream out) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
         try {
-            Path path = Paths.get(fileName);
-            if (Files.exists(path)) {
-                return Files.readAllBytes(path);
+            writer.write(String.join(",", CSV_HEADER));
+            writer.write("\n");
+            int rows;
+            synchronized (lock(chatId)) {
+                index(chatId);
+                SnapshotView view = readSnapshotView(chatId);
+                forEachSnapshotRecord(chatId, (row, record) -> writeExportRow(writer, view.current(row, record)));
+                for (String[] record : view.appended) {
+                    writeExportRow(writer, record);
+                }
+                rows = view.size();
             }
+            writer.flush();
+            System.out.println("Statistics exported for chatId=" + chatId + " (" + rows + " rows)");
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error exporting statistics for chatId=" + chatId + ": " + e.getMessage());
+            throw new RuntimeException("Failed to export statistics", e);
+        }
+    }
+
+    private static void writeExportRow(Writer writer, String[] record) {
+        try {
+            writer.write(String.join(",", record));
+            writer.write("\n");
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
-        return new byte[0];
     }
 
-    // ───────── Вспомогательные методы ─────────
+    /**
+     * История чата с применённым журналом, в которой из строк снимка хранятся только открытые.
+     * Вызывается под блокировкой полосы чата.
+     */
+    private SnapshotView readSnapshotView(long chatId) throws IOException {
+        SnapshotView view = new SnapshotView();
+        forEachSnapshotRecord(chatId, view::addSnapshotRow);
+        applyEvents(view, readAllRecords(compactingFile(chatId)));
+        applyEvents(view, readAllRecords(journalFile(chatId)));
+        return view;
+    }
+
+    /**
+     * Построчное чтение снимка чата: consumer получает номер строки в истории (без заголовка) и саму строку.
+     */
+    private void forEachSnapshotRecord(long chatId, SnapshotRecordConsumer consumer) throws IOException {
+        File file = new File(sessionsFile(chatId));
+        if (!file.exists()) {
+            return;
+        }
+        try (CSVReader reader = new CSVReader(new FileReader(file))) {
+            int row = 0;
+            for (String[] record = reader.readNext(); record != null; record = reader.readNext()) {
+                if (!isHeaderRecord(record)) {
+                    consumer.accept(row++, record);
+                }
+            }
+        } catch (CsvException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private interface SnapshotRecordConsumer {
+        void accept(int row, String[] record);
+    }
+
+    /**
+     * Обход незакрытых сессий по индексам всех чатов.
+     */
+    @Override
+    public void forEachOpenSession(Consumer<OpenSession> consumer) {
+        for (long chatId : listChatIds()) {
+            synchronized (lock(chatId)) {
+                for (OpenRecord open : index(chatId).openSessions) {
+                    String[] record = open.record();
+                    consumer.accept(new OpenSession(chatId, record[IDX_TYPE], Integer.parseInt(record[IDX_DURATION]),
+                            LocalDateTime.parse(record[IDX_START_AT], FORMATTER), open.row()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Дожидается завершения фонового уплотнения журналов и группового сброса.
+     */
+    @Override
+    public void close() {
+        compactionExecutor.shutdown();
+        try {
+            compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (groupCommitSync != null) {
+            groupCommitSync.close();
+        }
+    }
+
+    /**
+     * Счётчики группового сброса: сколько записей ждали fsync и сколько fsync на них понадобилось.
+     * Без режима group оба счётчика нулевые.
+     */
+    public SyncStats syncStats() {
+        return groupCommitSync == null
+                ? new SyncStats(0, 0)
+                : new SyncStats(groupCommitSync.requestCount(), groupCommitSync.syncCount());
+    }
+
+    public record SyncStats(long requestCount, long syncCount) {
+    }
+
+    /**
+     * Пересчёт прогресса и достижений чата по всей истории.
+     */
+    @Override
+    public boolean backfillAchievements(long chatId) {
+        synchronized (lock(chatId)) {
+            index(chatId);
+            return achievementFiles.backfill(chatId, readSessionRecords(chatId));
+        }
+    }
+
+    /**
+     * Итоги для рейтинга: история каждого чата читается целиком, поэтому вызывается только при сборке рейтинга.
+     */
+    @Override
+    public List<Leaderboard.FocusTotals> loadFocusTotals(LocalDateTime weekStart) {
+        return LeaderboardTotals.load(listChatIds(), this::readSessionRecords, weekStart);
+    }
+
+    // ───────── Преобразование в другие форматы ─────────
+
+    /**
+     * Чаты, для которых есть история сессий.
+     */
+    @Override
+    public List<Long> listChatIds() {
+        Set<Long> chatIds = new TreeSet<>();
+        File[] files = new File(SESSIONS_DIR).listFiles((dir, name) -> name.matches("-?\\d+\\..*csv"));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                chatIds.add(Long.parseLong(name.substring(0, name.indexOf('.'))));
+            }
+        }
+        return new ArrayList<>(chatIds);
+    }
+
+    /**
+     * История сессий чата (снимок с применённым журналом) без заголовка.
+     */
+    public List<String[]> readSessionRecords(long chatId) {
+        synchronized (lock(chatId)) {
+            index(chatId);
+            List<String[]> records = readSessions(chatId);
+            records.removeIf(this::isHeaderRecord);
+            return records;
+        }
+    }
+
+    /**
+     * Заменяет историю сессий чата: записывает новый снимок, удаляет журнал и агрегаты (они будут пересчитаны).
+     */
+    public void writeSessionRecords(long chatId, List<String[]> records) {
+        synchronized (lock(chatId)) {
+            index(chatId);
+            List<String[]> snapshot = new ArrayList<>();
+            snapshot.add(CSV_HEADER);
+            snapshot.addAll(records);
+            try {
+                // Свой временный файл: временный снимок уплотнения может в это время писаться без блокировки.
+                // Если он не записан целиком, старая история остаётся как есть
+                writeAllRecords(importTmpFile(chatId), snapshot);
+                Files.move(Paths.get(importTmpFile(chatId)), Paths.get(sessionsFile(chatId)),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.deleteIfExists(Paths.get(journalFile(chatId)));
+                Files.deleteIfExists(Paths.get(compactingFile(chatId)));
+                Files.deleteIfExists(Paths.get(STATS_DIR + "totals_" + chatId + ".csv"));
+                dailyStatisticsFiles.delete(chatId);
+            } catch (IOException e) {
+                throw new RuntimeException("Не удалось записать историю сессий chatId=" + chatId, e);
+            } finally {
+                indexes.remove(chatId);
+            }
+        }
+    }
+
+    // ───────── Работа с журналом ─────────
+
+    /**
+     * Блокировка полосы, к которой относится чат.
+     */
+    private Object lock(long chatId) {
+        int hash = Long.hashCode(chatId);
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Возвращает индекс чата, при первом обращении строит его по снимку и журналу.
+     * Вызывается под блокировкой полосы чата, поэтому файлы читаются вне ConcurrentHashMap.compute.
+     */
+    private ChatIndex index(long chatId) {
+        ChatIndex index = indexes.get(chatId);
+        if (index == null) {
+            recoverCompaction(chatId);
+            index = new ChatIndex();
+            // Снимок читается построчно: в индекс попадают только открытые сессии
+            SnapshotView view;
+            try {
+                view = readSnapshotView(chatId);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read sessions of chatId=" + chatId, e);
+            }
+            for (int row = 0; row < view.size(); row++) {
+                String[] record = view.get(row);
+                if (record[IDX_STOP_AT].isEmpty()) {
+                    index.openSessions.add(new OpenRecord(row, record));
+                }
+            }
+            index.sessionCount = view.size();
+            index.journalEvents = readAllRecords(journalFile(chatId)).size();
+            indexes.put(chatId, index);
+        }
+        return index;
+    }
+
+    /**
+     * Дописывает событие в журнал и при необходимости запускает уплотнение.
+     * Вызывается под блокировкой полосы чата до изменения индекса и агрегатов: если записать событие не удалось,
+     * бросает исключение, и состояние чата остаётся таким же, как в журнале.
+     */
+    private void appendEvent(long chatId, ChatIndex index, String[] event) {
+        try (FileOutputStream out = new FileOutputStream(journalFile(chatId), true);
+             CSVWriter writer = new CSVWriter(new OutputStreamWriter(out))) {
+            writer.writeNext(event);
+            if (Config.CSV_FSYNC_ALWAYS.equals(fsyncMode)) {
+                writer.flush();
+                out.getFD().sync();
+            }
+        } catch (IOException e) {
+            System.out.println("Error appending " + event[IDX_EVENT] + " event for chatId=" + chatId + ": " + e.getMessage());
+            throw new RuntimeException("Failed to append journal event", e);
+        }
+
+        index.journalEvents++;
+        if (index.journalEvents >= COMPACTION_THRESHOLD && !index.compactionScheduled) {
+            index.compactionScheduled = true;
+            compactionExecutor.execute(() -> compact(chatId));
+        }
+    }
+
+    /**
+     * В режиме group ждёт сброса журнала чата на диск. Вызывается после снятия блокировки.
+     */
+    private void awaitDurable(long chatId) {
+        if (groupCommitSync != null) {
+            groupCommitSync.sync(Paths.get(journalFile(chatId)));
+        }
+    }
+
+    /**
+     * История сессий чата: снимок с применёнными к нему событиями журнала.
+     * Вызывается под блокировкой индекса чата (или до того, как индекс опубликован).
+     */
+    private List<String[]> readSessions(long chatId) {
+        List<String[]> records = readAllRecords(sessionsFile(chatId));
+        applyEvents(records, readAllRecords(compactingFile(chatId)));
+        applyEvents(records, readAllRecords(journalFile(chatId)));
+        return records;
+    }
+
+    /**
+     * Применяет события журнала к записям снимка - так же, как раньше менялся файл сессий.
+     */
+    private void applyEvents(List<String[]> records, List<String[]> events) {
+        for (String[] event : events) {
+            switch (event[IDX_EVENT]) {
+                case EVENT_START -> records.add(new String[]{
+                        event[IDX_EVENT_TYPE], event[IDX_EVENT_DURATION], event[IDX_EVENT_AT], "", "false"});
+                case EVENT_COMPLETE -> {
+                    String[] record = closedBy(records, event, event[IDX_EVENT_TYPE]);
+                    if (record != null) {
+                        record[IDX_STOP_AT] = event[IDX_EVENT_AT];
+                        record[IDX_COMPLETED] = "true";
+                    }
+                }
+                case EVENT_STOP -> {
+                    String[] record = closedBy(records, event, null);
+                    if (record != null) {
+                        record[IDX_STOP_AT] = event[IDX_EVENT_AT];
+                    }
+                }
+                default -> System.err.println("Неизвестное событие журнала: " + event[IDX_EVENT]);
+            }
+        }
+    }
+
+    /**
+     * Сессия, которую закрывает событие: строка с номером из события, если он есть (и она ещё открыта),
+     * иначе последняя открытая сессия заданного типа.
+     */
+    private String[] closedBy(List<String[]> records, String[] event, String sessionType) {
+        if (event.length <= IDX_EVENT_ROW || event[IDX_EVENT_ROW].isEmpty()) {
+            return findLastOpen(records, sessionType);
+        }
+        // Заголовок, если он есть, - первая строка снимка
+        int headerRows = !records.isEmpty() && isHeaderRecord(records.get(0)) ? 1 : 0;
+        int position = Integer.parseInt(event[IDX_EVENT_ROW]) + headerRows;
+        if (position >= records.size() || !records.get(position)[IDX_STOP_AT].isEmpty()) {
+            return null;
+        }
+        return records.get(position);
+    }
+
+    /**
+     * Последняя открытая сессия заданного типа (или любого типа, если sessionType == null) в индексе чата.
+     */
+    private OpenRecord findLastOpen(ChatIndex index, String sessionType) {
+        for (int i = index.openSessions.size() - 1; i >= 0; i--) {
+            OpenRecord open = index.openSessions.get(i);
+            if (sessionType == null || open.record()[IDX_TYPE].equalsIgnoreCase(sessionType)) {
+                return open;
+            }
+        }
+        return null;
+    }
 
     /**
-     * Добавляет запись в конец CSV-файла.
-     * Если файла нет — сначала записывается заголовок.
+     * Открытая сессия хэндла в индексе чата или null, если она уже закрыта.
+     * Строка сверяется с хэндлом по типу и началу: после замены истории чата номер мог достаться другой сессии.
      */
-    private void appendRecord(String fileName, String[] record) {
-        boolean fileExists = new File(fileName).exists();
-        try (CSVWriter writer = new CSVWriter(new FileWriter(fileName, true))) {
-            if (!fileExists) {
-                writer.writeNext(CSV_HEADER);
+    private OpenRecord findOpen(ChatIndex index, SessionHandle session) {
+        String startAt = session.startAt().format(FORMATTER);
+        for (OpenRecord open : index.openSessions) {
+            if (open.row() == session.id()) {
+                String[] record = open.record();
+                boolean same = record[IDX_TYPE].equalsIgnoreCase(session.sessionType())
+                        && record[IDX_START_AT].equals(startAt);
+                return same ? open : null;
             }
-            writer.writeNext(record);
+        }
+        return null;
+    }
+
+    /**
+     * Последняя открытая сессия заданного типа (или любого типа, если sessionType == null).
+     */
+    private String[] findLastOpen(List<String[]> records, String sessionType) {
+        for (int i = records.size() - 1; i >= 0; i--) {
+            String[] record = records.get(i);
+            if (!isHeaderRecord(record)
+                    && (sessionType == null || record[IDX_TYPE].equalsIgnoreCase(sessionType))
+                    && record[IDX_STOP_AT].isEmpty()) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Уплотнение журнала:
+     * 1. Журнал переименовывается в .compacting, новые события пишутся в новый журнал
+     * 2. Снимок с применёнными событиями записывается во временный файл
+     * 3. Файл .compacting удаляется, временный файл атомарно подменяет снимок
+     * Если процесс упал между шагами, состояние восстанавливается в {@link #recoverCompaction}.
+     */
+    private void compact(long chatId) {
+        try {
+            synchronized (lock(chatId)) {
+                ChatIndex index = indexes.get(chatId);
+                if (index != null) {
+                    index.compactionScheduled = false;
+                }
+                // Если .compacting остался от прерванного уплотнения, сначала уплотняем его, журнал - в следующий раз
+                if (!Files.exists(Paths.get(compactingFile(chatId)))) {
+                    Path journal = Paths.get(journalFile(chatId));
+                    if (!Files.exists(journal)) {
+                        // История чата заменена целиком, пока уплотнение ждало очереди
+                        return;
+                    }
+                    // Записи, ждущие группового сброса, после переименования сбросили бы уже новый журнал
+                    if (!Config.CSV_FSYNC_NONE.equals(fsyncMode)) {
+                        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                            channel.force(false);
+                        }
+                    }
+                    Files.move(journal, Paths.get(compactingFile(chatId)), StandardCopyOption.ATOMIC_MOVE);
+                    if (index != null) {
+                        index.journalEvents = 0;
+                    }
+                }
+            }
+
+            // Снимок и .compacting меняются только здесь, поэтому читаем их без блокировки.
+            // Ошибка чтения или записи прерывает уплотнение до удаления .compacting и подмены снимка:
+            // .compacting останется и будет уплотнён в следующий раз
+            List<String[]> records = readRecords(sessionsFile(chatId));
+            if (records.isEmpty()) {
+                records.add(CSV_HEADER);
+            }
+            applyEvents(records, readRecords(compactingFile(chatId)));
+            writeAllRecords(snapshotTmpFile(chatId), records);
+
+            synchronized (lock(chatId)) {
+                if (!Files.exists(Paths.get(compactingFile(chatId)))) {
+                    // История чата заменена целиком во время уплотнения - наш снимок устарел
+                    Files.deleteIfExists(Paths.get(snapshotTmpFile(chatId)));
+                    return;
+                }
+                Files.delete(Paths.get(compactingFile(chatId)));
+                Files.move(Paths.get(snapshotTmpFile(chatId)), Paths.get(sessionsFile(chatId)),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            System.out.println("Журнал сессий уплотнён для chatId=" + chatId + " (" + (records.size() - 1) + " записей)");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Доводит до конца уплотнение, прерванное падением процесса.
+     * - Есть временный снимок и .compacting: снимок не дописан, удаляем его - .compacting будет применён при чтении
+     * - Есть временный снимок без .compacting: снимок полный, осталось подменить им основной файл
+     */
+    private void recoverCompaction(long chatId) {
+        Path tmp = Paths.get(snapshotTmpFile(chatId));
+        if (!Files.exists(tmp)) {
+            return;
+        }
+        try {
+            if (Files.exists(Paths.get(compactingFile(chatId)))) {
+                Files.delete(tmp);
+            } else {
+                Files.move(tmp, Paths.get(sessionsFile(chatId)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private String sessionsFile(long chatId) {
+        return SESSIONS_DIR + chatId + ".csv";
+    }
+
+    private String journalFile(long chatId) {
+        return SESSIONS_DIR + chatId + ".journal.csv";
+    }
+
+    private String compactingFile(long chatId) {
+        return SESSIONS_DIR + chatId + ".journal.compacting.csv";
+    }
+
+    private String snapshotTmpFile(long chatId) {
+        return SESSIONS_DIR + chatId + ".csv.tmp";
+    }
+
+    private String importTmpFile(long chatId) {
+        return SESSIONS_DIR + chatId + ".csv.import.tmp";
+    }
+
+    // ───────── Вспомогательные методы ─────────
+
     /**
      * Чтение всех записей из файла.
      */
     private List<String[]> readAllRecords(String fileName) {
-        List<String[]> records = new ArrayList<>();
+        try {
+            return readRecords(fileName);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Чтение всех записей из файла; ошибка чтения не скрывается - для тех, кто по прочитанному перезаписывает файл.
+     */
+    private List<String[]> readRecords(String fileName) throws IOException {
         File file = new File(fileName);
         if (!file.exists()) {
-            return records;
+            return new ArrayList<>();
         }
         try (CSVReader reader = new CSVReader(new FileReader(file))) {
-            records = reader.readAll();
-        } catch (IOException | CsvException e) {
-            e.printStackTrace();
+            return new ArrayList<>(reader.readAll());
+        } catch (CsvException e) {
+            throw new IOException("Не удалось разобрать " + fileName, e);
         }
-        return records;
     }
 
     /**
      * Перезаписывает CSV-файл переданным списком записей.
+     * Данные сбрасываются на диск до возврата, чтобы файл можно было сразу подменять атомарным переименованием.
+     * CSVWriter не бросает ошибки записи, а запоминает их - они проверяются через checkError(): при ошибке
+     * файл может быть обрезан, и подменять им ничего нельзя.
      */
-    private void writeAllRecords(String fileName, List<String[]> records) {
-        try (CSVWriter writer = new CSVWriter(new FileWriter(fileName, false))) {
+    private void writeAllRecords(String fileName, List<String[]> records) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(fileName, false);
+             CSVWriter writer = new CSVWriter(new OutputStreamWriter(out))) {
             writer.writeAll(records);
+            // checkError() сбрасывает буфер и сообщает об ошибках, в том числе самого сброса
+            if (writer.checkError()) {
+                throw new IOException("Не удалось записать " + fileName, writer.getException());
+            }
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Подсчёт статистики по всем записям файла сессий.
+     */
+    private Totals computeTotals(List<String[]> records) {
+        Totals totals = Totals.EMPTY;
+        for (String[] record : records) {
+            if (!isHeaderRecord(record)) {
+                totals = totals.plus(record);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Учитывает закрытую сессию в агрегатах статистики.
+     * Вызывается под блокировкой индекса чата, после записи события в журнал.
+     */
+    private void addToTotals(long chatId, String[] closedRecord) {
+        Totals totals = readTotals(chatId);
+        if (totals == null) {
+            // Агрегатов ещё нет - считаем по всей истории, включая только что закрытую сессию
+            totals = computeTotals(readSessions(chatId));
+        } else {
+            totals = totals.plus(closedRecord);
+        }
+        writeTotals(chatId, totals);
+    }
+
+    /**
+     * Учитывает закрытую сессию в корзине её дня. Вызывается под блокировкой индекса чата, после записи события в журнал.
+     */
+    private void addToDailyStatistics(long chatId, String[] closedRecord, LocalDateTime stopAt) {
+        dailyStatisticsFiles.add(chatId, closedRecord[IDX_TYPE], Integer.parseInt(closedRecord[IDX_DURATION]), stopAt,
+                () -> readSessions(chatId));
+    }
+
+    /**
+     * Чтение агрегатов статистики. Возвращает null, если файла с агрегатами нет.
+     */
+    private Totals readTotals(long chatId) {
+        List<String[]> records = readAllRecords(STATS_DIR + "totals_" + chatId + ".csv");
+        if (records.size() < 2) {
+            return null;
+        }
+        String[] values = records.get(1);
+        return new Totals(
+                Long.parseLong(values[0]),
+                Long.parseLong(values[1]),
+                Integer.parseInt(values[2]),
+                Integer.parseInt(values[3]));
+    }
+
+    /**
+     * Запись агрегатов статистики. Файл пишется во временный и атомарно подменяется,
+     * чтобы сбой во время записи не оставил агрегаты наполовину записанными.
+     */
+    private void writeTotals(long chatId, Totals totals) {
+        Path path = Paths.get(STATS_DIR + "totals_" + chatId + ".csv");
+        Path tmpPath = Paths.get(STATS_DIR + "totals_" + chatId + ".csv.tmp");
+        List<String[]> records = List.of(TOTALS_HEADER, new String[]{
+                String.valueOf(totals.workMinutes()),
+                String.valueOf(totals.restMinutes()),
+                String.valueOf(totals.workCycles()),
+                String.valueOf(totals.restCycles())});
+        try {
+            writeAllRecords(tmpPath.toString(), records);
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -232,4 +924,91 @@ public class CsvUserDataRepository implements UserDataRepository {
                 && record.length > 0
                 && record[IDX_TYPE].equalsIgnoreCase(CSV_HEADER[IDX_TYPE]);
     }
+
+    /**
+     * Агрегаты статистики чата.
+     */
+    private record Totals(long workMinutes, long restMinutes, int workCycles, int restCycles) {
+        static final Totals EMPTY = new Totals(0, 0, 0, 0);
+
+        /**
+         * Добавляет сессию из записи файла сессий.
+         * Считаются только закрытые сессии (где задано время окончания).
+         */
+        Totals plus(String[] record) {
+            String type = record[IDX_TYPE];
+            String durationStr = record[IDX_DURATION];
+            if (record[IDX_STOP_AT].isEmpty() || durationStr == null || durationStr.isEmpty()) {
+                return this;
+            }
+
+            int duration = Integer.parseInt(durationStr);
+            if ("WORK".equalsIgnoreCase(type)) {
+                return new Totals(workMinutes + duration, restMinutes, workCycles + 1, restCycles);
+            } else if ("REST".equalsIgnoreCase(type)) {
+                return new Totals(workMinutes, restMinutes + duration, workCycles, restCycles + 1);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * История чата для применения журнала без снимка в памяти: из строк снимка хранятся только открытые,
+     * остальные читаются как закрытая заглушка; строки, добавленные событиями START, - целиком.
+     */
+    private static class SnapshotView extends AbstractList<String[]> {
+        private static final String[] CLOSED = {"", "", "", "closed", ""};
+
+        private final Map<Integer, String[]> openRecords = new HashMap<>();
+        private final List<String[]> appended = new ArrayList<>();
+        private int snapshotRows;
+
+        // Строка снимка, по порядку
+        void addSnapshotRow(int row, String[] record) {
+            if (record[IDX_STOP_AT].isEmpty()) {
+                openRecords.put(row, record);
+            }
+            snapshotRows = row + 1;
+        }
+
+        // Строка снимка с применёнными событиями журнала
+        String[] current(int row, String[] snapshotRecord) {
+            return openRecords.getOrDefault(row, snapshotRecord);
+        }
+
+        @Override
+        public String[] get(int index) {
+            if (index < snapshotRows) {
+                return openRecords.getOrDefault(index, CLOSED);
+            }
+            return appended.get(index - snapshotRows);
+        }
+
+        @Override
+        public boolean add(String[] record) {
+            return appended.add(record);
+        }
+
+        @Override
+        public int size() {
+            return snapshotRows + appended.size();
+        }
+    }
+
+    /**
+     * Индекс чата: открытые сессии и размер журнала. Меняется только под блокировкой полосы чата.
+     */
+    private static class ChatIndex {
+        private final List<OpenRecord> openSessions = new ArrayList<>();
+        // Число строк в истории чата - номер следующей записанной сессии
+        private int sessionCount;
+        private int journalEvents;
+        private boolean compactionScheduled;
+    }
+
+    /**
+     * Открытая сессия в индексе чата и номер её строки в истории.
+     */
+    private record OpenRecord(int row, String[] record) {
+    }
 }
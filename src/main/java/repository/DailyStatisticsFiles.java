@@ -0,0 +1,236 @@
+package repository;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+/**
+ * Дневные корзины статистики для файловых хранилищ (CSV и бинарного).
+ * Файл чата - плотный массив корзин подряд идущих дней, поэтому корзина дня находится по смещению,
+ * а период читается одним куском не длиннее {@link UserDataRepository#MAX_STATISTICS_DAYS} корзин,
+ * сколько бы ни было истории.
+ * - Заголовок: MAGIC, VERSION (int) и день первой корзины (long, дней от 1970-01-01)
+ * - Корзина: минуты работы, минуты отдыха, рабочие циклы, циклы отдыха (int)
+ * Учитываются все закрытые сессии, как и в общей статистике этих хранилищ.
+ * Если файла нет (история записана до его появления или заменена), он один раз строится по истории.
+ * Методы вызываются под блокировкой файлов чата.
+ */
+final class DailyStatisticsFiles {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private static final int MAGIC = 0x44415953; // "DAYS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int OFFSET_FIRST_DAY = 8;
+    private static final int BUCKET_SIZE = 16;
+
+    // Колонки истории сессий в CSV-формате
+    private static final int IDX_TYPE = 0;
+    private static final int IDX_DURATION = 1;
+    private static final int IDX_STOP_AT = 3;
+
+    private final LongFunction<Path> fileOfChat;
+    private final ZoneId zone;
+
+    DailyStatisticsFiles(LongFunction<Path> fileOfChat, ZoneId zone) {
+        this.fileOfChat = fileOfChat;
+        this.zone = zone;
+    }
+
+    /**
+     * Учитывает закрытую сессию в корзине её дня.
+     *
+     * @param history история сессий в CSV-формате, уже с закрытой сессией (нужна, только если файла нет)
+     */
+    void add(long chatId, String sessionType, int duration, LocalDateTime stopAt, Supplier<List<String[]>> history) {
+        int column = column(sessionType);
+        if (column < 0) {
+            return;
+        }
+        Path path = fileOfChat.apply(chatId);
+        try {
+            if (!isValid(path)) {
+                rebuild(path, history.get());
+                return;
+            }
+            long day = PeriodStatistics.dayOf(stopAt, zone).toEpochDay();
+            if (Files.size(path) > HEADER_SIZE && day < firstDay(path)) {
+                // Сессия раньше первой корзины (закрыта задним числом) - сдвигаем массив
+                shift(path, firstDay(path) - day);
+            }
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                if (file.length() == HEADER_SIZE) {
+                    file.seek(OFFSET_FIRST_DAY);
+                    file.writeLong(day);
+                }
+                long offset = HEADER_SIZE + (day - readFirstDay(file)) * BUCKET_SIZE;
+                int[] bucket = new int[4];
+                if (offset < file.length()) {
+                    file.seek(offset);
+                    for (int i = 0; i < bucket.length; i++) {
+                        bucket[i] = file.readInt();
+                    }
+                } else if (offset > file.length()) {
+                    // Пустые корзины дней без сессий
+                    file.seek(file.length());
+                    file.write(new byte[(int) (offset - file.length())]);
+                }
+                bucket[column] += duration;
+                bucket[column + 2]++;
+                file.seek(offset);
+                for (int value : bucket) {
+                    file.writeInt(value);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to update daily statistics for chatId=" + chatId, e);
+        }
+    }
+
+    /**
+     * Итоги за дни from..to включительно.
+     *
+     * @param history история сессий в CSV-формате (нужна, только если файла нет)
+     */
+    PeriodStatistics read(long chatId, LocalDate from, LocalDate to, Supplier<List<String[]>> history) {
+        PeriodStatistics.checkRange(from, to);
+        Path path = fileOfChat.apply(chatId);
+        try {
+            if (!isValid(path)) {
+                rebuild(path, history.get());
+            }
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+                long buckets = (file.length() - HEADER_SIZE) / BUCKET_SIZE;
+                if (buckets == 0) {
+                    return new PeriodStatistics(0, 0, 0, 0);
+                }
+                long firstDay = readFirstDay(file);
+                long fromIndex = Math.max(from.toEpochDay() - firstDay, 0);
+                long toIndex = Math.min(to.toEpochDay() - firstDay, buckets - 1);
+                if (fromIndex > toIndex) {
+                    return new PeriodStatistics(0, 0, 0, 0);
+                }
+
+                byte[] bytes = new byte[(int) (toIndex - fromIndex + 1) * BUCKET_SIZE];
+                file.seek(HEADER_SIZE + fromIndex * BUCKET_SIZE);
+                file.readFully(bytes);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                long workMinutes = 0, restMinutes = 0, workCycles = 0, restCycles = 0;
+                while (buffer.hasRemaining()) {
+                    workMinutes += buffer.getInt();
+                    restMinutes += buffer.getInt();
+                    workCycles += buffer.getInt();
+                    restCycles += buffer.getInt();
+                }
+                return new PeriodStatistics(workMinutes, restMinutes, workCycles, restCycles);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read daily statistics for chatId=" + chatId, e);
+        }
+    }
+
+    /**
+     * Удаляет корзины чата: они будут построены заново по истории.
+     */
+    void delete(long chatId) {
+        try {
+            Files.deleteIfExists(fileOfChat.apply(chatId));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Строит файл по всей истории. Файл пишется во временный и атомарно подменяется.
+     */
+    private void rebuild(Path path, List<String[]> history) throws IOException {
+        TreeMap<Long, int[]> buckets = new TreeMap<>();
+        for (String[] record : history) {
+            int column = column(record[IDX_TYPE]);
+            if (column < 0 || record[IDX_STOP_AT].isEmpty()) {
+                continue;
+            }
+            long day = PeriodStatistics.dayOf(LocalDateTime.parse(record[IDX_STOP_AT], FORMATTER), zone).toEpochDay();
+            int[] bucket = buckets.computeIfAbsent(day, d -> new int[4]);
+            bucket[column] += Integer.parseInt(record[IDX_DURATION]);
+            bucket[column + 2]++;
+        }
+
+        long firstDay = buckets.isEmpty() ? 0 : buckets.firstKey();
+        int count = buckets.isEmpty() ? 0 : (int) (buckets.lastKey() - firstDay + 1);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * BUCKET_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(firstDay);
+        buckets.forEach((day, bucket) -> {
+            int offset = HEADER_SIZE + (int) (day - firstDay) * BUCKET_SIZE;
+            for (int i = 0; i < bucket.length; i++) {
+                buffer.putInt(offset + i * Integer.BYTES, bucket[i]);
+            }
+        });
+        write(path, buffer.array());
+    }
+
+    /**
+     * Добавляет days пустых корзин в начало массива.
+     */
+    private void shift(Path path, long days) throws IOException {
+        byte[] old = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.allocate(old.length + (int) days * BUCKET_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(ByteBuffer.wrap(old).getLong(OFFSET_FIRST_DAY) - days);
+        buffer.position(HEADER_SIZE + (int) days * BUCKET_SIZE);
+        buffer.put(old, HEADER_SIZE, old.length - HEADER_SIZE);
+        write(path, buffer.array());
+    }
+
+    private void write(Path path, byte[] bytes) throws IOException {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmpPath, bytes);
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Файл есть и записан этой версией (иначе - не дописан или устарел, строим заново).
+     */
+    private static boolean isValid(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            return file.length() >= HEADER_SIZE && (file.length() - HEADER_SIZE) % BUCKET_SIZE == 0
+                    && file.readInt() == MAGIC && file.readInt() == VERSION;
+        }
+    }
+
+    private static long firstDay(Path path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            return readFirstDay(file);
+        }
+    }
+
+    private static long readFirstDay(RandomAccessFile file) throws IOException {
+        file.seek(OFFSET_FIRST_DAY);
+        return file.readLong();
+    }
+
+    /**
+     * Колонка минут сессии в корзине (0 - работа, 1 - отдых; циклы - через две колонки), -1 - тип не учитывается.
+     */
+    private static int column(String sessionType) {
+        if ("WORK".equalsIgnoreCase(sessionType)) {
+            return 0;
+        } else if ("REST".equalsIgnoreCase(sessionType)) {
+            return 1;
+        }
+        return -1;
+    }
+}
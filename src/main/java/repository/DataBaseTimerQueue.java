@@ -0,0 +1,378 @@
+package repository;
+
+import achievement.Award;
+import config.Config;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Таймеры фаз Pomodoro в таблице pomodoro_timers - для нескольких узлов бота с общей БД.
+ * - Запуск и остановка меняют строку таймера и историю сессий в одной транзакции
+ * - Каждый узел периодически забирает пачку наступивших таймеров через FOR UPDATE SKIP LOCKED:
+ *   узлы не ждут друг друга и не получают одни и те же строки
+ * - В той же транзакции фаза закрывается: работа сменяется отдыхом (строка получает новый срок),
+ *   отдых завершает цикл (строка удаляется). Поэтому каждый таймер срабатывает ровно один раз
+ * - Захват - это блокировка строки: если узел падает, его транзакция откатывается, и таймеры забирает другой узел
+ * - Каждый таймер пачки срабатывает под своей точкой сохранения. Если срабатывание упало, откатывается только оно,
+ *   а строка откладывается с растущей задержкой (failures в строке): остальные таймеры пачки срабатывают,
+ *   а сбойная строка не забирается первой в каждой следующей пачке
+ * Строка хранит ключ сессии текущей фазы: срабатывание и остановка закрывают её по первичному ключу.
+ * Уведомления отправляются после фиксации транзакции.
+ */
+public class DataBaseTimerQueue implements AutoCloseable {
+    private static final String PHASE_WORK = "WORK";
+    private static final String PHASE_REST = "REST";
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+    // Задержка повтора после первого сбоя, дальше удваивается до MAX_RETRY_DELAY_SECONDS
+    private static final long RETRY_DELAY_SECONDS = 30;
+    private static final long MAX_RETRY_DELAY_SECONDS = 3600;
+
+    private static final String INSERT_TIMER = """
+            INSERT INTO pomodoro_timers (chat_id, phase, due_at, session_id, session_start_at)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (chat_id) DO NOTHING
+            """;
+
+    // Остановка: удаление строки с возвратом ключа сессии, которую нужно остановить
+    static final String REMOVE_TIMER = """
+            DELETE FROM pomodoro_timers
+            WHERE chat_id = ?
+            RETURNING session_id, session_start_at
+            """;
+
+    static final String DELETE_TIMER = """
+            DELETE FROM pomodoro_timers
+            WHERE chat_id = ?
+            """;
+
+    static final String CLAIM_DUE_TIMERS = """
+            SELECT chat_id, phase, due_at, session_id, session_start_at, failures
+            FROM pomodoro_timers
+            WHERE due_at <= ?
+            ORDER BY due_at
+            LIMIT ?
+            FOR UPDATE SKIP LOCKED
+            """;
+
+    static final String ADVANCE_TIMER = """
+            UPDATE pomodoro_timers
+            SET phase = ?, due_at = ?, session_id = ?, session_start_at = ?, failures = 0
+            WHERE chat_id = ?
+            """;
+
+    // Откладывание таймера, срабатывание которого не удалось
+    static final String POSTPONE_TIMER = """
+            UPDATE pomodoro_timers
+            SET due_at = ?, failures = failures + 1
+            WHERE chat_id = ?
+            """;
+
+    /**
+     * Получатель уведомлений о закончившихся фазах (вызывается после фиксации транзакции).
+     */
+    public interface Listener {
+        // Рабочий период закончился, начался отдых
+        void onWorkFinished(long chatId);
+
+        // Отдых закончился, цикл завершён
+        void onRestFinished(long chatId);
+    }
+
+    private final DataBaseUserDataRepository repository;
+    private final int workDuration;
+    private final int restDuration;
+    private final int batchSize;
+    private final long pollIntervalMillis;
+    private volatile Listener listener;
+
+    private final Thread poller;
+    private volatile boolean running = true;
+
+    // Метрики
+    private final Counter workFired;
+    private final Counter restFired;
+    private final Counter failed;
+    private final Histogram lag;
+
+    public DataBaseTimerQueue(DataBaseUserDataRepository repository, Config config, MetricsRegistry metrics) {
+        this.repository = repository;
+        this.workDuration = config.workDuration();
+        this.restDuration = config.restDuration();
+        this.batchSize = config.timerQueueBatchSize();
+        this.pollIntervalMillis = config.timerTickMillis();
+
+        this.workFired = metrics.counter("pomodoro_timer_queue_fired_total", "Timers fired from the database queue",
+                "phase", "work");
+        this.restFired = metrics.counter("pomodoro_timer_queue_fired_total", "Timers fired from the database queue",
+                "phase", "rest");
+        this.failed = metrics.counter("pomodoro_timer_queue_failed_total",
+                "Database timers whose firing failed and was postponed");
+        this.lag = metrics.histogram("pomodoro_timer_queue_lag_seconds",
+                "Delay between the due time of a database timer and its firing");
+
+        this.poller = new Thread(this::pollLoop, "timer-queue-poller");
+        this.poller.setDaemon(true);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Запускает опрос очереди. Слушатель нужно задать до запуска, иначе уведомления первых таймеров потеряются.
+     */
+    public void startPolling() {
+        poller.start();
+    }
+
+    /**
+     * Запуск Pomodoro: рабочая сессия и строка таймера с её ключом. Возвращает false, если таймер чата уже запущен
+     * (тогда откатывается и запись сессии).
+     */
+    public boolean startPomodoro(long chatId, LocalDateTime now) {
+        try (PooledConnection connection = repository.acquireConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                long sessionId = repository.recordSession(connection, chatId, PHASE_WORK, workDuration, now);
+                PreparedStatement preparedStatement = connection.prepareStatement(INSERT_TIMER);
+                preparedStatement.setLong(1, chatId);
+                preparedStatement.setString(2, PHASE_WORK);
+                preparedStatement.setObject(3, now.plusMinutes(workDuration));
+                preparedStatement.setLong(4, sessionId);
+                preparedStatement.setObject(5, now);
+                if (preparedStatement.executeUpdate() == 0) {
+                    connection.rollback();
+                    return false;
+                }
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error starting timer for chatId=" + chatId + ": " + e.getMessage());
+            throw new RuntimeException("Failed to start timer", e);
+        }
+    }
+
+    /**
+     * Остановка Pomodoro: удаление таймера и остановка сессии. Возвращает false, если таймера нет.
+     * Если таймер сейчас срабатывает на другом узле, удаление дождётся конца его транзакции.
+     */
+    public boolean stopPomodoro(long chatId, LocalDateTime now) {
+        try (PooledConnection connection = repository.acquireConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement preparedStatement = connection.prepareStatement(REMOVE_TIMER);
+                preparedStatement.setLong(1, chatId);
+                SessionHandle session;
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        connection.rollback();
+                        return false;
+                    }
+                    session = sessionOf(resultSet, chatId, null);
+                }
+                if (session != null) {
+                    repository.markSessionStopped(connection, session, now);
+                } else {
+                    repository.markSessionStopped(connection, chatId, now);
+                }
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error stopping timer for chatId=" + chatId + ": " + e.getMessage());
+            throw new RuntimeException("Failed to stop timer", e);
+        }
+    }
+
+    /**
+     * Забирает и обрабатывает одну пачку наступивших таймеров. Возвращает число сработавших таймеров;
+     * отложенные из-за сбоя не считаются.
+     */
+    public int fireDue(LocalDateTime now) {
+        List<FiredTimer> fired = new ArrayList<>();
+        Map<Long, List<Award>> awards = new LinkedHashMap<>();
+        try (PooledConnection connection = repository.acquireConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                List<FiredTimer> claimed = new ArrayList<>();
+                PreparedStatement claimStatement = connection.prepareStatement(CLAIM_DUE_TIMERS);
+                claimStatement.setObject(1, now);
+                claimStatement.setInt(2, batchSize);
+                try (ResultSet resultSet = claimStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        long chatId = resultSet.getLong("chat_id");
+                        String phase = resultSet.getString("phase");
+                        claimed.add(new FiredTimer(chatId, phase, resultSet.getTimestamp("due_at").toLocalDateTime(),
+                                sessionOf(resultSet, chatId, phase), resultSet.getInt("failures")));
+                    }
+                }
+
+                for (FiredTimer timer : claimed) {
+                    Savepoint savepoint = connection.setSavepoint();
+                    List<Award> chatAwards;
+                    try {
+                        chatAwards = fire(connection, timer, now);
+                        connection.releaseSavepoint(savepoint);
+                    } catch (SQLException | RuntimeException e) {
+                        // Ошибка в запросе прерывает всю транзакцию - откатываемся к точке перед этим таймером
+                        connection.rollback(savepoint);
+                        postpone(connection, timer, now, e);
+                        continue;
+                    }
+                    fired.add(timer);
+                    if (!chatAwards.isEmpty()) {
+                        awards.computeIfAbsent(timer.chatId(), chatId -> new ArrayList<>()).addAll(chatAwards);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error firing timers: " + e.getMessage());
+            throw new RuntimeException("Failed to fire timers", e);
+        }
+
+        awards.forEach(repository::publishAwards);
+        Listener currentListener = listener;
+        for (FiredTimer timer : fired) {
+            lag.observeNanos(Math.max(0, Duration.between(timer.dueAt(), now).toNanos()));
+            boolean work = PHASE_WORK.equalsIgnoreCase(timer.phase());
+            (work ? workFired : restFired).increment();
+            if (currentListener == null) {
+                continue;
+            }
+            try {
+                if (work) {
+                    currentListener.onWorkFinished(timer.chatId());
+                } else {
+                    currentListener.onRestFinished(timer.chatId());
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return fired.size();
+    }
+
+    /**
+     * Останавливает опрос; текущая пачка дорабатывается.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (poller.isAlive()) {
+            try {
+                poller.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Пока пачки приходят полными, следующая забирается сразу, иначе - после паузы.
+     */
+    private void pollLoop() {
+        while (running) {
+            int fired;
+            try {
+                fired = fireDue(LocalDateTime.now());
+            } catch (RuntimeException e) {
+                // Ошибка уже залогирована; пачка откатилась и будет забрана снова
+                fired = 0;
+            }
+            if (fired < batchSize) {
+                try {
+                    Thread.sleep(pollIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Срабатывание одного таймера в открытой транзакции. Возвращает новые достижения.
+     */
+    private List<Award> fire(PooledConnection connection, FiredTimer timer, LocalDateTime now) throws SQLException {
+        List<Award> chatAwards = timer.session() != null
+                ? repository.completeSession(connection, timer.session(), now)
+                : repository.completeSession(connection, timer.chatId(), timer.phase(), now);
+        if (PHASE_WORK.equalsIgnoreCase(timer.phase())) {
+            long restSessionId = repository.recordSession(connection, timer.chatId(), PHASE_REST, restDuration, now);
+            advance(connection, timer.chatId(), now.plusMinutes(restDuration), restSessionId, now);
+        } else {
+            delete(connection, timer.chatId());
+        }
+        return chatAwards;
+    }
+
+    /**
+     * Откладывает таймер, срабатывание которого не удалось: 30 с после первого сбоя, дальше вдвое дольше, до часа.
+     */
+    private void postpone(PooledConnection connection, FiredTimer timer, LocalDateTime now, Exception error)
+            throws SQLException {
+        long delaySeconds = Math.min(RETRY_DELAY_SECONDS << Math.min(timer.failures(), 20), MAX_RETRY_DELAY_SECONDS);
+        PreparedStatement preparedStatement = connection.prepareStatement(POSTPONE_TIMER);
+        preparedStatement.setObject(1, now.plusSeconds(delaySeconds));
+        preparedStatement.setLong(2, timer.chatId());
+        preparedStatement.executeUpdate();
+        failed.increment();
+        System.out.println("Error firing timer for chatId=" + timer.chatId() + " (failure " + (timer.failures() + 1)
+                + "), retry in " + delaySeconds + " s: " + error.getMessage());
+    }
+
+    private void advance(PooledConnection connection, long chatId, LocalDateTime dueAt, long sessionId,
+                         LocalDateTime sessionStartAt) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(ADVANCE_TIMER);
+        preparedStatement.setString(1, PHASE_REST);
+        preparedStatement.setObject(2, dueAt);
+        preparedStatement.setLong(3, sessionId);
+        preparedStatement.setObject(4, sessionStartAt);
+        preparedStatement.setLong(5, chatId);
+        preparedStatement.executeUpdate();
+    }
+
+    /**
+     * Хэндл сессии из строки таймера или null, если таймер запущен до появления ключа сессии.
+     */
+    private static SessionHandle sessionOf(ResultSet resultSet, long chatId, String phase) throws SQLException {
+        long sessionId = resultSet.getLong("session_id");
+        if (resultSet.wasNull()) {
+            return null;
+        }
+        return new SessionHandle(chatId, phase, resultSet.getTimestamp("session_start_at").toLocalDateTime(), sessionId);
+    }
+
+    private void delete(PooledConnection connection, long chatId) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(DELETE_TIMER);
+        preparedStatement.setLong(1, chatId);
+        preparedStatement.executeUpdate();
+    }
+
+    private record FiredTimer(long chatId, String phase, LocalDateTime dueAt, SessionHandle session, int failures) {
+    }
+}
@@ -1,62 +1,279 @@
 package repository;
 
+import achievement.AchievementBackfill;
+import achievement.AchievementEngine;
+import achievement.AchievementProgress;
+import achievement.Award;
+import achievement.CompletedSession;
 import config.Config;
+import leaderboard.Leaderboard;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 // Необходимо добавить в решении для работы с JDBC
-public class DataBaseUserDataRepository implements UserDataRepository {
+public class DataBaseUserDataRepository implements UserDataRepository, AchievementBackfill.Target,
+        Leaderboard.Source {
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
     
-    private final String dbUrl;
-    private final String dbUser;
-    private final String dbPassword;
+    // Сколько строк экспорта (и других потоковых выборок) за раз забирать с сервера
+    private static final int EXPORT_FETCH_SIZE = 1000;
+
+    private final ConnectionPool connectionPool;
+    private final AchievementEngine achievementEngine;
+    private final ZoneId statsZone;
 
     public DataBaseUserDataRepository(Config config) {
-        this.dbUrl = config.dbUrl();
-        this.dbUser = config.dbUser();
-        this.dbPassword = config.dbPassword();
+        this(config, AchievementEngine.withDefaultRules());
+    }
+
+    public DataBaseUserDataRepository(Config config, AchievementEngine achievementEngine) {
+        this(new ConnectionPool(config), achievementEngine, ZoneId.of(config.statsTimezone()));
+    }
+
+    public DataBaseUserDataRepository(ConnectionPool connectionPool) {
+        this(connectionPool, AchievementEngine.withDefaultRules());
+    }
+
+    public DataBaseUserDataRepository(ConnectionPool connectionPool, AchievementEngine achievementEngine) {
+        this(connectionPool, achievementEngine, ZoneId.systemDefault());
+    }
+
+    /**
+     * @param statsZone часовой пояс, в котором сессии раскладываются по дням статистики
+     */
+    public DataBaseUserDataRepository(ConnectionPool connectionPool, AchievementEngine achievementEngine,
+                                      ZoneId statsZone) {
+        this.connectionPool = connectionPool;
+        this.achievementEngine = achievementEngine;
+        this.statsZone = statsZone;
     }
 
-    // SQL Запросы
+    // SQL Запросы. Запросы без private проверяет QueryPlanChecker: таблицы они должны читать по индексам
+    // Выполняется с RETURN_GENERATED_KEYS: id новой сессии возвращается в её хэндле
     private static final String INSERT_SESSION = """
             INSERT INTO user_sessions (chat_id, type, duration, start_at)
             VALUES (?, ?, ?, ?)
             """;
             
-    private static final String COMPLETE_SESSION = """
-            UPDATE user_sessions
-            SET stop_at = ?, completed = true
-            WHERE chat_id = ? AND type = ? AND stop_at IS NULL
+    // Завершение сессии и обновление агрегатов статистики и корзины дня одним запросом (а значит, в одной транзакции).
+    // Сессия выбирается условием %s (второй и третий параметры), см. COMPLETE_SESSION и COMPLETE_SESSION_BY_ID.
+    // День (четвёртый параметр) - дата окончания в часовом поясе статистики, его вычисляет приложение.
+    // Запрос возвращает завершённые сессии - по ним обновляется прогресс достижений
+    private static final String COMPLETE_SESSION_TEMPLATE = """
+            WITH completed_sessions AS (
+                UPDATE user_sessions
+                SET stop_at = ?, completed = true
+                WHERE %s
+                RETURNING chat_id, type, duration
+            ), updated_statistics AS (
+                INSERT INTO user_statistics (chat_id, work_minutes, rest_minutes, work_cycles, rest_cycles)
+                SELECT chat_id,
+                       COALESCE(SUM(duration) FILTER (WHERE UPPER(type) = 'WORK'), 0),
+                       COALESCE(SUM(duration) FILTER (WHERE UPPER(type) = 'REST'), 0),
+                       COUNT(*) FILTER (WHERE UPPER(type) = 'WORK'),
+                       COUNT(*) FILTER (WHERE UPPER(type) = 'REST')
+                FROM completed_sessions
+                GROUP BY chat_id
+                ON CONFLICT (chat_id) DO UPDATE
+                SET work_minutes = user_statistics.work_minutes + EXCLUDED.work_minutes,
+                    rest_minutes = user_statistics.rest_minutes + EXCLUDED.rest_minutes,
+                    work_cycles = user_statistics.work_cycles + EXCLUDED.work_cycles,
+                    rest_cycles = user_statistics.rest_cycles + EXCLUDED.rest_cycles
+            ), updated_daily_statistics AS (
+                INSERT INTO user_daily_statistics (chat_id, day, work_minutes, rest_minutes, work_cycles, rest_cycles)
+                SELECT chat_id, ?::date,
+                       COALESCE(SUM(duration) FILTER (WHERE UPPER(type) = 'WORK'), 0),
+                       COALESCE(SUM(duration) FILTER (WHERE UPPER(type) = 'REST'), 0),
+                       COUNT(*) FILTER (WHERE UPPER(type) = 'WORK'),
+                       COUNT(*) FILTER (WHERE UPPER(type) = 'REST')
+                FROM completed_sessions
+                GROUP BY chat_id
+                ON CONFLICT (chat_id, day) DO UPDATE
+                SET work_minutes = user_daily_statistics.work_minutes + EXCLUDED.work_minutes,
+                    rest_minutes = user_daily_statistics.rest_minutes + EXCLUDED.rest_minutes,
+                    work_cycles = user_daily_statistics.work_cycles + EXCLUDED.work_cycles,
+                    rest_cycles = user_daily_statistics.rest_cycles + EXCLUDED.rest_cycles
+            )
+            SELECT type, duration FROM completed_sessions
             """;
+
+    // Последняя открытая сессия типа - по индексу открытых сессий чата
+    static final String COMPLETE_SESSION = COMPLETE_SESSION_TEMPLATE.formatted(
+            "chat_id = ? AND type = ? AND stop_at IS NULL");
+
+    // Сессия из хэндла - по первичному ключу (id, start_at); start_at заодно оставляет в плане одну секцию
+    static final String COMPLETE_SESSION_BY_ID = COMPLETE_SESSION_TEMPLATE.formatted(
+            "id = ? AND start_at = ? AND stop_at IS NULL");
             
-    private static final String STOP_SESSION = """
+    // Остановленные вручную сессии (completed = false) в статистику не входят, поэтому агрегаты не меняются
+    static final String STOP_SESSION = """
             UPDATE user_sessions
             SET stop_at = ?
             WHERE chat_id = ? AND stop_at IS NULL
             """;
+
+    static final String STOP_SESSION_BY_ID = """
+            UPDATE user_sessions
+            SET stop_at = ?
+            WHERE id = ? AND start_at = ? AND stop_at IS NULL
+            """;
             
-    private static final String GET_STATISTICS = """
-            SELECT type, duration, completed
-            FROM user_sessions
-            WHERE chat_id = ? AND stop_at IS NOT NULL
+    static final String GET_STATISTICS = """
+            SELECT work_minutes, rest_minutes, work_cycles, rest_cycles
+            FROM user_statistics
+            WHERE chat_id = ?
             """;
             
-    private static final String GET_ACHIEVEMENTS = """
+    // Не больше MAX_STATISTICS_DAYS строк по первичному ключу
+    static final String GET_PERIOD_STATISTICS = """
+            SELECT COALESCE(SUM(work_minutes), 0) AS work_minutes,
+                   COALESCE(SUM(rest_minutes), 0) AS rest_minutes,
+                   COALESCE(SUM(work_cycles), 0) AS work_cycles,
+                   COALESCE(SUM(rest_cycles), 0) AS rest_cycles
+            FROM user_daily_statistics
+            WHERE chat_id = ? AND day BETWEEN ? AND ?
+            """;
+
+    static final String GET_ACHIEVEMENTS = """
             SELECT achievement_name, achievement_description, achieved_at
             FROM user_achievements
             WHERE chat_id = ?
             ORDER BY achieved_at DESC
             """;
             
-    private static final String EXPORT_STATISTICS = """
+    static final String GET_OPEN_SESSIONS = """
+            SELECT id, chat_id, type, duration, start_at
+            FROM user_sessions
+            WHERE stop_at IS NULL
+            """;
+
+    // Пересчёт агрегатов по всей истории. Блокировка не даёт завершать сессии во время пересчёта
+    private static final String LOCK_SESSIONS = "LOCK TABLE user_sessions IN SHARE MODE";
+
+    // Итоги сессий, вынесенных в архив, хранятся отдельно и тоже входят в пересчёт
+    private static final String BACKFILL_STATISTICS = """
+            INSERT INTO user_statistics (chat_id, work_minutes, rest_minutes, work_cycles, rest_cycles)
+            SELECT chat_id, SUM(work_minutes), SUM(rest_minutes), SUM(work_cycles), SUM(rest_cycles)
+            FROM (
+                SELECT chat_id,
+                       COALESCE(SUM(duration) FILTER (WHERE UPPER(type) = 'WORK'), 0) AS work_minutes,
+                       COALESCE(SUM(duration) FILTER (WHERE UPPER(type) = 'REST'), 0) AS rest_minutes,
+                       COUNT(*) FILTER (WHERE UPPER(type) = 'WORK') AS work_cycles,
+                       COUNT(*) FILTER (WHERE UPPER(type) = 'REST') AS rest_cycles
+                FROM user_sessions
+                WHERE completed AND stop_at IS NOT NULL
+                GROUP BY chat_id
+                UNION ALL
+                SELECT chat_id, work_minutes, rest_minutes, work_cycles, rest_cycles
+                FROM user_statistics_archived
+            ) totals
+            GROUP BY chat_id
+            ON CONFLICT (chat_id) DO UPDATE
+            SET work_minutes = EXCLUDED.work_minutes,
+                rest_minutes = EXCLUDED.rest_minutes,
+                work_cycles = EXCLUDED.work_cycles,
+                rest_cycles = EXCLUDED.rest_cycles
+            """;
+
+    // Дневные корзины по истории: сессии читаются потоком, день вычисляется так же, как при завершении.
+    // Корзины дней, от которых в user_sessions ничего не осталось (архив), не меняются
+    private static final String GET_CLOSED_SESSIONS_FOR_DAYS = """
+            SELECT chat_id, type, duration, stop_at
+            FROM user_sessions
+            WHERE completed AND stop_at IS NOT NULL
+            """;
+
+    private static final String UPSERT_DAILY_STATISTICS = """
+            INSERT INTO user_daily_statistics (chat_id, day, work_minutes, rest_minutes, work_cycles, rest_cycles)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT (chat_id, day) DO UPDATE
+            SET work_minutes = EXCLUDED.work_minutes,
+                rest_minutes = EXCLUDED.rest_minutes,
+                work_cycles = EXCLUDED.work_cycles,
+                rest_cycles = EXCLUDED.rest_cycles
+            """;
+
+    // Строка прогресса создаётся при первом завершении; если она создана сейчас, прогресс считается по истории
+    private static final String INIT_PROGRESS = """
+            INSERT INTO user_achievement_progress (chat_id)
+            VALUES (?)
+            ON CONFLICT (chat_id) DO NOTHING
+            """;
+
+    static final String LOCK_PROGRESS = """
+            SELECT work_cycles, work_minutes, current_streak, longest_streak, last_work_day, awarded_mask
+            FROM user_achievement_progress
+            WHERE chat_id = ?
+            FOR UPDATE
+            """;
+
+    static final String SAVE_PROGRESS = """
+            UPDATE user_achievement_progress
+            SET work_cycles = ?, work_minutes = ?, current_streak = ?, longest_streak = ?, last_work_day = ?, awarded_mask = ?
+            WHERE chat_id = ?
+            """;
+
+    static final String INSERT_ACHIEVEMENT = """
+            INSERT INTO user_achievements (chat_id, achievement_name, achievement_description, achieved_at)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (chat_id, achievement_name) DO NOTHING
+            """;
+
+    static final String GET_COMPLETED_SESSIONS = """
+            SELECT type, duration, stop_at
+            FROM user_sessions
+            WHERE chat_id = ? AND completed AND stop_at IS NOT NULL
+            ORDER BY stop_at
+            """;
+
+    static final String GET_CHAT_IDS = """
+            SELECT DISTINCT chat_id
+            FROM user_sessions
+            WHERE completed
+            """;
+
+    // Часть истории чата уже в архиве - пересчитать прогресс по оставшейся нельзя
+    private static final String HAS_ARCHIVED_SESSIONS = """
+            SELECT 1
+            FROM user_statistics_archived
+            WHERE chat_id = ?
+            """;
+
+    // Итоги для рейтинга: за всё время - из агрегатов, за неделю - по сессиям недели.
+    // Рабочая сессия начинается не раньше чем за сутки до своего завершения, поэтому условие на start_at
+    // оставляет для чтения только секции последних недель. Запрос выполняется при сборке рейтинга, а не на /top
+    private static final String GET_FOCUS_TOTALS = """
+            SELECT s.chat_id, s.work_minutes, COALESCE(w.week_minutes, 0) AS week_minutes
+            FROM user_statistics s
+            LEFT JOIN (
+                SELECT chat_id, SUM(duration) AS week_minutes
+                FROM user_sessions
+                WHERE completed AND UPPER(type) = 'WORK' AND stop_at >= ? AND start_at >= ?
+                GROUP BY chat_id
+            ) w ON w.chat_id = s.chat_id
+            WHERE s.work_minutes > 0
+            """;
+
+    static final String EXPORT_STATISTICS = """
             SELECT type, duration, start_at, stop_at, completed
             FROM user_sessions
             WHERE chat_id = ?
@@ -64,18 +281,10 @@ public class DataBaseUserDataRepository implements UserDataRepository {
             """;
 
     @Override
-    public void recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
-        try (Connection connection = getConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SESSION, Statement.RETURN_GENERATED_KEYS)) {
-            
-            preparedStatement.setLong(1, chatId);
-            preparedStatement.setString(2, sessionType);
-            preparedStatement.setLong(3, durationMinutes);
-            preparedStatement.setObject(4, startAt);
-
-            preparedStatement.executeUpdate();
-            
-            System.out.println("Session recorded for chatId=" + chatId + ", type=" + sessionType);
+    public SessionHandle recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
+        try (PooledConnection connection = connectionPool.acquire()) {
+            long id = recordSession(connection, chatId, sessionType, durationMinutes, startAt);
+            return new SessionHandle(chatId, sessionType, startAt, id);
         } catch (SQLException e) {
             System.out.println("Error recording session for chatId=" + chatId + ": " + e.getMessage());
             throw new RuntimeException("Failed to record session", e);
@@ -84,71 +293,87 @@ public class DataBaseUserDataRepository implements UserDataRepository {
 
     @Override
     public void completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
-        try (Connection connection = getConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(COMPLETE_SESSION)) {
-            
-            preparedStatement.setObject(1, stopAt);
-            preparedStatement.setLong(2, chatId);
-            preparedStatement.setString(3, sessionType);
+        completeInTransaction(chatId, connection -> completeSession(connection, chatId, sessionType, stopAt));
+    }
 
-            int rowsUpdated = preparedStatement.executeUpdate();
-            
-            if (rowsUpdated == 0) {
-                System.out.println("No active session found for chatId=" + chatId + ", type=" + sessionType);
-            } else {
-                System.out.println("Session completed for chatId=" + chatId + ", type=" + sessionType);
-            }
-        } catch (SQLException e) {
-            System.out.println("Error completing session for chatId=" + chatId + ": " + e.getMessage());
-            throw new RuntimeException("Failed to complete session", e);
+    /**
+     * Завершение сессии хэндла: одна строка по первичному ключу вместо поиска открытых сессий чата.
+     */
+    @Override
+    public void completeSession(SessionHandle session, LocalDateTime stopAt) {
+        if (!session.isResolved()) {
+            System.out.println("Session was not recorded, nothing to complete: " + session);
+            return;
         }
+        completeInTransaction(session.chatId(), connection -> completeSession(connection, session, stopAt));
     }
 
     @Override
     public void markSessionStopped(long chatId, LocalDateTime stopAt) {
-        try (Connection connection = getConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(STOP_SESSION)) {
-            
-            preparedStatement.setObject(1, stopAt);
-            preparedStatement.setLong(2, chatId);
-
-            int rowsUpdated = preparedStatement.executeUpdate();
-            
-            if (rowsUpdated == 0) {
-                System.out.println("No active session found for chatId=" + chatId);
-            } else {
-                System.out.println("Session stopped for chatId=" + chatId);
-            }
+        try (PooledConnection connection = connectionPool.acquire()) {
+            markSessionStopped(connection, chatId, stopAt);
         } catch (SQLException e) {
             System.out.println("Error stopping session for chatId=" + chatId + ": " + e.getMessage());
             throw new RuntimeException("Failed to stop session", e);
         }
     }
 
+    @Override
+    public void markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+        if (!session.isResolved()) {
+            System.out.println("Session was not recorded, nothing to stop: " + session);
+            return;
+        }
+        try (PooledConnection connection = connectionPool.acquire()) {
+            markSessionStopped(connection, session, stopAt);
+        } catch (SQLException e) {
+            System.out.println("Error stopping session " + session + ": " + e.getMessage());
+            throw new RuntimeException("Failed to stop session", e);
+        }
+    }
+
+    /**
+     * Завершение сессии, обновление статистики, прогресса и новые достижения - в одной транзакции.
+     * Уведомления о достижениях отправляются после фиксации транзакции.
+     */
+    private void completeInTransaction(long chatId, Completion completion) {
+        List<Award> awards;
+        try (PooledConnection connection = connectionPool.acquire()) {
+            connection.setAutoCommit(false);
+            try {
+                awards = completion.complete(connection);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error completing session for chatId=" + chatId + ": " + e.getMessage());
+            throw new RuntimeException("Failed to complete session", e);
+        }
+        achievementEngine.publish(chatId, awards);
+    }
+
+    private interface Completion {
+        List<Award> complete(PooledConnection connection) throws SQLException;
+    }
+
     @Override
     public String getStatistics(long chatId) {
-        int workMinutes = 0, restMinutes = 0, workCycles = 0, restCycles = 0;
+        long workMinutes = 0, restMinutes = 0;
+        int workCycles = 0, restCycles = 0;
 
-        try (Connection connection = getConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(GET_STATISTICS)) {
+        try (PooledConnection connection = connectionPool.acquire()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(GET_STATISTICS);
             
             preparedStatement.setLong(1, chatId);
             
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                while (resultSet.next()) {
-                    String type = resultSet.getString("type");
-                    int duration = resultSet.getInt("duration");
-                    boolean completed = resultSet.getBoolean("completed");
-
-                    if (completed) {
-                        if ("WORK".equalsIgnoreCase(type)) {
-                            workMinutes += duration;
-                            workCycles++;
-                        } else if ("REST".equalsIgnoreCase(type)) {
-                            restMinutes += duration;
-                            restCycles++;
-                        }
-                    }
+                if (resultSet.next()) {
+                    workMinutes = resultSet.getLong("work_minutes");
+                    restMinutes = resultSet.getLong("rest_minutes");
+                    workCycles = resultSet.getInt("work_cycles");
+                    restCycles = resultSet.getInt("rest_cycles");
                 }
             }
             
@@ -166,12 +391,35 @@ public class DataBaseUserDataRepository implements UserDataRepository {
                 workMinutes, restMinutes, workCycles, restCycles);
     }
 
+    @Override
+    public String getStatistics(long chatId, LocalDate from, LocalDate to) {
+        PeriodStatistics.checkRange(from, to);
+        try (PooledConnection connection = connectionPool.acquire()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(GET_PERIOD_STATISTICS);
+            preparedStatement.setLong(1, chatId);
+            preparedStatement.setObject(2, from);
+            preparedStatement.setObject(3, to);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                return new PeriodStatistics(
+                        resultSet.getLong("work_minutes"),
+                        resultSet.getLong("rest_minutes"),
+                        resultSet.getLong("work_cycles"),
+                        resultSet.getLong("rest_cycles")).format(from, to);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error getting period statistics for chatId=" + chatId + ": " + e.getMessage());
+            throw new RuntimeException("Failed to get period statistics", e);
+        }
+    }
+
     @Override
     public String getAchievements(long chatId) {
         StringBuilder achievements = new StringBuilder();
         
-        try (Connection connection = getConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(GET_ACHIEVEMENTS)) {
+        try (PooledConnection connection = connectionPool.acquire()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(GET_ACHIEVEMENTS);
             
             preparedStatement.setLong(1, chatId);
             
@@ -200,15 +448,22 @@ public class DataBaseUserDataRepository implements UserDataRepository {
         return achievements.toString().trim();
     }
 
+    /**
+     * Экспорт истории сессий в CSV.
+     * Строки читаются через серверный курсор (fetch size работает только вне режима автокоммита)
+     * и сразу пишутся в поток, поэтому объём памяти не зависит от длины истории.
+     */
     @Override
-    public byte[] exportStatistics(long chatId) {
-        StringBuilder csvContent = new StringBuilder();
-        csvContent.append("type,duration,start_at,stop_at,completed\n");
-        
-        try (Connection connection = getConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(EXPORT_STATISTICS)) {
+    public void exportStatistics(long chatId, OutputStream out) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+        try (PooledConnection connection = connectionPool.acquire()) {
+            connection.setAutoCommit(false);
+            PreparedStatement preparedStatement = connection.prepareStatement(EXPORT_STATISTICS);
+            preparedStatement.setFetchSize(EXPORT_FETCH_SIZE);
             
             preparedStatement.setLong(1, chatId);
+            writer.write("type,duration,start_at,stop_at,completed\n");
             
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
                 while (resultSet.next()) {
@@ -219,24 +474,540 @@ public class DataBaseUserDataRepository implements UserDataRepository {
                                          resultSet.getTimestamp("stop_at").toLocalDateTime() : null;
                     boolean completed = resultSet.getBoolean("completed");
                     
-                    csvContent.append(type).append(",")
-                             .append(duration).append(",")
-                             .append(startAt.format(FORMATTER)).append(",")
-                             .append(stopAt != null ? stopAt.format(FORMATTER) : "").append(",")
-                             .append(completed).append("\n");
+                    writer.append(type).append(",")
+                          .append(String.valueOf(duration)).append(",")
+                          .append(startAt.format(FORMATTER)).append(",")
+                          .append(stopAt != null ? stopAt.format(FORMATTER) : "").append(",")
+                          .append(String.valueOf(completed)).append("\n");
                 }
             }
+            connection.commit();
+            writer.flush();
             
             System.out.println("Statistics exported for chatId=" + chatId);
-        } catch (SQLException e) {
+        } catch (SQLException | IOException e) {
             System.out.println("Error exporting statistics for chatId=" + chatId + ": " + e.getMessage());
             throw new RuntimeException("Failed to export statistics", e);
         }
-        
-        return csvContent.toString().getBytes();
     }
 
-    private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(dbUrl, dbUser, dbPassword);
+    /**
+     * Обход незакрытых сессий одним запросом через серверный курсор.
+     */
+    @Override
+    public void forEachOpenSession(Consumer<OpenSession> consumer) {
+        try (PooledConnection connection = connectionPool.acquire()) {
+            connection.setAutoCommit(false);
+            PreparedStatement preparedStatement = connection.prepareStatement(GET_OPEN_SESSIONS);
+            preparedStatement.setFetchSize(EXPORT_FETCH_SIZE);
+
+            int count = 0;
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(new OpenSession(
+                            resultSet.getLong("chat_id"),
+                            resultSet.getString("type"),
+                            resultSet.getInt("duration"),
+                            resultSet.getTimestamp("start_at").toLocalDateTime(),
+                            resultSet.getLong("id")));
+                    count++;
+                }
+            }
+            connection.commit();
+
+            System.out.println("Open sessions loaded: " + count);
+        } catch (SQLException e) {
+            System.out.println("Error loading open sessions: " + e.getMessage());
+            throw new RuntimeException("Failed to load open sessions", e);
+        }
+    }
+
+    /**
+     * Запись пачки событий в одной транзакции.
+     * События разбиваются на "волны": i-е событие каждого чата попадает в i-ю волну.
+     * Внутри волны каждый чат встречается не больше одного раза, поэтому запросы
+     * одного вида можно отправить одним JDBC-батчем, не нарушая порядок событий чата.
+     * Завершения выполняются по одному: по их результату обновляется прогресс достижений.
+     * Хэндлы записанных сессий получают id сразу после своей волны - по ним закрываются сессии следующих волн.
+     * Если транзакция откатилась, id хэндлов сбрасываются: этих строк в таблице нет.
+     */
+    @Override
+    public void applyBatch(List<SessionEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        Map<Long, List<Award>> awards = new LinkedHashMap<>();
+        List<SessionHandle> resolved = new ArrayList<>();
+        try (PooledConnection connection = connectionPool.acquire()) {
+            connection.setAutoCommit(false);
+            try {
+                for (List<SessionEvent> wave : splitIntoWaves(events)) {
+                    executeWave(connection, wave, awards, resolved);
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                // Волна могла оборваться между addBatch и executeBatch: её строки остались бы в кэше запросов
+                connection.clearBatches();
+                resolved.forEach(session -> session.resolve(SessionHandle.UNKNOWN_ID));
+                throw e;
+            }
+
+            System.out.println("Session batch applied: " + events.size() + " events");
+        } catch (SQLException e) {
+            System.out.println("Error applying session batch of " + events.size() + " events: " + e.getMessage());
+            throw new RuntimeException("Failed to apply session batch", e);
+        }
+        awards.forEach(achievementEngine::publish);
+    }
+
+    private List<List<SessionEvent>> splitIntoWaves(List<SessionEvent> events) {
+        List<List<SessionEvent>> waves = new ArrayList<>();
+        Map<Long, Integer> eventsPerChat = new HashMap<>();
+        for (SessionEvent event : events) {
+            int waveIndex = eventsPerChat.merge(event.chatId(), 1, Integer::sum) - 1;
+            if (waveIndex == waves.size()) {
+                waves.add(new ArrayList<>());
+            }
+            waves.get(waveIndex).add(event);
+        }
+        return waves;
+    }
+
+    private void executeWave(PooledConnection connection, List<SessionEvent> wave, Map<Long, List<Award>> awards,
+                             List<SessionHandle> resolved) throws SQLException {
+        // Батчи по тексту запроса; хэндлы записей - в порядке строк батча вставки (null - событие без хэндла)
+        Map<String, PreparedStatement> batches = new LinkedHashMap<>();
+        List<SessionHandle> recorded = new ArrayList<>();
+        for (SessionEvent event : wave) {
+            SessionHandle session = event.session();
+            switch (event.kind()) {
+                case RECORD -> {
+                    PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SESSION,
+                            Statement.RETURN_GENERATED_KEYS);
+                    preparedStatement.setLong(1, event.chatId());
+                    preparedStatement.setString(2, event.sessionType());
+                    preparedStatement.setLong(3, event.durationMinutes());
+                    preparedStatement.setObject(4, event.at());
+                    preparedStatement.addBatch();
+                    batches.put(INSERT_SESSION, preparedStatement);
+                    recorded.add(session);
+                }
+                case COMPLETE -> {
+                    List<Award> chatAwards;
+                    if (session == null) {
+                        chatAwards = completeSession(connection, event.chatId(), event.sessionType(), event.at());
+                    } else if (session.isResolved()) {
+                        chatAwards = completeSession(connection, session, event.at());
+                    } else {
+                        System.out.println("Session was not recorded, nothing to complete: " + session);
+                        chatAwards = List.of();
+                    }
+                    if (!chatAwards.isEmpty()) {
+                        awards.computeIfAbsent(event.chatId(), chatId -> new ArrayList<>()).addAll(chatAwards);
+                    }
+                }
+                case STOP -> {
+                    if (session == null) {
+                        PreparedStatement preparedStatement = connection.prepareStatement(STOP_SESSION);
+                        preparedStatement.setObject(1, event.at());
+                        preparedStatement.setLong(2, event.chatId());
+                        preparedStatement.addBatch();
+                        batches.put(STOP_SESSION, preparedStatement);
+                    } else if (session.isResolved()) {
+                        PreparedStatement preparedStatement = connection.prepareStatement(STOP_SESSION_BY_ID);
+                        preparedStatement.setObject(1, event.at());
+                        preparedStatement.setLong(2, session.id());
+                        preparedStatement.setObject(3, session.startAt());
+                        preparedStatement.addBatch();
+                        batches.put(STOP_SESSION_BY_ID, preparedStatement);
+                    } else {
+                        System.out.println("Session was not recorded, nothing to stop: " + session);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, PreparedStatement> batch : batches.entrySet()) {
+            batch.getValue().executeBatch();
+            if (batch.getKey().equals(INSERT_SESSION)) {
+                resolveRecorded(batch.getValue(), recorded, resolved);
+            }
+        }
+    }
+
+    /**
+     * Сообщает хэндлам id вставленных батчем строк: сгенерированные ключи идут в порядке строк батча.
+     */
+    private void resolveRecorded(PreparedStatement preparedStatement, List<SessionHandle> recorded,
+                                 List<SessionHandle> resolved) throws SQLException {
+        try (ResultSet keys = preparedStatement.getGeneratedKeys()) {
+            for (SessionHandle session : recorded) {
+                if (!keys.next()) {
+                    throw new SQLException("Generated keys returned fewer rows than the batch inserted");
+                }
+                if (session != null) {
+                    session.resolve(keys.getLong("id"));
+                    resolved.add(session);
+                }
+            }
+        }
+    }
+
+    // ───────── Запись в открытой транзакции (используется и очередью таймеров) ─────────
+
+    PooledConnection acquireConnection() throws SQLException {
+        return connectionPool.acquire();
+    }
+
+    /**
+     * Запись сессии внутри открытой транзакции. Возвращает id новой строки.
+     */
+    long recordSession(PooledConnection connection, long chatId, String sessionType, int durationMinutes,
+                       LocalDateTime startAt) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SESSION, Statement.RETURN_GENERATED_KEYS);
+        preparedStatement.setLong(1, chatId);
+        preparedStatement.setString(2, sessionType);
+        preparedStatement.setLong(3, durationMinutes);
+        preparedStatement.setObject(4, startAt);
+        preparedStatement.executeUpdate();
+
+        long id;
+        try (ResultSet keys = preparedStatement.getGeneratedKeys()) {
+            keys.next();
+            id = keys.getLong("id");
+        }
+        System.out.println("Session recorded for chatId=" + chatId + ", type=" + sessionType + ", id=" + id);
+        return id;
+    }
+
+    void markSessionStopped(PooledConnection connection, long chatId, LocalDateTime stopAt) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(STOP_SESSION);
+        preparedStatement.setObject(1, stopAt);
+        preparedStatement.setLong(2, chatId);
+
+        if (preparedStatement.executeUpdate() == 0) {
+            System.out.println("No active session found for chatId=" + chatId);
+        } else {
+            System.out.println("Session stopped for chatId=" + chatId);
+        }
+    }
+
+    void markSessionStopped(PooledConnection connection, SessionHandle session, LocalDateTime stopAt) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(STOP_SESSION_BY_ID);
+        preparedStatement.setObject(1, stopAt);
+        preparedStatement.setLong(2, session.id());
+        preparedStatement.setObject(3, session.startAt());
+
+        if (preparedStatement.executeUpdate() == 0) {
+            System.out.println("Session already closed: " + session);
+        } else {
+            System.out.println("Session stopped for chatId=" + session.chatId() + ", id=" + session.id());
+        }
+    }
+
+    /**
+     * Уведомляет о достижениях, сохранённых в уже зафиксированной транзакции.
+     */
+    void publishAwards(long chatId, List<Award> awards) {
+        achievementEngine.publish(chatId, awards);
+    }
+
+    // ───────── Достижения ─────────
+
+    /**
+     * Завершение сессии внутри открытой транзакции. Возвращает новые достижения.
+     * Строка прогресса блокируется до конца транзакции, поэтому завершения одного чата не теряют обновления друг друга.
+     */
+    List<Award> completeSession(PooledConnection connection, long chatId, String sessionType,
+                                LocalDateTime stopAt) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(COMPLETE_SESSION);
+        preparedStatement.setLong(2, chatId);
+        preparedStatement.setString(3, sessionType);
+        return completeSession(connection, chatId, sessionType, stopAt, preparedStatement);
+    }
+
+    /**
+     * Завершение сессии хэндла внутри открытой транзакции: строка выбирается по первичному ключу.
+     */
+    List<Award> completeSession(PooledConnection connection, SessionHandle session,
+                                LocalDateTime stopAt) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(COMPLETE_SESSION_BY_ID);
+        preparedStatement.setLong(2, session.id());
+        preparedStatement.setObject(3, session.startAt());
+        return completeSession(connection, session.chatId(), session.sessionType(), stopAt, preparedStatement);
+    }
+
+    /**
+     * Общая часть завершения: параметры выбора сессии (второй и третий) уже заданы вызывающим.
+     */
+    private List<Award> completeSession(PooledConnection connection, long chatId, String sessionType,
+                                        LocalDateTime stopAt, PreparedStatement preparedStatement) throws SQLException {
+        AchievementProgress progress = achievementEngine.affects(sessionType) ? lockProgress(connection, chatId) : null;
+
+        preparedStatement.setObject(1, stopAt);
+        preparedStatement.setObject(4, PeriodStatistics.dayOf(stopAt, statsZone));
+
+        List<Award> awards = new ArrayList<>();
+        int rowsUpdated = 0;
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                rowsUpdated++;
+                if (progress != null) {
+                    awards.addAll(achievementEngine.onSessionCompleted(progress,
+                            resultSet.getString("type"), resultSet.getInt("duration"), stopAt));
+                }
+            }
+        }
+
+        if (progress != null) {
+            saveProgress(connection, chatId, progress);
+            insertAwards(connection, chatId, awards);
+        }
+
+        if (rowsUpdated == 0) {
+            System.out.println("No active session found for chatId=" + chatId + ", type=" + sessionType);
+        } else {
+            System.out.println("Session completed for chatId=" + chatId + ", type=" + sessionType);
+        }
+        return awards;
+    }
+
+    /**
+     * Блокирует и читает прогресс чата. Если прогресса ещё не было, он считается по уже накопленной истории,
+     * а полученные по ней достижения записываются без уведомления.
+     */
+    private AchievementProgress lockProgress(PooledConnection connection, long chatId) throws SQLException {
+        PreparedStatement initStatement = connection.prepareStatement(INIT_PROGRESS);
+        initStatement.setLong(1, chatId);
+        if (initStatement.executeUpdate() > 0) {
+            AchievementEngine.Replay replay = achievementEngine.replay(loadCompletedSessions(connection, chatId));
+            insertAwards(connection, chatId, replay.awards());
+            return replay.progress();
+        }
+
+        PreparedStatement preparedStatement = connection.prepareStatement(LOCK_PROGRESS);
+        preparedStatement.setLong(1, chatId);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            resultSet.next();
+            return new AchievementProgress(
+                    resultSet.getLong("work_cycles"),
+                    resultSet.getLong("work_minutes"),
+                    resultSet.getInt("current_streak"),
+                    resultSet.getInt("longest_streak"),
+                    resultSet.getObject("last_work_day", LocalDate.class),
+                    resultSet.getLong("awarded_mask"));
+        }
+    }
+
+    /**
+     * Создаёт прогресс чата по истории, если его ещё нет (внутри открытой транзакции).
+     * Вызывается перед архивацией старых сессий: после неё посчитать прогресс по истории уже нельзя.
+     */
+    void initAchievementProgress(PooledConnection connection, long chatId) throws SQLException {
+        lockProgress(connection, chatId);
+    }
+
+    private boolean hasArchivedSessions(PooledConnection connection, long chatId) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(HAS_ARCHIVED_SESSIONS);
+        preparedStatement.setLong(1, chatId);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            return resultSet.next();
+        }
+    }
+
+    private void saveProgress(PooledConnection connection, long chatId, AchievementProgress progress) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(SAVE_PROGRESS);
+        preparedStatement.setLong(1, progress.workCycles());
+        preparedStatement.setLong(2, progress.workMinutes());
+        preparedStatement.setInt(3, progress.currentStreak());
+        preparedStatement.setInt(4, progress.longestStreak());
+        preparedStatement.setObject(5, progress.lastWorkDay());
+        preparedStatement.setLong(6, progress.awardedMask());
+        preparedStatement.setLong(7, chatId);
+        preparedStatement.executeUpdate();
+    }
+
+    private void insertAwards(PooledConnection connection, long chatId, List<Award> awards) throws SQLException {
+        if (awards.isEmpty()) {
+            return;
+        }
+        PreparedStatement preparedStatement = connection.prepareStatement(INSERT_ACHIEVEMENT);
+        for (Award award : awards) {
+            preparedStatement.setLong(1, chatId);
+            preparedStatement.setString(2, award.name());
+            preparedStatement.setString(3, award.description());
+            preparedStatement.setObject(4, award.achievedAt());
+            preparedStatement.addBatch();
+        }
+        preparedStatement.executeBatch();
+    }
+
+    private List<CompletedSession> loadCompletedSessions(PooledConnection connection, long chatId) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(GET_COMPLETED_SESSIONS);
+        preparedStatement.setFetchSize(EXPORT_FETCH_SIZE);
+        preparedStatement.setLong(1, chatId);
+
+        List<CompletedSession> sessions = new ArrayList<>();
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                sessions.add(new CompletedSession(
+                        resultSet.getString("type"),
+                        resultSet.getInt("duration"),
+                        resultSet.getTimestamp("stop_at").toLocalDateTime()));
+            }
+        }
+        return sessions;
+    }
+
+    @Override
+    public List<Long> listChatIds() {
+        try (PooledConnection connection = connectionPool.acquire()) {
+            List<Long> chatIds = new ArrayList<>();
+            try (ResultSet resultSet = connection.prepareStatement(GET_CHAT_IDS).executeQuery()) {
+                while (resultSet.next()) {
+                    chatIds.add(resultSet.getLong("chat_id"));
+                }
+            }
+            return chatIds;
+        } catch (SQLException e) {
+            System.out.println("Error listing chats: " + e.getMessage());
+            throw new RuntimeException("Failed to list chats", e);
+        }
+    }
+
+    /**
+     * Пересчёт прогресса и достижений чата по всей истории. Уже выданные достижения не дублируются.
+     * Если часть истории чата вынесена в архив, прогресс не пересчитывается.
+     */
+    @Override
+    public boolean backfillAchievements(long chatId) {
+        try (PooledConnection connection = connectionPool.acquire()) {
+            connection.setAutoCommit(false);
+            try {
+                // Блокируем прогресс, чтобы завершения сессий чата дождались пересчёта
+                lockProgress(connection, chatId);
+                if (hasArchivedSessions(connection, chatId)) {
+                    connection.commit();
+                    System.out.println("Achievements of chatId=" + chatId + " kept: part of the history is archived");
+                    return true;
+                }
+                List<CompletedSession> sessions = loadCompletedSessions(connection, chatId);
+                AchievementEngine.Replay replay = achievementEngine.replay(sessions);
+                saveProgress(connection, chatId, replay.progress());
+                insertAwards(connection, chatId, replay.awards());
+                connection.commit();
+                return replay.progress().equals(achievementEngine.evaluateHistory(sessions));
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error backfilling achievements for chatId=" + chatId + ": " + e.getMessage());
+            throw new RuntimeException("Failed to backfill achievements", e);
+        }
+    }
+
+    @Override
+    public List<Leaderboard.FocusTotals> loadFocusTotals(LocalDateTime weekStart) {
+        try (PooledConnection connection = connectionPool.acquire()) {
+            connection.setAutoCommit(false);
+            PreparedStatement preparedStatement = connection.prepareStatement(GET_FOCUS_TOTALS);
+            preparedStatement.setFetchSize(EXPORT_FETCH_SIZE);
+            preparedStatement.setObject(1, weekStart);
+            preparedStatement.setObject(2, weekStart.minusDays(1));
+
+            List<Leaderboard.FocusTotals> totals = new ArrayList<>();
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    totals.add(new Leaderboard.FocusTotals(
+                            resultSet.getLong("chat_id"),
+                            resultSet.getLong("work_minutes"),
+                            resultSet.getLong("week_minutes")));
+                }
+            }
+            connection.commit();
+            return totals;
+        } catch (SQLException e) {
+            System.out.println("Error loading leaderboard totals: " + e.getMessage());
+            throw new RuntimeException("Failed to load leaderboard totals", e);
+        }
+    }
+
+    /**
+     * Разовый пересчёт агрегатов статистики по всей истории сессий.
+     * Нужен после появления таблиц user_statistics и user_daily_statistics, если в user_sessions уже есть данные.
+     */
+    public void backfillStatistics() {
+        try (PooledConnection connection = connectionPool.acquire()) {
+            connection.setAutoCommit(false);
+            try {
+                connection.prepareStatement(LOCK_SESSIONS).execute();
+                int rowsUpdated = connection.prepareStatement(BACKFILL_STATISTICS).executeUpdate();
+                int days = backfillDailyStatistics(connection);
+                connection.commit();
+                System.out.println("Statistics backfilled for " + rowsUpdated + " chats, " + days + " daily buckets");
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error backfilling statistics: " + e.getMessage());
+            throw new RuntimeException("Failed to backfill statistics", e);
+        }
+    }
+
+    /**
+     * Пересчёт дневных корзин по истории внутри транзакции пересчёта (таблица сессий уже заблокирована).
+     */
+    private int backfillDailyStatistics(PooledConnection connection) throws SQLException {
+        Map<DailyKey, long[]> buckets = new HashMap<>();
+        PreparedStatement selectStatement = connection.prepareStatement(GET_CLOSED_SESSIONS_FOR_DAYS);
+        selectStatement.setFetchSize(EXPORT_FETCH_SIZE);
+        try (ResultSet resultSet = selectStatement.executeQuery()) {
+            while (resultSet.next()) {
+                String type = resultSet.getString("type");
+                int column = "WORK".equalsIgnoreCase(type) ? 0 : "REST".equalsIgnoreCase(type) ? 1 : -1;
+                if (column < 0) {
+                    continue;
+                }
+                LocalDate day = PeriodStatistics.dayOf(resultSet.getTimestamp("stop_at").toLocalDateTime(), statsZone);
+                long[] bucket = buckets.computeIfAbsent(new DailyKey(resultSet.getLong("chat_id"), day), key -> new long[4]);
+                bucket[column] += resultSet.getInt("duration");
+                bucket[column + 2]++;
+            }
+        }
+
+        PreparedStatement upsertStatement = connection.prepareStatement(UPSERT_DAILY_STATISTICS);
+        int pending = 0;
+        for (Map.Entry<DailyKey, long[]> entry : buckets.entrySet()) {
+            long[] bucket = entry.getValue();
+            upsertStatement.setLong(1, entry.getKey().chatId());
+            upsertStatement.setObject(2, entry.getKey().day());
+            for (int i = 0; i < bucket.length; i++) {
+                upsertStatement.setLong(i + 3, bucket[i]);
+            }
+            upsertStatement.addBatch();
+            if (++pending == EXPORT_FETCH_SIZE) {
+                upsertStatement.executeBatch();
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            upsertStatement.executeBatch();
+        }
+        return buckets.size();
+    }
+
+    private record DailyKey(long chatId, LocalDate day) {
+    }
+
+    public ConnectionPool.PoolStats getPoolStats() {
+        return connectionPool.stats();
+    }
+
+    @Override
+    public void close() {
+        connectionPool.close();
     }
 }
@@ -0,0 +1,307 @@
+package repository;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Неблокирующее хранилище поверх обычного: каждый вызов выполняется отдельной задачей,
+ * вызывающий поток только ставит её и сразу получает future.
+ * - Задачи выполняются в пуле из concurrency потоков платформы "async-repository-N". Проект собирается
+ *   под Java 17, где виртуальных потоков нет: задача, ожидающая хранилище, занимает поток ОС, поэтому
+ *   одновременно выполняются не больше concurrency вызовов (обычно - по числу соединений пула)
+ * - Остальные ждут в очереди пула на queueCapacity задач. Когда она заполнена, вызывающий поток ждёт места
+ *   в ней, а задачу, поставленную из потока пула (продолжение предыдущей записи чата), этот поток выполняет
+ *   сам - ожидание там остановило бы пул, который должен очередь разбирать
+ * - Записи одного чата выполняются строго друг за другом в порядке вызова: закрытие по хэндлу, вызванное после
+ *   записи сеанса, выполнится, когда хэндл уже получил id. Чтение чата ждёт вызванных до него записей этого чата,
+ *   но не других чтений
+ */
+public class ExecutorAsyncUserDataRepository implements AsyncUserDataRepository {
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final UserDataRepository delegate;
+    private final ThreadPoolExecutor executor;
+    // Потоки пула: им нельзя ждать места в очереди
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+    // Последняя вызванная запись каждого чата; убирается, когда выполнена и за ней ничего не поставлено.
+    // Доступ - под блокировкой самой карты
+    private final Map<Long, CompletableFuture<?>> lastWrites = new HashMap<>();
+
+    public ExecutorAsyncUserDataRepository(UserDataRepository delegate, int concurrency) {
+        this(delegate, concurrency, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param concurrency   сколько операций одновременно выполняется в хранилище (обычно - размер пула соединений)
+     * @param queueCapacity сколько операций может ждать свободного потока
+     */
+    public ExecutorAsyncUserDataRepository(UserDataRepository delegate, int concurrency, int queueCapacity) {
+        this.delegate = delegate;
+        this.executor = newExecutor(concurrency, queueCapacity);
+    }
+
+    @Override
+    public CompletableFuture<SessionHandle> recordSession(long chatId, String sessionType, int durationMinutes,
+                                                          LocalDateTime startAt) {
+        return write(new long[]{chatId}, () -> delegate.recordSession(chatId, sessionType, durationMinutes, startAt));
+    }
+
+    @Override
+    public CompletableFuture<Void> completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
+        return write(new long[]{chatId}, () -> {
+            delegate.completeSession(chatId, sessionType, stopAt);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> completeSession(SessionHandle session, LocalDateTime stopAt) {
+        return write(new long[]{session.chatId()}, () -> {
+            delegate.completeSession(session, stopAt);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> markSessionStopped(long chatId, LocalDateTime stopAt) {
+        return write(new long[]{chatId}, () -> {
+            delegate.markSessionStopped(chatId, stopAt);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+        return write(new long[]{session.chatId()}, () -> {
+            delegate.markSessionStopped(session, stopAt);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getStatistics(long chatId) {
+        return read(chatId, () -> delegate.getStatistics(chatId));
+    }
+
+    @Override
+    public CompletableFuture<String> getStatistics(long chatId, LocalDate from, LocalDate to) {
+        return read(chatId, () -> delegate.getStatistics(chatId, from, to));
+    }
+
+    @Override
+    public CompletableFuture<String> getAchievements(long chatId) {
+        return read(chatId, () -> delegate.getAchievements(chatId));
+    }
+
+    @Override
+    public CompletableFuture<Void> exportStatistics(long chatId, OutputStream out) {
+        return read(chatId, () -> {
+            delegate.exportStatistics(chatId, out);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> forEachOpenSession(Consumer<OpenSession> consumer) {
+        return submit(() -> {
+            delegate.forEachOpenSession(consumer);
+            return null;
+        });
+    }
+
+    /**
+     * Пачка упорядочивается с записями всех чатов, события которых в ней есть.
+     */
+    @Override
+    public CompletableFuture<Void> applyBatch(List<SessionEvent> events) {
+        List<SessionEvent> batch = List.copyOf(events);
+        long[] chatIds = batch.stream().mapToLong(SessionEvent::chatId).distinct().toArray();
+        return write(chatIds, () -> {
+            delegate.applyBatch(batch);
+            return null;
+        });
+    }
+
+    /**
+     * Сколько операций сейчас работает с хранилищем.
+     */
+    public int inFlight() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Сколько операций ждут свободного потока в очереди пула.
+     */
+    public int waiting() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Дожидается вызванных записей (но не дольше CLOSE_TIMEOUT_SECONDS), останавливает потоки и закрывает хранилище.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<?>[] pending;
+        synchronized (lastWrites) {
+            pending = lastWrites.values().toArray(new CompletableFuture<?>[0]);
+        }
+        try {
+            // Ошибки записей уже получили их future, здесь важно только дождаться
+            CompletableFuture.allOf(pending).exceptionally(error -> null).get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.out.println("Async repository: pending writes did not finish in " + CLOSE_TIMEOUT_SECONDS + " s");
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Async repository: operations still running after " + CLOSE_TIMEOUT_SECONDS + " s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    /**
+     * Запись: выполняется после предыдущих записей этих чатов и сама становится последней для каждого из них.
+     */
+    private <T> CompletableFuture<T> write(long[] chatIds, Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<Void> previous;
+        synchronized (lastWrites) {
+            previous = after(chatIds);
+            for (long chatId : chatIds) {
+                lastWrites.put(chatId, result);
+            }
+        }
+        result.whenComplete((value, error) -> {
+            synchronized (lastWrites) {
+                for (long chatId : chatIds) {
+                    lastWrites.remove(chatId, result);
+                }
+            }
+        });
+        // Ставится уже без блокировки: при заполненной очереди здесь ждут места, а потоки пула, освобождающие его,
+        // берут эту блокировку, убирая выполненные записи
+        previous.thenCompose(ignored -> submit(task)).whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Чтение: выполняется после вызванных до него записей чата.
+     */
+    private <T> CompletableFuture<T> read(long chatId, Callable<T> task) {
+        CompletableFuture<Void> previous;
+        synchronized (lastWrites) {
+            previous = after(new long[]{chatId});
+        }
+        return previous.thenCompose(ignored -> submit(task));
+    }
+
+    // Завершается, когда выполнены последние записи чатов - успешно или нет: ошибка записи
+    // достаётся её собственному future, следующие операции чата всё равно выполняются
+    private CompletableFuture<Void> after(long[] chatIds) {
+        if (chatIds.length == 1) {
+            CompletableFuture<?> previous = lastWrites.get(chatIds[0]);
+            return previous == null ? DONE : previous.handle((value, error) -> null);
+        }
+        CompletableFuture<?>[] previous = new CompletableFuture<?>[chatIds.length];
+        int count = 0;
+        for (long chatId : chatIds) {
+            CompletableFuture<?> last = lastWrites.get(chatId);
+            if (last != null) {
+                previous[count++] = last.handle((value, error) -> null);
+            }
+        }
+        return count == 0 ? DONE : CompletableFuture.allOf(Arrays.copyOf(previous, count));
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(task, result));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private static <T> void run(Callable<T> task, CompletableFuture<T> result) {
+        T value;
+        try {
+            value = task.call();
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        result.complete(value);
+    }
+
+    /**
+     * Пул из threads потоков платформы с очередью на queueCapacity задач; потоки - демоны, чтобы не держать
+     * JVM при остановке.
+     */
+    private ThreadPoolExecutor newExecutor(int threads, int queueCapacity) {
+        AtomicInteger number = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "async-repository-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            workers.add(thread);
+            return thread;
+        }, this::onQueueFull);
+        pool.prestartAllCoreThreads();
+        return pool;
+    }
+
+    /**
+     * Очередь заполнена: поток пула выполняет задачу сам, остальные ждут места в очереди.
+     * После закрытия задачи отклоняются - их future завершаются с RejectedExecutionException.
+     */
+    private void onQueueFull(Runnable task, ThreadPoolExecutor pool) {
+        if (pool.isShutdown()) {
+            throw new RejectedExecutionException("Async repository is closed");
+        }
+        if (workers.contains(Thread.currentThread())) {
+            task.run();
+            return;
+        }
+        try {
+            pool.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a free slot in the storage queue", e);
+        }
+        // Пул закрыли, пока задача ждала места: её уже никто не выполнит
+        if (pool.isShutdown() && pool.remove(task)) {
+            throw new RejectedExecutionException("Async repository is closed");
+        }
+    }
+}
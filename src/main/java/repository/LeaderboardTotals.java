@@ -0,0 +1,51 @@
+package repository;
+
+import leaderboard.Leaderboard;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * Итоги для рейтинга по истории в файлах (CSV и бинарное хранилище): у них нет агрегатов по всем чатам,
+ * поэтому при запуске история каждого чата читается один раз.
+ */
+final class LeaderboardTotals {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private LeaderboardTotals() {
+    }
+
+    static List<Leaderboard.FocusTotals> load(List<Long> chatIds, LongFunction<List<String[]>> readSessionRecords,
+                                              LocalDateTime weekStart) {
+        List<Leaderboard.FocusTotals> totals = new ArrayList<>();
+        for (long chatId : chatIds) {
+            Leaderboard.FocusTotals chatTotals = fromRecords(chatId, readSessionRecords.apply(chatId), weekStart);
+            if (chatTotals.allTimeMinutes() > 0) {
+                totals.add(chatTotals);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Минуты завершённых рабочих сессий по строкам истории (type, duration, start_at, stop_at, completed).
+     */
+    static Leaderboard.FocusTotals fromRecords(long chatId, List<String[]> records, LocalDateTime weekStart) {
+        long allTimeMinutes = 0;
+        long weekMinutes = 0;
+        for (String[] record : records) {
+            if (!"WORK".equalsIgnoreCase(record[0]) || !"true".equals(record[4]) || record[3].isEmpty()) {
+                continue;
+            }
+            int duration = Integer.parseInt(record[1]);
+            allTimeMinutes += duration;
+            if (!LocalDateTime.parse(record[3], FORMATTER).isBefore(weekStart)) {
+                weekMinutes += duration;
+            }
+        }
+        return new Leaderboard.FocusTotals(chatId, allTimeMinutes, weekMinutes);
+    }
+}
@@ -0,0 +1,232 @@
+package repository;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.LatencyTracker;
+import metrics.MetricsRegistry;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Обёртка над хранилищем, измеряющая время и ошибки каждого метода.
+ * Метрики создаются в конструкторе, поэтому вызов метода не выделяет память на их запись.
+ * Время точечных вызовов (запись и закрытие сессии, статистика, достижения) попадает ещё и в оценку
+ * текущей задержки хранилища - по ней приём обновлений решает, не пора ли отказывать в тяжёлых командах.
+ * Выгрузка и обход открытых сессий в неё не входят: их время зависит от объёма истории.
+ */
+public class MetricsUserDataRepository implements UserDataRepository {
+    private static final String DURATION_NAME = "pomodoro_repository_call_seconds";
+    private static final String DURATION_HELP = "Duration of UserDataRepository calls";
+    private static final String ERRORS_NAME = "pomodoro_repository_errors_total";
+    private static final String ERRORS_HELP = "Failed UserDataRepository calls";
+
+    private final UserDataRepository delegate;
+    private final LatencyTracker latency;
+
+    private final Histogram recordSessionDuration;
+    private final Histogram completeSessionDuration;
+    private final Histogram markSessionStoppedDuration;
+    private final Histogram getStatisticsDuration;
+    private final Histogram getPeriodStatisticsDuration;
+    private final Histogram getAchievementsDuration;
+    private final Histogram exportStatisticsDuration;
+    private final Histogram forEachOpenSessionDuration;
+    private final Histogram applyBatchDuration;
+
+    private final Counter recordSessionErrors;
+    private final Counter completeSessionErrors;
+    private final Counter markSessionStoppedErrors;
+    private final Counter getStatisticsErrors;
+    private final Counter getPeriodStatisticsErrors;
+    private final Counter getAchievementsErrors;
+    private final Counter exportStatisticsErrors;
+    private final Counter forEachOpenSessionErrors;
+    private final Counter applyBatchErrors;
+
+    public MetricsUserDataRepository(UserDataRepository delegate, MetricsRegistry registry) {
+        this(delegate, registry, new LatencyTracker(10_000));
+    }
+
+    public MetricsUserDataRepository(UserDataRepository delegate, MetricsRegistry registry, LatencyTracker latency) {
+        this.delegate = delegate;
+        this.latency = latency;
+
+        this.recordSessionDuration = registry.histogram(DURATION_NAME, DURATION_HELP, "method", "recordSession");
+        this.completeSessionDuration = registry.histogram(DURATION_NAME, DURATION_HELP, "method", "completeSession");
+        this.markSessionStoppedDuration = registry.histogram(DURATION_NAME, DURATION_HELP, "method", "markSessionStopped");
+        this.getStatisticsDuration = registry.histogram(DURATION_NAME, DURATION_HELP, "method", "getStatistics");
+        this.getPeriodStatisticsDuration = registry.histogram(DURATION_NAME, DURATION_HELP, "method", "getPeriodStatistics");
+        this.getAchievementsDuration = registry.histogram(DURATION_NAME, DURATION_HELP, "method", "getAchievements");
+        this.exportStatisticsDuration = registry.histogram(DURATION_NAME, DURATION_HELP, "method", "exportStatistics");
+        this.forEachOpenSessionDuration = registry.histogram(DURATION_NAME, DURATION_HELP, "method", "forEachOpenSession");
+        this.applyBatchDuration = registry.histogram(DURATION_NAME, DURATION_HELP, "method", "applyBatch");
+
+        this.recordSessionErrors = registry.counter(ERRORS_NAME, ERRORS_HELP, "method", "recordSession");
+        this.completeSessionErrors = registry.counter(ERRORS_NAME, ERRORS_HELP, "method", "completeSession");
+        this.markSessionStoppedErrors = registry.counter(ERRORS_NAME, ERRORS_HELP, "method", "markSessionStopped");
+        this.getStatisticsErrors = registry.counter(ERRORS_NAME, ERRORS_HELP, "method", "getStatistics");
+        this.getPeriodStatisticsErrors = registry.counter(ERRORS_NAME, ERRORS_HELP, "method", "getPeriodStatistics");
+        this.getAchievementsErrors = registry.counter(ERRORS_NAME, ERRORS_HELP, "method", "getAchievements");
+        this.exportStatisticsErrors = registry.counter(ERRORS_NAME, ERRORS_HELP, "method", "exportStatistics");
+        this.forEachOpenSessionErrors = registry.counter(ERRORS_NAME, ERRORS_HELP, "method", "forEachOpenSession");
+        this.applyBatchErrors = registry.counter(ERRORS_NAME, ERRORS_HELP, "method", "applyBatch");
+    }
+
+    @Override
+    public SessionHandle recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
+        long start = System.nanoTime();
+        try {
+            return delegate.recordSession(chatId, sessionType, durationMinutes, startAt);
+        } catch (RuntimeException e) {
+            recordSessionErrors.increment();
+            throw e;
+        } finally {
+            observePoint(recordSessionDuration, start);
+        }
+    }
+
+    @Override
+    public void completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
+        long start = System.nanoTime();
+        try {
+            delegate.completeSession(chatId, sessionType, stopAt);
+        } catch (RuntimeException e) {
+            completeSessionErrors.increment();
+            throw e;
+        } finally {
+            observePoint(completeSessionDuration, start);
+        }
+    }
+
+    @Override
+    public void completeSession(SessionHandle session, LocalDateTime stopAt) {
+        long start = System.nanoTime();
+        try {
+            delegate.completeSession(session, stopAt);
+        } catch (RuntimeException e) {
+            completeSessionErrors.increment();
+            throw e;
+        } finally {
+            observePoint(completeSessionDuration, start);
+        }
+    }
+
+    @Override
+    public void markSessionStopped(long chatId, LocalDateTime stopAt) {
+        long start = System.nanoTime();
+        try {
+            delegate.markSessionStopped(chatId, stopAt);
+        } catch (RuntimeException e) {
+            markSessionStoppedErrors.increment();
+            throw e;
+        } finally {
+            observePoint(markSessionStoppedDuration, start);
+        }
+    }
+
+    @Override
+    public void markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+        long start = System.nanoTime();
+        try {
+            delegate.markSessionStopped(session, stopAt);
+        } catch (RuntimeException e) {
+            markSessionStoppedErrors.increment();
+            throw e;
+        } finally {
+            observePoint(markSessionStoppedDuration, start);
+        }
+    }
+
+    @Override
+    public String getStatistics(long chatId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getStatistics(chatId);
+        } catch (RuntimeException e) {
+            getStatisticsErrors.increment();
+            throw e;
+        } finally {
+            observePoint(getStatisticsDuration, start);
+        }
+    }
+
+    @Override
+    public String getStatistics(long chatId, LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getStatistics(chatId, from, to);
+        } catch (RuntimeException e) {
+            getPeriodStatisticsErrors.increment();
+            throw e;
+        } finally {
+            observePoint(getPeriodStatisticsDuration, start);
+        }
+    }
+
+    @Override
+    public String getAchievements(long chatId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAchievements(chatId);
+        } catch (RuntimeException e) {
+            getAchievementsErrors.increment();
+            throw e;
+        } finally {
+            observePoint(getAchievementsDuration, start);
+        }
+    }
+
+    @Override
+    public void exportStatistics(long chatId, OutputStream out) {
+        long start = System.nanoTime();
+        try {
+            delegate.exportStatistics(chatId, out);
+        } catch (RuntimeException e) {
+            exportStatisticsErrors.increment();
+            throw e;
+        } finally {
+            exportStatisticsDuration.observeSince(start);
+        }
+    }
+
+    @Override
+    public void forEachOpenSession(Consumer<OpenSession> consumer) {
+        long start = System.nanoTime();
+        try {
+            delegate.forEachOpenSession(consumer);
+        } catch (RuntimeException e) {
+            forEachOpenSessionErrors.increment();
+            throw e;
+        } finally {
+            forEachOpenSessionDuration.observeSince(start);
+        }
+    }
+
+    @Override
+    public void applyBatch(List<SessionEvent> events) {
+        long start = System.nanoTime();
+        try {
+            delegate.applyBatch(events);
+        } catch (RuntimeException e) {
+            applyBatchErrors.increment();
+            throw e;
+        } finally {
+            applyBatchDuration.observeSince(start);
+        }
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private void observePoint(Histogram duration, long start) {
+        long elapsed = System.nanoTime() - start;
+        duration.observeNanos(elapsed);
+        latency.observeNanos(elapsed);
+    }
+}
@@ -0,0 +1,15 @@
+package repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Незакрытая сессия (stop_at не задан) - используется для восстановления таймеров после перезапуска.
+ * sessionId - id для {@link SessionHandle}, по которому восстановленную сессию можно закрыть.
+ */
+public record OpenSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt,
+                          long sessionId) {
+
+    public SessionHandle handle() {
+        return new SessionHandle(chatId, sessionType, startAt, sessionId);
+    }
+}
@@ -0,0 +1,34 @@
+package repository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Итоги сессий за период, сложенные из дневных корзин.
+ */
+record PeriodStatistics(long workMinutes, long restMinutes, long workCycles, long restCycles) {
+
+    /**
+     * День, к которому относится закрытая сессия: дата её окончания в часовом поясе статистики.
+     * Время сессий хранится в поясе сервера.
+     */
+    static LocalDate dayOf(LocalDateTime stopAt, ZoneId zone) {
+        return stopAt.atZone(ZoneId.systemDefault()).withZoneSameInstant(zone).toLocalDate();
+    }
+
+    static void checkRange(LocalDate from, LocalDate to) {
+        if (from.isAfter(to) || !from.plusDays(UserDataRepository.MAX_STATISTICS_DAYS).isAfter(to)) {
+            throw new RuntimeException("Некорректный период статистики: " + from + " - " + to);
+        }
+    }
+
+    String format(LocalDate from, LocalDate to) {
+        String period = from.equals(to) ? from.toString() : from + " - " + to;
+        return "Статистика за " + period + ":\n" +
+                "• Рабочее время: " + workMinutes + " мин\n" +
+                "• Отдых: " + restMinutes + " мин\n" +
+                "• Рабочих циклов: " + workCycles + "\n" +
+                "• Циклов отдыха: " + restCycles;
+    }
+}
@@ -0,0 +1,150 @@
+package repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Соединение, выданное {@link ConnectionPool}.
+ * Подготовленные запросы кэшируются на всё время жизни физического соединения,
+ * поэтому закрывать их в вызывающем коде не нужно - достаточно закрыть само соединение.
+ * Соединение используется одним потоком, пока не будет возвращено в пул. Повторный close() ничего не делает:
+ * второй возврат отдал бы одно физическое соединение двум пользователям.
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final long createdAt;
+    private long lastUsedAt;
+    // Выдано ли соединение сейчас; сбрасывается первым close()
+    private final AtomicBoolean leased = new AtomicBoolean();
+    // Кэш подготовленных запросов: текст запроса -> запрос
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private final Map<String, PreparedStatement> statementsWithKeys = new HashMap<>();
+
+    PooledConnection(ConnectionPool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+    }
+
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        if (autoGeneratedKeys != Statement.RETURN_GENERATED_KEYS) {
+            return prepareStatement(sql);
+        }
+        PreparedStatement statement = statementsWithKeys.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            statementsWithKeys.put(sql, statement);
+        }
+        return statement;
+    }
+
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        connection.setAutoCommit(autoCommit);
+    }
+
+    public void commit() throws SQLException {
+        connection.commit();
+    }
+
+    public void rollback() throws SQLException {
+        connection.rollback();
+    }
+
+    public Savepoint setSavepoint() throws SQLException {
+        return connection.setSavepoint();
+    }
+
+    public void rollback(Savepoint savepoint) throws SQLException {
+        connection.rollback(savepoint);
+    }
+
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        connection.releaseSavepoint(savepoint);
+    }
+
+    /**
+     * Доступ к физическому соединению - для операций, которых нет в этом классе.
+     */
+    public Connection unwrap() {
+        return connection;
+    }
+
+    /**
+     * Возвращает соединение в пул.
+     */
+    @Override
+    public void close() {
+        if (!leased.compareAndSet(true, false)) {
+            return;
+        }
+        lastUsedAt = System.currentTimeMillis();
+        pool.release(this);
+    }
+
+    /**
+     * Отмечает выдачу соединения из пула.
+     */
+    void lease() {
+        leased.set(true);
+    }
+
+    long createdAt() {
+        return createdAt;
+    }
+
+    long lastUsedAt() {
+        return lastUsedAt;
+    }
+
+    boolean isClosed() throws SQLException {
+        return connection.isClosed();
+    }
+
+    /**
+     * Сбрасывает состояние, оставленное предыдущим пользователем (незавершённая транзакция, батчи).
+     * Батчи очищаются и при включённом autocommit: строки, добавленные в батч закэшированного запроса
+     * и не отправленные, иначе ушли бы с батчем следующего пользователя.
+     */
+    void resetState() throws SQLException {
+        if (!connection.getAutoCommit()) {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+        clearBatches();
+    }
+
+    /**
+     * Очищает неотправленные батчи всех закэшированных запросов - после ошибки посреди формирования батча.
+     */
+    void clearBatches() throws SQLException {
+        for (PreparedStatement statement : statements.values()) {
+            statement.clearBatch();
+        }
+        for (PreparedStatement statement : statementsWithKeys.values()) {
+            statement.clearBatch();
+        }
+    }
+
+    void closePhysically() throws SQLException {
+        statements.clear();
+        statementsWithKeys.clear();
+        connection.close();
+    }
+}
@@ -0,0 +1,116 @@
+package repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Проверка планов запросов хранилища: ни один из них не должен читать таблицы последовательным сканированием.
+ * Планы строятся с enable_seqscan = off: на маленькой тестовой базе планировщик и так выбрал бы сканирование,
+ * а при запрете оно остаётся в плане, только если подходящего индекса нет.
+ * Запускается командой check-query-plans (gradle checkQueryPlans), недостающие миграции применяются перед проверкой;
+ * удаление или изменение индекса, после которого запрос перестаёт его использовать, даёт ненулевой код выхода.
+ */
+public class QueryPlanChecker {
+    private static final long CHAT_ID = 1L;
+    private static final long SESSION_ID = 1L;
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    private final DataBaseUserDataRepository repository;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public QueryPlanChecker(DataBaseUserDataRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Проверяет все запросы. Возвращает описания нарушений; пустой список - всё в порядке.
+     */
+    public List<String> check() {
+        List<String> violations = new ArrayList<>();
+        try (PooledConnection connection = repository.acquireConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                connection.prepareStatement("SET LOCAL enable_seqscan = off").execute();
+                for (PlannedQuery query : queries()) {
+                    for (String relation : seqScans(connection, query)) {
+                        violations.add(query.name() + ": последовательное сканирование " + relation);
+                    }
+                }
+            } finally {
+                // EXPLAIN без ANALYZE ничего не меняет, но SET LOCAL и блокировки снимаются откатом
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error checking query plans: " + e.getMessage());
+            throw new RuntimeException("Failed to check query plans", e);
+        }
+        return violations;
+    }
+
+    private static List<PlannedQuery> queries() {
+        return List.of(
+                new PlannedQuery("COMPLETE_SESSION", DataBaseUserDataRepository.COMPLETE_SESSION, NOW, CHAT_ID, "WORK",
+                        NOW.toLocalDate()),
+                new PlannedQuery("COMPLETE_SESSION_BY_ID", DataBaseUserDataRepository.COMPLETE_SESSION_BY_ID, NOW,
+                        SESSION_ID, NOW, NOW.toLocalDate()),
+                new PlannedQuery("STOP_SESSION", DataBaseUserDataRepository.STOP_SESSION, NOW, CHAT_ID),
+                new PlannedQuery("STOP_SESSION_BY_ID", DataBaseUserDataRepository.STOP_SESSION_BY_ID, NOW,
+                        SESSION_ID, NOW),
+                new PlannedQuery("GET_STATISTICS", DataBaseUserDataRepository.GET_STATISTICS, CHAT_ID),
+                new PlannedQuery("GET_PERIOD_STATISTICS", DataBaseUserDataRepository.GET_PERIOD_STATISTICS, CHAT_ID,
+                        NOW.toLocalDate().minusDays(30), NOW.toLocalDate()),
+                new PlannedQuery("GET_ACHIEVEMENTS", DataBaseUserDataRepository.GET_ACHIEVEMENTS, CHAT_ID),
+                new PlannedQuery("GET_OPEN_SESSIONS", DataBaseUserDataRepository.GET_OPEN_SESSIONS),
+                new PlannedQuery("LOCK_PROGRESS", DataBaseUserDataRepository.LOCK_PROGRESS, CHAT_ID),
+                new PlannedQuery("SAVE_PROGRESS", DataBaseUserDataRepository.SAVE_PROGRESS,
+                        1L, 25L, 1, 1, LocalDate.of(2025, 1, 1), 0L, CHAT_ID),
+                new PlannedQuery("GET_COMPLETED_SESSIONS", DataBaseUserDataRepository.GET_COMPLETED_SESSIONS, CHAT_ID),
+                new PlannedQuery("GET_CHAT_IDS", DataBaseUserDataRepository.GET_CHAT_IDS),
+                new PlannedQuery("EXPORT_STATISTICS", DataBaseUserDataRepository.EXPORT_STATISTICS, CHAT_ID),
+                new PlannedQuery("CLAIM_DUE_TIMERS", DataBaseTimerQueue.CLAIM_DUE_TIMERS, NOW, 100),
+                new PlannedQuery("ADVANCE_TIMER", DataBaseTimerQueue.ADVANCE_TIMER, "REST", NOW, SESSION_ID, NOW,
+                        CHAT_ID),
+                new PlannedQuery("POSTPONE_TIMER", DataBaseTimerQueue.POSTPONE_TIMER, NOW, CHAT_ID),
+                new PlannedQuery("REMOVE_TIMER", DataBaseTimerQueue.REMOVE_TIMER, CHAT_ID),
+                new PlannedQuery("DELETE_TIMER", DataBaseTimerQueue.DELETE_TIMER, CHAT_ID));
+    }
+
+    private List<String> seqScans(PooledConnection connection, PlannedQuery query) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN (FORMAT JSON) " + query.sql());
+        for (int i = 0; i < query.params().length; i++) {
+            preparedStatement.setObject(i + 1, query.params()[i]);
+        }
+        JsonNode plan;
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            resultSet.next();
+            plan = objectMapper.readTree(resultSet.getString(1)).get(0).get("Plan");
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Не удалось разобрать план " + query.name(), e);
+        }
+        List<String> relations = new ArrayList<>();
+        collectSeqScans(plan, relations);
+        return relations;
+    }
+
+    private static void collectSeqScans(JsonNode node, List<String> relations) {
+        if ("Seq Scan".equals(node.path("Node Type").asText())) {
+            relations.add(node.path("Relation Name").asText());
+        }
+        for (JsonNode child : node.path("Plans")) {
+            collectSeqScans(child, relations);
+        }
+    }
+
+    private record PlannedQuery(String name, String sql, Object... params) {
+    }
+}
@@ -0,0 +1,234 @@
+package repository;
+
+import config.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Применение миграций схемы из ресурсов migrations/ при запуске.
+ * - Порядок миграций задаёт migrations/index.txt, номер версии - префикс имени файла (V6__...)
+ * - Применённые миграции записываются в schema_migrations вместе с контрольной суммой;
+ *   если файл применённой миграции изменился, запуск останавливается
+ * - Каждая миграция выполняется в своей транзакции: при ошибке схема остаётся на предыдущей версии
+ * - Узлы, запускаемые одновременно, применяют миграции по очереди (рекомендательная блокировка)
+ * Базу, созданную вручную до появления мигратора, нужно отметить версией DB_MIGRATION_BASELINE:
+ * миграции до неё включительно считаются применёнными.
+ */
+public class SchemaMigrator {
+    private static final String INDEX_RESOURCE = "migrations/index.txt";
+    private static final String MIGRATIONS_DIR = "migrations/";
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    // Ключ рекомендательной блокировки миграций
+    private static final long LOCK_KEY = 0x706f6d6f_6d696772L;
+
+    private static final String CREATE_HISTORY = """
+            CREATE TABLE IF NOT EXISTS schema_migrations (
+                version INT PRIMARY KEY,
+                name VARCHAR(255) NOT NULL,
+                checksum VARCHAR(64) NOT NULL,
+                applied_at TIMESTAMP NOT NULL DEFAULT now(),
+                baseline BOOLEAN NOT NULL DEFAULT false
+            )
+            """;
+
+    private static final String GET_APPLIED = "SELECT version, checksum FROM schema_migrations";
+
+    private static final String INSERT_APPLIED = """
+            INSERT INTO schema_migrations (version, name, checksum, baseline)
+            VALUES (?, ?, ?, ?)
+            """;
+
+    // Есть ли в базе таблицы, созданные без мигратора
+    private static final String HAS_SESSIONS_TABLE = "SELECT to_regclass('public.user_sessions') IS NOT NULL";
+
+    private final Config config;
+
+    public SchemaMigrator(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Применяет недостающие миграции. Возвращает число применённых.
+     */
+    public int migrate() {
+        List<Migration> migrations = loadMigrations();
+        try (Connection connection = DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword())) {
+            lock(connection, true);
+            try {
+                return migrate(connection, migrations);
+            } finally {
+                lock(connection, false);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error migrating schema: " + e.getMessage());
+            throw new RuntimeException("Failed to migrate schema", e);
+        }
+    }
+
+    private int migrate(Connection connection, List<Migration> migrations) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_HISTORY);
+        }
+        Map<Integer, String> applied = loadApplied(connection);
+        if (applied.isEmpty()) {
+            baseline(connection, migrations, applied);
+        }
+
+        int count = 0;
+        for (Migration migration : migrations) {
+            String checksum = applied.get(migration.version());
+            if (checksum != null) {
+                if (!checksum.equals(migration.checksum())) {
+                    throw new RuntimeException("Применённая миграция " + migration.fileName() + " изменена. "
+                            + "Изменения схемы вносятся новой миграцией");
+                }
+                continue;
+            }
+            apply(connection, migration);
+            count++;
+        }
+        System.out.println("Schema is up to date, applied " + count + " migrations");
+        return count;
+    }
+
+    /**
+     * Первый запуск мигратора: отмечаем миграции до DB_MIGRATION_BASELINE как применённые.
+     * Если таблицы уже есть, а версия не задана, применять V1 поверх них нельзя.
+     */
+    private void baseline(Connection connection, List<Migration> migrations, Map<Integer, String> applied)
+            throws SQLException {
+        int baselineVersion = config.dbMigrationBaseline();
+        if (baselineVersion == 0) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(HAS_SESSIONS_TABLE)) {
+                resultSet.next();
+                if (resultSet.getBoolean(1)) {
+                    throw new RuntimeException("Схема создана без мигратора: укажите в DB_MIGRATION_BASELINE "
+                            + "номер последней применённой вручную миграции");
+                }
+            }
+            return;
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_APPLIED)) {
+            for (Migration migration : migrations) {
+                if (migration.version() > baselineVersion) {
+                    break;
+                }
+                preparedStatement.setInt(1, migration.version());
+                preparedStatement.setString(2, migration.fileName());
+                preparedStatement.setString(3, migration.checksum());
+                preparedStatement.setBoolean(4, true);
+                preparedStatement.executeUpdate();
+                applied.put(migration.version(), migration.checksum());
+            }
+        }
+        System.out.println("Schema baselined at version " + baselineVersion);
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT_APPLIED)) {
+            statement.execute(migration.sql());
+            preparedStatement.setInt(1, migration.version());
+            preparedStatement.setString(2, migration.fileName());
+            preparedStatement.setString(3, migration.checksum());
+            preparedStatement.setBoolean(4, false);
+            preparedStatement.executeUpdate();
+            connection.commit();
+            System.out.println("Migration applied: " + migration.fileName());
+        } catch (SQLException e) {
+            connection.rollback();
+            throw new SQLException("Migration " + migration.fileName() + " failed: " + e.getMessage(), e);
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static Map<Integer, String> loadApplied(Connection connection) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(GET_APPLIED)) {
+            while (resultSet.next()) {
+                applied.put(resultSet.getInt("version"), resultSet.getString("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    private static void lock(Connection connection, boolean acquire) throws SQLException {
+        String sql = acquire ? "SELECT pg_advisory_lock(?)" : "SELECT pg_advisory_unlock(?)";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, LOCK_KEY);
+            preparedStatement.execute();
+        }
+    }
+
+    /**
+     * Миграции из ресурсов в порядке index.txt; версии должны возрастать.
+     */
+    static List<Migration> loadMigrations() {
+        List<Migration> migrations = new ArrayList<>();
+        int lastVersion = 0;
+        for (String line : readResource(INDEX_RESOURCE).split("\n")) {
+            String fileName = line.strip();
+            if (fileName.isEmpty() || fileName.startsWith("#")) {
+                continue;
+            }
+            Matcher matcher = FILE_NAME.matcher(fileName);
+            if (!matcher.matches()) {
+                throw new RuntimeException("Некорректное имя миграции: " + fileName);
+            }
+            int version = Integer.parseInt(matcher.group(1));
+            if (version <= lastVersion) {
+                throw new RuntimeException("Миграции в " + INDEX_RESOURCE + " должны идти по возрастанию версий: " + fileName);
+            }
+            lastVersion = version;
+            String sql = readResource(MIGRATIONS_DIR + fileName);
+            migrations.add(new Migration(version, fileName, sql, checksum(sql)));
+        }
+        return migrations;
+    }
+
+    private static String readResource(String name) {
+        try (InputStream inputStream = SchemaMigrator.class.getClassLoader().getResourceAsStream(name)) {
+            if (inputStream == null) {
+                throw new RuntimeException("Ресурс не найден: " + name);
+            }
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + name, e);
+        }
+    }
+
+    // Контрольная сумма не зависит от окончаний строк, чтобы checkout на Windows не ломал запуск
+    private static String checksum(String sql) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(sql.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    record Migration(int version, String fileName, String sql, String checksum) {
+    }
+}
@@ -0,0 +1,47 @@
+package repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Событие изменения сеанса - то же, что вызов recordSession/completeSession/markSessionStopped,
+ * но в виде данных, чтобы его можно было поставить в очередь и записать пачкой.
+ * session - хэндл сеанса (null - событие по chatId): у RECORD хранилище сообщает ему id записанного сеанса,
+ * COMPLETE и STOP закрывают именно этот сеанс.
+ */
+public record SessionEvent(Kind kind, long chatId, String sessionType, int durationMinutes, LocalDateTime at,
+                           SessionHandle session) {
+
+    public enum Kind {
+        RECORD,
+        COMPLETE,
+        STOP
+    }
+
+    public static SessionEvent record(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
+        return new SessionEvent(Kind.RECORD, chatId, sessionType, durationMinutes, startAt, null);
+    }
+
+    public static SessionEvent complete(long chatId, String sessionType, LocalDateTime stopAt) {
+        return new SessionEvent(Kind.COMPLETE, chatId, sessionType, 0, stopAt, null);
+    }
+
+    public static SessionEvent stop(long chatId, LocalDateTime stopAt) {
+        return new SessionEvent(Kind.STOP, chatId, null, 0, stopAt, null);
+    }
+
+    /**
+     * Запись сеанса, id которого после записи получит хэндл (см. {@link SessionHandle#pending}).
+     */
+    public static SessionEvent record(SessionHandle session, int durationMinutes) {
+        return new SessionEvent(Kind.RECORD, session.chatId(), session.sessionType(), durationMinutes,
+                session.startAt(), session);
+    }
+
+    public static SessionEvent complete(SessionHandle session, LocalDateTime stopAt) {
+        return new SessionEvent(Kind.COMPLETE, session.chatId(), session.sessionType(), 0, stopAt, session);
+    }
+
+    public static SessionEvent stop(SessionHandle session, LocalDateTime stopAt) {
+        return new SessionEvent(Kind.STOP, session.chatId(), session.sessionType(), 0, stopAt, session);
+    }
+}
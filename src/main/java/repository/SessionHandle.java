@@ -0,0 +1,64 @@
+package repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Хэндл записанного сеанса: по нему сеанс закрывается точечной записью, без поиска открытых сессий чата.
+ * id - первичный ключ строки (вместе с start_at) в БД, номер сессии в истории чата в CSV и бинарных файлах.
+ * Хэндл отложенной записи получает id, когда его сеанс записан в хранилище. Если id так и не стал известен
+ * (запись сеанса не удалась), закрывать по такому хэндлу нечего.
+ */
+public final class SessionHandle {
+    public static final long UNKNOWN_ID = -1;
+
+    private final long chatId;
+    private final String sessionType;
+    private final LocalDateTime startAt;
+    private volatile long id;
+
+    public SessionHandle(long chatId, String sessionType, LocalDateTime startAt, long id) {
+        this.chatId = chatId;
+        this.sessionType = sessionType;
+        this.startAt = startAt;
+        this.id = id;
+    }
+
+    /**
+     * Хэндл сеанса, который ещё не записан (id станет известен после записи).
+     */
+    public static SessionHandle pending(long chatId, String sessionType, LocalDateTime startAt) {
+        return new SessionHandle(chatId, sessionType, startAt, UNKNOWN_ID);
+    }
+
+    public long chatId() {
+        return chatId;
+    }
+
+    public String sessionType() {
+        return sessionType;
+    }
+
+    public LocalDateTime startAt() {
+        return startAt;
+    }
+
+    public long id() {
+        return id;
+    }
+
+    public boolean isResolved() {
+        return id != UNKNOWN_ID;
+    }
+
+    /**
+     * Сообщает хэндлу id записанного сеанса. Вызывается хранилищем после того, как запись стала окончательной.
+     */
+    void resolve(long id) {
+        this.id = id;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionHandle[chatId=" + chatId + ", type=" + sessionType + ", startAt=" + startAt + ", id=" + id + "]";
+    }
+}
@@ -0,0 +1,348 @@
+package repository;
+
+import config.Config;
+import org.postgresql.PGConnection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Обслуживание помесячных секций user_sessions.
+ * - Заранее создаёт секции текущего и следующего месяца, чтобы новые сессии не попадали в секцию по умолчанию
+ * - Секции старше SESSION_RETENTION_MONTHS месяцев выгружает в data/archive/user_sessions_YYYY_MM.csv.gz
+ *   (COPY TO STDOUT) и удаляет
+ * Итоги статистики при этом не меняются: user_statistics ведётся отдельно от истории, а итоги архивных сессий
+ * добавляются в user_statistics_archived, чтобы их учитывал пересчёт backfill-stats. Прогресс достижений
+ * создаётся по истории заранее - до того, как её часть уйдёт в архив.
+ * Архивацию выполняет один узел: остальные не получают рекомендательную блокировку и пропускают запуск.
+ */
+public class SessionPartitionManager implements AutoCloseable {
+    private static final String ARCHIVE_DIR = "data/archive/";
+    private static final Pattern PARTITION_NAME = Pattern.compile("user_sessions_(\\d{4})_(\\d{2})");
+    // Ключ рекомендательной блокировки архивации
+    private static final long LOCK_KEY = 0x706f6d6f_61726368L;
+    // Сколько ждать блокировку таблицы при отсоединении секции, чтобы не останавливать запись надолго
+    private static final String LOCK_TIMEOUT = "10s";
+
+    static final String CREATE_PARTITION = "SELECT create_user_sessions_partition(?)";
+
+    private static final String GET_PARTITIONS = """
+            SELECT child.relname
+            FROM pg_inherits
+            JOIN pg_class parent ON parent.oid = pg_inherits.inhparent
+            JOIN pg_class child ON child.oid = pg_inherits.inhrelid
+            WHERE parent.relname = 'user_sessions'
+            ORDER BY child.relname
+            """;
+
+    // Чаты секции, у которых ещё нет прогресса достижений
+    private static final String GET_CHATS_WITHOUT_PROGRESS = """
+            SELECT DISTINCT s.chat_id
+            FROM %s s
+            LEFT JOIN user_achievement_progress p ON p.chat_id = s.chat_id
+            WHERE s.completed AND p.chat_id IS NULL
+            """;
+
+    // Отпечаток секции: если между выгрузкой и удалением сессии в ней закрывались, архивация откладывается
+    private static final String GET_FINGERPRINT = """
+            SELECT COUNT(*), COUNT(stop_at), COUNT(*) FILTER (WHERE completed)
+            FROM %s
+            """;
+
+    private static final String GET_TOTALS = """
+            SELECT chat_id,
+                   COALESCE(SUM(duration) FILTER (WHERE UPPER(type) = 'WORK'), 0) AS work_minutes,
+                   COALESCE(SUM(duration) FILTER (WHERE UPPER(type) = 'REST'), 0) AS rest_minutes,
+                   COUNT(*) FILTER (WHERE UPPER(type) = 'WORK') AS work_cycles,
+                   COUNT(*) FILTER (WHERE UPPER(type) = 'REST') AS rest_cycles
+            FROM %s
+            WHERE completed AND stop_at IS NOT NULL
+            GROUP BY chat_id
+            """;
+
+    private static final String COPY_PARTITION = """
+            COPY (SELECT id, chat_id, type, duration, start_at, stop_at, completed FROM %s ORDER BY id)
+            TO STDOUT WITH (FORMAT csv, HEADER)
+            """;
+
+    private static final String ADD_ARCHIVED_TOTALS = """
+            INSERT INTO user_statistics_archived (chat_id, work_minutes, rest_minutes, work_cycles, rest_cycles)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (chat_id) DO UPDATE
+            SET work_minutes = user_statistics_archived.work_minutes + EXCLUDED.work_minutes,
+                rest_minutes = user_statistics_archived.rest_minutes + EXCLUDED.rest_minutes,
+                work_cycles = user_statistics_archived.work_cycles + EXCLUDED.work_cycles,
+                rest_cycles = user_statistics_archived.rest_cycles + EXCLUDED.rest_cycles
+            """;
+
+    private final DataBaseUserDataRepository repository;
+    private final int retentionMonths;
+    private final ScheduledExecutorService scheduler;
+
+    public SessionPartitionManager(DataBaseUserDataRepository repository, Config config) {
+        this.repository = repository;
+        this.retentionMonths = config.sessionRetentionMonths();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        new File(ARCHIVE_DIR).mkdirs();
+    }
+
+    /**
+     * Обслуживание сразу при запуске и затем раз в сутки.
+     */
+    public void startSchedule() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                maintain(LocalDate.now());
+            } catch (RuntimeException e) {
+                // Ошибка уже залогирована; следующая попытка - через сутки
+                e.printStackTrace();
+            }
+        }, 0, 1, TimeUnit.DAYS);
+    }
+
+    /**
+     * Создаёт секции наперёд и архивирует старые, если задан срок хранения.
+     */
+    public void maintain(LocalDate today) {
+        ensurePartitions(today);
+        if (retentionMonths > 0) {
+            archive(today);
+        }
+    }
+
+    /**
+     * Секции текущего и следующего месяца.
+     */
+    public void ensurePartitions(LocalDate today) {
+        try (PooledConnection connection = repository.acquireConnection()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(CREATE_PARTITION);
+            for (int i = 0; i <= 1; i++) {
+                preparedStatement.setObject(1, today.withDayOfMonth(1).plusMonths(i));
+                preparedStatement.execute();
+            }
+        } catch (SQLException e) {
+            System.out.println("Error creating session partitions: " + e.getMessage());
+            throw new RuntimeException("Failed to create session partitions", e);
+        }
+    }
+
+    /**
+     * Архивирует секции месяцев, закончившихся раньше, чем retentionMonths месяцев назад.
+     * Возвращает число архивированных секций (0, если архивацию сейчас выполняет другой узел).
+     */
+    public int archive(LocalDate today) {
+        YearMonth oldestKept = YearMonth.from(today).minusMonths(retentionMonths);
+        try (PooledConnection connection = repository.acquireConnection()) {
+            if (!advisoryLock(connection, "pg_try_advisory_lock")) {
+                System.out.println("Session archiving is running on another node");
+                return 0;
+            }
+            try {
+                int archived = 0;
+                for (String partition : listPartitions(connection)) {
+                    Matcher matcher = PARTITION_NAME.matcher(partition);
+                    if (!matcher.matches()) {
+                        continue;
+                    }
+                    YearMonth month = YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+                    if (month.isBefore(oldestKept) && archivePartition(connection, partition)) {
+                        archived++;
+                    }
+                }
+                System.out.println("Archived " + archived + " session partitions older than " + oldestKept);
+                return archived;
+            } finally {
+                advisoryLock(connection, "pg_advisory_unlock");
+            }
+        } catch (SQLException | IOException e) {
+            System.out.println("Error archiving sessions: " + e.getMessage());
+            throw new RuntimeException("Failed to archive sessions", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Архивация одной секции:
+     * 1. Прогресс достижений для чатов секции, у которых его ещё нет
+     * 2. Выгрузка секции и подсчёт итогов на одном снимке данных (REPEATABLE READ)
+     * 3. Под блокировкой таблицы: сверка отпечатка, итоги в user_statistics_archived, отсоединение и удаление секции
+     */
+    private boolean archivePartition(PooledConnection connection, String partition) throws SQLException, IOException {
+        String table = "\"" + partition + "\"";
+        initAchievementProgress(connection, table);
+
+        Path archive = Paths.get(ARCHIVE_DIR + partition + ".csv.gz");
+        Path tmpArchive = Paths.get(ARCHIVE_DIR + partition + ".csv.gz.tmp");
+        Connection physical = connection.unwrap();
+        Fingerprint fingerprint;
+        List<long[]> totals = new ArrayList<>();
+        physical.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        connection.setAutoCommit(false);
+        try {
+            fingerprint = fingerprint(connection, table);
+            try (Statement statement = physical.createStatement();
+                 ResultSet resultSet = statement.executeQuery(GET_TOTALS.formatted(table))) {
+                while (resultSet.next()) {
+                    totals.add(new long[]{resultSet.getLong("chat_id"), resultSet.getLong("work_minutes"),
+                            resultSet.getLong("rest_minutes"), resultSet.getLong("work_cycles"),
+                            resultSet.getLong("rest_cycles")});
+                }
+            }
+            long copied = copyOut(physical, table, tmpArchive);
+            if (copied != fingerprint.rows()) {
+                throw new IOException("Выгружено " + copied + " строк вместо " + fingerprint.rows());
+            }
+            connection.commit();
+        } catch (SQLException | IOException e) {
+            connection.rollback();
+            Files.deleteIfExists(tmpArchive);
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+            physical.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            execute(physical, "SET LOCAL lock_timeout = '" + LOCK_TIMEOUT + "'");
+            // Родительская таблица блокируется первой - в том же порядке, что и при записи сессий
+            execute(physical, "LOCK TABLE user_sessions IN ACCESS EXCLUSIVE MODE");
+            if (!fingerprint.equals(fingerprint(connection, table))) {
+                connection.rollback();
+                Files.deleteIfExists(tmpArchive);
+                System.out.println("Partition " + partition + " changed during archiving, will retry later");
+                return false;
+            }
+            addArchivedTotals(connection, totals);
+            execute(physical, "ALTER TABLE user_sessions DETACH PARTITION " + table);
+            execute(physical, "DROP TABLE " + table);
+            Files.move(tmpArchive, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            connection.commit();
+        } catch (SQLException | IOException e) {
+            connection.rollback();
+            Files.deleteIfExists(tmpArchive);
+            Files.deleteIfExists(archive);
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        System.out.println("Partition " + partition + " archived to " + archive + ": " + fingerprint.rows() + " sessions");
+        return true;
+    }
+
+    private void initAchievementProgress(PooledConnection connection, String table) throws SQLException {
+        List<Long> chatIds = new ArrayList<>();
+        try (Statement statement = connection.unwrap().createStatement();
+             ResultSet resultSet = statement.executeQuery(GET_CHATS_WITHOUT_PROGRESS.formatted(table))) {
+            while (resultSet.next()) {
+                chatIds.add(resultSet.getLong("chat_id"));
+            }
+        }
+        for (long chatId : chatIds) {
+            connection.setAutoCommit(false);
+            try {
+                repository.initAchievementProgress(connection, chatId);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Выгрузка секции в gzip-файл. Файл сбрасывается на диск до возврата. Возвращает число строк.
+     */
+    private static long copyOut(Connection physical, String table, Path file) throws SQLException, IOException {
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file.toFile())) {
+            long rows;
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(fileOutputStream)) {
+                rows = physical.unwrap(PGConnection.class).getCopyAPI()
+                        .copyOut(COPY_PARTITION.formatted(table), gzipOutputStream);
+                gzipOutputStream.finish();
+                fileOutputStream.getFD().sync();
+            }
+            return rows;
+        }
+    }
+
+    private static void addArchivedTotals(PooledConnection connection, List<long[]> totals) throws SQLException {
+        if (totals.isEmpty()) {
+            return;
+        }
+        PreparedStatement preparedStatement = connection.prepareStatement(ADD_ARCHIVED_TOTALS);
+        for (long[] total : totals) {
+            for (int i = 0; i < total.length; i++) {
+                preparedStatement.setLong(i + 1, total[i]);
+            }
+            preparedStatement.addBatch();
+        }
+        preparedStatement.executeBatch();
+    }
+
+    private static Fingerprint fingerprint(PooledConnection connection, String table) throws SQLException {
+        try (Statement statement = connection.unwrap().createStatement();
+             ResultSet resultSet = statement.executeQuery(GET_FINGERPRINT.formatted(table))) {
+            resultSet.next();
+            return new Fingerprint(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3));
+        }
+    }
+
+    private static void execute(Connection physical, String sql) throws SQLException {
+        try (Statement statement = physical.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static List<String> listPartitions(PooledConnection connection) throws SQLException {
+        List<String> partitions = new ArrayList<>();
+        try (ResultSet resultSet = connection.prepareStatement(GET_PARTITIONS).executeQuery()) {
+            while (resultSet.next()) {
+                partitions.add(resultSet.getString("relname"));
+            }
+        }
+        return partitions;
+    }
+
+    private static boolean advisoryLock(PooledConnection connection, String function) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement("SELECT " + function + "(?)");
+        preparedStatement.setLong(1, LOCK_KEY);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getBoolean(1);
+        }
+    }
+
+    private record Fingerprint(long rows, long stopped, long completed) {
+    }
+}
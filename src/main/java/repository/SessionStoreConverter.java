@@ -0,0 +1,32 @@
+package repository;
+
+import java.util.List;
+
+/**
+ * Перенос истории сессий между CSV-хранилищем и бинарным хранилищем.
+ */
+public class SessionStoreConverter {
+    private final CsvUserDataRepository csvRepository;
+    private final BinaryUserDataRepository binaryRepository;
+
+    public SessionStoreConverter(CsvUserDataRepository csvRepository, BinaryUserDataRepository binaryRepository) {
+        this.csvRepository = csvRepository;
+        this.binaryRepository = binaryRepository;
+    }
+
+    public void csvToBinary() {
+        List<Long> chatIds = csvRepository.listChatIds();
+        for (long chatId : chatIds) {
+            binaryRepository.writeSessionRecords(chatId, csvRepository.readSessionRecords(chatId));
+        }
+        System.out.println("Converted " + chatIds.size() + " chats from CSV to binary format");
+    }
+
+    public void binaryToCsv() {
+        List<Long> chatIds = binaryRepository.listChatIds();
+        for (long chatId : chatIds) {
+            csvRepository.writeSessionRecords(chatId, binaryRepository.readSessionRecords(chatId));
+        }
+        System.out.println("Converted " + chatIds.size() + " chats from binary to CSV format");
+    }
+}
@@ -1,23 +1,78 @@
 package repository;
 
+import java.io.OutputStream;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
 
-public interface UserDataRepository {
-    // Создание записи о новом сеансе (WORK или REST)
-    void recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt);
+public interface UserDataRepository extends AutoCloseable {
+    // Наибольшая длина периода статистики в днях: столько дневных корзин читается за один запрос
+    int MAX_STATISTICS_DAYS = 366;
 
-    // Обновление записи о сеансе (завершение периода)
+    // Создание записи о новом сеансе (WORK или REST). Возвращает хэндл, по которому этот сеанс закрывается
+    SessionHandle recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt);
+
+    // Обновление записи о сеансе (завершение периода): закрывает последний открытый сеанс этого типа
     void completeSession(long chatId, String sessionType, LocalDateTime stopAt);
 
-    // Фиксация ручной остановки сеанса
+    // Завершение именно этого сеанса - одной записью по его id; уже закрытый сеанс не меняется
+    void completeSession(SessionHandle session, LocalDateTime stopAt);
+
+    // Фиксация ручной остановки сеанса: останавливает открытые сеансы чата
     void markSessionStopped(long chatId, LocalDateTime stopAt);
 
+    // Ручная остановка именно этого сеанса - одной записью по его id
+    void markSessionStopped(SessionHandle session, LocalDateTime stopAt);
+
     // Получение статистики в виде строки
     String getStatistics(long chatId);
 
+    // Статистика за дни from..to включительно (даты - в часовом поясе статистики), не длиннее MAX_STATISTICS_DAYS.
+    // Складывается из дневных корзин, которые обновляются при закрытии сессий
+    String getStatistics(long chatId, LocalDate from, LocalDate to);
+
     // Получение списка достижений
     String getAchievements(long chatId);
 
-    // Экспорт статистики в виде CSV (возвращаем массив байт)
-    byte[] exportStatistics(long chatId);
+    // Экспорт статистики в виде CSV: строки пишутся в поток по мере чтения, поток не закрывается
+    void exportStatistics(long chatId, OutputStream out);
+
+    // Обход всех незакрытых сессий (для восстановления таймеров после перезапуска)
+    void forEachOpenSession(Consumer<OpenSession> consumer);
+
+    // Применение пачки событий сеансов в порядке их следования. Хэндлы событий RECORD получают id записанных сеансов.
+    // Реализации могут переопределить метод, чтобы записать пачку за один раз
+    default void applyBatch(List<SessionEvent> events) {
+        for (SessionEvent event : events) {
+            switch (event.kind()) {
+                case RECORD -> {
+                    SessionHandle recorded = recordSession(event.chatId(), event.sessionType(),
+                            event.durationMinutes(), event.at());
+                    if (event.session() != null) {
+                        event.session().resolve(recorded.id());
+                    }
+                }
+                case COMPLETE -> {
+                    if (event.session() != null) {
+                        completeSession(event.session(), event.at());
+                    } else {
+                        completeSession(event.chatId(), event.sessionType(), event.at());
+                    }
+                }
+                case STOP -> {
+                    if (event.session() != null) {
+                        markSessionStopped(event.session(), event.at());
+                    } else {
+                        markSessionStopped(event.chatId(), event.at());
+                    }
+                }
+            }
+        }
+    }
+
+    // Освобождение ресурсов хранилища
+    @Override
+    default void close() {
+    }
 }
@@ -0,0 +1,362 @@
+package repository;
+
+import config.Config;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Отложенная запись событий сеансов (write-behind).
+ * recordSession/completeSession/markSessionStopped только ставят событие в очередь,
+ * а отдельный поток записывает накопленные события пачкой через {@link UserDataRepository#applyBatch}
+ * - каждые writeBehindFlushIntervalMillis или как только набралось writeBehindBatchSize событий.
+ *
+ * - Порядок событий одного чата сохраняется: очередь одна, поток записи один
+ * - При заполненной очереди вызывающий поток ждёт освобождения места
+ * - Перед чтением данных чата дожидаемся записи всех его событий
+ * - События, которые не удалось записать, не выбрасываются: они и все следующие события их чатов откладываются
+ *   и повторяются с растущей задержкой, а события остальных чатов пишутся как обычно. Отложенные события занимают
+ *   место в очереди: когда их столько же, сколько её ёмкость, новые события не забираются и писатели ждут.
+ *   Пока у чата есть отложенные события, чтение его данных их не ждёт
+ * - При закрытии очередь записывается полностью; отложенные события повторяются не дольше CLOSE_TIMEOUT_SECONDS
+ * - recordSession возвращает хэндл без id: id он получит, когда событие записи будет записано.
+ *   Закрытие по хэндлу идёт в той же очереди позже записи, поэтому к своему выполнению id уже известен
+ */
+public class WriteBehindUserDataRepository implements UserDataRepository {
+    // Маркер "записать немедленно" - кладётся в очередь при чтении данных чата с незаписанными событиями
+    private static final SessionEvent FLUSH_MARKER = SessionEvent.stop(Long.MIN_VALUE, null);
+    // Задержка повтора после первой неудачной записи, дальше удваивается до MAX_RETRY_DELAY_MILLIS
+    private static final long RETRY_DELAY_MILLIS = 100;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final UserDataRepository delegate;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final int queueCapacity;
+
+    private final BlockingQueue<SessionEvent> queue;
+    // Количество незаписанных событий по чатам; чат убирается, когда все его события записаны
+    private final Map<Long, Integer> pendingEvents = new ConcurrentHashMap<>();
+    // Отложенные после неудачной записи события в исходном порядке и их чаты; список меняет только поток записи
+    private final List<SessionEvent> heldEvents = new ArrayList<>();
+    private final Set<Long> heldChats = ConcurrentHashMap.newKeySet();
+    private int failedAttempts;
+    private long retryAtNanos;
+    private final Object flushMonitor = new Object();
+    private final Thread flushThread;
+    // Постановка в очередь (чтение) и закрытие (запись): после закрытия в очередь ничего не попадёт,
+    // а всё, что попало до него, поток записи допишет
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    public WriteBehindUserDataRepository(UserDataRepository delegate, Config config) {
+        this.delegate = delegate;
+        this.batchSize = config.writeBehindBatchSize();
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.writeBehindFlushIntervalMillis());
+        this.queueCapacity = config.writeBehindQueueCapacity();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.flushThread = new Thread(this::runFlushLoop, "write-behind-flusher");
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    @Override
+    public SessionHandle recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
+        SessionHandle session = SessionHandle.pending(chatId, sessionType, startAt);
+        enqueue(SessionEvent.record(session, durationMinutes));
+        return session;
+    }
+
+    @Override
+    public void completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
+        enqueue(SessionEvent.complete(chatId, sessionType, stopAt));
+    }
+
+    @Override
+    public void completeSession(SessionHandle session, LocalDateTime stopAt) {
+        enqueue(SessionEvent.complete(session, stopAt));
+    }
+
+    @Override
+    public void markSessionStopped(long chatId, LocalDateTime stopAt) {
+        enqueue(SessionEvent.stop(chatId, stopAt));
+    }
+
+    @Override
+    public void markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+        enqueue(SessionEvent.stop(session, stopAt));
+    }
+
+    @Override
+    public String getStatistics(long chatId) {
+        awaitPendingEvents(chatId);
+        return delegate.getStatistics(chatId);
+    }
+
+    @Override
+    public String getStatistics(long chatId, LocalDate from, LocalDate to) {
+        awaitPendingEvents(chatId);
+        return delegate.getStatistics(chatId, from, to);
+    }
+
+    @Override
+    public String getAchievements(long chatId) {
+        awaitPendingEvents(chatId);
+        return delegate.getAchievements(chatId);
+    }
+
+    @Override
+    public void exportStatistics(long chatId, OutputStream out) {
+        awaitPendingEvents(chatId);
+        delegate.exportStatistics(chatId, out);
+    }
+
+    @Override
+    public void forEachOpenSession(Consumer<OpenSession> consumer) {
+        delegate.forEachOpenSession(consumer);
+    }
+
+    @Override
+    public void applyBatch(List<SessionEvent> events) {
+        for (SessionEvent event : events) {
+            enqueue(event);
+        }
+    }
+
+    /**
+     * Записывает все события из очереди и останавливает поток записи, затем закрывает исходное хранилище.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        // Будим поток записи, если он ждёт события
+        queue.offer(FLUSH_MARKER);
+        try {
+            flushThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    // ───────── Вспомогательные методы ─────────
+
+    private void enqueue(SessionEvent event) {
+        // Ожидание места в очереди держит блокировку чтения: close() дождётся, пока событие встанет в очередь
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                pendingEvents.merge(event.chatId(), 1, Integer::sum);
+                try {
+                    queue.put(event);
+                } catch (InterruptedException e) {
+                    eventWritten(event.chatId());
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while queueing session event", e);
+                }
+                return;
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        // Поток записи уже остановлен - пишем напрямую
+        delegate.applyBatch(List.of(event));
+    }
+
+    private void eventWritten(long chatId) {
+        pendingEvents.computeIfPresent(chatId, (id, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Число чатов с незаписанными событиями.
+     */
+    int pendingChats() {
+        return pendingEvents.size();
+    }
+
+    /**
+     * Ждёт записи событий чата. Не ждёт, если их запись не удалась и они отложены до повтора.
+     */
+    private void awaitPendingEvents(long chatId) {
+        if (!pendingEvents.containsKey(chatId) || closed || heldChats.contains(chatId)) {
+            return;
+        }
+
+        try {
+            queue.put(FLUSH_MARKER);
+            synchronized (flushMonitor) {
+                while (pendingEvents.containsKey(chatId) && !heldChats.contains(chatId) && !closed) {
+                    flushMonitor.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for pending session events", e);
+        }
+    }
+
+    private void runFlushLoop() {
+        List<SessionEvent> batch = new ArrayList<>(batchSize);
+        while (!closed) {
+            try {
+                if (heldEvents.size() < queueCapacity) {
+                    collectBatch(batch);
+                } else {
+                    // Отложенных столько, сколько вмещает очередь: новые события ждут в ней, пока повтор не удастся
+                    TimeUnit.NANOSECONDS.sleep(Math.max(retryAtNanos - System.nanoTime(), 0));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            flush(batch, false);
+        }
+
+        queue.drainTo(batch);
+        flush(batch, true);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CLOSE_TIMEOUT_SECONDS);
+        while (!heldEvents.isEmpty() && retryAtNanos - deadline < 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.max(retryAtNanos - System.nanoTime(), 0));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            flush(batch, true);
+        }
+        if (!heldEvents.isEmpty()) {
+            System.out.println("Dropping " + heldEvents.size() + " session events of " + heldChats.size()
+                    + " chats: they could not be written before close");
+            heldEvents.forEach(event -> eventWritten(event.chatId()));
+            heldEvents.clear();
+            heldChats.clear();
+        }
+    }
+
+    /**
+     * Ждёт первое событие, затем добирает пачку, пока она не заполнится или не истечёт интервал.
+     * Если есть отложенные события, первое событие ждёт не дольше, чем до их повтора.
+     */
+    private void collectBatch(List<SessionEvent> batch) throws InterruptedException {
+        if (heldEvents.isEmpty()) {
+            batch.add(queue.take());
+        } else {
+            SessionEvent first = queue.poll(Math.max(retryAtNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            if (first == null) {
+                return;
+            }
+            batch.add(first);
+        }
+        long deadline = System.nanoTime() + flushIntervalNanos;
+
+        while (batch.size() < batchSize && batch.get(batch.size() - 1) != FLUSH_MARKER) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            SessionEvent event = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (event == null) {
+                break;
+            }
+            batch.add(event);
+        }
+    }
+
+    /**
+     * Записывает пачку. Пока не подошло время повтора, события чатов с отложенными событиями встают за ними;
+     * когда подошло (или force), отложенные события пишутся первыми.
+     */
+    private void flush(List<SessionEvent> batch, boolean force) {
+        batch.removeIf(event -> event == FLUSH_MARKER);
+        List<SessionEvent> events = new ArrayList<>(batch.size() + heldEvents.size());
+        boolean retry = !heldEvents.isEmpty() && (force || retryAtNanos - System.nanoTime() <= 0);
+        if (heldEvents.isEmpty() || retry) {
+            events.addAll(heldEvents);
+            heldEvents.clear();
+            events.addAll(batch);
+        } else {
+            for (SessionEvent event : batch) {
+                (heldChats.contains(event.chatId()) ? heldEvents : events).add(event);
+            }
+        }
+        batch.clear();
+
+        if (!events.isEmpty() && !write(events)) {
+            retryAfterFailure();
+        } else if (heldEvents.isEmpty()) {
+            failedAttempts = 0;
+            heldChats.clear();
+        }
+
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Пишет события; не записанные события и все следующие события их чатов откладываются.
+     * Возвращает false, если что-то отложено.
+     */
+    private boolean write(List<SessionEvent> events) {
+        try {
+            delegate.applyBatch(events);
+            for (SessionEvent event : events) {
+                eventWritten(event.chatId());
+            }
+            return true;
+        } catch (RuntimeException e) {
+            System.out.println("Error flushing session batch, retrying one by one: " + e.getMessage());
+        }
+        // Пачка не записалась целиком - пишем события по одному, чтобы записать всё, что можно
+        Set<Long> failedChats = new HashSet<>();
+        for (SessionEvent event : events) {
+            if (!failedChats.contains(event.chatId())) {
+                try {
+                    delegate.applyBatch(List.of(event));
+                    eventWritten(event.chatId());
+                    continue;
+                } catch (RuntimeException eventError) {
+                    System.out.println("Error writing session event " + event + ": " + eventError.getMessage());
+                    failedChats.add(event.chatId());
+                }
+            }
+            heldEvents.add(event);
+        }
+        return failedChats.isEmpty();
+    }
+
+    /**
+     * Назначает следующий повтор отложенных событий: 100 мс после первой неудачи, дальше вдвое дольше, до 30 с.
+     */
+    private void retryAfterFailure() {
+        failedAttempts++;
+        long delayMillis = Math.min(RETRY_DELAY_MILLIS << Math.min(failedAttempts - 1, 20), MAX_RETRY_DELAY_MILLIS);
+        retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        heldChats.clear();
+        for (SessionEvent event : heldEvents) {
+            heldChats.add(event.chatId());
+        }
+        System.out.println(heldEvents.size() + " session events of " + heldChats.size()
+                + " chats are kept for retry in " + delayMillis + " ms");
+    }
+}
@@ -0,0 +1,309 @@
+package service;
+
+import repository.SessionHandle;
+import timer.TimerHandle;
+
+import java.util.function.Consumer;
+
+/**
+ * Реестр запущенных pomodoro (таймеры в памяти): по одной компактной записи на чат - фаза, срок её окончания,
+ * хэндл сессии фазы в хранилище, таймер фазы и номер записи.
+ * Ключи - примитивные long, без упаковки в Long и узлов хэш-таблицы.
+ * - Чаты разбиты на STRIPES полос по хэшу, у каждой полосы своя блокировка и своя хэш-таблица
+ *   с открытой адресацией (линейное пробирование, удаление сдвигом без «надгробий»)
+ * - Таблица полосы - параллельные массивы: ключи, фазы (0 - ячейка свободна), сроки, номера, сессии и таймеры
+ * Переходы start, advance, finish и stop атомарны: проверка записи, действие перехода (запись в хранилище
+ * и планирование следующего таймера) и изменение записи выполняются под блокировкой полосы чата.
+ * Поэтому /stop, пришедший одновременно с концом фазы, либо отменяет таймер до смены фазы, либо видит новую фазу
+ * и закрывает уже её сессию. Таймер узнаёт свою запись по номеру: сработавший после остановки или перезапуска
+ * таймер старой записи ничего не меняет.
+ */
+final class ActiveSessions {
+    // Число полос - степень двойки
+    private static final int STRIPES = 256;
+    private static final int INITIAL_CAPACITY = 8;
+
+    enum Phase {
+        WORK,
+        REST
+    }
+
+    /**
+     * Действие перехода: закрывает сессию прошлой фазы (current, null при запуске), пишет новую и планирует её таймер.
+     * Получает номер новой записи, который таймер передаст в advance или finish.
+     */
+    interface Transition {
+        Scheduled apply(SessionHandle current, int token);
+    }
+
+    /**
+     * Сессия новой фазы и её таймер.
+     */
+    record Scheduled(SessionHandle session, TimerHandle timer) {
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    ActiveSessions() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Запускает pomodoro чата. Возвращает false (ничего не делая), если у чата уже есть запущенный.
+     * Если действие бросает исключение, запись не создаётся.
+     */
+    boolean start(long chatId, Phase phase, long deadlineMillis, Transition transition) {
+        long hash = mix(chatId);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            if (stripe.find(chatId, hash) >= 0) {
+                return false;
+            }
+            int token = stripe.nextToken();
+            Scheduled scheduled = transition.apply(null, token);
+            stripe.insert(chatId, hash, phase, deadlineMillis, token, scheduled);
+            return true;
+        }
+    }
+
+    /**
+     * Переводит чат в следующую фазу, если его запись всё ещё та, что запланировала сработавший таймер.
+     * Возвращает false, если pomodoro уже остановлен или перезапущен.
+     * Если действие бросает исключение, запись удаляется: цепочка фаз оборвалась, чат можно запустить заново.
+     */
+    boolean advance(long chatId, int expectedToken, Phase phase, long deadlineMillis, Transition transition) {
+        long hash = mix(chatId);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(chatId, hash);
+            if (slot < 0 || stripe.tokens[slot] != expectedToken) {
+                return false;
+            }
+            int token = stripe.nextToken();
+            Scheduled scheduled;
+            try {
+                scheduled = transition.apply(stripe.sessions[slot], token);
+            } catch (RuntimeException e) {
+                stripe.remove(slot);
+                throw e;
+            }
+            stripe.phases[slot] = (byte) (phase.ordinal() + 1);
+            stripe.deadlines[slot] = deadlineMillis;
+            stripe.tokens[slot] = token;
+            stripe.sessions[slot] = scheduled.session();
+            stripe.timers[slot] = scheduled.timer();
+            return true;
+        }
+    }
+
+    /**
+     * Завершает pomodoro по таймеру последней фазы: выполняет действие с сессией фазы и удаляет запись,
+     * если она всё ещё та, что запланировала таймер. Запись удаляется и при исключении в действии.
+     */
+    boolean finish(long chatId, int expectedToken, Consumer<SessionHandle> action) {
+        long hash = mix(chatId);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(chatId, hash);
+            if (slot < 0 || stripe.tokens[slot] != expectedToken) {
+                return false;
+            }
+            try {
+                action.accept(stripe.sessions[slot]);
+            } finally {
+                stripe.remove(slot);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Останавливает pomodoro: отменяет таймер текущей фазы, выполняет действие с её сессией и удаляет запись.
+     * Возвращает false, если запущенного pomodoro у чата нет.
+     */
+    boolean stop(long chatId, Consumer<SessionHandle> action) {
+        long hash = mix(chatId);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(chatId, hash);
+            if (slot < 0) {
+                return false;
+            }
+            try {
+                stripe.timers[slot].cancel();
+                action.accept(stripe.sessions[slot]);
+            } finally {
+                stripe.remove(slot);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Текущая фаза чата или null, если pomodoro не запущен.
+     */
+    Phase phase(long chatId) {
+        long hash = mix(chatId);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(chatId, hash);
+            return slot < 0 ? null : Phase.values()[stripe.phases[slot] - 1];
+        }
+    }
+
+    /**
+     * Срок окончания текущей фазы (epoch millis) или -1, если pomodoro не запущен.
+     */
+    long deadline(long chatId) {
+        long hash = mix(chatId);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(chatId, hash);
+            return slot < 0 ? -1 : stripe.deadlines[slot];
+        }
+    }
+
+    /**
+     * Число чатов с запущенным pomodoro. Полосы обходятся по очереди, поэтому при параллельных
+     * переходах значение приблизительное - для метрики этого достаточно.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(long hash) {
+        return stripes[(int) (hash >>> 32) & (STRIPES - 1)];
+    }
+
+    // Перемешивание битов chatId (финализатор MurmurHash3): идущие подряд id расходятся по полосам и ячейкам
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Хэш-таблица одной полосы. Доступ - только под блокировкой самой полосы.
+     */
+    private static final class Stripe {
+        long[] keys = new long[INITIAL_CAPACITY];
+        byte[] phases = new byte[INITIAL_CAPACITY];
+        long[] deadlines = new long[INITIAL_CAPACITY];
+        int[] tokens = new int[INITIAL_CAPACITY];
+        SessionHandle[] sessions = new SessionHandle[INITIAL_CAPACITY];
+        TimerHandle[] timers = new TimerHandle[INITIAL_CAPACITY];
+        int size;
+        int lastToken;
+
+        int nextToken() {
+            return ++lastToken;
+        }
+
+        int find(long key, long hash) {
+            int mask = keys.length - 1;
+            for (int slot = (int) hash & mask; phases[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        void insert(long key, long hash, Phase phase, long deadline, int token, Scheduled scheduled) {
+            // Заполнение не больше 3/4, иначе цепочки пробирования растут
+            if ((size + 1) * 4L > keys.length * 3L) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (phases[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            phases[slot] = (byte) (phase.ordinal() + 1);
+            deadlines[slot] = deadline;
+            tokens[slot] = token;
+            sessions[slot] = scheduled.session();
+            timers[slot] = scheduled.timer();
+            size++;
+        }
+
+        /**
+         * Удаление сдвигом: следующие записи цепочки, которые можно найти только через освобождённую ячейку,
+         * переезжают в неё, поэтому поиск по-прежнему останавливается на первой свободной ячейке.
+         */
+        void remove(int slot) {
+            int mask = keys.length - 1;
+            int free = slot;
+            for (int next = (free + 1) & mask; phases[next] != 0; next = (next + 1) & mask) {
+                int home = (int) mix(keys[next]) & mask;
+                // Запись остаётся на месте, если её исходная ячейка лежит в циклическом интервале (free, next]
+                boolean reachable = free <= next ? free < home && home <= next : free < home || home <= next;
+                if (!reachable) {
+                    move(next, free);
+                    free = next;
+                }
+            }
+            phases[free] = 0;
+            sessions[free] = null;
+            timers[free] = null;
+            size--;
+            // Таблица сжимается, когда после всплеска запусков осталось мало записей
+            if (keys.length > INITIAL_CAPACITY && size * 8L < keys.length) {
+                resize(keys.length / 2);
+            }
+        }
+
+        private void move(int from, int to) {
+            keys[to] = keys[from];
+            phases[to] = phases[from];
+            deadlines[to] = deadlines[from];
+            tokens[to] = tokens[from];
+            sessions[to] = sessions[from];
+            timers[to] = timers[from];
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            byte[] oldPhases = phases;
+            long[] oldDeadlines = deadlines;
+            int[] oldTokens = tokens;
+            SessionHandle[] oldSessions = sessions;
+            TimerHandle[] oldTimers = timers;
+
+            keys = new long[capacity];
+            phases = new byte[capacity];
+            deadlines = new long[capacity];
+            tokens = new int[capacity];
+            sessions = new SessionHandle[capacity];
+            timers = new TimerHandle[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldPhases[i] == 0) {
+                    continue;
+                }
+                int slot = (int) mix(oldKeys[i]) & mask;
+                while (phases[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                phases[slot] = oldPhases[i];
+                deadlines[slot] = oldDeadlines[i];
+                tokens[slot] = oldTokens[i];
+                sessions[slot] = oldSessions[i];
+                timers[slot] = oldTimers[i];
+            }
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package service;
 
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Команды бота. Ответы, которым нужно хранилище, приходят через CompletableFuture: вызывающий поток не ждёт ввода-вывода.
+ */
 public interface PomodoroService {
     void startPomodoro(long chatId);
     void stopPomodoro(long chatId);
-    String getStatistics(long chatId);
-    String getAchievements(long chatId);
-    void exportStatistics(long chatId); // Для отправки CSV-файла
+    CompletableFuture<String> getStatistics(long chatId);
+    CompletableFuture<String> getStatistics(long chatId, String period); // day, week, month, дата или две даты (yyyy-MM-dd)
+    CompletableFuture<String> getAchievements(long chatId);
+    void exportStatistics(long chatId); // Отправка CSV-файла документом
+    String getLeaderboard(long chatId); // Рейтинг за неделю и за всё время с местом чата
 }
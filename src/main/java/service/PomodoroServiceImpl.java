@@ -1,115 +1,482 @@
 package service;
 
+import achievement.AchievementListener;
+import achievement.Award;
 import config.Config;
+import leaderboard.Leaderboard;
+import messaging.MessageDispatcher;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import repository.AsyncUserDataRepository;
+import repository.DataBaseTimerQueue;
+import repository.OpenSession;
+import repository.SessionEvent;
+import repository.SessionHandle;
 import repository.UserDataRepository;
-import org.telegram.telegrambots.meta.generics.TelegramClient;
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import timer.TimerEngine;
+import timer.TimerHandle;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
 
-public class PomodoroServiceImpl implements PomodoroService {
+public class PomodoroServiceImpl implements PomodoroService, AchievementListener, DataBaseTimerQueue.Listener {
+    // Размер пачки записей при восстановлении после перезапуска
+    private static final int RECOVERY_BATCH_SIZE = 1000;
+    private static final String STATS_USAGE = "Использование: /stats [day | week | month | yyyy-MM-dd [yyyy-MM-dd]]";
 
-    private final UserDataRepository userDataRepository;
-    private final TelegramClient telegramClient;
+    // Хранилище без ожидания: запись и чтение идут в его потоках, потоки бота и таймеров ввода-вывода не ждут
+    private final AsyncUserDataRepository userDataRepository;
+    // Очередь исходящих сообщений с ограничением частоты
+    private final MessageDispatcher messageDispatcher;
     private final int workDuration; // длительность рабочего периода в минутах
     private final int restDuration; // длительность периода отдыха в минутах
+    private final boolean exportGzip; // сжимать ли файл экспорта
+    private final ZoneId statsZone; // часовой пояс, в котором считаются день, неделя и месяц статистики
 
-    // Пул для планирования задач
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
-    // Список запланированных задач для каждого чата
-    private final Map<Long, List<ScheduledFuture<?>>> activeTasks = new ConcurrentHashMap<>();
+    // Движок для планирования задач (null, если таймеры хранятся в БД)
+    private final TimerEngine timerEngine;
+    // Таймеры в БД, общие для нескольких узлов (null - таймеры в памяти этого узла)
+    private final DataBaseTimerQueue timerQueue;
+    // Запущенные pomodoro: фаза, срок и таймер каждого чата
+    private final ActiveSessions activeSessions = new ActiveSessions();
+    // Насколько позже запланированного срабатывают таймеры фаз
+    private final Histogram timerLag;
+    // Рейтинг по минутам фокуса (null - рейтинг не ведётся)
+    private final Leaderboard leaderboard;
 
-    public PomodoroServiceImpl(UserDataRepository userDataRepository, TelegramClient telegramClient, Config config) {
+    public PomodoroServiceImpl(AsyncUserDataRepository userDataRepository, MessageDispatcher messageDispatcher,
+                               TimerEngine timerEngine, Config config, MetricsRegistry metrics) {
+        this(userDataRepository, messageDispatcher, timerEngine, null, config, metrics);
+    }
+
+    public PomodoroServiceImpl(AsyncUserDataRepository userDataRepository, MessageDispatcher messageDispatcher,
+                               TimerEngine timerEngine, DataBaseTimerQueue timerQueue, Config config,
+                               MetricsRegistry metrics) {
+        this(userDataRepository, messageDispatcher, timerEngine, timerQueue, null, config, metrics);
+    }
+
+    public PomodoroServiceImpl(AsyncUserDataRepository userDataRepository, MessageDispatcher messageDispatcher,
+                               TimerEngine timerEngine, DataBaseTimerQueue timerQueue, Leaderboard leaderboard,
+                               Config config, MetricsRegistry metrics) {
         this.userDataRepository = userDataRepository;
-        this.telegramClient = telegramClient;
+        this.messageDispatcher = messageDispatcher;
+        this.timerEngine = timerEngine;
+        this.timerQueue = timerQueue;
+        this.leaderboard = leaderboard;
         this.workDuration = config.workDuration();
         this.restDuration = config.restDuration();
+        this.exportGzip = config.exportGzip();
+        this.statsZone = ZoneId.of(config.statsTimezone());
+
+        this.timerLag = metrics.histogram("pomodoro_phase_timer_lag_seconds",
+                "Delay between the scheduled and actual end of a pomodoro phase");
+        metrics.gauge("pomodoro_active_timers", "Chats with a running pomodoro", activeSessions::size);
     }
 
     @Override
     public void startPomodoro(long chatId) {
-        if (activeTasks.containsKey(chatId)) {
-            sendMessage(chatId, "Таймер Pomodoro уже запущен.");
+        if (timerQueue != null) {
+            if (timerQueue.startPomodoro(chatId, LocalDateTime.now())) {
+                sendMessage(chatId, "Начинается рабочий период (" + workDuration + " мин).");
+            } else {
+                sendMessage(chatId, "Таймер Pomodoro уже запущен.");
+            }
             return;
         }
-
-        // Инициализируем список задач для данного чата
-        List<ScheduledFuture<?>> tasks = new ArrayList<>();
-        activeTasks.put(chatId, tasks);
-
-        // Запуск рабочего периода
-        sendMessage(chatId, "Начинается рабочий период (" + workDuration + " мин).");
-        userDataRepository.recordSession(chatId, "WORK", workDuration, LocalDateTime.now());
-
-        // Планируем завершение рабочего периода через workDuration минут
-        ScheduledFuture<?> workTask = scheduler.schedule(() -> {
-            userDataRepository.completeSession(chatId, "WORK", LocalDateTime.now());
-            sendMessage(chatId, "Пора отдыхать!");
-
-            // Запуск периода отдыха
-            userDataRepository.recordSession(chatId, "REST", restDuration, LocalDateTime.now());
-            sendMessage(chatId, "Период отдыха (" + restDuration + " мин) начался.");
-
-            // Планируем завершение отдыха через restDuration минут
-            ScheduledFuture<?> restTask = scheduler.schedule(() -> {
-                userDataRepository.completeSession(chatId, "REST", LocalDateTime.now());
-                sendMessageWithMotivationalImage(chatId, "Время поработать!");
-                activeTasks.remove(chatId);
-            }, restDuration, TimeUnit.MINUTES);
-
-            // Добавляем задачу для завершения отдыха
-            tasks.add(restTask);
-        }, workDuration, TimeUnit.MINUTES);
-
-        // Сохраняем задачу завершения рабочего периода
-        tasks.add(workTask);
+        // Запуск рабочего периода и планирование его завершения через workDuration минут
+        long workMillis = TimeUnit.MINUTES.toMillis(workDuration);
+        boolean started = activeSessions.start(chatId, ActiveSessions.Phase.WORK,
+                System.currentTimeMillis() + workMillis, (none, token) -> {
+                    SessionHandle session = SessionHandle.pending(chatId, "WORK", LocalDateTime.now());
+                    write(chatId, List.of(SessionEvent.record(session, workDuration)));
+                    return new ActiveSessions.Scheduled(session, scheduleWorkEnd(chatId, token, workMillis));
+                });
+        if (started) {
+            sendMessage(chatId, "Начинается рабочий период (" + workDuration + " мин).");
+        } else {
+            sendMessage(chatId, "Таймер Pomodoro уже запущен.");
+        }
     }
 
     @Override
     public void stopPomodoro(long chatId) {
-        List<ScheduledFuture<?>> tasks = activeTasks.get(chatId);
-        if (tasks != null && !tasks.isEmpty()) {
-            // Отменяем все запланированные задачи для данного чата
-            for (ScheduledFuture<?> future : tasks) {
-                future.cancel(false);
+        if (timerQueue != null) {
+            if (timerQueue.stopPomodoro(chatId, LocalDateTime.now())) {
+                sendMessage(chatId, "Таймер Pomodoro остановлен.");
+            } else {
+                sendMessage(chatId, "Нет активного таймера для остановки.");
             }
-            activeTasks.remove(chatId);
+            return;
+        }
+        // Таймер текущей фазы отменяется, её сессия закрывается как остановленная
+        LocalDateTime now = LocalDateTime.now();
+        if (activeSessions.stop(chatId, session -> watch(chatId, userDataRepository.markSessionStopped(session, now)))) {
             sendMessage(chatId, "Таймер Pomodoro остановлен.");
-            userDataRepository.markSessionStopped(chatId, LocalDateTime.now());
         } else {
             sendMessage(chatId, "Нет активного таймера для остановки.");
         }
     }
 
     @Override
-    public String getStatistics(long chatId) {
+    public CompletableFuture<String> getStatistics(long chatId) {
         return userDataRepository.getStatistics(chatId);
     }
 
+    /**
+     * Статистика за период: day - сегодня, week - с понедельника, month - с первого числа,
+     * одна дата - этот день, две даты - период между ними включительно. Без периода - за всё время.
+     */
     @Override
-    public String getAchievements(long chatId) {
+    public CompletableFuture<String> getStatistics(long chatId, String period) {
+        String[] parts = period.trim().split("\\s+");
+        if (parts[0].isEmpty()) {
+            return getStatistics(chatId);
+        }
+        LocalDate today = LocalDate.now(statsZone);
+        LocalDate from;
+        LocalDate to = today;
+        try {
+            switch (parts[0].toLowerCase()) {
+                case "day" -> from = today;
+                case "week" -> from = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case "month" -> from = today.withDayOfMonth(1);
+                default -> {
+                    from = LocalDate.parse(parts[0]);
+                    to = parts.length > 1 ? LocalDate.parse(parts[1]) : from;
+                }
+            }
+        } catch (DateTimeParseException e) {
+            return CompletableFuture.completedFuture(STATS_USAGE);
+        }
+        if (from.isAfter(to)) {
+            return CompletableFuture.completedFuture("Начало периода позже его конца.");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= UserDataRepository.MAX_STATISTICS_DAYS) {
+            return CompletableFuture.completedFuture(
+                    "Период не может быть длиннее " + UserDataRepository.MAX_STATISTICS_DAYS + " дней.");
+        }
+        return userDataRepository.getStatistics(chatId, from, to);
+    }
+
+    @Override
+    public CompletableFuture<String> getAchievements(long chatId) {
         return userDataRepository.getAchievements(chatId);
     }
 
     @Override
     public void exportStatistics(long chatId) {
-        byte[] csvData = userDataRepository.exportStatistics(chatId);
-        System.out.println("Экспорт статистики для chatId=" + chatId + " (размер файла " + csvData.length + " байт).");
+        // Выгружаем во временный файл, чтобы не держать всю историю в памяти, и отправляем его документом.
+        // Файл пишется и закрывается в потоке хранилища, удаляется - когда диспетчер закончит с ним работать
+        String fileName = "stats_" + chatId + (exportGzip ? ".csv.gz" : ".csv");
+        Path tempFile = null;
+        OutputStream out;
+        try {
+            tempFile = Files.createTempFile("stats_" + chatId + "_", exportGzip ? ".csv.gz" : ".csv");
+            out = openExportStream(tempFile);
+        } catch (IOException e) {
+            exportFailed(chatId, tempFile, e);
+            return;
+        }
+        Path exportFile = tempFile;
+        userDataRepository.exportStatistics(chatId, out).whenComplete((ignored, error) -> {
+            Throwable failure = error;
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                exportFailed(chatId, exportFile, failure);
+                return;
+            }
+            try {
+                System.out.println("Экспорт статистики для chatId=" + chatId + " (размер файла " + Files.size(exportFile) + " байт).");
+                SendDocument document = SendDocument.builder()
+                        .chatId(chatId)
+                        .document(new InputFile(exportFile.toFile(), fileName))
+                        .build();
+                messageDispatcher.sendDocument(chatId, document, () -> deleteQuietly(exportFile));
+            } catch (IOException | RuntimeException e) {
+                exportFailed(chatId, exportFile, e);
+            }
+        });
+    }
+
+    private void exportFailed(long chatId, Path tempFile, Throwable error) {
+        error.printStackTrace();
+        deleteQuietly(tempFile);
+        sendMessage(chatId, "Не удалось экспортировать статистику, попробуйте позже.");
+    }
+
+    /**
+     * Рейтинг отвечает из памяти, без запросов к хранилищу.
+     * Чаты в рейтинге не называются: показываются только последние цифры chatId, свой чат отмечается.
+     */
+    @Override
+    public String getLeaderboard(long chatId) {
+        if (leaderboard == null) {
+            return "Рейтинг недоступен.";
+        }
+        LocalDateTime now = LocalDateTime.now();
+        StringBuilder text = new StringBuilder();
+        appendLeaderboard(text, "за неделю", Leaderboard.Window.WEEK, chatId, now);
+        text.append("\n\n");
+        appendLeaderboard(text, "за всё время", Leaderboard.Window.ALL_TIME, chatId, now);
+        return text.toString();
+    }
+
+    private void appendLeaderboard(StringBuilder text, String title, Leaderboard.Window window, long chatId,
+                                   LocalDateTime now) {
+        text.append("🏆 Топ ").append(title).append(":");
+        List<Leaderboard.Place> top = leaderboard.top(window, now);
+        if (top.isEmpty()) {
+            text.append("\nПока никого.");
+        }
+        for (Leaderboard.Place place : top) {
+            text.append("\n").append(place.rank()).append(". Участник #").append(Math.abs(place.chatId() % 10_000))
+                    .append(" - ").append(place.minutes()).append(" мин");
+            if (place.chatId() == chatId) {
+                text.append(" (вы)");
+            }
+        }
+        Leaderboard.Place own = leaderboard.place(window, chatId, now);
+        if (own == null) {
+            text.append("\nВас пока нет в рейтинге.");
+        } else {
+            text.append("\nВаше место: ").append(own.rank()).append(" из ")
+                    .append(leaderboard.participants(window, now)).append(" (").append(own.minutes()).append(" мин)");
+        }
+    }
+
+    /**
+     * Восстановление таймеров после перезапуска.
+     * Незакрытые сессии загружаются одним проходом, для каждого чата берётся последняя из них. Остальные
+     * незакрытые сессии чата (остались от сбоев) закрываются как остановленные - не позже начала последней,
+     * иначе они читались бы при каждом запуске и копились в индексе незакрытых сессий. По последней:
+     * - фаза ещё идёт - таймер планируется на оставшееся время без лишних сообщений
+     * - фаза закончилась, пока бот был остановлен - она закрывается временем своего окончания,
+     *   после работы начинается отдых (тоже, возможно, уже закончившийся), пользователю отправляется уведомление
+     * Изменения по закончившимся фазам записываются пачками, уведомления уходят через диспетчер с его ограничениями частоты.
+     */
+    public void recoverSessions() {
+        if (timerQueue != null) {
+            // Таймеры в БД переживают перезапуск: закончившиеся за это время фазы просто сработают при первом опросе
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        LocalDateTime now = LocalDateTime.now();
+
+        // При запуске ждать хранилища можно: бот ещё не принимает обновления
+        Map<Long, OpenSession> latestSessions = new HashMap<>();
+        List<OpenSession> staleSessions = new ArrayList<>();
+        userDataRepository.forEachOpenSession(session -> {
+            OpenSession current = latestSessions.get(session.chatId());
+            if (current == null || session.startAt().isAfter(current.startAt())) {
+                latestSessions.put(session.chatId(), session);
+                if (current != null) {
+                    staleSessions.add(current);
+                }
+            } else {
+                staleSessions.add(session);
+            }
+        }).join();
+
+        List<SessionEvent> catchUpEvents = new ArrayList<>();
+        for (OpenSession stale : staleSessions) {
+            LocalDateTime phaseEnd = stale.startAt().plusMinutes(stale.durationMinutes());
+            LocalDateTime latestStart = latestSessions.get(stale.chatId()).startAt();
+            catchUpEvents.add(SessionEvent.stop(stale.handle(), phaseEnd.isBefore(latestStart) ? phaseEnd : latestStart));
+        }
+        List<OpenSession> catchUpWork = new ArrayList<>();
+        List<Runnable> timersToSchedule = new ArrayList<>();
+        Map<Long, String> catchUpMessages = new LinkedHashMap<>();
+
+        for (OpenSession session : latestSessions.values()) {
+            long chatId = session.chatId();
+            boolean work = "WORK".equalsIgnoreCase(session.sessionType());
+            LocalDateTime phaseEnd = session.startAt().plusMinutes(session.durationMinutes());
+
+            if (phaseEnd.isAfter(now)) {
+                // Фаза ещё идёт - досчитываем оставшееся время
+                long delayMillis = Duration.between(now, phaseEnd).toMillis();
+                ActiveSessions.Phase phase = work ? ActiveSessions.Phase.WORK : ActiveSessions.Phase.REST;
+                long deadlineMillis = epochMillis(phaseEnd);
+                SessionHandle openSession = session.handle();
+                timersToSchedule.add(() -> activeSessions.start(chatId, phase, deadlineMillis,
+                        (none, token) -> new ActiveSessions.Scheduled(openSession, work
+                                ? scheduleWorkEnd(chatId, token, delayMillis)
+                                : scheduleRestEnd(chatId, token, delayMillis))));
+                continue;
+            }
+
+            // Фаза закончилась, пока бот был остановлен
+            catchUpEvents.add(SessionEvent.complete(session.handle(), phaseEnd));
+            if (work) {
+                catchUpWork.add(session);
+                LocalDateTime restEnd = phaseEnd.plusMinutes(restDuration);
+                // Хэндл отдыха получит id, когда пачка будет записана - раньше, чем запустится его таймер
+                SessionHandle restSession = SessionHandle.pending(chatId, "REST", phaseEnd);
+                catchUpEvents.add(SessionEvent.record(restSession, restDuration));
+                if (restEnd.isAfter(now)) {
+                    long delayMillis = Duration.between(now, restEnd).toMillis();
+                    long deadlineMillis = epochMillis(restEnd);
+                    timersToSchedule.add(() -> activeSessions.start(chatId, ActiveSessions.Phase.REST, deadlineMillis,
+                            (none, token) -> new ActiveSessions.Scheduled(restSession,
+                                    scheduleRestEnd(chatId, token, delayMillis))));
+                    catchUpMessages.put(chatId, "Рабочий период завершился, пока бот был недоступен. Пора отдыхать! "
+                            + "Отдых продлится ещё " + TimeUnit.MILLISECONDS.toMinutes(delayMillis) + " мин.");
+                    continue;
+                }
+                // Хэндл получит id с записью отдыха - в этой же или предыдущей пачке
+                catchUpEvents.add(SessionEvent.complete(restSession, restEnd));
+            }
+            catchUpMessages.put(chatId, "Pomodoro завершился, пока бот был недоступен. Время поработать!");
+        }
+
+        // Сначала записываем завершённые фазы, затем запускаем таймеры, которые на эти записи опираются
+        for (int from = 0; from < catchUpEvents.size(); from += RECOVERY_BATCH_SIZE) {
+            userDataRepository.applyBatch(catchUpEvents.subList(from, Math.min(from + RECOVERY_BATCH_SIZE, catchUpEvents.size())))
+                    .join();
+        }
+        for (OpenSession session : catchUpWork) {
+            recordFocus(session.chatId(), session.durationMinutes(),
+                    session.startAt().plusMinutes(session.durationMinutes()));
+        }
+        timersToSchedule.forEach(Runnable::run);
+
+        catchUpMessages.forEach(this::sendMessage);
+
+        System.out.println("Восстановлено таймеров: " + timersToSchedule.size()
+                + ", завершено фаз задним числом: " + (catchUpEvents.size() - staleSessions.size())
+                + ", закрыто старых незакрытых сессий: " + staleSessions.size()
+                + " за " + (System.currentTimeMillis() - startedAt) + " мс.");
+    }
+
+    // ───────── Цепочка фаз ─────────
+
+    // Таймеры фаз получают номер записи реестра: после остановки или перезапуска pomodoro они ничего не меняют.
+    // Переходы только ставят записи в очередь хранилища: поток таймера не ждёт ввода-вывода. Хэндл новой фазы
+    // получит id, когда её сессия будет записана; закрытие по нему хранилище выполнит после этой записи
+
+    private TimerHandle scheduleWorkEnd(long chatId, int token, long delayMillis) {
+        long dueAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        return timerEngine.schedule(() -> {
+            timerLag.observeSince(dueAtNanos);
+            long restMillis = TimeUnit.MINUTES.toMillis(restDuration);
+            activeSessions.advance(chatId, token, ActiveSessions.Phase.REST, System.currentTimeMillis() + restMillis,
+                    (workSession, restToken) -> {
+                        // Завершение работы и запуск периода отдыха - одной пачкой
+                        LocalDateTime now = LocalDateTime.now();
+                        SessionHandle restSession = SessionHandle.pending(chatId, "REST", now);
+                        write(chatId, List.of(SessionEvent.complete(workSession, now),
+                                SessionEvent.record(restSession, restDuration)));
+                        onWorkFinished(chatId);
+
+                        // Планируем завершение отдыха через restDuration минут
+                        return new ActiveSessions.Scheduled(restSession, scheduleRestEnd(chatId, restToken, restMillis));
+                    });
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private TimerHandle scheduleRestEnd(long chatId, int token, long delayMillis) {
+        long dueAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        return timerEngine.schedule(() -> {
+            timerLag.observeSince(dueAtNanos);
+            activeSessions.finish(chatId, token, restSession -> {
+                watch(chatId, userDataRepository.completeSession(restSession, LocalDateTime.now()));
+                onRestFinished(chatId);
+            });
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Смена фаз (уведомления и рейтинг) - общая для таймеров в памяти и в БД
+
+    @Override
+    public void onWorkFinished(long chatId) {
+        recordFocus(chatId, workDuration, LocalDateTime.now());
+        sendMessage(chatId, "Пора отдыхать!");
+        sendMessage(chatId, "Период отдыха (" + restDuration + " мин) начался.");
+    }
+
+    @Override
+    public void onRestFinished(long chatId) {
+        sendMessageWithMotivationalImage(chatId, "Время поработать!");
+    }
+
+    /**
+     * Уведомление о новых достижениях; вызывается хранилищем после сохранения завершённой сессии.
+     */
+    @Override
+    public void onAwarded(long chatId, List<Award> awards) {
+        StringBuilder text = new StringBuilder();
+        for (Award award : awards) {
+            if (!text.isEmpty()) {
+                text.append('\n');
+            }
+            text.append("🏆 Новое достижение: ").append(award.name()).append(" - ").append(award.description());
+        }
+        sendMessage(chatId, text.toString());
+    }
+
+    private void write(long chatId, List<SessionEvent> events) {
+        watch(chatId, userDataRepository.applyBatch(events));
+    }
+
+    // Ошибку фоновой записи некому вернуть - она только пишется в лог
+    private static void watch(long chatId, CompletableFuture<Void> write) {
+        write.whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.out.println("Не удалось записать сессию для chatId=" + chatId + ": " + error);
+            }
+        });
+    }
+
+    private static long epochMillis(LocalDateTime at) {
+        return at.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private void recordFocus(long chatId, long minutes, LocalDateTime completedAt) {
+        if (leaderboard != null) {
+            leaderboard.record(chatId, minutes, completedAt);
+        }
     }
 
     // ───────── Вспомогательные методы для отправки сообщений ─────────
 
     private void sendMessage(long chatId, String text) {
-        SendMessage message = SendMessage.builder()
-                .chatId(chatId)
-                .text(text)
-                .build();
+        messageDispatcher.send(chatId, text);
+    }
+
+    private OutputStream openExportStream(Path file) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+        return exportGzip ? new GZIPOutputStream(out) : out;
+    }
+
+    private void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
         try {
-            telegramClient.execute(message);
-        } catch (TelegramApiException e) {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -0,0 +1,249 @@
+package timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Движок на хэшированном колесе таймеров.
+ * Колесо - массив корзин, стрелка переходит на следующую корзину раз в tickMillis.
+ * Таймер попадает в корзину по номеру тика своего срабатывания и хранит число оставшихся оборотов,
+ * поэтому планирование, отмена и срабатывание стоят O(1), а не O(log n), как в очереди с приоритетами.
+ *
+ * Колесо обслуживает один поток, сами задачи передаются в отдельный пул,
+ * чтобы медленный ввод-вывод в задаче не задерживал срабатывание остальных таймеров.
+ * Точность срабатывания - один тик.
+ */
+public class HashedWheelTimerEngine implements TimerEngine {
+    // Сколько новых таймеров переносить в колесо за один тик, чтобы тик не затягивался
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startNanos;
+
+    // Новые и отменённые таймеры передаются потоку колеса через очереди
+    private final Queue<WheelTimeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final ExecutorService workers;
+    private final Thread wheelThread;
+    private final TimerCounters counters = new TimerCounters();
+    private volatile boolean closed;
+    // Текущий тик, меняется только потоком колеса
+    private long tick;
+
+    public HashedWheelTimerEngine(long tickMillis, int wheelSize, int workerThreads) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(wheelSize, 1) * 2 - 1);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "timer-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.wheelThread = new Thread(this::run, "timer-wheel");
+        wheelThread.setDaemon(true);
+        wheelThread.start();
+    }
+
+    @Override
+    public TimerHandle schedule(Runnable task, long delay, TimeUnit unit) {
+        if (closed) {
+            throw new IllegalStateException("Timer engine is closed");
+        }
+        long deadline = System.nanoTime() - startNanos + unit.toNanos(Math.max(0, delay));
+        WheelTimeout timeout = new WheelTimeout(task, deadline);
+        counters.scheduled();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public TimerStats stats() {
+        return counters.snapshot();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(wheelThread);
+        try {
+            wheelThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+    }
+
+    // ───────── Поток колеса ─────────
+
+    private void run() {
+        while (!closed) {
+            long tickDeadline = tickNanos * (tick + 1);
+            long now = waitForTick(tickDeadline);
+            if (closed) {
+                break;
+            }
+            counters.tick(now - tickDeadline);
+
+            removeCancelled();
+            transferNewTimeouts();
+            wheel[(int) (tick & mask)].expire(now);
+            tick++;
+        }
+    }
+
+    /**
+     * Ждёт наступления тика, возвращает текущее время относительно старта колеса.
+     */
+    private long waitForTick(long tickDeadline) {
+        while (true) {
+            long now = System.nanoTime() - startNanos;
+            long sleepNanos = tickDeadline - now;
+            if (sleepNanos <= 0 || closed) {
+                return now;
+            }
+            LockSupport.parkNanos(this, sleepNanos);
+        }
+    }
+
+    private void removeCancelled() {
+        WheelTimeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferNewTimeouts() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            WheelTimeout timeout = newTimeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() == WheelTimeout.CANCELLED) {
+                continue;
+            }
+
+            long expirationTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+            // Таймер, время которого уже прошло, срабатывает в текущем тике
+            long targetTick = Math.max(expirationTick, tick);
+            wheel[(int) (targetTick & mask)].add(timeout);
+        }
+    }
+
+    private void fire(WheelTimeout timeout) {
+        if (!timeout.state.compareAndSet(WheelTimeout.PENDING, WheelTimeout.EXPIRED)) {
+            return;
+        }
+        workers.execute(() -> {
+            counters.fired(System.nanoTime() - startNanos - timeout.deadline);
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // ───────── Таймер и корзина ─────────
+
+    private class WheelTimeout implements TimerHandle {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // Поля ниже меняются только потоком колеса
+        private long remainingRounds;
+        private Bucket bucket;
+        private WheelTimeout next;
+        private WheelTimeout prev;
+
+        WheelTimeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            counters.cancelled();
+            cancelledTimeouts.add(this);
+            return true;
+        }
+    }
+
+    /**
+     * Корзина колеса - двусвязный список таймеров. Используется только потоком колеса.
+     */
+    private class Bucket {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire(long now) {
+            WheelTimeout timeout = head;
+            while (timeout != null) {
+                WheelTimeout next = timeout.next;
+                if (timeout.state.get() == WheelTimeout.CANCELLED) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    fire(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(WheelTimeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package timer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Движок на ScheduledExecutorService: задачи выполняются прямо в потоках планировщика.
+ */
+public class ScheduledExecutorTimerEngine implements TimerEngine {
+    private final ScheduledExecutorService scheduler;
+    private final TimerCounters counters = new TimerCounters();
+
+    public ScheduledExecutorTimerEngine(int threads) {
+        this.scheduler = Executors.newScheduledThreadPool(threads);
+    }
+
+    @Override
+    public TimerHandle schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(delay);
+        counters.scheduled();
+        ScheduledFuture<?> future = scheduler.schedule(() -> {
+            counters.fired(System.nanoTime() - deadline);
+            task.run();
+        }, delay, unit);
+
+        return () -> {
+            boolean cancelled = future.cancel(false);
+            if (cancelled) {
+                counters.cancelled();
+            }
+            return cancelled;
+        };
+    }
+
+    @Override
+    public TimerStats stats() {
+        return counters.snapshot();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,53 @@
+package timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Общие счётчики движков таймеров.
+ */
+class TimerCounters {
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder totalLagNanos = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private volatile long lastTickLagNanos;
+
+    void scheduled() {
+        scheduled.increment();
+    }
+
+    void cancelled() {
+        cancelled.increment();
+    }
+
+    void fired(long lagNanos) {
+        fired.increment();
+        long lag = Math.max(0, lagNanos);
+        totalLagNanos.add(lag);
+        maxLagNanos.accumulateAndGet(lag, Math::max);
+    }
+
+    void tick(long lagNanos) {
+        lastTickLagNanos = Math.max(0, lagNanos);
+    }
+
+    TimerStats snapshot() {
+        long scheduledCount = scheduled.sum();
+        long firedCount = fired.sum();
+        long cancelledCount = cancelled.sum();
+        return new TimerStats(
+                scheduledCount,
+                firedCount,
+                cancelledCount,
+                Math.max(0, scheduledCount - firedCount - cancelledCount),
+                firedCount == 0 ? 0 : totalLagNanos.sum() / NANOS_PER_MILLI / firedCount,
+                maxLagNanos.get() / NANOS_PER_MILLI,
+                lastTickLagNanos / NANOS_PER_MILLI
+        );
+    }
+}
@@ -0,0 +1,18 @@
+package timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Движок таймеров: выполняет задачу один раз через заданную задержку.
+ */
+public interface TimerEngine extends AutoCloseable {
+    // Планирование задачи, возвращает хэндл для отмены
+    TimerHandle schedule(Runnable task, long delay, TimeUnit unit);
+
+    // Снимок счётчиков движка
+    TimerStats stats();
+
+    // Остановка движка, незапущенные задачи отбрасываются
+    @Override
+    void close();
+}
@@ -0,0 +1,9 @@
+package timer;
+
+/**
+ * Хэндл запланированной задачи.
+ */
+public interface TimerHandle {
+    // Отмена задачи. Возвращает false, если задача уже запущена или отменена
+    boolean cancel();
+}
@@ -0,0 +1,16 @@
+package timer;
+
+/**
+ * Снимок счётчиков движка таймеров.
+ * Задержка срабатывания (lag) - разница между запланированным и фактическим временем запуска задачи, в миллисекундах.
+ */
+public record TimerStats(
+        long scheduledCount,
+        long firedCount,
+        long cancelledCount,
+        long pendingCount,
+        double averageLagMillis,
+        double maxLagMillis,
+        double lastTickLagMillis
+) {
+}
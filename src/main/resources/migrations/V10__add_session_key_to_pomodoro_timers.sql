@@ -0,0 +1,9 @@
+-- Ключ текущей сессии таймера (первичный ключ user_sessions - id и start_at): срабатывание и остановка
+-- закрывают сессию одной строкой по этому ключу, а не поиском открытых сессий чата.
+-- У таймеров, запущенных до миграции, ключа нет - их сессии закрываются по-старому
+ALTER TABLE public.pomodoro_timers
+    ADD COLUMN session_id BIGINT,
+    ADD COLUMN session_start_at TIMESTAMP;
+
+COMMENT ON COLUMN public.pomodoro_timers.session_id IS 'Id сессии текущей фазы';
+COMMENT ON COLUMN public.pomodoro_timers.session_start_at IS 'Время начала сессии текущей фазы (часть первичного ключа user_sessions)';
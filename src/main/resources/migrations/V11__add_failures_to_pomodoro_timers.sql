@@ -0,0 +1,6 @@
+-- Число неудачных срабатываний таймера подряд: сбойная строка откладывается с растущей задержкой,
+-- чтобы не забираться первой в каждой пачке. Удачное срабатывание сбрасывает счётчик
+ALTER TABLE public.pomodoro_timers
+    ADD COLUMN failures INT NOT NULL DEFAULT 0;
+
+COMMENT ON COLUMN public.pomodoro_timers.failures IS 'Неудачных срабатываний подряд';
@@ -0,0 +1,31 @@
+-- Агрегаты статистики по чату, обновляются вместе с завершением сессии
+CREATE TABLE public.user_statistics (
+    chat_id BIGINT PRIMARY KEY,
+    work_minutes BIGINT NOT NULL DEFAULT 0,
+    rest_minutes BIGINT NOT NULL DEFAULT 0,
+    work_cycles INT NOT NULL DEFAULT 0,
+    rest_cycles INT NOT NULL DEFAULT 0
+);
+
+COMMENT ON TABLE public.user_statistics IS 'Накопленная статистика пользователя по завершённым сессиям';
+COMMENT ON COLUMN public.user_statistics.chat_id IS 'Id чата пользователя';
+COMMENT ON COLUMN public.user_statistics.work_minutes IS 'Рабочее время, мин';
+COMMENT ON COLUMN public.user_statistics.rest_minutes IS 'Время отдыха, мин';
+COMMENT ON COLUMN public.user_statistics.work_cycles IS 'Количество рабочих циклов';
+COMMENT ON COLUMN public.user_statistics.rest_cycles IS 'Количество циклов отдыха';
+
+-- Разовое заполнение агрегатов по уже накопленной истории
+INSERT INTO public.user_statistics (chat_id, work_minutes, rest_minutes, work_cycles, rest_cycles)
+SELECT chat_id,
+       COALESCE(SUM(duration) FILTER (WHERE UPPER("type") = 'WORK'), 0),
+       COALESCE(SUM(duration) FILTER (WHERE UPPER("type") = 'REST'), 0),
+       COUNT(*) FILTER (WHERE UPPER("type") = 'WORK'),
+       COUNT(*) FILTER (WHERE UPPER("type") = 'REST')
+FROM public.user_sessions
+WHERE completed AND stop_at IS NOT NULL
+GROUP BY chat_id
+ON CONFLICT (chat_id) DO UPDATE
+SET work_minutes = EXCLUDED.work_minutes,
+    rest_minutes = EXCLUDED.rest_minutes,
+    work_cycles = EXCLUDED.work_cycles,
+    rest_cycles = EXCLUDED.rest_cycles;
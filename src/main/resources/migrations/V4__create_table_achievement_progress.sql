@@ -0,0 +1,19 @@
+-- Прогресс достижений: счётчики и серия дней, обновляются при завершении каждой сессии
+CREATE TABLE public.user_achievement_progress (
+    chat_id BIGINT PRIMARY KEY,
+    work_cycles BIGINT NOT NULL DEFAULT 0,
+    work_minutes BIGINT NOT NULL DEFAULT 0,
+    current_streak INT NOT NULL DEFAULT 0,
+    longest_streak INT NOT NULL DEFAULT 0,
+    last_work_day DATE,
+    awarded_mask BIGINT NOT NULL DEFAULT 0
+);
+
+COMMENT ON TABLE public.user_achievement_progress IS 'Прогресс достижений пользователя';
+COMMENT ON COLUMN public.user_achievement_progress.current_streak IS 'Текущая серия дней с рабочими циклами';
+COMMENT ON COLUMN public.user_achievement_progress.longest_streak IS 'Самая длинная серия дней с рабочими циклами';
+COMMENT ON COLUMN public.user_achievement_progress.last_work_day IS 'Последний день с рабочим циклом';
+COMMENT ON COLUMN public.user_achievement_progress.awarded_mask IS 'Битовая маска полученных достижений по порядку правил';
+
+-- Достижение выдаётся один раз, повторная выдача (например, при пересчёте) игнорируется
+CREATE UNIQUE INDEX user_achievements_chat_id_name_idx ON public.user_achievements (chat_id, achievement_name);
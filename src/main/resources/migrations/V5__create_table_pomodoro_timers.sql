@@ -0,0 +1,17 @@
+-- Таймеры фаз Pomodoro для распределённого режима: по строке на чат с запущенным таймером.
+-- Узлы забирают наступившие таймеры через FOR UPDATE SKIP LOCKED; блокировка строки и есть захват,
+-- поэтому при падении узла его транзакция откатывается и таймер достаётся другому узлу
+CREATE TABLE public.pomodoro_timers (
+    chat_id BIGINT PRIMARY KEY,
+    phase VARCHAR(10) NOT NULL,
+    due_at TIMESTAMP NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+COMMENT ON TABLE public.pomodoro_timers IS 'Запущенные таймеры Pomodoro';
+COMMENT ON COLUMN public.pomodoro_timers.chat_id IS 'Id чата пользователя';
+COMMENT ON COLUMN public.pomodoro_timers.phase IS 'Текущая фаза: WORK или REST';
+COMMENT ON COLUMN public.pomodoro_timers.due_at IS 'Время окончания текущей фазы';
+COMMENT ON COLUMN public.pomodoro_timers.created_at IS 'Время запуска таймера';
+
+CREATE INDEX pomodoro_timers_due_at_idx ON public.pomodoro_timers (due_at);
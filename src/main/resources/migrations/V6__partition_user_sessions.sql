@@ -0,0 +1,67 @@
+-- Помесячное секционирование user_sessions по start_at: старые месяцы выносятся в архив целыми секциями.
+-- Первичный ключ секционированной таблицы обязан включать ключ секционирования, поэтому он (id, start_at)
+ALTER TABLE public.user_sessions RENAME TO user_sessions_unpartitioned;
+ALTER TABLE public.user_sessions_unpartitioned RENAME CONSTRAINT user_sessions_pkey TO user_sessions_unpartitioned_pkey;
+
+CREATE TABLE public.user_sessions (
+	id BIGINT GENERATED ALWAYS AS IDENTITY,
+	chat_id BIGINT NOT NULL,
+	"type" varchar NOT NULL,
+	duration int8 NOT NULL,
+	start_at timestamp NOT NULL,
+	stop_at timestamp,
+	completed boolean DEFAULT false,
+	PRIMARY KEY (id, start_at)
+) PARTITION BY RANGE (start_at);
+
+COMMENT ON TABLE public.user_sessions IS 'Таблица сессий пользователя - история запуска Pomodoro, по секции на месяц';
+
+-- Column comments
+COMMENT ON COLUMN public.user_sessions.id IS 'Id сессии пользователя';
+COMMENT ON COLUMN public.user_sessions.chat_id IS 'Id чата пользователя';
+COMMENT ON COLUMN public.user_sessions."type" IS 'Тип сессии';
+COMMENT ON COLUMN public.user_sessions.duration IS 'Продолжительность сессии';
+COMMENT ON COLUMN public.user_sessions.start_at IS 'Время начала сессии';
+COMMENT ON COLUMN public.user_sessions.stop_at IS 'Время окончания сессии';
+COMMENT ON COLUMN public.user_sessions.completed IS 'Признак завершения сессии';
+
+-- Строки вне созданных месяцев не теряются, а попадают сюда
+CREATE TABLE public.user_sessions_default PARTITION OF public.user_sessions DEFAULT;
+
+-- Секция месяца user_sessions_YYYY_MM. Строки этого месяца, уже попавшие в секцию по умолчанию,
+-- переносятся в новую секцию - иначе присоединить её нельзя
+CREATE OR REPLACE FUNCTION public.create_user_sessions_partition(month_start DATE) RETURNS TEXT AS $$
+DECLARE
+    from_at TIMESTAMP := date_trunc('month', month_start);
+    to_at TIMESTAMP := date_trunc('month', month_start) + INTERVAL '1 month';
+    partition_name TEXT := 'user_sessions_' || to_char(month_start, 'YYYY_MM');
+BEGIN
+    IF to_regclass('public.' || partition_name) IS NOT NULL THEN
+        RETURN partition_name;
+    END IF;
+    EXECUTE format('CREATE TABLE public.%I (LIKE public.user_sessions INCLUDING DEFAULTS)', partition_name);
+    EXECUTE format('WITH moved AS (DELETE FROM public.user_sessions_default WHERE start_at >= %L AND start_at < %L RETURNING *) '
+                   'INSERT INTO public.%I SELECT * FROM moved', from_at, to_at, partition_name);
+    EXECUTE format('ALTER TABLE public.user_sessions ATTACH PARTITION public.%I FOR VALUES FROM (%L) TO (%L)',
+                   partition_name, from_at, to_at);
+    RETURN partition_name;
+END
+$$ LANGUAGE plpgsql;
+
+-- Секции под накопленную историю, текущий и следующий месяц
+SELECT public.create_user_sessions_partition(month_start)
+FROM (
+    SELECT DISTINCT date_trunc('month', start_at)::date AS month_start FROM public.user_sessions_unpartitioned
+    UNION
+    SELECT generate_series(date_trunc('month', now()), date_trunc('month', now()) + INTERVAL '1 month', INTERVAL '1 month')::date
+) months;
+
+INSERT INTO public.user_sessions (id, chat_id, "type", duration, start_at, stop_at, completed)
+OVERRIDING SYSTEM VALUE
+SELECT id, chat_id, "type", duration, start_at, stop_at, completed
+FROM public.user_sessions_unpartitioned;
+
+SELECT setval(pg_get_serial_sequence('public.user_sessions', 'id'), COALESCE(MAX(id), 0) + 1, false)
+FROM public.user_sessions;
+
+DROP TABLE public.user_sessions_unpartitioned;
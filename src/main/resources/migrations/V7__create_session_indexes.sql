@@ -0,0 +1,14 @@
+-- Индексы под запросы хранилища. Индекс секционированной таблицы создаётся в каждой секции,
+-- в том числе в секциях, присоединённых позже
+
+-- Открытые сессии: завершение и остановка (chat_id, type, stop_at IS NULL) и восстановление при запуске.
+-- Открытых сессий - не больше одной на чат, поэтому индекс маленький и не растёт вместе с историей
+CREATE INDEX user_sessions_open_idx ON public.user_sessions (chat_id, "type") WHERE stop_at IS NULL;
+
+-- Завершённые сессии для пересчёта статистики и достижений: покрывающий индекс,
+-- история чата читается из индекса уже отсортированной по stop_at, без обращения к таблице
+CREATE INDEX user_sessions_completed_idx ON public.user_sessions (chat_id, stop_at) INCLUDE ("type", duration)
+    WHERE completed;
+
+-- Экспорт истории чата, от новых сессий к старым
+CREATE INDEX user_sessions_chat_id_start_at_idx ON public.user_sessions (chat_id, start_at);
@@ -0,0 +1,17 @@
+-- Итоги сессий, вынесенных в архив вместе со старыми секциями user_sessions.
+-- Сами агрегаты user_statistics при архивации не меняются; эта таблица нужна, чтобы пересчёт
+-- статистики по истории (backfill-stats) учитывал и то, чего в user_sessions уже нет
+CREATE TABLE public.user_statistics_archived (
+    chat_id BIGINT PRIMARY KEY,
+    work_minutes BIGINT NOT NULL DEFAULT 0,
+    rest_minutes BIGINT NOT NULL DEFAULT 0,
+    work_cycles INT NOT NULL DEFAULT 0,
+    rest_cycles INT NOT NULL DEFAULT 0
+);
+
+COMMENT ON TABLE public.user_statistics_archived IS 'Итоги сессий, перенесённых в архив';
+COMMENT ON COLUMN public.user_statistics_archived.chat_id IS 'Id чата пользователя';
+COMMENT ON COLUMN public.user_statistics_archived.work_minutes IS 'Минуты работы в архивных сессиях';
+COMMENT ON COLUMN public.user_statistics_archived.rest_minutes IS 'Минуты отдыха в архивных сессиях';
+COMMENT ON COLUMN public.user_statistics_archived.work_cycles IS 'Рабочие циклы в архивных сессиях';
+COMMENT ON COLUMN public.user_statistics_archived.rest_cycles IS 'Циклы отдыха в архивных сессиях';
@@ -0,0 +1,22 @@
+-- Дневные корзины статистики: итоги завершённых сессий чата за каждый день.
+-- День - дата окончания сессии в часовом поясе статистики (STATS_TIMEZONE); он вычисляется приложением,
+-- поэтому корзины по уже накопленной истории заполняет команда backfill-stats, а не эта миграция.
+-- Статистика за период читает не больше нескольких сотен строк по первичному ключу, сколько бы ни было истории;
+-- при архивации старых секций user_sessions корзины остаются
+CREATE TABLE public.user_daily_statistics (
+    chat_id BIGINT NOT NULL,
+    day DATE NOT NULL,
+    work_minutes INT NOT NULL DEFAULT 0,
+    rest_minutes INT NOT NULL DEFAULT 0,
+    work_cycles INT NOT NULL DEFAULT 0,
+    rest_cycles INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (chat_id, day)
+);
+
+COMMENT ON TABLE public.user_daily_statistics IS 'Итоги завершённых сессий чата по дням';
+COMMENT ON COLUMN public.user_daily_statistics.chat_id IS 'Id чата пользователя';
+COMMENT ON COLUMN public.user_daily_statistics.day IS 'День окончания сессий в часовом поясе статистики';
+COMMENT ON COLUMN public.user_daily_statistics.work_minutes IS 'Рабочее время за день, мин';
+COMMENT ON COLUMN public.user_daily_statistics.rest_minutes IS 'Время отдыха за день, мин';
+COMMENT ON COLUMN public.user_daily_statistics.work_cycles IS 'Рабочие циклы за день';
+COMMENT ON COLUMN public.user_daily_statistics.rest_cycles IS 'Циклы отдыха за день';
@@ -0,0 +1,113 @@
+package achievement;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AchievementEngineTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 9, 0);
+
+    private final AchievementEngine engine = AchievementEngine.withDefaultRules();
+
+    @Test
+    void incrementalProgressMatchesRecomputeAfterEverySession() {
+        for (int seed = 0; seed < 20; seed++) {
+            List<CompletedSession> sessions = randomHistory(new Random(seed), 600);
+            AchievementProgress progress = new AchievementProgress();
+            for (int i = 0; i < sessions.size(); i++) {
+                CompletedSession session = sessions.get(i);
+                engine.onSessionCompleted(progress, session.sessionType(), session.durationMinutes(), session.stopAt());
+                assertEquals(engine.evaluateHistory(sessions.subList(0, i + 1)), progress,
+                        "seed " + seed + ", сессия " + i);
+            }
+        }
+    }
+
+    @Test
+    void awardIsGivenAtSessionThatReachedThreshold() {
+        List<AchievementRule> rules = AchievementRules.defaults();
+        for (int seed = 0; seed < 20; seed++) {
+            List<CompletedSession> sessions = randomHistory(new Random(seed), 600);
+            List<Award> expected = new ArrayList<>();
+            for (int i = 0; i < sessions.size(); i++) {
+                AchievementProgress before = engine.evaluateHistory(sessions.subList(0, i));
+                AchievementProgress after = engine.evaluateHistory(sessions.subList(0, i + 1));
+                for (int rule = 0; rule < rules.size(); rule++) {
+                    long bit = 1L << rule;
+                    if ((before.awardedMask() & bit) == 0 && (after.awardedMask() & bit) != 0) {
+                        expected.add(new Award(rules.get(rule).name(), rules.get(rule).description(),
+                                sessions.get(i).stopAt()));
+                    }
+                }
+            }
+            assertEquals(expected, engine.replay(sessions).awards(), "seed " + seed);
+        }
+    }
+
+    @Test
+    void replayOrdersSessionsByStopTime() {
+        List<CompletedSession> sessions = randomHistory(new Random(7), 400);
+        List<CompletedSession> shuffled = new ArrayList<>(sessions);
+        Collections.shuffle(shuffled, new Random(7));
+        assertEquals(engine.replay(sessions), engine.replay(shuffled));
+    }
+
+    @Test
+    void dailyHistoryEarnsEveryDefaultAchievement() {
+        List<CompletedSession> sessions = new ArrayList<>();
+        for (int day = 0; day < 40; day++) {
+            for (int cycle = 0; cycle < 4; cycle++) {
+                sessions.add(new CompletedSession("WORK", 50, START.plusDays(day).plusHours(cycle)));
+                sessions.add(new CompletedSession("REST", 10, START.plusDays(day).plusHours(cycle).plusMinutes(50)));
+            }
+        }
+        AchievementEngine.Replay replay = engine.replay(sessions);
+        int rules = AchievementRules.defaults().size();
+        assertEquals((1L << rules) - 1, replay.progress().awardedMask());
+        assertEquals(rules, replay.awards().size());
+        assertEquals(40, replay.progress().currentStreak());
+        assertEquals(engine.evaluateHistory(sessions), replay.progress());
+    }
+
+    @Test
+    void missedDayRestartsStreak() {
+        List<CompletedSession> sessions = new ArrayList<>();
+        for (int day : new int[]{0, 1, 2, 3, 5, 6}) {
+            sessions.add(new CompletedSession("WORK", 25, START.plusDays(day)));
+        }
+        // Отдых не продлевает серию
+        sessions.add(new CompletedSession("REST", 5, START.plusDays(7)));
+        AchievementProgress progress = engine.replay(sessions).progress();
+        assertEquals(2, progress.currentStreak());
+        assertEquals(4, progress.longestStreak());
+        assertEquals(START.plusDays(6).toLocalDate(), progress.lastWorkDay());
+        assertEquals(engine.evaluateHistory(sessions), progress);
+    }
+
+    /**
+     * Завершённые сессии по возрастанию времени: несколько в день, с пропусками дней и долгими сериями.
+     */
+    private static List<CompletedSession> randomHistory(Random random, int sessions) {
+        List<CompletedSession> history = new ArrayList<>();
+        LocalDateTime at = START;
+        for (int i = 0; i < sessions; i++) {
+            int dice = random.nextInt(100);
+            if (dice < 70) {
+                at = at.plusMinutes(30);
+            } else if (dice < 95) {
+                at = at.plusDays(1);
+            } else {
+                at = at.plusDays(2 + random.nextInt(3));
+            }
+            String type = random.nextInt(3) == 0 ? "REST" : "WORK";
+            history.add(new CompletedSession(type, 1 + random.nextInt(60), at));
+        }
+        return history;
+    }
+}
@@ -0,0 +1,144 @@
+package bot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(60)
+class ParallelUpdateConsumerTest {
+
+    @Test
+    void keepsPerChatOrderWhileChatsRunInParallel() throws Exception {
+        int chats = 50;
+        int perChat = 200;
+        Map<Long, List<Integer>> processed = new ConcurrentHashMap<>();
+        Set<Long> running = ConcurrentHashMap.newKeySet();
+        AtomicInteger overlaps = new AtomicInteger();
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+
+        ParallelUpdateConsumer consumer = new ParallelUpdateConsumer(update -> {
+            long chatId = Updates.chatId(update);
+            if (!running.add(chatId)) {
+                overlaps.incrementAndGet();
+            }
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            if (ThreadLocalRandom.current().nextInt(20) == 0) {
+                sleep(1);
+            }
+            processed.computeIfAbsent(chatId, id -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(Integer.parseInt(update.getMessage().getText()));
+            concurrent.decrementAndGet();
+            running.remove(chatId);
+        }, 8, 64);
+
+        // Обновления чатов перемешаны, как в ответе getUpdates; передаются пачками по 100
+        List<Update> updates = new ArrayList<>();
+        int updateId = 0;
+        for (int sequence = 0; sequence < perChat; sequence++) {
+            for (long chatId = 1; chatId <= chats; chatId++) {
+                updates.add(Updates.text(updateId++, chatId, String.valueOf(sequence)));
+            }
+        }
+        for (int from = 0; from < updates.size(); from += 100) {
+            consumer.consume(updates.subList(from, from + 100));
+        }
+        awaitDrained(consumer);
+        consumer.close();
+
+        List<Integer> expected = IntStream.range(0, perChat).boxed().toList();
+        assertEquals(chats, processed.size());
+        processed.forEach((chatId, sequence) -> assertEquals(expected, sequence, "чат " + chatId));
+        assertEquals(0, overlaps.get(), "обновления одного чата обрабатывались одновременно");
+        assertTrue(maxConcurrent.get() > 1, "чаты не обрабатывались параллельно");
+    }
+
+    @Test
+    void slowChatDoesNotHoldBackOtherChats() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherChatDone = new CountDownLatch(10);
+        ParallelUpdateConsumer consumer = new ParallelUpdateConsumer(update -> {
+            if (Updates.chatId(update) == 1) {
+                await(release);
+            } else {
+                otherChatDone.countDown();
+            }
+        }, 2, 64);
+
+        List<Update> updates = new ArrayList<>();
+        updates.add(Updates.text(0, 1, "slow"));
+        updates.add(Updates.text(1, 1, "behind slow"));
+        for (int i = 0; i < 10; i++) {
+            updates.add(Updates.text(2 + i, 2, "fast"));
+        }
+        consumer.consume(updates);
+
+        assertTrue(otherChatDone.await(10, TimeUnit.SECONDS));
+        // В работе остаются только два обновления медленного чата
+        awaitInFlight(consumer, 2);
+        release.countDown();
+        awaitDrained(consumer);
+        consumer.close();
+    }
+
+    @Test
+    void blocksProducerWhenInFlightLimitIsReached() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ParallelUpdateConsumer consumer = new ParallelUpdateConsumer(update -> await(release), 4, 4);
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            updates.add(Updates.text(i, i, "text"));
+        }
+        Thread producer = new Thread(() -> consumer.consume(updates));
+        producer.start();
+
+        producer.join(300);
+        assertTrue(producer.isAlive(), "передающий поток не ждёт свободного места");
+        assertEquals(4, consumer.inFlight());
+        release.countDown();
+        producer.join();
+        awaitDrained(consumer);
+        consumer.close();
+    }
+
+    private static void awaitDrained(ParallelUpdateConsumer consumer) throws InterruptedException {
+        awaitInFlight(consumer, 0);
+    }
+
+    private static void awaitInFlight(ParallelUpdateConsumer consumer, int expected) throws InterruptedException {
+        while (consumer.inFlight() != expected) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
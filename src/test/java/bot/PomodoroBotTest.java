@@ -0,0 +1,142 @@
+package bot;
+
+import messaging.MessageDispatcher;
+import metrics.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+import service.PomodoroService;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PomodoroBotTest {
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final MessageDispatcher messageDispatcher =
+            new MessageDispatcher(telegramClient(), 1000, 1000, new MetricsRegistry(false));
+    // Ответы хранилища на /stats и /achievements, которые тест завершает сам
+    private final Map<Long, CompletableFuture<String>> statistics = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<String>> achievements = new ConcurrentHashMap<>();
+    private final PomodoroBot bot = new PomodoroBot(messageDispatcher, new PendingService(), new MetricsRegistry(false));
+
+    @AfterEach
+    void tearDown() {
+        messageDispatcher.close();
+    }
+
+    @Test
+    void repliesToChatInCommandOrder() throws Exception {
+        bot.consume(Updates.text(1, 1, "/stats"));
+        bot.consume(Updates.text(2, 1, "/top"));
+        bot.consume(Updates.text(3, 1, "/achievements"));
+        bot.consume(Updates.text(4, 1, "/start_pomo"));
+        Thread.sleep(100);
+        assertEquals(List.of(), sent);
+
+        // Достижения готовы раньше статистики, но ждут её
+        achievements.get(1L).complete("achievements");
+        Thread.sleep(100);
+        assertEquals(List.of(), sent);
+
+        statistics.get(1L).complete("stats");
+        awaitSent(4);
+        assertEquals(List.of("1:stats", "1:top", "1:achievements", "1:Pomodoro запущен!"), sent);
+
+        // Ждать больше нечего - ответ уходит сразу
+        bot.consume(Updates.text(5, 1, "/stop"));
+        awaitSent(5);
+        assertEquals("1:Pomodoro остановлен!", sent.get(4));
+    }
+
+    @Test
+    void slowReplyDoesNotHoldOtherChats() throws Exception {
+        bot.consume(Updates.text(1, 1, "/stats"));
+        bot.consume(Updates.text(2, 2, "/top"));
+        awaitSent(1);
+        assertEquals(List.of("2:top"), sent);
+
+        statistics.get(1L).complete("stats");
+        awaitSent(2);
+        assertEquals("1:stats", sent.get(1));
+    }
+
+    @Test
+    void failedReplyDoesNotBlockNextReplies() throws Exception {
+        bot.consume(Updates.text(1, 1, "/stats"));
+        bot.consume(Updates.text(2, 1, "/top"));
+        statistics.get(1L).completeExceptionally(new RuntimeException("storage is down"));
+        awaitSent(2);
+
+        assertEquals(List.of("1:Не удалось выполнить команду, попробуйте позже.", "1:top"), sent);
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sent.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, sent.size(), sent.toString());
+    }
+
+    private TelegramClient telegramClient() {
+        return (TelegramClient) Proxy.newProxyInstance(TelegramClient.class.getClassLoader(),
+                new Class<?>[]{TelegramClient.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("executeAsync")) {
+                        return null;
+                    }
+                    // Диспетчер склеивает тексты, ждущие отправки; тест сравнивает их по отдельности
+                    if (args[0] instanceof SendMessage message) {
+                        for (String text : message.getText().split("\n\n")) {
+                            sent.add(message.getChatId() + ":" + text);
+                        }
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
+    /**
+     * Сервис, у которого чтение из хранилища завершает тест, а /top отвечает сразу.
+     */
+    private class PendingService implements PomodoroService {
+        @Override
+        public void startPomodoro(long chatId) {
+        }
+
+        @Override
+        public void stopPomodoro(long chatId) {
+        }
+
+        @Override
+        public CompletableFuture<String> getStatistics(long chatId) {
+            return statistics.computeIfAbsent(chatId, id -> new CompletableFuture<>());
+        }
+
+        @Override
+        public CompletableFuture<String> getStatistics(long chatId, String period) {
+            return getStatistics(chatId);
+        }
+
+        @Override
+        public CompletableFuture<String> getAchievements(long chatId) {
+            return achievements.computeIfAbsent(chatId, id -> new CompletableFuture<>());
+        }
+
+        @Override
+        public void exportStatistics(long chatId) {
+        }
+
+        @Override
+        public String getLeaderboard(long chatId) {
+            return "top";
+        }
+    }
+}
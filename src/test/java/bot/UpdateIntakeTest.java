@@ -0,0 +1,228 @@
+package bot;
+
+import messaging.MessageDispatcher;
+import metrics.LatencyTracker;
+import metrics.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateIntakeTest {
+    private static final double UNLIMITED = 1e9;
+
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final List<String> processed = new CopyOnWriteArrayList<>();
+    private final MessageDispatcher messageDispatcher =
+            new MessageDispatcher(telegramClient(), 1000, 1000, new MetricsRegistry(false));
+    private final LatencyTracker storageLatency = new LatencyTracker(TimeUnit.HOURS.toMillis(1));
+    // Пока закрыт, обработчик стоит на первой пачке
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private volatile boolean blocking;
+    private UpdateIntake intake;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (intake != null) {
+            intake.close();
+        }
+        messageDispatcher.close();
+    }
+
+    @Test
+    void dropsRepeatedUpdateIds() throws Exception {
+        intake = newIntake(100, UNLIMITED, 0);
+        intake.consume(List.of(Updates.text(1, 1, "/stop"), Updates.text(1, 1, "/stop"), Updates.text(2, 1, "/stop")));
+        awaitProcessed(2);
+
+        assertEquals(2, intake.stats().acceptedCount());
+        assertEquals(1, intake.stats().duplicateCount());
+    }
+
+    @Test
+    void throttlesReadBurstPerChatAndNotifiesOnce() throws Exception {
+        intake = newIntake(100, 0.001, 0);
+        List<Update> updates = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            updates.add(Updates.text(i, 1, "/stats"));
+        }
+        updates.add(Updates.text(6, 2, "/stats"));
+        intake.consume(updates);
+        awaitProcessed(4);
+        awaitSent(1);
+
+        assertEquals(List.of("1:/stats", "1:/stats", "1:/stats", "2:/stats"), processed);
+        assertEquals(2, intake.stats().throttledCount());
+        assertEquals(1, sent.size());
+        assertTrue(sent.get(0).startsWith("1:Слишком частые запросы"), sent.get(0));
+    }
+
+    @Test
+    void topIsControlAndNotLimitedAsRead() throws Exception {
+        assertEquals(UpdateIntake.CommandClass.CONTROL, UpdateIntake.CommandClass.of("/top"));
+        assertEquals(UpdateIntake.CommandClass.READ, UpdateIntake.CommandClass.of("/stats"));
+        assertEquals(UpdateIntake.CommandClass.READ, UpdateIntake.CommandClass.of("/achievements"));
+        assertEquals(UpdateIntake.CommandClass.EXPORT, UpdateIntake.CommandClass.of("/export_stats"));
+
+        intake = newIntake(100, 0.001, 0);
+        List<Update> updates = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            updates.add(Updates.text(i, 1, "/top"));
+        }
+        intake.consume(updates);
+        awaitProcessed(6);
+
+        assertEquals(0, intake.stats().throttledCount());
+    }
+
+    @Test
+    void shedsReadsBeforeDedupAndTellsChat() throws Exception {
+        intake = newIntake(20, UNLIMITED, 0);
+        blockDelegate();
+        // Запас - 2 места из 20: чтение принимается, пока свободно больше
+        List<Update> updates = new ArrayList<>();
+        for (int i = 2; i <= 19; i++) {
+            updates.add(Updates.text(i, i, "/stats"));
+        }
+        intake.consume(updates);
+        Update shed = Updates.text(100, 100, "/stats");
+        intake.consume(List.of(shed, Updates.text(101, 101, "hello")));
+        awaitSent(1);
+
+        assertEquals(19, intake.stats().acceptedCount());
+        assertEquals(2, intake.stats().queueFullCount());
+        assertEquals(List.of("100:" + UpdateIntake.OVERLOADED_REPLY), sent);
+
+        release.countDown();
+        awaitProcessed(19);
+        // Отброшенное обновление не помечено как виденное: повторная доставка принимается
+        intake.consume(List.of(shed));
+        awaitProcessed(20);
+        assertEquals(0, intake.stats().duplicateCount());
+        assertEquals("100:/stats", processed.get(19));
+    }
+
+    @Test
+    void neverShedsStateChangingCommands() throws Exception {
+        intake = newIntake(20, UNLIMITED, 0);
+        blockDelegate();
+        List<Update> updates = new ArrayList<>();
+        for (int i = 2; i <= 19; i++) {
+            updates.add(Updates.text(i, i, "/stats"));
+        }
+        // Запас занимают /start_pomo и /stop
+        updates.add(Updates.text(50, 50, "/start_pomo"));
+        updates.add(Updates.text(51, 51, "/stop"));
+        intake.consume(updates);
+        assertEquals(21, intake.stats().acceptedCount());
+
+        // Очередь полна: /stop ждёт места, а не отбрасывается
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(
+                () -> intake.consume(List.of(Updates.text(52, 52, "/stop"))));
+        Thread.sleep(200);
+        assertTrue(!waiting.isDone(), "/stop должен ждать места в очереди");
+
+        release.countDown();
+        waiting.get(5, TimeUnit.SECONDS);
+        awaitProcessed(22);
+        assertEquals(0, intake.stats().queueFullCount());
+        assertEquals("52:/stop", processed.get(21));
+        assertTrue(sent.isEmpty(), sent.toString());
+    }
+
+    @Test
+    void rejectsReadsWhileStorageIsSlowOnlyWhenEnabled() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            storageLatency.observeNanos(TimeUnit.SECONDS.toNanos(5));
+        }
+        intake = newIntake(100, UNLIMITED, 1000);
+        intake.consume(List.of(Updates.text(1, 1, "/stats"), Updates.text(2, 1, "/top")));
+        awaitProcessed(1);
+        awaitSent(1);
+
+        assertEquals(List.of("1:/top"), processed);
+        assertEquals(1, intake.stats().degradedCount());
+        assertEquals(List.of("1:" + UpdateIntake.OVERLOADED_REPLY), sent);
+        intake.close();
+
+        // Порог 0 - проверка выключена
+        processed.clear();
+        intake = newIntake(100, UNLIMITED, 0);
+        intake.consume(List.of(Updates.text(1, 1, "/stats")));
+        awaitProcessed(1);
+        assertEquals(0, intake.stats().degradedCount());
+    }
+
+    private UpdateIntake newIntake(int queueCapacity, double readRate, long degradedLatencyMillis) {
+        LongPollingUpdateConsumer delegate = batch -> {
+            if (blocking) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (Update update : batch) {
+                processed.add(Updates.chatId(update) + ":" + update.getMessage().getText());
+            }
+        };
+        return new UpdateIntake(delegate, messageDispatcher, queueCapacity,
+                new double[]{UNLIMITED, readRate, UNLIMITED}, storageLatency, degradedLatencyMillis,
+                new MetricsRegistry(false));
+    }
+
+    /**
+     * Останавливает обработчик на первой пачке, чтобы очередь за ней заполнялась.
+     */
+    private void blockDelegate() throws InterruptedException {
+        blocking = true;
+        intake.consume(List.of(Updates.text(1, 1, "/stats")));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitProcessed(int count) throws InterruptedException {
+        awaitSize(processed, count);
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        awaitSize(sent, count);
+    }
+
+    private static void awaitSize(List<String> list, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (list.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, list.size(), list.toString());
+    }
+
+    private TelegramClient telegramClient() {
+        return (TelegramClient) Proxy.newProxyInstance(TelegramClient.class.getClassLoader(),
+                new Class<?>[]{TelegramClient.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("executeAsync")) {
+                        return null;
+                    }
+                    if (args[0] instanceof SendMessage message) {
+                        sent.add(message.getChatId() + ":" + message.getText());
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+}
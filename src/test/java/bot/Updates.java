@@ -0,0 +1,28 @@
+package bot;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.chat.Chat;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+
+/**
+ * Обновления с текстовым сообщением для тестов приёма и обработки.
+ */
+final class Updates {
+    private Updates() {
+    }
+
+    static Update text(int updateId, long chatId, String text) {
+        Message message = new Message();
+        message.setMessageId(updateId);
+        message.setChat(new Chat(chatId, "private"));
+        message.setText(text);
+        Update update = new Update();
+        update.setUpdateId(updateId);
+        update.setMessage(message);
+        return update;
+    }
+
+    static long chatId(Update update) {
+        return update.getMessage().getChatId();
+    }
+}
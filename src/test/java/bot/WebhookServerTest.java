@@ -0,0 +1,207 @@
+package bot;
+
+import config.Config;
+import config.TestConfigs;
+import messaging.MessageDispatcher;
+import metrics.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+import repository.ExecutorAsyncUserDataRepository;
+import repository.RecordingUserDataRepository;
+import repository.SessionEvent;
+import service.PomodoroServiceImpl;
+import timer.ScheduledExecutorTimerEngine;
+import timer.TimerEngine;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(30)
+class WebhookServerTest {
+    private static final String PATH = "/telegram/webhook";
+    private static final String SECRET = "secret";
+    // Тело, которое сервер дочитывает, чтобы сохранить соединение (лимит - 8 КБ)
+    private static final int SMALL_BODY = 4 * 1024;
+    // Записанное обновление Telegram: /start_pomo из личного чата
+    private static final String START_POMO_UPDATE = """
+            {"update_id":815160601,
+             "message":{"message_id":57,
+              "from":{"id":310741,"is_bot":false,"first_name":"Anna","username":"anna_pomo","language_code":"ru"},
+              "chat":{"id":310741,"first_name":"Anna","username":"anna_pomo","type":"private"},
+              "date":1736932015,"text":"/start_pomo",
+              "entities":[{"offset":0,"length":11,"type":"bot_command"}]}}
+            """;
+
+    private final List<Update> received = new CopyOnWriteArrayList<>();
+    private final List<AutoCloseable> resources = new ArrayList<>();
+    private WebhookServer server;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    @Test
+    void rejectedSmallBodiesKeepConnectionOpen() throws Exception {
+        server = start(received::addAll);
+        String body = "{\"update_id\":1,\"padding\":\"" + "x".repeat(SMALL_BODY) + "\"}";
+        try (Socket socket = new Socket("localhost", server.port())) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            send(out, "POST", "wrong", body);
+            assertEquals(401, readStatus(in));
+            send(out, "PUT", SECRET, body);
+            assertEquals(405, readStatus(in));
+            // Тот же сокет: тела отказанных запросов дочитаны, и следующий запрос разбирается с начала
+            send(out, "POST", SECRET, "{\"update_id\":2}");
+            assertEquals(200, readStatus(in));
+        }
+        while (received.isEmpty()) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, received.get(0).getUpdateId());
+    }
+
+    @Test
+    void largeRejectedBodiesAreNotReadAndConnectionIsClosed() throws Exception {
+        server = start(received::addAll);
+        // Заголовки обещают 100 МБ, тело не приходит: ответ не ждёт его, а потоков сервера (их 4) хватает
+        // и на следующий запрос
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 6; i++) {
+                Socket socket = new Socket("localhost", server.port());
+                sockets.add(socket);
+                OutputStream out = socket.getOutputStream();
+                out.write(("POST " + PATH + " HTTP/1.1\r\nHost: localhost\r\n" + WebhookServer.SECRET_HEADER
+                        + ": wrong\r\nContent-Length: 100000000\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals(401, readStatus(in));
+                assertNull(in.readLine(), "соединение должно быть закрыто");
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        try (Socket socket = new Socket("localhost", server.port())) {
+            send(socket.getOutputStream(), "POST", SECRET, "{\"update_id\":3}");
+            assertEquals(200, readStatus(new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))));
+        }
+    }
+
+    @Test
+    void recordedUpdateReachesBotAndStartsPomodoro() throws Exception {
+        Config config = TestConfigs.defaults();
+        List<String> sent = new CopyOnWriteArrayList<>();
+        MessageDispatcher messageDispatcher =
+                new MessageDispatcher(telegramClient(sent), 1000, 1000, new MetricsRegistry(false));
+        TimerEngine timerEngine = new ScheduledExecutorTimerEngine(1);
+        RecordingUserDataRepository recording = new RecordingUserDataRepository();
+        ExecutorAsyncUserDataRepository repository = new ExecutorAsyncUserDataRepository(recording, 1);
+        resources.add(repository);
+        resources.add(timerEngine);
+        resources.add(messageDispatcher);
+        PomodoroServiceImpl service = new PomodoroServiceImpl(repository, messageDispatcher, timerEngine, config,
+                new MetricsRegistry(false));
+        server = start(new PomodoroBot(messageDispatcher, service, new MetricsRegistry(false)));
+
+        try (Socket socket = new Socket("localhost", server.port())) {
+            send(socket.getOutputStream(), "POST", SECRET, START_POMO_UPDATE);
+            assertEquals(200, readStatus(new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))));
+        }
+        // Диспетчер может склеить ответ с уведомлением о начале фазы в одно сообщение
+        while (!String.join("\n\n", sent).contains("Pomodoro запущен!") || recording.applied().isEmpty()) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(sent.stream().allMatch(message -> message.startsWith("310741:")), sent.toString());
+        SessionEvent recorded = recording.applied().get(0);
+        assertEquals(SessionEvent.Kind.RECORD, recorded.kind());
+        assertEquals(310741, recorded.chatId());
+        assertEquals("WORK", recorded.sessionType());
+        assertEquals(config.workDuration(), recorded.durationMinutes());
+    }
+
+    @Test
+    void malformedUpdateIsRejected() throws Exception {
+        server = start(received::addAll);
+        try (Socket socket = new Socket("localhost", server.port())) {
+            send(socket.getOutputStream(), "POST", SECRET, "not json");
+            assertEquals(400, readStatus(new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))));
+        }
+    }
+
+    private static WebhookServer start(LongPollingUpdateConsumer consumer) {
+        return new WebhookServer(consumer, 0, PATH, SECRET, 10, new MetricsRegistry(false));
+    }
+
+    private static TelegramClient telegramClient(List<String> sent) {
+        return (TelegramClient) Proxy.newProxyInstance(TelegramClient.class.getClassLoader(),
+                new Class<?>[]{TelegramClient.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("executeAsync")) {
+                        return null;
+                    }
+                    if (args[0] instanceof SendMessage message) {
+                        sent.add(message.getChatId() + ":" + message.getText());
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
+    private static void send(OutputStream out, String method, String secret, String body) throws Exception {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String head = method + " " + PATH + " HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + WebhookServer.SECRET_HEADER + ": " + secret + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + bytes.length + "\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * Код ответа; заголовки ответа пропускаются, тела у ответов нет.
+     */
+    private static int readStatus(BufferedReader in) throws Exception {
+        String statusLine = in.readLine();
+        if (statusLine == null) {
+            throw new IllegalStateException("Сервер закрыл соединение");
+        }
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            // заголовки
+        }
+        return Integer.parseInt(statusLine.split(" ")[1]);
+    }
+}
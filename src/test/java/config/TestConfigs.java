@@ -0,0 +1,39 @@
+package config;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.RecordComponent;
+import java.util.Map;
+
+/**
+ * Конфигурация для тестов: значения по умолчанию из ConfigReaderEnvironment (задачи test задают BOT_API_TOKEN
+ * и STORAGE_TYPE) с заменой отдельных полей по имени компонента записи.
+ */
+public final class TestConfigs {
+    private TestConfigs() {
+    }
+
+    public static Config defaults() {
+        return new ConfigReaderEnvironment().read();
+    }
+
+    public static Config with(Map<String, Object> overrides) {
+        Config base = defaults();
+        RecordComponent[] components = Config.class.getRecordComponents();
+        Object[] values = new Object[components.length];
+        Class<?>[] types = new Class<?>[components.length];
+        try {
+            for (int i = 0; i < components.length; i++) {
+                String name = components[i].getName();
+                types[i] = components[i].getType();
+                values[i] = overrides.containsKey(name) ? overrides.get(name) : components[i].getAccessor().invoke(base);
+            }
+            for (String name : overrides.keySet()) {
+                Config.class.getMethod(name);
+            }
+            Constructor<Config> constructor = Config.class.getDeclaredConstructor(types);
+            return constructor.newInstance(values);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Не удалось собрать конфигурацию с " + overrides, e);
+        }
+    }
+}
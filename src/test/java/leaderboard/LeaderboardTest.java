@@ -0,0 +1,59 @@
+package leaderboard;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LeaderboardTest {
+    // Среда; неделя началась в понедельник 2025-01-06
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 8, 12, 0);
+
+    @Test
+    void weekWindowStartsOverOnMonday() {
+        Leaderboard leaderboard = new Leaderboard(10);
+        leaderboard.rebuild(weekStart -> List.of(), NOW);
+        leaderboard.record(1, 25, NOW);
+        leaderboard.record(2, 50, NOW.minusDays(3));
+
+        assertEquals(List.of(new Leaderboard.Place(1, 1, 25)), leaderboard.top(Leaderboard.Window.WEEK, NOW));
+        assertEquals(List.of(new Leaderboard.Place(1, 2, 50), new Leaderboard.Place(2, 1, 25)),
+                leaderboard.top(Leaderboard.Window.ALL_TIME, NOW));
+
+        LocalDateTime nextMonday = LocalDateTime.of(2025, 1, 13, 0, 1);
+        assertEquals(List.of(), leaderboard.top(Leaderboard.Window.WEEK, nextMonday));
+        assertNull(leaderboard.place(Leaderboard.Window.WEEK, 1, nextMonday));
+        leaderboard.record(2, 10, nextMonday);
+        assertEquals(List.of(new Leaderboard.Place(1, 2, 10)), leaderboard.top(Leaderboard.Window.WEEK, nextMonday));
+        assertEquals(2, leaderboard.participants(Leaderboard.Window.ALL_TIME, nextMonday));
+    }
+
+    @Test
+    void rebuildReplacesRankingWithStoredTotals() {
+        Leaderboard leaderboard = new Leaderboard(2);
+        leaderboard.rebuild(weekStart -> List.of(), NOW);
+        leaderboard.record(9, 1000, NOW);
+
+        LocalDateTime[] requestedWeekStart = new LocalDateTime[1];
+        leaderboard.rebuild(weekStart -> {
+            requestedWeekStart[0] = weekStart;
+            return List.of(
+                    new Leaderboard.FocusTotals(1, 300, 0),
+                    new Leaderboard.FocusTotals(2, 200, 60),
+                    new Leaderboard.FocusTotals(3, 400, 60));
+        }, NOW);
+
+        assertEquals(LocalDateTime.of(2025, 1, 6, 0, 0), requestedWeekStart[0]);
+        assertEquals(List.of(new Leaderboard.Place(1, 3, 400), new Leaderboard.Place(2, 1, 300)),
+                leaderboard.top(Leaderboard.Window.ALL_TIME, NOW));
+        assertEquals(new Leaderboard.Place(3, 2, 200), leaderboard.place(Leaderboard.Window.ALL_TIME, 2, NOW));
+        assertNull(leaderboard.place(Leaderboard.Window.ALL_TIME, 9, NOW));
+        // Чаты без минут за неделю в недельный рейтинг не входят
+        assertEquals(List.of(new Leaderboard.Place(1, 2, 60), new Leaderboard.Place(1, 3, 60)),
+                leaderboard.top(Leaderboard.Window.WEEK, NOW));
+        assertEquals(2, leaderboard.participants(Leaderboard.Window.WEEK, NOW));
+    }
+}
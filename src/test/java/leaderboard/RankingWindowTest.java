@@ -0,0 +1,91 @@
+package leaderboard;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RankingWindowTest {
+
+    @Test
+    void topAndPlacesMatchFullSortAfterEveryAdd() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            int capacity = 1 + random.nextInt(10);
+            // Мало чатов и мелкие приросты - много равных значений и перестановок на границе топа
+            int chats = 5 + random.nextInt(40);
+            RankingWindow window = new RankingWindow(capacity);
+            Map<Long, Long> minutes = new HashMap<>();
+            for (int i = 0; i < 2000; i++) {
+                long chatId = random.nextInt(chats);
+                long added = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(random.nextBoolean() ? 3 : 60);
+                window.add(chatId, added);
+                if (added > 0) {
+                    minutes.merge(chatId, added, Long::sum);
+                }
+
+                List<Leaderboard.Place> expected = fullRanking(minutes);
+                assertEquals(expected.subList(0, Math.min(capacity, expected.size())), window.top(),
+                        "seed " + seed + ", шаг " + i);
+                assertEquals(minutes.size(), window.size());
+                long probe = random.nextInt(chats);
+                Leaderboard.Place expectedPlace = expected.stream()
+                        .filter(place -> place.chatId() == probe).findFirst().orElse(null);
+                assertEquals(expectedPlace, window.place(probe), "seed " + seed + ", шаг " + i);
+            }
+        }
+    }
+
+    @Test
+    void equalMinutesShareRank() {
+        RankingWindow window = new RankingWindow(3);
+        window.add(5, 30);
+        window.add(7, 50);
+        window.add(3, 30);
+        window.add(9, 30);
+        window.add(1, 10);
+
+        assertEquals(List.of(
+                new Leaderboard.Place(1, 7, 50),
+                new Leaderboard.Place(2, 3, 30),
+                new Leaderboard.Place(2, 5, 30)), window.top());
+        // Вне топа место считается так же
+        assertEquals(new Leaderboard.Place(2, 9, 30), window.place(9));
+        assertEquals(new Leaderboard.Place(5, 1, 10), window.place(1));
+        assertNull(window.place(2));
+    }
+
+    @Test
+    void chatOutsideTopEntersItByGrowing() {
+        RankingWindow window = new RankingWindow(2);
+        window.add(1, 100);
+        window.add(2, 90);
+        window.add(3, 80);
+        window.add(3, 15);
+
+        assertEquals(List.of(new Leaderboard.Place(1, 1, 100), new Leaderboard.Place(2, 3, 95)), window.top());
+        assertEquals(new Leaderboard.Place(3, 2, 90), window.place(2));
+    }
+
+    /**
+     * Все чаты по убыванию минут (при равенстве - по chatId) с местами: 1 + число чатов, у которых минут больше.
+     */
+    private static List<Leaderboard.Place> fullRanking(Map<Long, Long> minutes) {
+        List<Map.Entry<Long, Long>> entries = new ArrayList<>(minutes.entrySet());
+        entries.sort(Comparator.<Map.Entry<Long, Long>>comparingLong(Map.Entry::getValue).reversed()
+                .thenComparingLong(Map.Entry::getKey));
+        List<Leaderboard.Place> places = new ArrayList<>();
+        for (Map.Entry<Long, Long> entry : entries) {
+            int ahead = (int) minutes.values().stream().filter(value -> value > entry.getValue()).count();
+            places.add(new Leaderboard.Place(ahead + 1, entry.getKey(), entry.getValue()));
+        }
+        return places;
+    }
+}
@@ -0,0 +1,137 @@
+package messaging;
+
+import metrics.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageDispatcherTest {
+    private static final long CHAT_ID = 42;
+
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    // Ответы Telegram, которые тест завершает сам, если autoComplete выключен
+    private final BlockingQueue<CompletableFuture<Object>> responses = new LinkedBlockingQueue<>();
+    private volatile boolean autoComplete;
+    private MessageDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        responses.forEach(response -> response.complete(null));
+        dispatcher.close();
+    }
+
+    @Test
+    void mergesTextsQueuedBehindMessageInFlight() throws Exception {
+        dispatcher = newDispatcher(1000);
+        dispatcher.send(CHAT_ID, "1");
+        CompletableFuture<Object> first = nextResponse();
+        dispatcher.send(CHAT_ID, "2");
+        dispatcher.send(CHAT_ID, "3");
+        dispatcher.send(CHAT_ID, "4");
+        first.complete(null);
+        nextResponse().complete(null);
+
+        assertEquals(List.of("1", "2\n\n3\n\n4"), sent);
+        assertEquals(2, dispatcher.stats().mergedCount());
+    }
+
+    @Test
+    void doesNotMergeAcrossDocumentsOrBeyondMessageLimit() throws Exception {
+        dispatcher = newDispatcher(1000);
+        dispatcher.send(CHAT_ID, "first");
+        CompletableFuture<Object> first = nextResponse();
+        String x = "x".repeat(3000);
+        String y = "y".repeat(3000);
+        dispatcher.send(CHAT_ID, "a");
+        dispatcher.sendDocument(CHAT_ID, document("stats.csv"), null);
+        dispatcher.send(CHAT_ID, "b");
+        dispatcher.send(CHAT_ID, x);
+        dispatcher.send(CHAT_ID, y);
+        first.complete(null);
+        for (int i = 0; i < 4; i++) {
+            nextResponse().complete(null);
+        }
+
+        assertEquals(List.of("first", "a", "document:stats.csv", "b\n\n" + x, y), sent);
+        assertEquals(1, dispatcher.stats().mergedCount());
+    }
+
+    @Test
+    void sendsChatInOrderWithinChatRate() throws Exception {
+        autoComplete = true;
+        double chatRate = 5;
+        dispatcher = newDispatcher(chatRate);
+        List<String> expected = new ArrayList<>();
+        long startNanos = System.nanoTime();
+        // Документы не склеиваются: каждый - отдельный запрос
+        for (int i = 0; i < 8; i++) {
+            dispatcher.sendDocument(CHAT_ID, document("d" + i + ".csv"), null);
+            expected.add("document:d" + i + ".csv");
+        }
+        awaitSent(expected.size());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertEquals(expected, sent);
+        // Первые три - сразу (запас корзины чата), остальные пять - по одному раз в 1 / chatRate секунды
+        assertTrue(elapsedMillis >= (long) ((8 - 3) / chatRate * 1000) - 100, "отправлено за " + elapsedMillis + " мс");
+    }
+
+    private MessageDispatcher newDispatcher(double chatRatePerSecond) {
+        return new MessageDispatcher(telegramClient(), 1000, chatRatePerSecond, new MetricsRegistry(false));
+    }
+
+    private TelegramClient telegramClient() {
+        return (TelegramClient) Proxy.newProxyInstance(TelegramClient.class.getClassLoader(),
+                new Class<?>[]{TelegramClient.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("executeAsync")) {
+                        return null;
+                    }
+                    if (args[0] instanceof SendMessage message) {
+                        sent.add(message.getText());
+                    } else if (args[0] instanceof SendDocument document) {
+                        sent.add("document:" + document.getDocument().getMediaName());
+                    }
+                    if (autoComplete) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    CompletableFuture<Object> response = new CompletableFuture<>();
+                    responses.add(response);
+                    return response;
+                });
+    }
+
+    private CompletableFuture<Object> nextResponse() throws InterruptedException {
+        CompletableFuture<Object> response = responses.poll(5, TimeUnit.SECONDS);
+        assertNotNull(response, "сообщение не отправлено, отправлены: " + sent);
+        return response;
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sent.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static SendDocument document(String name) {
+        return SendDocument.builder().chatId(CHAT_ID).document(new InputFile(new File(name), name)).build();
+    }
+}
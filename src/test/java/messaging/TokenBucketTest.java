@@ -0,0 +1,71 @@
+package messaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    @Test
+    void allowsBurstOfCapacityThenWaitsForRefill() {
+        TokenBucket bucket = new TokenBucket(3, 1);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+
+        long untilAvailable = bucket.nanosUntilAvailable();
+        assertTrue(untilAvailable > 0 && untilAvailable <= TimeUnit.SECONDS.toNanos(1), "ждать " + untilAvailable);
+        long untilFull = bucket.nanosUntilFull();
+        assertTrue(untilFull > TimeUnit.SECONDS.toNanos(2) && untilFull <= TimeUnit.SECONDS.toNanos(3), "ждать " + untilFull);
+    }
+
+    @Test
+    void refillsAtRateButNotAboveCapacity() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(2, 100);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+
+        // За 100 мс набежало бы 10 токенов, но корзина вмещает только 2
+        Thread.sleep(100);
+        assertEquals(0, bucket.nanosUntilFull());
+        assertEquals(0, bucket.nanosUntilAvailable());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void concurrentCallersNeverExceedCapacityPlusRate() throws InterruptedException {
+        double rate = 200;
+        TokenBucket bucket = new TokenBucket(5, rate);
+        AtomicInteger acquired = new AtomicInteger();
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(500);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                while (System.nanoTime() < endNanos) {
+                    if (bucket.tryAcquire()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        assertTrue(acquired.get() <= 5 + rate * elapsedSeconds + 1, "выдано " + acquired.get());
+        // Нижняя граница с запасом на медленную машину: корзина не должна выдавать заметно меньше лимита
+        assertTrue(acquired.get() >= rate * 0.5 * 0.5, "выдано " + acquired.get());
+    }
+}
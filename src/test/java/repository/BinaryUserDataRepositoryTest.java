@@ -0,0 +1,208 @@
+package repository;
+
+import achievement.AchievementEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Бинарное хранилище: перенос из CSV и обратно, рост файла, закрытие по хэндлу, чтение неизвестного чата
+ * и вытеснение отображений.
+ */
+class BinaryUserDataRepositoryTest {
+    private static final LocalDateTime START = LocalDateTime.of(2025, 5, 5, 9, 0);
+
+    private final List<Long> chats = new ArrayList<>();
+    private final List<AutoCloseable> repositories = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (AutoCloseable repository : repositories) {
+            repository.close();
+        }
+        for (long chatId : chats) {
+            Files.deleteIfExists(binaryFile(chatId));
+            Files.deleteIfExists(Paths.get("data/binary/" + chatId + ".days.bin"));
+            Files.deleteIfExists(Paths.get("data/sessions/" + chatId + ".csv"));
+            Files.deleteIfExists(Paths.get("data/sessions/" + chatId + ".journal.csv"));
+            Files.deleteIfExists(Paths.get("data/achievements/achievements_" + chatId + ".txt"));
+            Files.deleteIfExists(Paths.get("data/achievements/progress_" + chatId + ".csv"));
+        }
+    }
+
+    @Test
+    void convertsCsvToBinaryAndBack() {
+        long chatId = newChatId();
+        List<String[]> history = List.of(
+                new String[]{"WORK", "25", "2025-05-05 09:00", "2025-05-05 09:25", "true"},
+                new String[]{"REST", "5", "2025-05-05 09:25", "2025-05-05 09:30", "true"},
+                new String[]{"WORK", "25", "2025-05-05 09:30", "2025-05-05 09:41", "false"},
+                new String[]{"WORK", "50", "2025-05-06 10:00", "", "false"});
+        CsvUserDataRepository csvRepository = csvRepository();
+        BinaryUserDataRepository binaryRepository = binaryRepository(BinaryUserDataRepository.DEFAULT_MAX_MAPPED_FILES);
+        SessionStoreConverter converter = new SessionStoreConverter(csvRepository, binaryRepository);
+        csvRepository.writeSessionRecords(chatId, history);
+
+        converter.csvToBinary();
+        assertEquals(rows(history), rows(binaryRepository.readSessionRecords(chatId)));
+        assertEquals(csvRepository.getStatistics(chatId), binaryRepository.getStatistics(chatId));
+
+        csvRepository.writeSessionRecords(chatId, List.of());
+        converter.binaryToCsv();
+        assertEquals(rows(history), rows(csvRepository.readSessionRecords(chatId)));
+
+        // Открытая сессия пережила оба переноса и закрывается как обычно
+        binaryRepository.completeSession(chatId, "WORK", LocalDateTime.of(2025, 5, 6, 10, 50));
+        assertEquals(List.of(100L, 5L, 3L, 1L), RandomHistory.numbers(binaryRepository.getStatistics(chatId)));
+    }
+
+    @Test
+    void growsPastInitialCapacityAndKeepsRecordsAfterReopen() throws Exception {
+        long chatId = newChatId();
+        int sessions = BinaryUserDataRepository.INITIAL_CAPACITY * 2 + 10;
+        BinaryUserDataRepository repository = binaryRepository(BinaryUserDataRepository.DEFAULT_MAX_MAPPED_FILES);
+        SessionHandle first = repository.recordSession(chatId, "WORK", 25, START);
+        for (int i = 1; i < sessions; i++) {
+            LocalDateTime startAt = START.plusMinutes(30L * i);
+            SessionHandle work = repository.recordSession(chatId, "WORK", 25, startAt);
+            repository.completeSession(work, startAt.plusMinutes(25));
+        }
+        // Хэндл, выданный до двух расширений файла, закрывает свою запись
+        repository.completeSession(first, START.plusMinutes(25));
+
+        assertEquals(List.of(sessions * 25L, 0L, (long) sessions, 0L),
+                RandomHistory.numbers(repository.getStatistics(chatId)));
+        assertTrue(Files.size(binaryFile(chatId)) >= 16 + 12L * sessions);
+        repository.close();
+
+        BinaryUserDataRepository reopened = binaryRepository(BinaryUserDataRepository.DEFAULT_MAX_MAPPED_FILES);
+        List<String[]> records = reopened.readSessionRecords(chatId);
+        assertEquals(sessions, records.size());
+        assertEquals("2025-05-05 09:25", records.get(0)[3]);
+        assertEquals(List.of(sessions * 25L, 0L, (long) sessions, 0L),
+                RandomHistory.numbers(reopened.getStatistics(chatId)));
+    }
+
+    @Test
+    void closesSessionByHandleOnlyOnce() {
+        long chatId = newChatId();
+        BinaryUserDataRepository repository = binaryRepository(BinaryUserDataRepository.DEFAULT_MAX_MAPPED_FILES);
+        SessionHandle older = repository.recordSession(chatId, "WORK", 25, START);
+        SessionHandle newer = repository.recordSession(chatId, "WORK", 25, START.plusMinutes(30));
+
+        // По хэндлу закрывается именно его запись, а не последняя открытая
+        repository.completeSession(older, START.plusMinutes(25));
+        repository.completeSession(older, START.plusMinutes(26));
+        List<String[]> records = repository.readSessionRecords(chatId);
+        assertEquals("2025-05-05 09:25", records.get(0)[3]);
+        assertEquals("", records.get(1)[3]);
+
+        repository.markSessionStopped(newer, START.plusMinutes(40));
+        assertEquals("false", repository.readSessionRecords(chatId).get(1)[4]);
+        assertEquals(List.of(50L, 0L, 2L, 0L), RandomHistory.numbers(repository.getStatistics(chatId)));
+
+        // После замены истории номер записи достался другой сессии - хэндл её не закрывает
+        SessionHandle replaced = repository.recordSession(chatId, "WORK", 25, START.plusHours(2));
+        repository.writeSessionRecords(chatId, List.of(
+                new String[]{"WORK", "25", "2025-05-05 09:00", "2025-05-05 09:25", "true"},
+                new String[]{"WORK", "25", "2025-05-05 09:30", "2025-05-05 09:55", "true"},
+                new String[]{"REST", "5", "2025-05-05 12:00", "", "false"}));
+        repository.completeSession(replaced, START.plusHours(3));
+        assertEquals("", repository.readSessionRecords(chatId).get(2)[3]);
+    }
+
+    @Test
+    void readsOfUnknownChatCreateNoFiles() {
+        long chatId = newChatId();
+        BinaryUserDataRepository repository = binaryRepository(BinaryUserDataRepository.DEFAULT_MAX_MAPPED_FILES);
+
+        assertEquals(List.of(0L, 0L, 0L, 0L), RandomHistory.numbers(repository.getStatistics(chatId)));
+        assertTrue(repository.getStatistics(chatId, LocalDate.of(2025, 5, 1), LocalDate.of(2025, 5, 31))
+                .contains("Рабочее время: 0 мин"));
+        assertTrue(repository.readSessionRecords(chatId).isEmpty());
+        repository.completeSession(chatId, "WORK", START);
+        repository.markSessionStopped(chatId, START);
+
+        assertFalse(Files.exists(binaryFile(chatId)));
+        assertFalse(Files.exists(Paths.get("data/binary/" + chatId + ".days.bin")));
+        assertFalse(repository.listChatIds().contains(chatId));
+        assertEquals(0, repository.mappedFiles());
+    }
+
+    @Test
+    void evictsIdleMappingsAndReopensThem() {
+        BinaryUserDataRepository repository = binaryRepository(2);
+        List<Long> chatIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            long chatId = newChatId();
+            chatIds.add(chatId);
+            SessionHandle work = repository.recordSession(chatId, "WORK", 25, START);
+            repository.completeSession(work, START.plusMinutes(25));
+            assertTrue(repository.mappedFiles() <= 2, "отображено " + repository.mappedFiles());
+        }
+
+        // Вытесненный файл открывается заново со всеми записями и продолжает расти
+        long evicted = chatIds.get(0);
+        repository.recordSession(evicted, "REST", 5, START.plusMinutes(25));
+        repository.completeSession(evicted, "REST", START.plusMinutes(30));
+        assertEquals(List.of(25L, 5L, 1L, 1L), RandomHistory.numbers(repository.getStatistics(evicted)));
+        for (long chatId : chatIds.subList(1, chatIds.size())) {
+            assertEquals(1, repository.readSessionRecords(chatId).size());
+        }
+        assertEquals(2, repository.mappedFiles());
+    }
+
+    private CsvUserDataRepository csvRepository() {
+        // Переносятся только чаты теста
+        CsvUserDataRepository repository = new CsvUserDataRepository(AchievementEngine.withDefaultRules()) {
+            @Override
+            public List<Long> listChatIds() {
+                return new ArrayList<>(chats);
+            }
+        };
+        repositories.add(repository);
+        return repository;
+    }
+
+    private BinaryUserDataRepository binaryRepository(int maxMappedFiles) {
+        BinaryUserDataRepository repository = new BinaryUserDataRepository(AchievementEngine.withDefaultRules(),
+                ZoneId.systemDefault(), maxMappedFiles) {
+            @Override
+            public List<Long> listChatIds() {
+                List<Long> chatIds = super.listChatIds();
+                chatIds.retainAll(chats);
+                return chatIds;
+            }
+        };
+        repositories.add(repository);
+        return repository;
+    }
+
+    private long newChatId() {
+        long chatId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+        chats.add(chatId);
+        return chatId;
+    }
+
+    private static Path binaryFile(long chatId) {
+        return Paths.get("data/binary/" + chatId + ".bin");
+    }
+
+    private static List<List<String>> rows(List<String[]> records) {
+        return records.stream().map(Arrays::asList).toList();
+    }
+}
@@ -0,0 +1,223 @@
+package repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(60)
+class CachingUserDataRepositoryTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 9, 0);
+
+    @Test
+    void loadStartedBeforeWriteIsNotCached() throws Exception {
+        CountingRepository delegate = new CountingRepository();
+        CachingUserDataRepository cache = new CachingUserDataRepository(delegate, 100, 0);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        delegate.gate(loading, release);
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Future<String> stale = reader.submit(() -> cache.getStatistics(1));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        // Запись приходит, пока загрузка читает старое состояние
+        cache.recordSession(1, "WORK", 25, START);
+        release.countDown();
+        assertEquals("records=0", stale.get());
+        reader.shutdown();
+
+        assertEquals("records=1", cache.getStatistics(1));
+        assertEquals(2, delegate.loads());
+        assertEquals("records=1", cache.getStatistics(1));
+        assertEquals(2, delegate.loads());
+    }
+
+    @Test
+    void readAfterWriteDoesNotJoinOlderLoad() throws Exception {
+        CountingRepository delegate = new CountingRepository();
+        CachingUserDataRepository cache = new CachingUserDataRepository(delegate, 100, 0);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        delegate.gate(loading, release);
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Future<String> stale = reader.submit(() -> cache.getStatistics(1));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        delegate.gate(null, null);
+        cache.recordSession(1, "WORK", 25, START);
+
+        // Загрузка до записи ещё висит, но читатель после записи получает новое значение
+        assertEquals("records=1", cache.getStatistics(1));
+        release.countDown();
+        assertEquals("records=0", stale.get());
+        reader.shutdown();
+        assertEquals("records=1", cache.getStatistics(1));
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        CountingRepository delegate = new CountingRepository();
+        CachingUserDataRepository cache = new CachingUserDataRepository(delegate, 100, 0);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        delegate.gate(loading, release);
+
+        int readers = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(readers);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            results.add(pool.submit(() -> cache.getStatistics(1)));
+        }
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        // Остальные читатели успевают присоединиться к идущей загрузке
+        while (cache.stats().missCount() < readers) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for (Future<String> result : results) {
+            assertEquals("records=0", result.get());
+        }
+        pool.shutdown();
+
+        assertEquals(1, delegate.loads());
+        assertEquals(readers - 1, cache.stats().coalescedLoadCount());
+    }
+
+    @Test
+    void readsAfterConcurrentWritesSeeLatestState() throws Exception {
+        CountingRepository delegate = new CountingRepository();
+        // Маленький кэш: чаты вытесняют друг друга, пока идут записи
+        CachingUserDataRepository cache = new CachingUserDataRepository(delegate, 16, 0);
+        int chats = 32;
+        int writesPerChat = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        AtomicInteger wrongReads = new AtomicInteger();
+        List<Future<?>> tasks = new ArrayList<>();
+
+        for (int writer = 0; writer < 4; writer++) {
+            int first = writer;
+            tasks.add(pool.submit(() -> {
+                for (int i = 0; i < writesPerChat; i++) {
+                    for (long chatId = first; chatId < chats; chatId += 4) {
+                        cache.recordSession(chatId, "WORK", 25, START.plusMinutes(i));
+                        // Сразу после своей записи чат видит её
+                        if (recordsOf(cache.getStatistics(chatId)) < i + 1) {
+                            wrongReads.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+        for (int reader = 0; reader < 4; reader++) {
+            tasks.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    cache.getStatistics(random.nextLong(chats));
+                }
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        pool.shutdown();
+
+        assertEquals(0, wrongReads.get());
+        for (long chatId = 0; chatId < chats; chatId++) {
+            assertEquals("records=" + writesPerChat, cache.getStatistics(chatId), "чат " + chatId);
+        }
+    }
+
+    @Test
+    void expiredEntryIsReloaded() throws Exception {
+        CountingRepository delegate = new CountingRepository();
+        CachingUserDataRepository cache = new CachingUserDataRepository(delegate, 100, 50);
+        cache.getStatistics(1);
+        cache.getStatistics(1);
+        assertEquals(1, delegate.loads());
+        Thread.sleep(100);
+        cache.getStatistics(1);
+        assertEquals(2, delegate.loads());
+    }
+
+    @Test
+    void evictsLeastRecentlyRead() {
+        CountingRepository delegate = new CountingRepository();
+        CachingUserDataRepository cache = new CachingUserDataRepository(delegate, 2, 0);
+        cache.getStatistics(1);
+        cache.getStatistics(2);
+        cache.getStatistics(1);
+        cache.getStatistics(3);
+        assertEquals(3, delegate.loads());
+
+        cache.getStatistics(1);
+        assertEquals(3, delegate.loads());
+        cache.getStatistics(2);
+        assertEquals(4, delegate.loads());
+        assertEquals(2, cache.stats().evictionCount());
+    }
+
+    private static long recordsOf(String statistics) {
+        return Long.parseLong(statistics.substring("records=".length()));
+    }
+
+    /**
+     * Статистика - число записанных сеансов чата; загрузку можно задержать до сигнала.
+     */
+    private static class CountingRepository extends RecordingUserDataRepository {
+        private final Map<Long, AtomicLong> records = new ConcurrentHashMap<>();
+        private final AtomicInteger loads = new AtomicInteger();
+        private volatile CountDownLatch loading;
+        private volatile CountDownLatch release;
+
+        void gate(CountDownLatch loading, CountDownLatch release) {
+            this.loading = loading;
+            this.release = release;
+        }
+
+        int loads() {
+            return loads.get();
+        }
+
+        @Override
+        public void applyBatch(List<SessionEvent> events) {
+            for (SessionEvent event : events) {
+                if (event.kind() == SessionEvent.Kind.RECORD) {
+                    records.computeIfAbsent(event.chatId(), id -> new AtomicLong()).incrementAndGet();
+                }
+            }
+        }
+
+        @Override
+        public String getStatistics(long chatId) {
+            loads.incrementAndGet();
+            AtomicLong count = records.get(chatId);
+            String value = "records=" + (count == null ? 0 : count.get());
+            CountDownLatch started = loading;
+            CountDownLatch resume = release;
+            if (started != null) {
+                started.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package repository;
+
+import config.TestConfigs;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Пул на настоящей PostgreSQL: исчерпание, переиспользование кэшированных запросов и повторный close().
+ */
+@Tag("db")
+class ConnectionPoolTest {
+    private static final long TIMEOUT_MILLIS = 200;
+
+    private ConnectionPool pool;
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    void timesOutWhenExhaustedAndRecoversAfterRelease() throws Exception {
+        pool = newPool(2);
+        PooledConnection first = pool.acquire();
+        PooledConnection second = pool.acquire();
+
+        long start = System.nanoTime();
+        assertThrows(SQLException.class, pool::acquire);
+        long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(waitedMillis >= TIMEOUT_MILLIS - 20, "ждали " + waitedMillis + " мс");
+        assertEquals(1, pool.stats().timeoutCount());
+
+        second.close();
+        try (PooledConnection third = pool.acquire()) {
+            assertEquals(1, selectOne(third));
+        }
+        first.close();
+        assertEquals(2, pool.stats().createdCount());
+        assertEquals(0, pool.stats().inUseConnections());
+    }
+
+    @Test
+    void reusesCachedStatementsOfReturnedConnection() throws Exception {
+        pool = newPool(1);
+        PreparedStatement statement;
+        try (PooledConnection connection = pool.acquire()) {
+            statement = connection.prepareStatement("SELECT ?::int");
+            assertSame(statement, connection.prepareStatement("SELECT ?::int"));
+            assertNotSame(statement, connection.prepareStatement("SELECT ?::int", Statement.RETURN_GENERATED_KEYS));
+            assertEquals(1, selectOne(connection));
+        }
+        try (PooledConnection connection = pool.acquire()) {
+            assertSame(statement, connection.prepareStatement("SELECT ?::int"));
+            assertEquals(1, selectOne(connection));
+        }
+        assertEquals(1, pool.stats().createdCount());
+        assertEquals(2, pool.stats().acquireCount());
+    }
+
+    @Test
+    void secondCloseDoesNotReturnConnectionAgain() throws Exception {
+        pool = newPool(1);
+        PooledConnection connection = pool.acquire();
+        connection.close();
+        connection.close();
+
+        ConnectionPool.PoolStats stats = pool.stats();
+        assertEquals(0, stats.inUseConnections());
+        assertEquals(1, stats.idleConnections());
+
+        // Разрешение одно: второй пользователь того же физического соединения не появится
+        try (PooledConnection borrowed = pool.acquire()) {
+            assertSame(connection, borrowed);
+            assertThrows(SQLException.class, pool::acquire);
+            assertEquals(1, pool.stats().inUseConnections());
+        }
+        assertEquals(1, pool.stats().idleConnections());
+    }
+
+    private static ConnectionPool newPool(int size) {
+        DataBaseTests.config();
+        return new ConnectionPool(TestConfigs.with(Map.of("dbPoolSize", size, "dbPoolTimeoutMillis", TIMEOUT_MILLIS)));
+    }
+
+    private static int selectOne(PooledConnection connection) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("SELECT ?::int");
+        statement.setInt(1, 1);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
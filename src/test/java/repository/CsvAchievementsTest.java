@@ -0,0 +1,77 @@
+package repository;
+
+import achievement.AchievementEngine;
+import achievement.CompletedSession;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvAchievementsTest {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    // До суток между операциями: серии дней то продолжаются, то прерываются
+    private static final int MAX_STEP_MINUTES = 16 * 60;
+
+    private final AchievementEngine engine = AchievementEngine.withDefaultRules();
+
+    @Test
+    void storedProgressMatchesRecomputeOverRandomHistories() {
+        CsvUserDataRepository repository = new CsvUserDataRepository(engine);
+        long firstChatId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+        try {
+            for (int seed = 0; seed < 10; seed++) {
+                long chatId = firstChatId - seed;
+                RandomHistory.play(repository, chatId, new Random(seed), 300 + seed * 100,
+                        LocalDateTime.of(2025, 1, 1, 9, 0), MAX_STEP_MINUTES);
+                List<CompletedSession> sessions = completed(repository.readSessionRecords(chatId));
+                assertEquals(engine.evaluateHistory(sessions), AchievementFiles.readProgress(chatId), "seed " + seed);
+                assertEquals(engine.replay(sessions).awards(), AchievementFiles.readAwards(chatId), "seed " + seed);
+            }
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test
+    void progressMissingMidwayIsRebuiltFromHistory() throws Exception {
+        CsvUserDataRepository repository = new CsvUserDataRepository(engine);
+        long chatId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+        try {
+            Random random = new Random(42);
+            LocalDateTime at = RandomHistory.play(repository, chatId, random, 400,
+                    LocalDateTime.of(2025, 1, 1, 9, 0), MAX_STEP_MINUTES);
+            // Как у чата, появившегося до учёта достижений: прогресса нет, он считается по истории
+            Files.delete(Paths.get("data/achievements/progress_" + chatId + ".csv"));
+            Files.delete(Paths.get("data/achievements/achievements_" + chatId + ".txt"));
+            RandomHistory.play(repository, chatId, random, 400, at, MAX_STEP_MINUTES);
+
+            List<CompletedSession> sessions = completed(repository.readSessionRecords(chatId));
+            assertEquals(engine.evaluateHistory(sessions), AchievementFiles.readProgress(chatId));
+            assertEquals(engine.replay(sessions).awards(), AchievementFiles.readAwards(chatId));
+            assertTrue(repository.backfillAchievements(chatId));
+            assertEquals(engine.evaluateHistory(sessions), AchievementFiles.readProgress(chatId));
+        } finally {
+            repository.close();
+        }
+    }
+
+    private static List<CompletedSession> completed(List<String[]> records) {
+        List<CompletedSession> sessions = new ArrayList<>();
+        for (String[] record : records) {
+            if ("true".equals(record[4])) {
+                sessions.add(new CompletedSession(record[0], Integer.parseInt(record[1]),
+                        LocalDateTime.parse(record[3], FORMATTER)));
+            }
+        }
+        return sessions;
+    }
+}
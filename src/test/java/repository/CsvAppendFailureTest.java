@@ -0,0 +1,66 @@
+package repository;
+
+import achievement.AchievementEngine;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Событие, которое не удалось дописать в журнал, не меняет ни индекс, ни агрегаты:
+ * после восстановления журнала хранилище и его перезапуск видят одно и то же.
+ */
+class CsvAppendFailureTest {
+    private static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 10, 0);
+
+    @Test
+    void failedAppendLeavesStateAsInJournal() throws Exception {
+        long chatId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+        Path journal = Paths.get("data/sessions/" + chatId + ".journal.csv");
+        Path saved = Paths.get("data/sessions/" + chatId + ".journal.saved");
+        CsvUserDataRepository repository = new CsvUserDataRepository(AchievementEngine.withDefaultRules());
+        try {
+            SessionHandle work = repository.recordSession(chatId, "WORK", 25, START);
+            String before = repository.getStatistics(chatId);
+
+            // Журнал нельзя открыть на запись, пока на его месте каталог
+            Files.move(journal, saved);
+            Files.createDirectory(journal);
+            assertThrows(RuntimeException.class, () -> repository.completeSession(work, START.plusMinutes(25)));
+            assertThrows(RuntimeException.class, () -> repository.completeSession(chatId, "WORK", START.plusMinutes(25)));
+            assertThrows(RuntimeException.class, () -> repository.markSessionStopped(work, START.plusMinutes(25)));
+            assertThrows(RuntimeException.class, () -> repository.markSessionStopped(chatId, START.plusMinutes(25)));
+            assertThrows(RuntimeException.class, () -> repository.recordSession(chatId, "REST", 5, START.plusMinutes(1)));
+            assertEquals(before, repository.getStatistics(chatId));
+            Files.delete(journal);
+            Files.move(saved, journal);
+
+            // Незаписанная REST не заняла номер строки: следующая сессия закрывается по своему хэндлу
+            SessionHandle rest = repository.recordSession(chatId, "REST", 5, START.plusMinutes(30));
+            assertEquals(1, rest.id());
+            repository.completeSession(work, START.plusMinutes(25));
+            repository.completeSession(rest, START.plusMinutes(35));
+            String after = repository.getStatistics(chatId);
+            assertEquals(List.of(25L, 5L, 1L, 1L), RandomHistory.numbers(after));
+            List<String[]> records = repository.readSessionRecords(chatId);
+            assertEquals(2, records.size());
+        } finally {
+            repository.close();
+        }
+
+        CsvUserDataRepository restarted = new CsvUserDataRepository(AchievementEngine.withDefaultRules());
+        try {
+            assertEquals(List.of(25L, 5L, 1L, 1L), RandomHistory.numbers(restarted.getStatistics(chatId)));
+            assertEquals(2, restarted.readSessionRecords(chatId).size());
+        } finally {
+            restarted.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package repository;
+
+import achievement.AchievementEngine;
+import config.Config;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Параллельная запись в CSV-хранилище во всех режимах fsync.
+ * Чатов больше, чем полос блокировок, поэтому часть чатов делит полосу; в горячий чат идёт половина записей,
+ * и его журнал несколько раз уплотняется во время записи и чтения.
+ */
+@Timeout(300)
+class CsvConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int SESSIONS_PER_THREAD = 400;
+    private static final int CHATS = 300;
+    private static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    @Test
+    void concurrentWritesWithoutFsync() throws Exception {
+        CsvUserDataRepository.SyncStats stats = writeConcurrentlyAndVerify(Config.CSV_FSYNC_NONE);
+        assertEquals(new CsvUserDataRepository.SyncStats(0, 0), stats);
+    }
+
+    @Test
+    void concurrentWritesWithFsyncPerEvent() throws Exception {
+        CsvUserDataRepository.SyncStats stats = writeConcurrentlyAndVerify(Config.CSV_FSYNC_ALWAYS);
+        assertEquals(new CsvUserDataRepository.SyncStats(0, 0), stats);
+    }
+
+    @Test
+    void concurrentWritesShareGroupFsync() throws Exception {
+        CsvUserDataRepository.SyncStats stats = writeConcurrentlyAndVerify(Config.CSV_FSYNC_GROUP);
+        // Каждая запись ждёт сброса: запуск сессии и её закрытие
+        assertEquals(2L * THREADS * SESSIONS_PER_THREAD, stats.requestCount());
+        assertTrue(stats.syncCount() > 0);
+        assertTrue(stats.syncCount() < stats.requestCount(),
+                "записи не объединялись: " + stats.requestCount() + " записей, " + stats.syncCount() + " fsync");
+    }
+
+    private CsvUserDataRepository.SyncStats writeConcurrentlyAndVerify(String fsyncMode) throws Exception {
+        long firstChatId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+        long hotChatId = firstChatId;
+        Map<Long, LongAdder> started = new ConcurrentHashMap<>();
+        Map<Long, LongAdder> completed = new ConcurrentHashMap<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger shrunkReads = new AtomicInteger();
+
+        CsvUserDataRepository repository = new CsvUserDataRepository(AchievementEngine.withDefaultRules(), fsyncMode);
+        CsvUserDataRepository.SyncStats stats;
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            // Читатель горячего чата: история, читаемая во время уплотнения, не должна терять строк
+            Future<?> reader = pool.submit(() -> {
+                int previous = 0;
+                while (writing.get()) {
+                    int size = repository.readSessionRecords(hotChatId).size();
+                    if (size < previous) {
+                        shrunkReads.incrementAndGet();
+                    }
+                    previous = size;
+                    repository.getStatistics(hotChatId);
+                }
+            });
+            List<Future<?>> writers = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                writers.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < SESSIONS_PER_THREAD; i++) {
+                        long chatId = random.nextBoolean() ? hotChatId : firstChatId - random.nextInt(CHATS);
+                        LocalDateTime startAt = START.plusMinutes(random.nextInt(100_000));
+                        repository.recordSession(chatId, "WORK", 25, startAt);
+                        started.computeIfAbsent(chatId, id -> new LongAdder()).increment();
+                        if (random.nextInt(4) == 0) {
+                            repository.markSessionStopped(chatId, startAt.plusMinutes(5));
+                        } else {
+                            repository.completeSession(chatId, "WORK", startAt.plusMinutes(25));
+                            completed.computeIfAbsent(chatId, id -> new LongAdder()).increment();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            writing.set(false);
+            reader.get();
+        } finally {
+            pool.shutdown();
+            stats = repository.syncStats();
+            repository.close();
+        }
+        assertEquals(0, shrunkReads.get(), "история горячего чата укорачивалась при чтении");
+
+        // Новый экземпляр читает только файлы: ни одна сессия не потеряна и не осталась открытой
+        try (CsvUserDataRepository reopened = new CsvUserDataRepository()) {
+            for (Map.Entry<Long, LongAdder> entry : started.entrySet()) {
+                long chatId = entry.getKey();
+                long expectedSessions = entry.getValue().sum();
+                LongAdder completedAdder = completed.get(chatId);
+                long expectedCompleted = completedAdder == null ? 0 : completedAdder.sum();
+
+                List<String[]> records = reopened.readSessionRecords(chatId);
+                assertEquals(expectedSessions, records.size(), "чат " + chatId);
+                assertEquals(0, records.stream().filter(record -> record[3].isEmpty()).count(), "чат " + chatId);
+                assertEquals(expectedCompleted, records.stream().filter(record -> "true".equals(record[4])).count(),
+                        "чат " + chatId);
+                // Остановленные сессии тоже входят в статистику файлового хранилища
+                assertEquals(expectedSessions, RandomHistory.numbers(reopened.getStatistics(chatId)).get(2),
+                        "чат " + chatId);
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,81 @@
+package repository;
+
+import achievement.AchievementEngine;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvExportTest {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final int SNAPSHOT_ROWS = 2_000_000;
+
+    @Test
+    void exportMatchesHistoryOverRandomHistories() {
+        CsvUserDataRepository repository = new CsvUserDataRepository(AchievementEngine.withDefaultRules());
+        long firstChatId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+        try {
+            for (int seed = 0; seed < 20; seed++) {
+                long chatId = firstChatId - seed;
+                // Самые длинные истории переходят порог уплотнения журнала
+                RandomHistory.play(repository, chatId, new Random(seed), 50 + seed * 75,
+                        LocalDateTime.of(2025, 1, 1, 0, 0));
+                List<String> expected = new ArrayList<>();
+                expected.add("type,duration,start_at,stop_at,completed");
+                for (String[] record : repository.readSessionRecords(chatId)) {
+                    expected.add(String.join(",", record));
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                repository.exportStatistics(chatId, out);
+                assertEquals(expected, List.of(out.toString(StandardCharsets.UTF_8).split("\n")), "seed " + seed);
+            }
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * Снимок на SNAPSHOT_ROWS сессий (последняя открыта) и журнал поверх него: закрытие последней сессии
+     * по номеру строки и новая сессия. Выгрузка идёт в JVM с кучей в несколько раз меньше истории.
+     */
+    @Test
+    void exportsMillionsOfRowsWithSmallHeap() throws Exception {
+        long chatId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+        Path snapshot = Paths.get("data/sessions/" + chatId + ".csv");
+        Path journal = Paths.get("data/sessions/" + chatId + ".journal.csv");
+        Files.createDirectories(snapshot.getParent());
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(snapshot)) {
+                writer.write("type,duration,start_at,stop_at,completed\n");
+                for (int row = 0; row < SNAPSHOT_ROWS; row++) {
+                    LocalDateTime startAt = start.plusMinutes(row * 30L);
+                    boolean open = row == SNAPSHOT_ROWS - 1;
+                    writer.write((row % 2 == 0 ? "WORK" : "REST") + ",25," + startAt.format(FORMATTER) + ","
+                            + (open ? "" : startAt.plusMinutes(25).format(FORMATTER)) + "," + !open + "\n");
+                }
+            }
+            LocalDateTime end = start.plusMinutes(SNAPSHOT_ROWS * 30L);
+            Files.writeString(journal,
+                    "\"COMPLETE\",\"REST\",\"\",\"" + end.format(FORMATTER) + "\",\"" + (SNAPSHOT_ROWS - 1) + "\"\n"
+                            + "\"START\",\"WORK\",\"25\",\"" + end.format(FORMATTER) + "\"\n");
+
+            assertEquals(SNAPSHOT_ROWS + 2, SmallHeapExport.exportLines("csv", chatId));
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.deleteIfExists(journal);
+        }
+    }
+}
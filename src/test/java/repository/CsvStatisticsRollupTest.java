@@ -0,0 +1,51 @@
+package repository;
+
+import achievement.AchievementEngine;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvStatisticsRollupTest {
+
+    @Test
+    void rollupMatchesFullScanOverRandomHistories() {
+        CsvUserDataRepository repository = new CsvUserDataRepository(AchievementEngine.withDefaultRules());
+        long firstChatId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+        try {
+            for (int seed = 0; seed < 20; seed++) {
+                long chatId = firstChatId - seed;
+                // Самые длинные истории переходят порог уплотнения журнала
+                RandomHistory.play(repository, chatId, new Random(seed), 50 + seed * 75,
+                        LocalDateTime.of(2025, 1, 1, 0, 0));
+                assertEquals(fullScan(repository.readSessionRecords(chatId)),
+                        RandomHistory.numbers(repository.getStatistics(chatId)), "seed " + seed);
+            }
+        } finally {
+            repository.close();
+        }
+    }
+
+    // Файловое хранилище считает все закрытые сессии - и завершённые, и остановленные
+    private static List<Long> fullScan(List<String[]> records) {
+        long workMinutes = 0, restMinutes = 0, workCycles = 0, restCycles = 0;
+        for (String[] record : records) {
+            if (record[3].isEmpty()) {
+                continue;
+            }
+            int duration = Integer.parseInt(record[1]);
+            if ("WORK".equals(record[0])) {
+                workMinutes += duration;
+                workCycles++;
+            } else {
+                restMinutes += duration;
+                restCycles++;
+            }
+        }
+        return List.of(workMinutes, restMinutes, workCycles, restCycles);
+    }
+}
@@ -0,0 +1,211 @@
+package repository;
+
+import achievement.AchievementEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Перенос CSV-истории в PostgreSQL: COPY и сверка, продолжение по контрольной точке (в том числе с оборванной
+ * строкой), узнавание зафиксированных, но не отмеченных в контрольной точке чатов и чаты без целых сессий.
+ * Переносятся только чаты теста - каталог data/sessions общий с другими тестами.
+ */
+@Tag("db")
+class CsvToDataBaseMigratorTest {
+    private static final Path CHECKPOINT = Paths.get("data/migration/csv-to-db.checkpoint");
+
+    private final List<Long> chats = new ArrayList<>();
+    private CsvUserDataRepository csvRepository;
+    private DataBaseUserDataRepository repository;
+    private long firstChatId;
+    private long chatA;
+    private long chatB;
+    private long chatEmpty;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.deleteIfExists(CHECKPOINT);
+        firstChatId = -System.currentTimeMillis() * 1000;
+        chatA = firstChatId;
+        chatB = firstChatId - 1;
+        chatEmpty = firstChatId - 2;
+        csvRepository = new CsvUserDataRepository(AchievementEngine.withDefaultRules()) {
+            @Override
+            public List<Long> listChatIds() {
+                return new ArrayList<>(chats);
+            }
+        };
+        repository = new DataBaseUserDataRepository(DataBaseTests.config());
+
+        csvRepository.writeSessionRecords(chatA, List.of(
+                session("WORK", 25, "2025-01-10 09:00", "2025-01-10 09:25", true),
+                session("REST", 5, "2025-01-10 09:25", "2025-01-10 09:30", true),
+                // Табуляция в значении экранируется для COPY
+                session("WO\tRK", 25, "2025-02-01 10:00", "", false)));
+        csvRepository.writeSessionRecords(chatB, List.of(
+                session("WORK", 25, "2025-01-11 09:00", "2025-01-11 09:25", true),
+                new String[]{"WORK", "не число", "2025-01-11 10:00", "", "false"},
+                session("WORK", 25, "2025-01-11 11:00", "2025-01-11 11:25", true)));
+        csvRepository.writeSessionRecords(chatEmpty, List.of(
+                new String[]{"WORK", "25", "вчера", "", "false"},
+                new String[]{"", "25", "2025-01-12 09:00", "", "false"}));
+        Files.writeString(awardsFile(chatEmpty), "🏆 Первый шаг - Завершить первую сессию (2025-01-12 09:25)\n",
+                StandardCharsets.UTF_8);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        csvRepository.close();
+        repository.close();
+        Files.deleteIfExists(CHECKPOINT);
+        for (long chatId = firstChatId - 2; chatId <= firstChatId; chatId++) {
+            Files.deleteIfExists(Paths.get("data/sessions/" + chatId + ".csv"));
+            Files.deleteIfExists(awardsFile(chatId));
+        }
+        DataBaseTests.deleteChats(firstChatId - 2, firstChatId);
+    }
+
+    @Test
+    void copiesSessionsAndVerifiesCountsPerChat() throws Exception {
+        chats.addAll(List.of(chatA, chatB, chatEmpty));
+
+        assertTrue(newMigrator().migrate());
+
+        assertEquals(3, countSessions(chatA));
+        assertEquals(2, countSessions(chatB));
+        assertEquals(0, countSessions(chatEmpty));
+        assertEquals(1, countAchievements(chatEmpty));
+        assertEquals(List.of(chatA + ",3", chatB + ",2", chatEmpty + ",0"), checkpointLines());
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement(
+                     "SELECT type, stop_at IS NULL, completed FROM user_sessions WHERE chat_id = ? AND start_at = ?")) {
+            ps.setLong(1, chatA);
+            ps.setObject(2, java.time.LocalDateTime.of(2025, 2, 1, 10, 0));
+            try (ResultSet resultSet = ps.executeQuery()) {
+                assertTrue(resultSet.next());
+                assertEquals("WO\tRK", resultSet.getString(1));
+                assertTrue(resultSet.getBoolean(2));
+                assertFalse(resultSet.getBoolean(3));
+            }
+        }
+
+        // Лишняя строка в БД: повторный запуск ничего не переносит, но сверка находит расхождение
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement(
+                     "INSERT INTO user_sessions (chat_id, type, duration, start_at, completed) "
+                             + "VALUES (?, 'WORK', 25, '2025-01-10 12:00', false)")) {
+            ps.setLong(1, chatB);
+            ps.executeUpdate();
+        }
+        assertFalse(newMigrator().migrate());
+        assertEquals(3, countSessions(chatA));
+    }
+
+    @Test
+    void resumesFromCheckpointWithTornLastLine() throws Exception {
+        chats.add(chatA);
+        assertTrue(newMigrator().migrate());
+        // Процесс упал посреди записи строки чата B - сам чат B в БД не попал
+        Files.writeString(CHECKPOINT, chatB + ",", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        chats.add(chatB);
+        assertTrue(newMigrator().migrate());
+
+        assertEquals(3, countSessions(chatA));
+        assertEquals(2, countSessions(chatB));
+        assertEquals(List.of(chatA + ",3", chatB + ",2"), checkpointLines());
+    }
+
+    @Test
+    void recognizesCommittedBatchMissingFromCheckpoint() throws Exception {
+        chats.addAll(List.of(chatA, chatEmpty));
+        assertTrue(newMigrator().migrate());
+        // Пачка зафиксирована, контрольная точка потеряна
+        Files.delete(CHECKPOINT);
+
+        chats.add(chatB);
+        assertTrue(newMigrator().migrate());
+
+        assertEquals(3, countSessions(chatA));
+        assertEquals(2, countSessions(chatB));
+        assertEquals(1, countAchievements(chatEmpty));
+        // Чат без сессий пишется в контрольную точку вместе со следующей пачкой
+        assertEquals(List.of(chatA + ",3", chatEmpty + ",0", chatB + ",2"), checkpointLines());
+
+        // Чат без целых сессий отмечен в контрольной точке и больше не переносится
+        assertTrue(newMigrator().migrate());
+        assertEquals(3, checkpointLines().size());
+    }
+
+    @Test
+    void reportsConflictWhenDatabaseHasOtherSessions() throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement(
+                     "INSERT INTO user_sessions (chat_id, type, duration, start_at, completed) "
+                             + "VALUES (?, 'WORK', 25, '2025-01-10 12:00', false)")) {
+            ps.setLong(1, chatA);
+            ps.executeUpdate();
+        }
+        chats.addAll(List.of(chatA, chatB));
+
+        assertFalse(newMigrator().migrate());
+
+        assertEquals(1, countSessions(chatA));
+        assertEquals(2, countSessions(chatB));
+        assertEquals(List.of(chatB + ",2"), checkpointLines());
+    }
+
+    private CsvToDataBaseMigrator newMigrator() {
+        // Пачка меньше чата: каждый чат - в своей транзакции
+        return new CsvToDataBaseMigrator(csvRepository, repository, 1, 2);
+    }
+
+    private static String[] session(String type, int duration, String startAt, String stopAt, boolean completed) {
+        return new String[]{type, String.valueOf(duration), startAt, stopAt, String.valueOf(completed)};
+    }
+
+    private static Path awardsFile(long chatId) {
+        new File("data/achievements").mkdirs();
+        return Paths.get("data/achievements/achievements_" + chatId + ".txt");
+    }
+
+    private static List<String> checkpointLines() throws Exception {
+        return Files.readAllLines(CHECKPOINT, StandardCharsets.UTF_8);
+    }
+
+    private static long countSessions(long chatId) throws Exception {
+        return count("SELECT COUNT(*) FROM user_sessions WHERE chat_id = ?", chatId);
+    }
+
+    private static long countAchievements(long chatId) throws Exception {
+        return count("SELECT COUNT(*) FROM user_achievements WHERE chat_id = ?", chatId);
+    }
+
+    private static long count(String sql, long chatId) throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, chatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package repository;
+
+import achievement.AchievementEngine;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Снимок, который не удалось записать, ничего не подменяет: ни журнал, ни история чата не теряются.
+ * Временный файл нельзя открыть на запись, пока на его месте каталог.
+ */
+class CsvWriteFailureTest {
+    private static final LocalDateTime START = LocalDateTime.of(2025, 4, 1, 8, 0);
+    // Столько сессий - 1000 событий журнала, порог уплотнения
+    private static final int SESSIONS = 500;
+
+    @Test
+    void failedCompactionKeepsJournalEvents() throws Exception {
+        long chatId = newChatId();
+        Path tmp = Paths.get("data/sessions/" + chatId + ".csv.tmp");
+        Path compacting = Paths.get("data/sessions/" + chatId + ".journal.compacting.csv");
+        CsvUserDataRepository repository = new CsvUserDataRepository(AchievementEngine.withDefaultRules());
+        try {
+            recordSessions(repository, chatId, START, 0, 1);
+            // Каталог - после построения индекса, иначе его принял бы за готовый снимок разбор прерванного уплотнения
+            Files.createDirectories(tmp);
+            recordSessions(repository, chatId, START, 1, SESSIONS);
+        } finally {
+            // Дожидается уплотнения
+            repository.close();
+        }
+        assertTrue(Files.exists(compacting), "уплотнение должно прерваться до удаления .compacting");
+        assertTrue(!Files.exists(Paths.get("data/sessions/" + chatId + ".csv"))
+                || Files.isRegularFile(Paths.get("data/sessions/" + chatId + ".csv")));
+        Files.delete(tmp);
+
+        CsvUserDataRepository restarted = new CsvUserDataRepository(AchievementEngine.withDefaultRules());
+        try {
+            assertEquals(SESSIONS, restarted.readSessionRecords(chatId).size());
+            assertEquals(List.of(SESSIONS * 25L, 0L, (long) SESSIONS, 0L),
+                    RandomHistory.numbers(restarted.getStatistics(chatId)));
+            // Следующее уплотнение доводит прерванное до конца
+            recordSessions(restarted, chatId, START.plusDays(30), 0, SESSIONS);
+        } finally {
+            restarted.close();
+        }
+        assertTrue(!Files.exists(compacting));
+        CsvUserDataRepository reopened = new CsvUserDataRepository(AchievementEngine.withDefaultRules());
+        try {
+            assertEquals(2 * SESSIONS, reopened.readSessionRecords(chatId).size());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void failedImportKeepsPreviousHistory() throws Exception {
+        long chatId = newChatId();
+        Path importTmp = Paths.get("data/sessions/" + chatId + ".csv.import.tmp");
+        CsvUserDataRepository repository = new CsvUserDataRepository(AchievementEngine.withDefaultRules());
+        try {
+            SessionHandle work = repository.recordSession(chatId, "WORK", 25, START);
+            repository.completeSession(work, START.plusMinutes(25));
+            String before = repository.getStatistics(chatId);
+
+            Files.createDirectories(importTmp);
+            List<String[]> replacement = new ArrayList<>();
+            replacement.add(new String[]{"REST", "5", "2025-04-02 08:00", "2025-04-02 08:05", "true"});
+            assertThrows(RuntimeException.class, () -> repository.writeSessionRecords(chatId, replacement));
+
+            assertEquals(1, repository.readSessionRecords(chatId).size());
+            assertEquals("WORK", repository.readSessionRecords(chatId).get(0)[0]);
+            assertEquals(before, repository.getStatistics(chatId));
+            assertTrue(Files.exists(Paths.get("data/sessions/" + chatId + ".journal.csv")));
+
+            Files.delete(importTmp);
+            repository.writeSessionRecords(chatId, replacement);
+            assertEquals("REST", repository.readSessionRecords(chatId).get(0)[0]);
+        } finally {
+            repository.close();
+        }
+    }
+
+    private static void recordSessions(CsvUserDataRepository repository, long chatId, LocalDateTime from,
+                                       int first, int end) {
+        for (int i = first; i < end; i++) {
+            LocalDateTime startAt = from.plusMinutes(30L * i);
+            SessionHandle work = repository.recordSession(chatId, "WORK", 25, startAt);
+            repository.completeSession(work, startAt.plusMinutes(25));
+        }
+    }
+
+    private static long newChatId() {
+        return -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+    }
+}
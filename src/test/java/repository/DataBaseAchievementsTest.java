@@ -0,0 +1,114 @@
+package repository;
+
+import achievement.AchievementEngine;
+import achievement.AchievementProgress;
+import achievement.Award;
+import achievement.CompletedSession;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("db")
+class DataBaseAchievementsTest {
+    private static final int CHATS = 10;
+    private static final int MAX_STEP_MINUTES = 16 * 60;
+
+    private static final AchievementEngine engine = AchievementEngine.withDefaultRules();
+    private static DataBaseUserDataRepository repository;
+    private static long firstChatId;
+
+    @BeforeAll
+    static void setUp() {
+        repository = new DataBaseUserDataRepository(DataBaseTests.config(), engine);
+        firstChatId = -System.currentTimeMillis() * 1000;
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        repository.close();
+        DataBaseTests.deleteChats(firstChatId - CHATS, firstChatId);
+    }
+
+    @Test
+    void storedProgressMatchesRecomputeOverRandomHistories() throws Exception {
+        for (int seed = 0; seed < CHATS; seed++) {
+            long chatId = firstChatId - seed;
+            RandomHistory.play(repository, chatId, new Random(seed), 200 + seed * 40,
+                    LocalDateTime.now().minusDays(200), MAX_STEP_MINUTES);
+            List<CompletedSession> sessions = completedSessions(chatId);
+            assertEquals(engine.evaluateHistory(sessions), storedProgress(chatId), "seed " + seed);
+            assertEquals(engine.replay(sessions).awards(), storedAwards(chatId), "seed " + seed);
+
+            assertTrue(repository.backfillAchievements(chatId));
+            assertEquals(engine.evaluateHistory(sessions), storedProgress(chatId), "seed " + seed);
+        }
+    }
+
+    private static List<CompletedSession> completedSessions(long chatId) throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement(DataBaseUserDataRepository.GET_COMPLETED_SESSIONS)) {
+            ps.setLong(1, chatId);
+            List<CompletedSession> sessions = new ArrayList<>();
+            try (ResultSet resultSet = ps.executeQuery()) {
+                while (resultSet.next()) {
+                    sessions.add(new CompletedSession(resultSet.getString("type"), resultSet.getInt("duration"),
+                            resultSet.getTimestamp("stop_at").toLocalDateTime()));
+                }
+            }
+            return sessions;
+        }
+    }
+
+    private static AchievementProgress storedProgress(long chatId) throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement("""
+                     SELECT work_cycles, work_minutes, current_streak, longest_streak, last_work_day, awarded_mask
+                     FROM user_achievement_progress
+                     WHERE chat_id = ?
+                     """)) {
+            ps.setLong(1, chatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                Date lastWorkDay = resultSet.getDate("last_work_day");
+                return new AchievementProgress(resultSet.getLong("work_cycles"), resultSet.getLong("work_minutes"),
+                        resultSet.getInt("current_streak"), resultSet.getInt("longest_streak"),
+                        lastWorkDay == null ? null : lastWorkDay.toLocalDate(), resultSet.getLong("awarded_mask"));
+            }
+        }
+    }
+
+    private static List<Award> storedAwards(long chatId) throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement("""
+                     SELECT achievement_name, achievement_description, achieved_at
+                     FROM user_achievements
+                     WHERE chat_id = ?
+                     ORDER BY achieved_at, id
+                     """)) {
+            ps.setLong(1, chatId);
+            List<Award> awards = new ArrayList<>();
+            try (ResultSet resultSet = ps.executeQuery()) {
+                while (resultSet.next()) {
+                    awards.add(new Award(resultSet.getString(1), resultSet.getString(2),
+                            resultSet.getTimestamp(3).toLocalDateTime()));
+                }
+            }
+            return awards;
+        }
+    }
+}
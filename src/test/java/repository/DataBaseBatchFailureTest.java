@@ -0,0 +1,92 @@
+package repository;
+
+import achievement.AchievementEngine;
+import achievement.AchievementRule;
+import config.TestConfigs;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Пачка, оборвавшаяся между addBatch и executeBatch, не должна оставлять строк в кэшированном запросе вставки.
+ * В пуле одно соединение, поэтому следующая пачка идёт через те же закэшированные запросы.
+ */
+@Tag("db")
+class DataBaseBatchFailureTest {
+    private static final LocalDateTime START = LocalDateTime.of(2000, 1, 3, 9, 0);
+
+    private volatile boolean failAchievements;
+    private DataBaseUserDataRepository repository;
+    private long firstChatId;
+
+    @BeforeEach
+    void setUp() {
+        DataBaseTests.config();
+        // Правило, которое бросает исключение по флагу: завершение сессии падает посреди волны
+        AchievementRule failing = new AchievementRule("Сбой", "Сбой при проверке правила", progress -> {
+            if (failAchievements) {
+                throw new IllegalStateException("rule failed");
+            }
+            return 0;
+        }, 1);
+        repository = new DataBaseUserDataRepository(new ConnectionPool(TestConfigs.with(Map.of("dbPoolSize", 1))),
+                new AchievementEngine(List.of(failing)));
+        firstChatId = -System.currentTimeMillis() * 1000;
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        repository.close();
+        DataBaseTests.deleteChats(firstChatId - 3, firstChatId);
+    }
+
+    @Test
+    void failedWaveLeavesNoGhostRowsForNextBatch() throws Exception {
+        long recordedChatId = firstChatId;
+        long completedChatId = firstChatId - 1;
+        long nextChatId = firstChatId - 2;
+        SessionHandle work = repository.recordSession(completedChatId, "WORK", 25, START);
+
+        // Одна волна: вставка уходит в батч, затем завершение другого чата бросает исключение
+        SessionHandle lost = SessionHandle.pending(recordedChatId, "WORK", START);
+        failAchievements = true;
+        assertThrows(RuntimeException.class, () -> repository.applyBatch(List.of(
+                SessionEvent.record(lost, 25),
+                SessionEvent.complete(work, START.plusMinutes(25)))));
+        failAchievements = false;
+        assertFalse(lost.isResolved());
+
+        SessionHandle next = SessionHandle.pending(nextChatId, "REST", START);
+        repository.applyBatch(List.of(SessionEvent.record(next, 5)));
+
+        assertEquals(List.of(), sessionIds(recordedChatId), "строка оборванной пачки вставлена следующей");
+        assertEquals(List.of(next.id()), sessionIds(nextChatId), "хэндл получил id чужой строки");
+    }
+
+    private static List<Long> sessionIds(long chatId) throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement("SELECT id FROM user_sessions WHERE chat_id = ?")) {
+            ps.setLong(1, chatId);
+            List<Long> ids = new ArrayList<>();
+            try (ResultSet resultSet = ps.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getLong(1));
+                }
+            }
+            return ids;
+        }
+    }
+}
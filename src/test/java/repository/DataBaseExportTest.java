@@ -0,0 +1,46 @@
+package repository;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("db")
+class DataBaseExportTest {
+    private static final int ROWS = 2_000_000;
+
+    private static long chatId;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        chatId = -System.currentTimeMillis() * 1000;
+        // Старые даты уходят в секцию по умолчанию; секции по месяцам для них не создаются
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement("""
+                     INSERT INTO user_sessions (chat_id, type, duration, start_at, stop_at, completed)
+                     SELECT ?, CASE WHEN n % 2 = 0 THEN 'WORK' ELSE 'REST' END, 25,
+                            TIMESTAMP '2000-01-01' + n * INTERVAL '30 minutes',
+                            TIMESTAMP '2000-01-01' + n * INTERVAL '30 minutes' + INTERVAL '25 minutes', true
+                     FROM generate_series(0, ? - 1) AS n
+                     """)) {
+            ps.setLong(1, chatId);
+            ps.setInt(2, ROWS);
+            ps.executeUpdate();
+        }
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        DataBaseTests.deleteChats(chatId, chatId);
+    }
+
+    @Test
+    void exportsMillionsOfRowsWithSmallHeap() throws Exception {
+        assertEquals(ROWS + 1, SmallHeapExport.exportLines("db", chatId));
+    }
+}
@@ -0,0 +1,63 @@
+package repository;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("db")
+class DataBaseStatisticsRollupTest {
+    private static final int CHATS = 20;
+
+    private static DataBaseUserDataRepository repository;
+    private static long firstChatId;
+
+    @BeforeAll
+    static void setUp() {
+        repository = new DataBaseUserDataRepository(DataBaseTests.config());
+        firstChatId = -System.currentTimeMillis() * 1000;
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        repository.close();
+        DataBaseTests.deleteChats(firstChatId - CHATS, firstChatId);
+    }
+
+    @Test
+    void rollupMatchesFullScanOverRandomHistories() throws Exception {
+        for (int seed = 0; seed < CHATS; seed++) {
+            long chatId = firstChatId - seed;
+            RandomHistory.play(repository, chatId, new Random(seed), 50 + seed * 20, LocalDateTime.now().minusDays(3));
+            assertEquals(fullScan(chatId), RandomHistory.numbers(repository.getStatistics(chatId)), "seed " + seed);
+        }
+    }
+
+    // В БД статистика считает только завершённые сессии
+    private static List<Long> fullScan(long chatId) throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement("""
+                     SELECT COALESCE(SUM(duration) FILTER (WHERE type = 'WORK'), 0),
+                            COALESCE(SUM(duration) FILTER (WHERE type = 'REST'), 0),
+                            COUNT(*) FILTER (WHERE type = 'WORK'),
+                            COUNT(*) FILTER (WHERE type = 'REST')
+                     FROM user_sessions
+                     WHERE chat_id = ? AND completed AND stop_at IS NOT NULL
+                     """)) {
+            ps.setLong(1, chatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return List.of(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(4));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package repository;
+
+import config.Config;
+import config.TestConfigs;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Общее для тестов с тегом db: конфигурация из окружения, миграции и удаление данных тестовых чатов.
+ */
+final class DataBaseTests {
+    private static Config config;
+
+    private DataBaseTests() {
+    }
+
+    static synchronized Config config() {
+        if (config == null) {
+            config = TestConfigs.defaults();
+            new SchemaMigrator(config).migrate();
+        }
+        return config;
+    }
+
+    static Connection connect() throws SQLException {
+        Config config = config();
+        return DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword());
+    }
+
+    /**
+     * Удаляет данные чатов from..to из всех таблиц с chat_id.
+     */
+    static void deleteChats(long from, long to) throws SQLException {
+        try (Connection connection = connect()) {
+            for (String table : new String[]{"user_sessions", "user_statistics", "user_daily_statistics",
+                    "user_achievements", "user_achievement_progress", "user_statistics_archived", "pomodoro_timers"}) {
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "DELETE FROM " + table + " WHERE chat_id BETWEEN ? AND ?")) {
+                    ps.setLong(1, from);
+                    ps.setLong(2, to);
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package repository;
+
+import achievement.Award;
+import config.Config;
+import config.TestConfigs;
+import messaging.MessageDispatcher;
+import metrics.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+import service.PomodoroServiceImpl;
+import timer.ScheduledExecutorTimerEngine;
+import timer.TimerEngine;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Очередь таймеров в БД. Узел - как в Main: своё хранилище со своим пулом соединений, своя DataBaseTimerQueue
+ * и PomodoroServiceImpl, который получает её уведомления и отвечает в чаты. Общая у узлов только база.
+ * Сработавшие таймеры видны по ответам узлов в чаты.
+ */
+@Tag("db")
+@Timeout(120)
+class DataBaseTimerQueueTest {
+    private static final int NODES = 4;
+    private static final LocalDateTime START = LocalDateTime.of(2000, 1, 3, 9, 0);
+    private static final String WORK_FINISHED = "Пора отдыхать!";
+    private static final String REST_FINISHED = "Время поработать!";
+
+    // Отправленные всеми узлами сообщения: "chatId:текст"
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final List<Node> nodes = new ArrayList<>();
+    private Config config;
+    private long firstChatId;
+    private int chats;
+    // Чат, срабатывание таймера которого падает в БД, пока флаг поднят
+    private volatile long poisonedChatId;
+    private volatile boolean poisoned;
+
+    @BeforeEach
+    void setUp() {
+        DataBaseTests.config();
+        // Маленькие пачки: узлы много раз забирают строки одновременно
+        config = TestConfigs.with(Map.of("timerQueueBatchSize", 8));
+        firstChatId = -System.currentTimeMillis() * 1000;
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new Node());
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        nodes.forEach(Node::close);
+        DataBaseTests.deleteChats(firstChatId - chats, firstChatId);
+    }
+
+    @Test
+    void concurrentNodesFireEachTimerOnce() throws Exception {
+        chats = 200;
+        LocalDateTime startedAt = LocalDateTime.now();
+        for (int i = 0; i < chats; i++) {
+            nodes.get(i % NODES).service.startPomodoro(firstChatId - i);
+        }
+        nodes.get(1).service.startPomodoro(firstChatId);
+        awaitSent(firstChatId, "Таймер Pomodoro уже запущен.", 1);
+
+        LocalDateTime workDue = startedAt.plusMinutes(config.workDuration() + 1);
+        assertEquals(chats, fireOnAllNodes(workDue));
+        assertEquals(chats, fireOnAllNodes(workDue.plusMinutes(config.restDuration() + 1)));
+
+        for (int i = 0; i < chats; i++) {
+            long chatId = firstChatId - i;
+            awaitSent(chatId, REST_FINISHED, 1);
+            assertEquals(1, countSent(chatId, WORK_FINISHED), "чат " + chatId);
+        }
+        assertEquals(0, count("SELECT COUNT(*) FROM pomodoro_timers WHERE chat_id BETWEEN ? AND ?"));
+        // У каждого чата ровно одна завершённая работа и один завершённый отдых
+        assertEquals(2L * chats, count("""
+                SELECT COUNT(*) FROM user_sessions
+                WHERE chat_id BETWEEN ? AND ? AND completed AND stop_at IS NOT NULL
+                """));
+        assertEquals(2L * chats, count("SELECT COUNT(*) FROM user_sessions WHERE chat_id BETWEEN ? AND ?"));
+    }
+
+    @Test
+    void timerClaimedByDeadNodeIsFiredByAnother() throws Exception {
+        chats = 2;
+        long claimedChatId = firstChatId;
+        long freeChatId = firstChatId - 1;
+        DataBaseTimerQueue node = nodes.get(0).queue;
+        node.startPomodoro(claimedChatId, START);
+        node.startPomodoro(freeChatId, START);
+        LocalDateTime workDue = START.plusMinutes(config.workDuration());
+
+        // Другой узел забрал строку и ещё не зафиксировал транзакцию
+        Connection otherNode = DataBaseTests.connect();
+        otherNode.setAutoCommit(false);
+        try (PreparedStatement ps = otherNode.prepareStatement(
+                "SELECT chat_id FROM pomodoro_timers WHERE chat_id = ? FOR UPDATE")) {
+            ps.setLong(1, claimedChatId);
+            ps.executeQuery().close();
+        }
+        assertEquals(1, node.fireDue(workDue));
+        assertEquals(0, node.fireDue(workDue), "захваченная строка не пропущена");
+        awaitSent(freeChatId, WORK_FINISHED, 1);
+        assertEquals(0, countSent(claimedChatId, WORK_FINISHED));
+
+        // Узел упал: соединение закрыто без фиксации. Сервер снимает блокировку, когда завершит его процесс
+        otherNode.close();
+        DataBaseTimerQueue survivor = nodes.get(1).queue;
+        long deadline = System.currentTimeMillis() + 10_000;
+        int fired;
+        while ((fired = survivor.fireDue(workDue)) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, fired);
+        awaitSent(claimedChatId, WORK_FINISHED, 1);
+        assertEquals(1, countSent(freeChatId, WORK_FINISHED));
+    }
+
+    @Test
+    void failingTimerIsPostponedAndDoesNotBlockBatch() throws Exception {
+        chats = 4;
+        poisonedChatId = firstChatId;
+        poisoned = true;
+        DataBaseTimerQueue node = nodes.get(0).queue;
+        // Сбойный таймер наступил раньше всех - он первый в каждой пачке
+        node.startPomodoro(poisonedChatId, START);
+        for (int i = 1; i < chats; i++) {
+            node.startPomodoro(firstChatId - i, START.plusMinutes(1));
+        }
+        LocalDateTime now = START.plusMinutes(config.workDuration() + 1);
+
+        assertEquals(chats - 1, node.fireDue(now));
+        for (int i = 1; i < chats; i++) {
+            awaitSent(firstChatId - i, WORK_FINISHED, 1);
+        }
+        assertEquals(List.of(1L, 30L), failures(poisonedChatId, now));
+        assertEquals(0, node.fireDue(now), "отложенный таймер ещё не наступил");
+
+        // Второй сбой - задержка вдвое больше
+        LocalDateTime retry = now.plusSeconds(30);
+        assertEquals(0, node.fireDue(retry));
+        assertEquals(List.of(2L, 60L), failures(poisonedChatId, retry));
+
+        poisoned = false;
+        assertEquals(1, nodes.get(1).queue.fireDue(retry.plusSeconds(60)));
+        awaitSent(poisonedChatId, WORK_FINISHED, 1);
+        assertEquals(List.of(0L, config.restDuration() * 60L), failures(poisonedChatId, retry.plusSeconds(60)));
+        // Откаченная попытка не оставила ни закрытой работы, ни лишнего отдыха
+        assertEquals(2, countSessions(poisonedChatId));
+    }
+
+    @Test
+    void stopOnAnotherNodeRemovesTimerBeforeItFires() throws Exception {
+        chats = 1;
+        nodes.get(0).service.startPomodoro(firstChatId);
+        awaitSent(firstChatId, "Начинается рабочий период", 1);
+        nodes.get(1).service.stopPomodoro(firstChatId);
+        awaitSent(firstChatId, "Таймер Pomodoro остановлен.", 1);
+        nodes.get(2).service.stopPomodoro(firstChatId);
+        awaitSent(firstChatId, "Нет активного таймера для остановки.", 1);
+
+        fireOnAllNodes(LocalDateTime.now().plusDays(1));
+        assertEquals(0, countSent(firstChatId, WORK_FINISHED));
+        assertEquals(0, count("SELECT COUNT(*) FROM pomodoro_timers WHERE chat_id BETWEEN ? AND ?"));
+        assertEquals(1, count("""
+                SELECT COUNT(*) FROM user_sessions
+                WHERE chat_id BETWEEN ? AND ? AND NOT completed AND stop_at IS NOT NULL
+                """));
+    }
+
+    /**
+     * Все узлы забирают пачки одновременно, пока наступившие таймеры не кончатся. Возвращает число срабатываний.
+     */
+    private int fireOnAllNodes(LocalDateTime now) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(NODES);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (Node node : nodes) {
+                results.add(executor.submit(() -> {
+                    int fired = 0;
+                    int batch;
+                    while ((batch = node.queue.fireDue(now)) > 0) {
+                        fired += batch;
+                    }
+                    return fired;
+                }));
+            }
+            int fired = 0;
+            for (Future<Integer> result : results) {
+                fired += result.get();
+            }
+            // Узел мог выйти, пока другой ещё держал строки, - добираем остаток
+            int rest;
+            while ((rest = nodes.get(0).queue.fireDue(now)) > 0) {
+                fired += rest;
+            }
+            return fired;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void awaitSent(long chatId, String prefix, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (countSent(chatId, prefix) < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, countSent(chatId, prefix), "чат " + chatId + ": " + prefix);
+    }
+
+    private long countSent(long chatId, String prefix) {
+        return sent.stream().filter(message -> message.startsWith(chatId + ":" + prefix)).count();
+    }
+
+    /**
+     * Счётчик сбоев таймера и через сколько секунд после now он наступит.
+     */
+    private static List<Long> failures(long chatId, LocalDateTime now) throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement(
+                     "SELECT failures, EXTRACT(EPOCH FROM due_at - ?)::bigint FROM pomodoro_timers WHERE chat_id = ?")) {
+            ps.setObject(1, now);
+            ps.setLong(2, chatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                assertTrue(resultSet.next(), "таймер чата " + chatId);
+                return List.of(resultSet.getLong(1), resultSet.getLong(2));
+            }
+        }
+    }
+
+    private static long countSessions(long chatId) throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM user_sessions WHERE chat_id = ?")) {
+            ps.setLong(1, chatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private long count(String sql) throws Exception {
+        try (Connection connection = DataBaseTests.connect();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, firstChatId - chats);
+            ps.setLong(2, firstChatId);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private TelegramClient telegramClient() {
+        return (TelegramClient) Proxy.newProxyInstance(TelegramClient.class.getClassLoader(),
+                new Class<?>[]{TelegramClient.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("executeAsync")) {
+                        return null;
+                    }
+                    // Диспетчер склеивает тексты, ждущие отправки; тест считает их по отдельности
+                    if (args[0] instanceof SendMessage message) {
+                        for (String text : message.getText().split("\n\n")) {
+                            sent.add(message.getChatId() + ":" + text);
+                        }
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
+    /**
+     * Узел бота с очередью таймеров в БД.
+     */
+    private class Node {
+        final DataBaseUserDataRepository repository = new DataBaseUserDataRepository(config) {
+            @Override
+            List<Award> completeSession(PooledConnection connection, SessionHandle session, LocalDateTime stopAt)
+                    throws SQLException {
+                if (poisoned && session.chatId() == poisonedChatId) {
+                    // Ошибка в самой БД: транзакция прервана, как при настоящем сбое запроса
+                    connection.prepareStatement("SELECT 1 / 0").executeQuery();
+                }
+                return super.completeSession(connection, session, stopAt);
+            }
+        };
+        final DataBaseTimerQueue queue = new DataBaseTimerQueue(repository, config, new MetricsRegistry(false));
+        final ExecutorAsyncUserDataRepository asyncRepository = new ExecutorAsyncUserDataRepository(repository, 1);
+        final MessageDispatcher messageDispatcher =
+                new MessageDispatcher(telegramClient(), 1000, 1000, new MetricsRegistry(false));
+        final TimerEngine timerEngine = new ScheduledExecutorTimerEngine(1);
+        final PomodoroServiceImpl service = new PomodoroServiceImpl(asyncRepository, messageDispatcher, timerEngine,
+                queue, config, new MetricsRegistry(false));
+
+        Node() {
+            queue.setListener(service);
+        }
+
+        void close() {
+            queue.close();
+            timerEngine.close();
+            messageDispatcher.close();
+            // Закрывает и хранилище узла с его пулом
+            asyncRepository.close();
+        }
+    }
+}
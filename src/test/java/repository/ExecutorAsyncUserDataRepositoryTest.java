@@ -0,0 +1,102 @@
+package repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExecutorAsyncUserDataRepositoryTest {
+    private static final LocalDateTime AT = LocalDateTime.of(2025, 1, 1, 10, 0);
+
+    @Test
+    @Timeout(60)
+    void runsAtMostConcurrencyOperationsAndQueuesTheRest() throws Exception {
+        BlockingRepository delegate = new BlockingRepository(2);
+        ExecutorAsyncUserDataRepository repository = new ExecutorAsyncUserDataRepository(delegate, 2, 100);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (long chatId = 1; chatId <= 10; chatId++) {
+            writes.add(repository.markSessionStopped(chatId, AT));
+        }
+        assertTrue(delegate.entered.await(5, TimeUnit.SECONDS));
+
+        assertEquals(2, repository.inFlight());
+        assertEquals(8, repository.waiting());
+        delegate.release.countDown();
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(10, delegate.applied().size());
+        assertEquals(0, repository.waiting());
+        repository.close();
+    }
+
+    @Test
+    @Timeout(60)
+    void callerWaitsWhileQueueIsFull() throws Exception {
+        BlockingRepository delegate = new BlockingRepository(1);
+        ExecutorAsyncUserDataRepository repository = new ExecutorAsyncUserDataRepository(delegate, 1, 2);
+        // Единственный поток стоит в хранилище, за ним очередь заполняется
+        CompletableFuture<Void> first = repository.markSessionStopped(1, AT);
+        assertTrue(delegate.entered.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> second = repository.markSessionStopped(2, AT);
+        CompletableFuture<Void> third = repository.markSessionStopped(3, AT);
+
+        CompletableFuture<CompletableFuture<Void>> blocked =
+                CompletableFuture.supplyAsync(() -> repository.markSessionStopped(4, AT));
+        Thread.sleep(200);
+        assertFalse(blocked.isDone(), "вызывающий должен ждать места в очереди");
+
+        delegate.release.countDown();
+        CompletableFuture.allOf(first, second, third, blocked.get(5, TimeUnit.SECONDS)).get(5, TimeUnit.SECONDS);
+        assertEquals(4, delegate.applied().size());
+        repository.close();
+    }
+
+    @Test
+    @Timeout(60)
+    void nextWriteOfChatRunsInPoolThreadWhenQueueIsFull() throws Exception {
+        BlockingRepository delegate = new BlockingRepository(1);
+        ExecutorAsyncUserDataRepository repository = new ExecutorAsyncUserDataRepository(delegate, 1, 1);
+        CompletableFuture<Void> first = repository.markSessionStopped(1, AT);
+        assertTrue(delegate.entered.await(5, TimeUnit.SECONDS));
+        // Вторая запись чата ставится в пул, когда завершится первая, - из потока пула, при заполненной очереди.
+        // Если бы поток ждал в ней места, разбирать очередь было бы некому
+        CompletableFuture<Void> second = repository.markSessionStopped(1, AT.plusMinutes(1));
+        CompletableFuture<Void> other = repository.markSessionStopped(2, AT);
+
+        delegate.release.countDown();
+        CompletableFuture.allOf(first, second, other).get(5, TimeUnit.SECONDS);
+        List<LocalDateTime> times = delegate.applied().stream().filter(event -> event.chatId() == 1)
+                .map(SessionEvent::at).toList();
+        assertEquals(List.of(AT, AT.plusMinutes(1)), times);
+        repository.close();
+    }
+
+    // Первые вызовы ждут release, пока их не наберётся столько, сколько ожидает entered
+    private static class BlockingRepository extends RecordingUserDataRepository {
+        final CountDownLatch entered;
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingRepository(int blocked) {
+            this.entered = new CountDownLatch(blocked);
+        }
+
+        @Override
+        public void markSessionStopped(long chatId, LocalDateTime stopAt) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.markSessionStopped(chatId, stopAt);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PooledConnectionTest {
+
+    @Test
+    void resetClearsBatchesOfAllCachedStatementsInAutoCommit() throws Exception {
+        FakeConnection fake = new FakeConnection(true);
+        PooledConnection connection = new PooledConnection(null, fake.proxy());
+        connection.prepareStatement("UPDATE a").addBatch();
+        connection.prepareStatement("INSERT b", Statement.RETURN_GENERATED_KEYS).addBatch();
+
+        connection.resetState();
+
+        assertEquals(List.of("UPDATE a", "INSERT b"), fake.clearedBatches);
+        assertEquals(0, fake.rollbacks);
+    }
+
+    @Test
+    void resetRollsBackOpenTransactionAndClearsBatches() throws Exception {
+        FakeConnection fake = new FakeConnection(false);
+        PooledConnection connection = new PooledConnection(null, fake.proxy());
+        connection.prepareStatement("INSERT b", Statement.RETURN_GENERATED_KEYS).addBatch();
+
+        connection.resetState();
+
+        assertEquals(List.of("INSERT b"), fake.clearedBatches);
+        assertEquals(1, fake.rollbacks);
+        assertEquals(true, fake.autoCommit);
+    }
+
+    /**
+     * Соединение-заглушка: запоминает откаты и очистки батчей (по тексту запроса).
+     */
+    private static final class FakeConnection {
+        final List<String> clearedBatches = new ArrayList<>();
+        boolean autoCommit;
+        int rollbacks;
+
+        FakeConnection(boolean autoCommit) {
+            this.autoCommit = autoCommit;
+        }
+
+        Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "prepareStatement" -> statement((String) args[0]);
+                        case "getAutoCommit" -> autoCommit;
+                        case "setAutoCommit" -> {
+                            autoCommit = (Boolean) args[0];
+                            yield null;
+                        }
+                        case "rollback" -> {
+                            rollbacks++;
+                            yield null;
+                        }
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        private PreparedStatement statement(String sql) {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> switch (method.getName()) {
+                        case "addBatch" -> null;
+                        case "clearBatch" -> {
+                            clearedBatches.add(sql);
+                            yield null;
+                        }
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+}
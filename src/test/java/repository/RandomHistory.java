@@ -0,0 +1,65 @@
+package repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Случайная история сессий чата для тестов хранилищ: запись, завершение и остановка - по хэндлу и по чату.
+ */
+final class RandomHistory {
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+
+    private RandomHistory() {
+    }
+
+    /**
+     * Проигрывает operations случайных операций; каждая следующая - на минуту позже предыдущей.
+     */
+    static void play(UserDataRepository repository, long chatId, Random random, int operations, LocalDateTime start) {
+        play(repository, chatId, random, operations, start, 1);
+    }
+
+    /**
+     * То же с шагом от 1 до maxStepMinutes минут между операциями - история на много дней.
+     * Возвращает время последней операции.
+     */
+    static LocalDateTime play(UserDataRepository repository, long chatId, Random random, int operations,
+                              LocalDateTime start, int maxStepMinutes) {
+        List<SessionHandle> open = new ArrayList<>();
+        LocalDateTime at = start;
+        for (int i = 0; i < operations; i++) {
+            at = at.plusMinutes(maxStepMinutes == 1 ? 1 : 1 + random.nextInt(maxStepMinutes));
+            int dice = random.nextInt(100);
+            if (dice < 40 || open.isEmpty()) {
+                String type = random.nextBoolean() ? "WORK" : "REST";
+                open.add(repository.recordSession(chatId, type, 1 + random.nextInt(60), at));
+            } else if (dice < 65) {
+                repository.completeSession(open.remove(random.nextInt(open.size())), at);
+            } else if (dice < 75) {
+                // Закрывает последнюю открытую сессию типа; её хэндл остаётся в списке, повторное закрытие ничего не меняет
+                repository.completeSession(chatId, open.get(random.nextInt(open.size())).sessionType(), at);
+            } else if (dice < 90) {
+                repository.markSessionStopped(open.remove(random.nextInt(open.size())), at);
+            } else {
+                repository.markSessionStopped(chatId, at);
+            }
+        }
+        return at;
+    }
+
+    /**
+     * Числа из текста статистики по порядку: рабочие минуты, минуты отдыха, рабочие циклы, циклы отдыха.
+     */
+    static List<Long> numbers(String statistics) {
+        List<Long> numbers = new ArrayList<>();
+        Matcher matcher = NUMBER.matcher(statistics);
+        while (matcher.find()) {
+            numbers.add(Long.parseLong(matcher.group()));
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,81 @@
+package repository;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Хранилище для тестов: запоминает применённые события сеансов в порядке применения и ничего не читает.
+ */
+public class RecordingUserDataRepository implements UserDataRepository {
+    private final List<SessionEvent> applied = new ArrayList<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    public synchronized List<SessionEvent> applied() {
+        return new ArrayList<>(applied);
+    }
+
+    @Override
+    public synchronized void applyBatch(List<SessionEvent> events) {
+        for (SessionEvent event : events) {
+            if (event.kind() == SessionEvent.Kind.RECORD && event.session() != null) {
+                event.session().resolve(nextId.incrementAndGet());
+            }
+            applied.add(event);
+        }
+    }
+
+    @Override
+    public SessionHandle recordSession(long chatId, String sessionType, int durationMinutes, LocalDateTime startAt) {
+        SessionHandle session = SessionHandle.pending(chatId, sessionType, startAt);
+        applyBatch(List.of(SessionEvent.record(session, durationMinutes)));
+        return session;
+    }
+
+    @Override
+    public void completeSession(long chatId, String sessionType, LocalDateTime stopAt) {
+        applyBatch(List.of(SessionEvent.complete(chatId, sessionType, stopAt)));
+    }
+
+    @Override
+    public void completeSession(SessionHandle session, LocalDateTime stopAt) {
+        applyBatch(List.of(SessionEvent.complete(session, stopAt)));
+    }
+
+    @Override
+    public void markSessionStopped(long chatId, LocalDateTime stopAt) {
+        applyBatch(List.of(SessionEvent.stop(chatId, stopAt)));
+    }
+
+    @Override
+    public void markSessionStopped(SessionHandle session, LocalDateTime stopAt) {
+        applyBatch(List.of(SessionEvent.stop(session, stopAt)));
+    }
+
+    @Override
+    public String getStatistics(long chatId) {
+        return "";
+    }
+
+    @Override
+    public String getStatistics(long chatId, LocalDate from, LocalDate to) {
+        return "";
+    }
+
+    @Override
+    public String getAchievements(long chatId) {
+        return "";
+    }
+
+    @Override
+    public void exportStatistics(long chatId, OutputStream out) {
+    }
+
+    @Override
+    public void forEachOpenSession(Consumer<OpenSession> consumer) {
+    }
+}
@@ -0,0 +1,86 @@
+package repository;
+
+import achievement.AchievementEngine;
+import config.TestConfigs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Выгрузка статистики в отдельной JVM с маленькой кучей: если хранилище держит историю в памяти,
+ * процесс падает с OutOfMemoryError. Вывод отбрасывается, считаются только строки.
+ */
+final class SmallHeapExport {
+    static final String MAX_HEAP = "-Xmx32m";
+    private static final long TIMEOUT_MINUTES = 5;
+
+    private SmallHeapExport() {
+    }
+
+    /**
+     * Выгружает историю чата хранилищем storage (csv или db) и возвращает число строк выгрузки с заголовком.
+     * Рабочий каталог и переменные окружения - те же, что у теста.
+     */
+    static long exportLines(String storage, long chatId) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, MAX_HEAP, "-XX:+ExitOnOutOfMemoryError",
+                "-cp", System.getProperty("java.class.path"),
+                SmallHeapExport.class.getName(), storage, String.valueOf(chatId))
+                .redirectErrorStream(true)
+                .start();
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                output.add(line);
+            }
+        }
+        assertTrue(process.waitFor(TIMEOUT_MINUTES, TimeUnit.MINUTES), "выгрузка не закончилась");
+        assertEquals(0, process.exitValue(), String.join("\n", output));
+        return Long.parseLong(output.get(output.size() - 1));
+    }
+
+    public static void main(String[] args) {
+        long chatId = Long.parseLong(args[1]);
+        UserDataRepository repository = "db".equals(args[0])
+                ? new DataBaseUserDataRepository(TestConfigs.defaults())
+                : new CsvUserDataRepository(AchievementEngine.withDefaultRules());
+        LineCounter counter = new LineCounter();
+        try {
+            repository.exportStatistics(chatId, counter);
+        } finally {
+            repository.close();
+        }
+        System.out.println(counter.lines);
+    }
+
+    private static class LineCounter extends OutputStream {
+        private long lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (bytes[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package repository;
+
+import config.TestConfigs;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindUserDataRepositoryTest {
+    private static final LocalDateTime AT = LocalDateTime.of(2025, 1, 1, 10, 0);
+
+    @Test
+    void forgetsChatsOnceTheirEventsAreWritten() throws Exception {
+        CountDownLatch written = new CountDownLatch(1000);
+        RecordingUserDataRepository delegate = new RecordingUserDataRepository() {
+            @Override
+            public synchronized void applyBatch(List<SessionEvent> events) {
+                super.applyBatch(events);
+                events.forEach(event -> written.countDown());
+            }
+        };
+        WriteBehindUserDataRepository repository = newRepository(delegate, 10_000, 10L);
+        for (long chatId = 1; chatId <= 1000; chatId++) {
+            repository.markSessionStopped(chatId, AT);
+        }
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        // Чтение ждёт записи событий своего чата, поэтому после чтения всех чатов незаписанных не остаётся
+        for (long chatId = 1; chatId <= 1000; chatId++) {
+            repository.getStatistics(chatId);
+        }
+        assertEquals(0, repository.pendingChats());
+        repository.close();
+        assertEquals(1000, delegate.applied().size());
+    }
+
+    @Test
+    @Timeout(60)
+    void keepsEventOrderOfEachChat() throws Exception {
+        RecordingUserDataRepository delegate = new RecordingUserDataRepository();
+        // Маленькая очередь и частые пачки: события чатов перемешиваются и делятся между пачками
+        WriteBehindUserDataRepository repository = newRepository(delegate, 8, 1L);
+        int writers = 4;
+        int eventsPerWriter = 1000;
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            long chatId = w;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < eventsPerWriter; i++) {
+                    repository.markSessionStopped(chatId, AT.plusSeconds(i));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        repository.close();
+
+        List<SessionEvent> applied = delegate.applied();
+        assertEquals(writers * eventsPerWriter, applied.size());
+        for (long chatId = 0; chatId < writers; chatId++) {
+            long id = chatId;
+            List<LocalDateTime> times = applied.stream().filter(event -> event.chatId() == id)
+                    .map(SessionEvent::at).toList();
+            for (int i = 0; i < eventsPerWriter; i++) {
+                assertEquals(AT.plusSeconds(i), times.get(i), "чат " + chatId);
+            }
+        }
+    }
+
+    @Test
+    @Timeout(60)
+    void writersWaitWhileQueueIsFull() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingUserDataRepository delegate = new RecordingUserDataRepository() {
+            @Override
+            public void applyBatch(List<SessionEvent> events) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.applyBatch(events);
+            }
+        };
+        WriteBehindUserDataRepository repository = newRepository(delegate, 4, 1L);
+        // Поток записи забрал первое событие и стоит в хранилище, за ним очередь заполняется
+        repository.markSessionStopped(1, AT);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 4; i++) {
+            repository.markSessionStopped(1, AT.plusSeconds(i));
+        }
+
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> repository.markSessionStopped(1, AT.plusSeconds(5)));
+        Thread.sleep(200);
+        assertFalse(blocked.isDone(), "писатель должен ждать места в очереди");
+
+        release.countDown();
+        blocked.get(5, TimeUnit.SECONDS);
+        repository.close();
+        assertEquals(6, delegate.applied().size());
+        assertEquals(AT.plusSeconds(5), delegate.applied().get(5).at());
+    }
+
+    @Test
+    @Timeout(60)
+    void readsSeePendingWritesOfTheirChat() {
+        RecordingUserDataRepository delegate = new RecordingUserDataRepository() {
+            @Override
+            public synchronized String getStatistics(long chatId) {
+                return String.valueOf(applied().stream().filter(event -> event.chatId() == chatId).count());
+            }
+        };
+        // Без чтения пачка ждала бы минуту
+        WriteBehindUserDataRepository repository = newRepository(delegate, 100, 60_000L);
+        repository.markSessionStopped(1, AT);
+        repository.markSessionStopped(1, AT.plusMinutes(1));
+        repository.markSessionStopped(2, AT);
+
+        assertEquals("2", repository.getStatistics(1));
+        assertEquals("1", repository.getStatistics(2));
+        assertEquals(0, repository.pendingChats());
+        repository.close();
+    }
+
+    @Test
+    @Timeout(60)
+    void failedEventsAreRetriedInOrderInsteadOfDropped() throws Exception {
+        CountDownLatch otherChatWritten = new CountDownLatch(1);
+        CountDownLatch failedChatWritten = new CountDownLatch(3);
+        boolean[] failing = {true};
+        RecordingUserDataRepository delegate = new RecordingUserDataRepository() {
+            @Override
+            public synchronized void applyBatch(List<SessionEvent> events) {
+                if (failing[0] && events.stream().anyMatch(event -> event.chatId() == 1)) {
+                    throw new RuntimeException("storage is down for chat 1");
+                }
+                super.applyBatch(events);
+                for (SessionEvent event : events) {
+                    (event.chatId() == 1 ? failedChatWritten : otherChatWritten).countDown();
+                }
+            }
+        };
+        WriteBehindUserDataRepository repository = newRepository(delegate, 100, 1L);
+        repository.markSessionStopped(1, AT);
+        repository.markSessionStopped(2, AT);
+        assertTrue(otherChatWritten.await(5, TimeUnit.SECONDS), "события других чатов пишутся");
+
+        // Следующие события чата встают за отложенными; чтение чата не ждёт повтора
+        repository.markSessionStopped(1, AT.plusMinutes(1));
+        repository.markSessionStopped(1, AT.plusMinutes(2));
+        repository.getStatistics(1);
+        repository.getStatistics(2);
+        assertEquals(1, repository.pendingChats());
+
+        synchronized (delegate) {
+            failing[0] = false;
+        }
+        assertTrue(failedChatWritten.await(10, TimeUnit.SECONDS), "отложенные события записаны повтором");
+        repository.close();
+        List<LocalDateTime> times = delegate.applied().stream().filter(event -> event.chatId() == 1)
+                .map(SessionEvent::at).toList();
+        assertEquals(List.of(AT, AT.plusMinutes(1), AT.plusMinutes(2)), times);
+        assertEquals(0, repository.pendingChats());
+    }
+
+    @Test
+    @Timeout(60)
+    void eventsQueuedConcurrentlyWithCloseAreNotLost() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            RecordingUserDataRepository delegate = new RecordingUserDataRepository();
+            // Маленькая очередь: писатели ждут места в ней как раз тогда, когда идёт закрытие
+            WriteBehindUserDataRepository repository = newRepository(delegate, 16, 10L);
+            int writers = 8;
+            int eventsPerWriter = 500;
+            CountDownLatch started = new CountDownLatch(writers);
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                long chatId = w;
+                Thread thread = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < eventsPerWriter; i++) {
+                        repository.markSessionStopped(chatId, AT.plusSeconds(i));
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            started.await();
+            repository.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(writers * eventsPerWriter, delegate.applied().size(), "round " + round);
+            assertTrue(delegate.applied().stream().noneMatch(event -> event.chatId() == Long.MIN_VALUE));
+        }
+    }
+
+    private static WriteBehindUserDataRepository newRepository(UserDataRepository delegate, int queueCapacity,
+                                                               long flushIntervalMillis) {
+        return new WriteBehindUserDataRepository(delegate, TestConfigs.with(Map.of(
+                "writeBehindEnabled", true,
+                "writeBehindBatchSize", 100,
+                "writeBehindFlushIntervalMillis", flushIntervalMillis,
+                "writeBehindQueueCapacity", queueCapacity)));
+    }
+}
@@ -0,0 +1,241 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+import repository.SessionHandle;
+import timer.TimerHandle;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ActiveSessionsTest {
+    private static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 9, 0);
+
+    @Test
+    void randomOperationsMatchHashMap() {
+        Random random = new Random(1);
+        ActiveSessions sessions = new ActiveSessions();
+        Map<Long, Entry> model = new HashMap<>();
+        // Чатов в десятки раз больше полос: таблицы полос растут, а после остановок сжимаются
+        int chats = 20_000;
+        for (int i = 0; i < 400_000; i++) {
+            long chatId = random.nextInt(chats) - chats / 2L;
+            Entry entry = model.get(chatId);
+            int dice = random.nextInt(100);
+            if (dice < 45) {
+                TokenCapture token = new TokenCapture();
+                boolean started = sessions.start(chatId, ActiveSessions.Phase.WORK, i, token);
+                assertEquals(entry == null, started);
+                if (started) {
+                    model.put(chatId, new Entry(ActiveSessions.Phase.WORK, i, token.token));
+                }
+            } else if (dice < 65) {
+                int expectedToken = entry != null ? entry.token() : random.nextInt();
+                TokenCapture token = new TokenCapture();
+                boolean advanced = sessions.advance(chatId, expectedToken, ActiveSessions.Phase.REST, i, token);
+                assertEquals(entry != null, advanced);
+                if (advanced) {
+                    model.put(chatId, new Entry(ActiveSessions.Phase.REST, i, token.token));
+                }
+            } else if (dice < 80) {
+                boolean finished = sessions.finish(chatId, entry != null ? entry.token() : random.nextInt(), s -> {
+                });
+                assertEquals(entry != null, finished);
+                model.remove(chatId);
+            } else {
+                assertEquals(entry != null, sessions.stop(chatId, s -> {
+                }));
+                model.remove(chatId);
+            }
+            if (i % 50_000 == 0) {
+                assertMatches(sessions, model, chats);
+            }
+        }
+        assertMatches(sessions, model, chats);
+
+        // Все записи удалены - таблицы пусты, и ни один чат больше не находится
+        for (Long chatId : new ArrayList<>(model.keySet())) {
+            assertTrue(sessions.stop(chatId, s -> {
+            }));
+        }
+        model.clear();
+        assertMatches(sessions, model, chats);
+    }
+
+    /**
+     * Цепочка пробирования, переходящая через конец таблицы: ключи с исходной ячейкой 7 в таблице из 8 ячеек
+     * занимают 7, 0, 1..., а ключи с исходными 0 и 1 встают за ними. При любом порядке удаления
+     * сдвиг назад должен оставить все оставшиеся ключи достижимыми.
+     */
+    @Test
+    void backwardShiftKeepsWrappedChainsReachable() {
+        List<Long> keys = new ArrayList<>();
+        keys.addAll(keysWithHome(7, 3, 0));
+        keys.addAll(keysWithHome(0, 2, 0));
+        keys.addAll(keysWithHome(1, 1, 0));
+        // Порядок вставки: 7, 7, 0, 7, 0, 1 - исходные ячейки перемешаны внутри цепочки
+        List<Long> insertion = List.of(keys.get(0), keys.get(1), keys.get(3), keys.get(2), keys.get(4), keys.get(5));
+
+        for (List<Long> removal : permutations(insertion)) {
+            ActiveSessions sessions = new ActiveSessions();
+            for (int i = 0; i < insertion.size(); i++) {
+                assertTrue(sessions.start(insertion.get(i), ActiveSessions.Phase.WORK, i, new TokenCapture()));
+            }
+            List<Long> remaining = new ArrayList<>(insertion);
+            for (long chatId : removal) {
+                assertTrue(sessions.stop(chatId, s -> {
+                }));
+                remaining.remove(chatId);
+                assertNull(sessions.phase(chatId), "порядок удаления " + removal);
+                for (long other : remaining) {
+                    assertEquals(insertion.indexOf(other), sessions.deadline(other), "порядок удаления " + removal);
+                }
+            }
+            assertEquals(0, sessions.size());
+        }
+    }
+
+    @Test
+    void staleTimerTokensAreIgnored() {
+        ActiveSessions sessions = new ActiveSessions();
+        TokenCapture first = new TokenCapture();
+        assertTrue(sessions.start(1, ActiveSessions.Phase.WORK, 100, first));
+
+        TokenCapture rest = new TokenCapture();
+        assertTrue(sessions.advance(1, first.token, ActiveSessions.Phase.REST, 200, rest));
+        // Таймер работы сработал второй раз - его номер уже не у записи
+        assertFalse(sessions.advance(1, first.token, ActiveSessions.Phase.REST, 300, new TokenCapture()));
+        assertFalse(sessions.finish(1, first.token, s -> {
+        }));
+        assertEquals(ActiveSessions.Phase.REST, sessions.phase(1));
+        assertEquals(200, sessions.deadline(1));
+
+        // Остановка и перезапуск: таймер отдыха старой записи не закрывает новую
+        assertTrue(sessions.stop(1, s -> {
+        }));
+        assertEquals(1, rest.cancelled.get(), "таймер фазы не отменён при остановке");
+        TokenCapture restarted = new TokenCapture();
+        assertTrue(sessions.start(1, ActiveSessions.Phase.WORK, 400, restarted));
+        assertFalse(sessions.finish(1, rest.token, s -> {
+        }));
+        assertEquals(ActiveSessions.Phase.WORK, sessions.phase(1));
+        assertTrue(sessions.finish(1, restarted.token, s -> {
+        }));
+        assertNull(sessions.phase(1));
+        assertEquals(-1, sessions.deadline(1));
+    }
+
+    @Test
+    void failedTransitionsLeaveNoEntry() {
+        ActiveSessions sessions = new ActiveSessions();
+        assertThrows(IllegalStateException.class, () -> sessions.start(1, ActiveSessions.Phase.WORK, 100,
+                (current, token) -> {
+                    throw new IllegalStateException("хранилище недоступно");
+                }));
+        assertNull(sessions.phase(1));
+
+        TokenCapture work = new TokenCapture();
+        assertTrue(sessions.start(1, ActiveSessions.Phase.WORK, 100, work));
+        assertThrows(IllegalStateException.class, () -> sessions.advance(1, work.token, ActiveSessions.Phase.REST, 200,
+                (current, token) -> {
+                    throw new IllegalStateException("хранилище недоступно");
+                }));
+        // Цепочка фаз оборвалась - чат можно запустить заново
+        assertNull(sessions.phase(1));
+
+        TokenCapture again = new TokenCapture();
+        assertTrue(sessions.start(1, ActiveSessions.Phase.WORK, 300, again));
+        assertThrows(IllegalStateException.class, () -> sessions.finish(1, again.token, session -> {
+            throw new IllegalStateException("хранилище недоступно");
+        }));
+        assertNull(sessions.phase(1));
+        assertEquals(0, sessions.size());
+    }
+
+    @Test
+    void transitionReceivesSessionOfCurrentPhase() {
+        ActiveSessions sessions = new ActiveSessions();
+        TokenCapture work = new TokenCapture();
+        sessions.start(1, ActiveSessions.Phase.WORK, 100, work);
+        SessionHandle[] closed = new SessionHandle[1];
+        TokenCapture rest = new TokenCapture();
+        sessions.advance(1, work.token, ActiveSessions.Phase.REST, 200, (current, token) -> {
+            closed[0] = current;
+            return rest.apply(current, token);
+        });
+        assertEquals(work.session, closed[0]);
+        sessions.stop(1, session -> closed[0] = session);
+        assertEquals(rest.session, closed[0]);
+    }
+
+    private static void assertMatches(ActiveSessions sessions, Map<Long, Entry> model, int chats) {
+        assertEquals(model.size(), sessions.size());
+        for (long chatId = -chats / 2L; chatId < chats / 2L; chatId++) {
+            Entry entry = model.get(chatId);
+            assertEquals(entry == null ? null : entry.phase(), sessions.phase(chatId), "чат " + chatId);
+            assertEquals(entry == null ? -1 : entry.deadline(), sessions.deadline(chatId), "чат " + chatId);
+        }
+    }
+
+    /**
+     * count ключей из полосы stripe с исходной ячейкой home в таблице начального размера (8 ячеек).
+     */
+    private static List<Long> keysWithHome(int home, int count, int stripe) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < count; key++) {
+            long hash = ActiveSessions.mix(key);
+            if (((int) (hash >>> 32) & 255) == stripe && ((int) hash & 7) == home) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static List<List<Long>> permutations(List<Long> values) {
+        if (values.isEmpty()) {
+            return List.of(List.of());
+        }
+        List<List<Long>> result = new ArrayList<>();
+        for (Long first : values) {
+            List<Long> rest = new ArrayList<>(values);
+            rest.remove(first);
+            for (List<Long> tail : permutations(rest)) {
+                List<Long> permutation = new ArrayList<>();
+                permutation.add(first);
+                permutation.addAll(tail);
+                result.add(permutation);
+            }
+        }
+        return result;
+    }
+
+    private record Entry(ActiveSessions.Phase phase, long deadline, int token) {
+    }
+
+    /**
+     * Действие перехода, запоминающее номер записи, сессию новой фазы и отмены её таймера.
+     */
+    private static final class TokenCapture implements ActiveSessions.Transition {
+        final AtomicInteger cancelled = new AtomicInteger();
+        int token;
+        SessionHandle session;
+
+        @Override
+        public ActiveSessions.Scheduled apply(SessionHandle current, int token) {
+            this.token = token;
+            this.session = new SessionHandle(1, "WORK", START, token);
+            TimerHandle timer = () -> cancelled.incrementAndGet() == 1;
+            return new ActiveSessions.Scheduled(session, timer);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package service;
+
+import config.Config;
+import config.TestConfigs;
+import messaging.MessageDispatcher;
+import metrics.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+import repository.ExecutorAsyncUserDataRepository;
+import repository.OpenSession;
+import repository.RecordingUserDataRepository;
+import repository.SessionEvent;
+import timer.ScheduledExecutorTimerEngine;
+import timer.TimerEngine;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PomodoroServiceImplTest {
+    private final Config config = TestConfigs.defaults();
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final TimerEngine timerEngine = new ScheduledExecutorTimerEngine(1);
+    private final MessageDispatcher messageDispatcher =
+            new MessageDispatcher(telegramClient(), 1000, 1000, new MetricsRegistry(false));
+    private ExecutorAsyncUserDataRepository repository;
+
+    @AfterEach
+    void tearDown() {
+        messageDispatcher.close();
+        timerEngine.close();
+        if (repository != null) {
+            repository.close();
+        }
+    }
+
+    @Test
+    void recoveredRestIsCompletedByItsHandle() {
+        // Работа закончилась два часа назад, отдых после неё - тоже
+        LocalDateTime startAt = LocalDateTime.now().minusHours(2);
+        RecordingUserDataRepository recording = new RecordingUserDataRepository() {
+            @Override
+            public void forEachOpenSession(Consumer<OpenSession> consumer) {
+                consumer.accept(new OpenSession(1, "WORK", config.workDuration(), startAt, 42));
+            }
+        };
+        repository = new ExecutorAsyncUserDataRepository(recording, 1);
+        PomodoroServiceImpl service = new PomodoroServiceImpl(repository, messageDispatcher, timerEngine, config,
+                new MetricsRegistry(false));
+
+        service.recoverSessions();
+
+        List<SessionEvent> applied = recording.applied();
+        assertEquals(3, applied.size(), applied.toString());
+        assertEquals(SessionEvent.Kind.COMPLETE, applied.get(0).kind());
+        assertEquals(42, applied.get(0).session().id());
+        SessionEvent restRecord = applied.get(1);
+        SessionEvent restComplete = applied.get(2);
+        assertEquals(SessionEvent.Kind.RECORD, restRecord.kind());
+        assertEquals(SessionEvent.Kind.COMPLETE, restComplete.kind());
+        // Отдых закрывается по хэндлу своей записи, а не «последний открытый REST чата»
+        assertSame(restRecord.session(), restComplete.session());
+        assertTrue(restComplete.session().isResolved());
+        assertEquals(startAt.plusMinutes(config.workDuration() + config.restDuration()), restComplete.at());
+    }
+
+    @Test
+    void olderOpenSessionsOfChatAreClosedAsStopped() {
+        LocalDateTime now = LocalDateTime.now();
+        // У чата 1 три незакрытые сессии: последняя - идущая работа, две старые остались от сбоев
+        LocalDateTime latestStart = now.minusMinutes(1);
+        List<OpenSession> open = List.of(
+                new OpenSession(1, "WORK", config.workDuration(), now.minusDays(3), 10),
+                new OpenSession(1, "WORK", config.workDuration(), latestStart, 12),
+                new OpenSession(1, "REST", config.restDuration(), latestStart.minusMinutes(2), 11),
+                new OpenSession(2, "WORK", config.workDuration(), now.minusMinutes(5), 20));
+        RecordingUserDataRepository recording = new RecordingUserDataRepository() {
+            @Override
+            public void forEachOpenSession(Consumer<OpenSession> consumer) {
+                open.forEach(consumer);
+            }
+        };
+        repository = new ExecutorAsyncUserDataRepository(recording, 1);
+        PomodoroServiceImpl service = new PomodoroServiceImpl(repository, messageDispatcher, timerEngine, config,
+                new MetricsRegistry(false));
+
+        service.recoverSessions();
+
+        List<SessionEvent> applied = recording.applied();
+        assertEquals(2, applied.size(), applied.toString());
+        for (SessionEvent event : applied) {
+            assertEquals(SessionEvent.Kind.STOP, event.kind());
+            assertEquals(1, event.chatId());
+        }
+        // Старая работа закрыта своим окончанием, отдых прерван началом последней сессии
+        SessionEvent oldWork = applied.stream().filter(event -> event.session().id() == 10).findFirst().orElseThrow();
+        SessionEvent rest = applied.stream().filter(event -> event.session().id() == 11).findFirst().orElseThrow();
+        assertEquals(now.minusDays(3).plusMinutes(config.workDuration()), oldWork.at());
+        assertEquals(latestStart, rest.at());
+    }
+
+    private TelegramClient telegramClient() {
+        return (TelegramClient) Proxy.newProxyInstance(TelegramClient.class.getClassLoader(),
+                new Class<?>[]{TelegramClient.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("executeAsync")) {
+                        return null;
+                    }
+                    if (args[0] instanceof SendMessage message) {
+                        sent.add(message.getChatId() + ":" + message.getText());
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+}